@@ -0,0 +1,124 @@
+package smash.metatrader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full file replay of SmashCSVPublisher without publishing, the file is in the page cache
+ * so the parser is measured rather than the disk
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CSVFileBenchmark
+{
+	private static final String DATASET_UUID = "2a3e3f11-1bc1-11e7-9297-0a900cdd7aeb";
+	private static final int ROWS = 200000;
+	private File file;
+	private SmashCSVPublisher publisher;
+	private HashMap<String,String> datasets = new HashMap<String,String>();
+	private CSVKeyTable<String> datasetTable = new CSVKeyTable<String>();
+	private CSVTimestampParser timestampParser = new CSVTimestampParser( "yyyy-MM-dd:HH:mm:ss", ZoneId.of( "America/New_York" ) );
+
+	@Setup
+	public void setup() throws IOException
+	{
+		file = File.createTempFile( "CSVFileBenchmark", ".csv" );
+		PrintWriter writer = new PrintWriter( file );
+		for( int i = 0; i < ROWS; i++ )
+		{
+			writer.printf( "2017-04-%02d:%02d:%02d:%02d, %s, CAN, 1.500, 2026-06-01, GOC, 101.%03d, 101.%03d, 1.3%03d, 1.3%03d%n",
+							3 + i / 86400 % 20, i / 3600 % 24, i / 60 % 60, i % 60, i % 4 == 0 ? "OTHER" : "135087D35", i % 1000, ( i + 222 ) % 1000, i % 1000, ( i + 13 ) % 1000 );
+		}
+		writer.close();
+		publisher = new SmashCSVPublisher( "localhost", "default", "user", "password", "d2ac4f70-61a7-5a0d-6593-100a6fc761a2",
+						file.getPath(), 1, 0, "yyyy-MM-dd:HH:mm:ss" );
+		publisher.addToSubscription( "135087D35", DATASET_UUID );
+		publisher.addToDataFieldMapping( "bidPrice", 6 );
+		publisher.addToDataFieldMapping( "askPrice", 7 );
+		publisher.addToDataFieldMapping( "bidYield", 8 );
+		publisher.addToDataFieldMapping( "askYield", 9 );
+		datasets.put( "135087D35", DATASET_UUID );
+		datasetTable.put( "135087D35", DATASET_UUID );
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		file.delete();
+	}
+
+	@Benchmark
+	public long bufferedReaderSplit() throws Exception
+	{
+		long length = 0;
+		BufferedReader reader = new BufferedReader( new FileReader( file ) );
+		String line;
+		while( ( line = reader.readLine() ) != null )
+		{
+			List<String> data = Arrays.asList( line.split( "\\s*,\\s*" ) );
+			String datasetUUID = datasets.get( data.get( 1 ) );
+			if ( datasetUUID != null )
+			{
+				length += publisher.toJSON( datasetUUID, data ).length();
+			}
+		}
+		reader.close();
+		return length;
+	}
+
+	@Benchmark
+	public long mappedReader() throws Exception
+	{
+		long length = 0;
+		MappedCSVReader reader = new MappedCSVReader( file, MappedCSVReader.DEFAULT_REGION_BYTES );
+		while( reader.next() )
+		{
+			String datasetUUID = reader.lookup( 1, datasetTable );
+			if ( datasetUUID != null )
+			{
+				length += publisher.toJSON( datasetUUID, reader.parseTimestamp( 0, timestampParser ), reader ).length();
+			}
+		}
+		reader.close();
+		return length;
+	}
+
+	@Benchmark
+	public long parallelIngest() throws Exception
+	{
+		publisher.setIngestion( Runtime.getRuntime().availableProcessors(), 1024 * 1024 );
+		final long[] length = new long[1];
+		publisher.ingest( new SmashCSVPublisher.RowListener()
+		{
+			public void onRow( String aDatasetUUID, long aTimestamp, String aJSON )
+			{
+				length[0] += aJSON.length();
+			}
+		} );
+		return length[0];
+	}
+}
@@ -0,0 +1,59 @@
+package smash.metatrader;
+
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SmashCSVPublisher row path, line split followed by toJSON
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CSVRowBenchmark
+{
+	private static final String DATASET_UUID = "2a3e3f11-1bc1-11e7-9297-0a900cdd7aeb";
+	private static final String[] LINES = {
+		"2017-04-03:09:30:01, 135087D35, CAN, 1.500, 2026-06-01, GOC, 101.234, 101.456, 1.3456, 1.3234",
+		"2017-04-03:09:30:02, 135087D35, CAN, 1.500, 2026-06-01, GOC, 101.236, 101.458, 1.3452, 1.3230",
+		"2017-04-03:09:30:02, 135087D35, CAN, 1.500, 2026-06-01, GOC, 101.240, 101.460, 1.3447, 1.3228",
+		"2017-04-03:09:30:05, 135087D35, CAN, 1.500, 2026-06-01, GOC, 101.238, 101.462, 1.3450, 1.3225"
+	};
+	private SmashCSVPublisher publisher;
+	private int next;
+
+	@Setup
+	public void setup()
+	{
+		publisher = new SmashCSVPublisher( "localhost", "default", "user", "password", "d2ac4f70-61a7-5a0d-6593-100a6fc761a2",
+						"candealtick.csv", 1, 0, "yyyy-MM-dd:HH:mm:ss" );
+		publisher.addToSubscription( "135087D35", DATASET_UUID );
+		publisher.addToDataFieldMapping( "bidPrice", 6 );
+		publisher.addToDataFieldMapping( "askPrice", 7 );
+		publisher.addToDataFieldMapping( "bidYield", 8 );
+		publisher.addToDataFieldMapping( "askYield", 9 );
+	}
+
+	@Benchmark
+	public String splitAndToJSON() throws ParseException
+	{
+		String line = LINES[next++ & ( LINES.length - 1 )];
+		List<String> data = Arrays.asList( line.split( "\\s*,\\s*" ) );
+		return publisher.toJSON( DATASET_UUID, data );
+	}
+}
@@ -0,0 +1,24 @@
+package smash.metatrader;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the benchmarks reporting throughput together with allocation rate from the GC profiler.
+ * Accepts the usual JMH command line options e.g. a benchmark name pattern.
+ */
+public class MetaTraderBenchmarks
+{
+    public static void main( String[] args ) throws Exception
+    {
+    	CommandLineOptions commandLineOptions = new CommandLineOptions( args );
+    	Options options = new OptionsBuilder()
+    						.parent( commandLineOptions )
+    						.addProfiler( GCProfiler.class )
+    						.build();
+    	new Runner( options ).run();
+    }
+}
@@ -0,0 +1,80 @@
+package smash.metatrader;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of handing a quote from onQuote to PublishToSmashTask, offer followed by poll on the same thread
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueHandOffBenchmark
+{
+	private static final String[] SYMBOLS = { "EURUSD", "USDJPY", "GBPUSD", "AUDUSD", "USDCHF", "EURJPY", "GOLD", "EURGBP" };
+	private static final String DATA = "2017/04/21 16:59:58 1.07282 1.07292";
+
+	@Param({ "fifo", "conflate", "ring-blocking", "ring-yielding", "ring-busySpin" })
+	public String queueMode;
+	private QuoteQueue queue;
+	private int next;
+
+	@Setup
+	public void setup()
+	{
+		queue = createQueue( queueMode, OverflowPolicy.BLOCK );
+	}
+
+	@Benchmark
+	public QueuedData offerThenPoll() throws InterruptedException
+	{
+		int symbolId = next & ( SYMBOLS.length - 1 );
+		queue.offer( next, next, next++, symbolId, SYMBOLS[symbolId], DATA );
+		return queue.poll( 0, TimeUnit.NANOSECONDS );
+	}
+
+	/**
+	 * @param aQueueMode fifo, conflate or ring-&lt;wait strategy&gt;
+	 * @param anOverflowPolicy ring buffer overflow policy
+	 */
+	static QuoteQueue createQueue( String aQueueMode, OverflowPolicy anOverflowPolicy )
+	{
+		if ( SmashMetaTraderPublisher.QUEUE_MODE_FIFO.equals( aQueueMode ) )
+		{
+			return new FifoQuoteQueue();
+		}
+		if ( SmashMetaTraderPublisher.QUEUE_MODE_CONFLATE.equals( aQueueMode ) )
+		{
+			return new ConflatingQuoteQueue();
+		}
+		String waitStrategy = aQueueMode.substring( aQueueMode.indexOf( '-' ) + 1 );
+		WaitStrategy strategy;
+		if ( SmashMetaTraderPublisher.WAIT_STRATEGY_BUSY_SPIN.equals( waitStrategy ) )
+		{
+			strategy = new BusySpinWaitStrategy();
+		}
+		else if ( SmashMetaTraderPublisher.WAIT_STRATEGY_YIELDING.equals( waitStrategy ) )
+		{
+			strategy = new YieldingWaitStrategy();
+		}
+		else
+		{
+			strategy = new BlockingWaitStrategy();
+		}
+		return new RingBufferQuoteQueue( 65536, strategy, anOverflowPolicy );
+	}
+}
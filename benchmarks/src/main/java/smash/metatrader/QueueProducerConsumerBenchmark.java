@@ -0,0 +1,62 @@
+package smash.metatrader;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hand off between a Meta Trader listener thread and a PublishToSmashTask thread.
+ * Only bounded queues are measured, the producer outruns the consumer and a ring buffer
+ * drops the newest quote instead of blocking so the iteration can end.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueProducerConsumerBenchmark
+{
+	private static final String[] SYMBOLS = { "EURUSD", "USDJPY", "GBPUSD", "AUDUSD", "USDCHF", "EURJPY", "GOLD", "EURGBP" };
+	private static final String DATA = "2017/04/21 16:59:58 1.07282 1.07292";
+
+	@Param({ "conflate", "ring-blocking", "ring-yielding", "ring-busySpin" })
+	public String queueMode;
+	private QuoteQueue queue;
+	private int next;
+
+	@Setup
+	public void setup()
+	{
+		queue = QueueHandOffBenchmark.createQueue( queueMode, OverflowPolicy.DROP_NEWEST );
+	}
+
+	@Benchmark
+	@Group("handOff")
+	@GroupThreads(1)
+	public void offer()
+	{
+		int symbolId = next & ( SYMBOLS.length - 1 );
+		queue.offer( next, next, next++, symbolId, SYMBOLS[symbolId], DATA );
+	}
+
+	@Benchmark
+	@Group("handOff")
+	@GroupThreads(1)
+	public QueuedData poll() throws InterruptedException
+	{
+		return queue.poll( 1, TimeUnit.MILLISECONDS );
+	}
+}
@@ -0,0 +1,87 @@
+package smash.metatrader;
+
+import java.text.ParseException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SmashMetaTraderPublisher.toJSON on realistic Meta Trader quotes
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuoteSerializationBenchmark
+{
+	private static final String DATASET_UUID = "d027ed21-f07b-11e6-a62e-0a5c8256a8bc";
+	private static final String TYPE_ID = "bdd2b349-574d-45a0-5dd2-af116e0c0dbf";
+	private static final int QUOTE_COUNT = 1024;
+	private SmashMetaTraderPublisher publisher;
+	private MetaTraderQuoteParser parser;
+	private QuoteTimestampState timestampState;
+	private QuoteJSONEncoder encoder;
+	private QuoteTimeConverter converter;
+	private StringBuilder buffer;
+	private QueuedData[] quotes;
+	private int next;
+
+	@Setup
+	public void setup()
+	{
+		publisher = new SmashMetaTraderPublisher( "localhost", "default", "user", "password", TYPE_ID );
+		parser = new MetaTraderQuoteParser();
+		timestampState = new QuoteTimestampState();
+		encoder = new QuoteJSONEncoder( DATASET_UUID, TYPE_ID );
+		converter = publisher.createTimeConverter();
+		buffer = new StringBuilder();
+		quotes = createQuotes( "EURUSD", 107282, 5 );
+	}
+
+	@Benchmark
+	public String toJSON() throws ParseException
+	{
+		QueuedData data = quotes[next++ & ( QUOTE_COUNT - 1 )];
+		return publisher.toJSON( encoder, data, parser, converter, timestampState, buffer );
+	}
+
+	/**
+	 * quotes following a random walk with a few quotes per second as seen during busy hours
+	 * @param aSymbol symbol
+	 * @param aStartBid scaled start bid price
+	 * @param aDigits price digits
+	 */
+	static QueuedData[] createQuotes( String aSymbol, long aStartBid, int aDigits )
+	{
+		Random random = new Random( 0 );
+		QueuedData[] quotes = new QueuedData[QUOTE_COUNT];
+		long bid = aStartBid;
+		long receivedTime = 1492793998000L;
+		for( int i = 0; i < QUOTE_COUNT; i++ )
+		{
+			bid = bid + random.nextInt( 5 ) - 2;
+			receivedTime += random.nextInt( 400 );
+			StringBuilder builder = new StringBuilder();
+			long second = receivedTime / 1000 % 60;
+			long minute = receivedTime / 60000 % 60;
+			builder.append( "2017/04/21 16:" ).append( minute < 10 ? "0" : "" ).append( minute ).append( ':' ).append( second < 10 ? "0" : "" ).append( second ).append( ' ' );
+			MetaTraderQuoteParser.appendScaled( builder, bid, aDigits );
+			builder.append( ' ' );
+			MetaTraderQuoteParser.appendScaled( builder, bid + 1 + random.nextInt( 15 ), aDigits );
+			quotes[i] = new QueuedData( receivedTime, aSymbol, builder.toString() );
+		}
+		return quotes;
+	}
+}
@@ -0,0 +1,63 @@
+package smash.metatrader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost added to onQuote by journaling a tick, including segment rolls and deletion below the watermark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TickJournalBenchmark
+{
+	private static final String[] SYMBOLS = { "EURUSD", "USDJPY", "GBPUSD", "AUDUSD", "USDCHF", "EURJPY", "GOLD", "EURGBP" };
+	private static final String DATA = "2017/04/21 16:59:58 1.07282 1.07292";
+	private File directory;
+	private TickJournal journal;
+	private int next;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		directory = File.createTempFile( "TickJournalBenchmark", "" );
+		directory.delete();
+		journal = new TickJournal( directory, 16 * 1024 * 1024 );
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		journal.close();
+		for( File file: directory.listFiles() )
+		{
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Benchmark
+	public long append() throws IOException
+	{
+		long sequence = journal.append( next, SYMBOLS[next++ & ( SYMBOLS.length - 1 )], DATA );
+		// keep only the current segment on disk as the publisher does while Smash is available
+		journal.checkpoint( sequence );
+		return sequence;
+	}
+}
@@ -0,0 +1,285 @@
+package smash.metatrader;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Logger handing records to a background writer through a bounded buffer of preallocated records.
+ * Messages are templates with {} placeholders formatted by the writer, so logging only copies
+ * references. Logging never blocks, records are dropped and counted when the buffer is full.
+ */
+public class AsyncLogger implements Runnable
+{
+	/**
+	 * log level
+	 */
+	public enum Level
+	{
+		DEBUG,
+		INFO,
+		WARN,
+		ERROR
+	}
+
+	private static final long IDLE_PARK_NANOS = 1000000L;
+	private final LogRecord[] records;
+	// Vyukov bounded queue, a slot is free for position p when its sequence is p and filled when it is p+1
+	private final AtomicLongArray sequences;
+	private final int mask;
+	private final AtomicLong producerPosition = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final PrintStream out;
+	private final StringBuilder builder = new StringBuilder( 512 );
+	private final Thread thread;
+	private volatile Level level;
+	private volatile boolean running = true;
+	private long consumerPosition;
+	private long reportedDroppedCount;
+
+	/**
+	 * create AsyncLogger and start its writer thread
+	 * @param aLevel minimum level logged
+	 * @param aCapacity number of records buffered, rounded up to a power of 2
+	 * @param anOut output of the writer
+	 */
+	public AsyncLogger( Level aLevel, int aCapacity, PrintStream anOut )
+	{
+		int capacity = Integer.highestOneBit( Math.max( 2, aCapacity ) - 1 ) << 1;
+		records = new LogRecord[capacity];
+		sequences = new AtomicLongArray( capacity );
+		for( int i = 0; i < capacity; i++ )
+		{
+			records[i] = new LogRecord();
+			sequences.set( i, i );
+		}
+		mask = capacity - 1;
+		level = aLevel;
+		out = anOut;
+		thread = new Thread( this, "AsyncLogger" );
+		thread.setDaemon( true );
+		thread.start();
+	}
+
+	/**
+	 * @param aLevel level
+	 * @return true if records of the level are logged
+	 */
+	public boolean isEnabled( Level aLevel )
+	{
+		return aLevel.ordinal() >= level.ordinal();
+	}
+
+	public void setLevel( Level aLevel )
+	{
+		level = aLevel;
+	}
+
+	/**
+	 * create category of records which can be sampled and rate limited per key
+	 * @param aName category name
+	 * @param aLevel level of the records of the category
+	 * @param aMaxPerSecond maximum records per key per second, 0 for no limit
+	 * @param aSampleEvery log one of every aSampleEvery records per key, 1 to log all
+	 * @return category
+	 */
+	public LogCategory createCategory( String aName, Level aLevel, int aMaxPerSecond, int aSampleEvery )
+	{
+		return new LogCategory( this, aName, aLevel, aMaxPerSecond, aSampleEvery );
+	}
+
+	public void info( String aMessage )
+	{
+		log( Level.INFO, aMessage, null, null, null );
+	}
+
+	public void info( String aTemplate, Object anArg0 )
+	{
+		log( Level.INFO, aTemplate, anArg0, null, null );
+	}
+
+	public void info( String aTemplate, Object anArg0, Object anArg1 )
+	{
+		log( Level.INFO, aTemplate, anArg0, anArg1, null );
+	}
+
+	public void info( String aTemplate, Object anArg0, Object anArg1, Object anArg2 )
+	{
+		log( Level.INFO, aTemplate, anArg0, anArg1, anArg2 );
+	}
+
+	/**
+	 * log error, the stack trace is written by the writer
+	 * @param aTemplate message with {} placeholders
+	 * @param anArg0 first argument
+	 * @param aThrowable error
+	 */
+	public void error( String aTemplate, Object anArg0, Throwable aThrowable )
+	{
+		log( Level.ERROR, aTemplate, anArg0, aThrowable, null );
+	}
+
+	/**
+	 * log record if its level is enabled
+	 * @param aLevel level
+	 * @param aTemplate message with {} placeholders replaced by the arguments in order
+	 * @param anArg0 first argument
+	 * @param anArg1 second argument
+	 * @param anArg2 third argument
+	 */
+	public void log( Level aLevel, String aTemplate, Object anArg0, Object anArg1, Object anArg2 )
+	{
+		if ( !isEnabled( aLevel ) )
+		{
+			return;
+		}
+		long position = producerPosition.get();
+		while( true )
+		{
+			int index = (int)position & mask;
+			long difference = sequences.get( index ) - position;
+			if ( difference == 0 )
+			{
+				if ( producerPosition.compareAndSet( position, position + 1 ) )
+				{
+					records[index].set( aTemplate, anArg0, anArg1, anArg2 );
+					sequences.lazySet( index, position + 1 );
+					return;
+				}
+				position = producerPosition.get();
+			}
+			else if ( difference < 0 )
+			{
+				droppedCount.incrementAndGet();
+				return;
+			}
+			else
+			{
+				position = producerPosition.get();
+			}
+		}
+	}
+
+	/**
+	 * @return number of records dropped because the buffer was full
+	 */
+	public long getDroppedCount()
+	{
+		return droppedCount.get();
+	}
+
+	/**
+	 * write remaining records and stop the writer
+	 */
+	public void close()
+	{
+		running = false;
+		try
+		{
+			thread.join( 5000 );
+		}
+		catch( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public void run()
+	{
+		while( running )
+		{
+			if ( drain() == 0 )
+			{
+				LockSupport.parkNanos( IDLE_PARK_NANOS );
+			}
+		}
+		drain();
+	}
+
+	/**
+	 * write buffered records
+	 * @return number of records written
+	 */
+	private int drain()
+	{
+		int count = 0;
+		while( true )
+		{
+			int index = (int)consumerPosition & mask;
+			if ( sequences.get( index ) != consumerPosition + 1 )
+			{
+				break;
+			}
+			LogRecord record = records[index];
+			builder.setLength( 0 );
+			record.format( builder );
+			Throwable throwable = record.getThrowable();
+			record.clear();
+			sequences.lazySet( index, consumerPosition + mask + 1 );
+			consumerPosition++;
+			out.println( builder );
+			if ( throwable != null )
+			{
+				throwable.printStackTrace( out );
+			}
+			count++;
+		}
+		long dropped = droppedCount.get();
+		if ( dropped != reportedDroppedCount )
+		{
+			out.println( "AsyncLogger dropped " + ( dropped - reportedDroppedCount ) + " records" );
+			reportedDroppedCount = dropped;
+		}
+		if ( count > 0 )
+		{
+			out.flush();
+		}
+		return count;
+	}
+
+	/**
+	 * preallocated record
+	 */
+	private static class LogRecord
+	{
+		private String template;
+		private Object arg0;
+		private Object arg1;
+		private Object arg2;
+
+		private void set( String aTemplate, Object anArg0, Object anArg1, Object anArg2 )
+		{
+			template = aTemplate;
+			arg0 = anArg0;
+			arg1 = anArg1;
+			arg2 = anArg2;
+		}
+
+		private void clear()
+		{
+			set( null, null, null, null );
+		}
+
+		private Throwable getThrowable()
+		{
+			return arg0 instanceof Throwable ? (Throwable)arg0 : arg1 instanceof Throwable ? (Throwable)arg1 
+						: arg2 instanceof Throwable ? (Throwable)arg2 : null;
+		}
+
+		private void format( StringBuilder aBuilder )
+		{
+			int argIndex = 0;
+			int start = 0;
+			int placeholder;
+			while( ( placeholder = template.indexOf( "{}", start ) ) >= 0 )
+			{
+				aBuilder.append( template, start, placeholder );
+				aBuilder.append( argIndex == 0 ? arg0 : argIndex == 1 ? arg1 : arg2 );
+				argIndex++;
+				start = placeholder + 2;
+			}
+			aBuilder.append( template, start, template.length() );
+		}
+	}
+}
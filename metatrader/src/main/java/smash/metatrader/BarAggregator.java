@@ -0,0 +1,381 @@
+package smash.metatrader;
+
+import java.util.Arrays;
+
+/**
+ * Aggregate the ticks of a publish worker into open, high, low and close bars of the bid price
+ * with tick count and spread statistics. A series is a symbol and an interval published to a bar
+ * dataset, its open bar is kept in arrays indexed by series. A bar closes when a tick of a later
+ * interval arrives or, without ticks, once the clock passes its end plus the close delay; the
+ * deadlines of the open bars are kept in a heap so closing never scans the series. Ticks of a bar
+ * already closed are counted as late and dropped. Not thread safe, a symbol is always handled by
+ * the same publish worker.
+ */
+public class BarAggregator
+{
+	/**
+	 * receive closed bars
+	 */
+	public interface Listener
+	{
+		/**
+		 * @param aDatasetUUID bar dataset UUID
+		 * @param aJSON bar JSON
+		 */
+		void onBar( String aDatasetUUID, String aJSON ) throws Exception;
+	}
+
+	private static final char[] INTERVAL = ", \"interval\": ".toCharArray();
+	private static final char[] OPEN = ", \"open\": ".toCharArray();
+	private static final char[] HIGH = ", \"high\": ".toCharArray();
+	private static final char[] LOW = ", \"low\": ".toCharArray();
+	private static final char[] CLOSE = ", \"close\": ".toCharArray();
+	private static final char[] TICK_COUNT = ", \"tickCount\": ".toCharArray();
+	private static final char[] SPREAD_MIN = ", \"spreadMin\": ".toCharArray();
+	private static final char[] SPREAD_MAX = ", \"spreadMax\": ".toCharArray();
+	private static final char[] SPREAD_AVG = ", \"spreadAvg\": ".toCharArray();
+	// extra digits of the average spread
+	private static final int AVERAGE_DIGITS = 2;
+	private static final int MAX_DIGITS = 18;
+	private static final long EMPTY = Long.MIN_VALUE;
+	private final String typeId;
+	private final long closeDelayMillis;
+	private final StringBuilder buffer = new StringBuilder( 256 );
+	private int seriesCount;
+	private String[] symbols = new String[4];
+	private long[] intervals = new long[4];
+	private String[] datasetUUIDs = new String[4];
+	private char[][] headers = new char[4][];
+	// start of the open bar, EMPTY when no bar is open
+	private long[] starts = new long[4];
+	// end of the last closed bar, earlier ticks are late
+	private long[] closedUntil = new long[4];
+	// prices scaled by 10^digits
+	private int[] digits = new int[4];
+	private long[] opens = new long[4];
+	private long[] highs = new long[4];
+	private long[] lows = new long[4];
+	private long[] closes = new long[4];
+	private int[] tickCounts = new int[4];
+	private long[] spreadMins = new long[4];
+	private long[] spreadMaxs = new long[4];
+	private long[] spreadSums = new long[4];
+	// series of a symbol id, null until the first tick of the symbol
+	private int[][] seriesBySymbol = new int[16][];
+	// binary heap of the close deadlines of open bars, an entry is stale once its bar closed on a tick
+	private long[] heapDeadlines = new long[16];
+	private int[] heapSeries = new int[16];
+	private int heapSize;
+	private long lateCount;
+
+	/**
+	 * create BarAggregator
+	 * @param aTypeId data type id of the bar datasets
+	 * @param aCloseDelayMillis time in millisecond a bar without ticks stays open after its end for late ticks
+	 */
+	public BarAggregator( String aTypeId, long aCloseDelayMillis )
+	{
+		if ( aCloseDelayMillis < 0 )
+		{
+			throw new IllegalArgumentException( "Invalid bar close delay " + aCloseDelayMillis );
+		}
+		typeId = aTypeId;
+		closeDelayMillis = aCloseDelayMillis;
+	}
+
+	/**
+	 * add series, must be called before the first tick of the symbol
+	 * @param aSymbol symbol
+	 * @param anIntervalMillis bar interval in millisecond
+	 * @param aDatasetUUID bar dataset UUID
+	 */
+	public void addSeries( String aSymbol, long anIntervalMillis, String aDatasetUUID )
+	{
+		if ( anIntervalMillis <= 0 )
+		{
+			throw new IllegalArgumentException( "Invalid bar interval " + anIntervalMillis );
+		}
+		if ( seriesCount == symbols.length )
+		{
+			grow( seriesCount * 2 );
+		}
+		int series = seriesCount++;
+		symbols[series] = aSymbol;
+		intervals[series] = anIntervalMillis;
+		datasetUUIDs[series] = aDatasetUUID;
+		headers[series] = ( "{ \"dataset\": \"" + aDatasetUUID + "\", \"typeId\": \"" + typeId + "\", \"timestamp\": " ).toCharArray();
+		starts[series] = EMPTY;
+		closedUntil[series] = Long.MIN_VALUE;
+	}
+
+	/**
+	 * add the parsed tick to the bars of its symbol, closing bars of earlier intervals
+	 * @param aSymbolId symbol id
+	 * @param aSymbol symbol
+	 * @param aTime UTC quote time in millisecond
+	 * @param aParser parser holding the tick
+	 * @param aListener receiver of the closed bars
+	 */
+	public void onTick( int aSymbolId, String aSymbol, long aTime, MetaTraderQuoteParser aParser, Listener aListener ) throws Exception
+	{
+		int[] series = seriesOf( aSymbolId, aSymbol );
+		if ( series.length == 0 )
+		{
+			return;
+		}
+		int bidDigits = aParser.getBidDigits();
+		int askDigits = aParser.getAskDigits();
+		for( int i = 0; i < series.length; i++ )
+		{
+			int s = series[i];
+			long start = Math.floorDiv( aTime, intervals[s] ) * intervals[s];
+			if ( start < closedUntil[s] || ( starts[s] != EMPTY && start < starts[s] ) )
+			{
+				lateCount++;
+				continue;
+			}
+			if ( starts[s] != EMPTY && start != starts[s] )
+			{
+				close( s, aListener );
+			}
+			int tickDigits = Math.max( bidDigits, askDigits );
+			if ( starts[s] == EMPTY )
+			{
+				open( s, start, tickDigits );
+			}
+			else if ( tickDigits > digits[s] )
+			{
+				rescale( s, tickDigits );
+			}
+			long bid = aParser.getBidPrice() * MetaTraderQuoteParser.powerOfTen( digits[s] - bidDigits );
+			long spread = aParser.getAskPrice() * MetaTraderQuoteParser.powerOfTen( digits[s] - askDigits ) - bid;
+			if ( tickCounts[s] == 0 )
+			{
+				opens[s] = bid;
+				highs[s] = bid;
+				lows[s] = bid;
+				spreadMins[s] = spread;
+				spreadMaxs[s] = spread;
+			}
+			else
+			{
+				highs[s] = Math.max( highs[s], bid );
+				lows[s] = Math.min( lows[s], bid );
+				spreadMins[s] = Math.min( spreadMins[s], spread );
+				spreadMaxs[s] = Math.max( spreadMaxs[s], spread );
+			}
+			closes[s] = bid;
+			spreadSums[s] += spread;
+			tickCounts[s]++;
+		}
+	}
+
+	/**
+	 * close the bars whose end plus the close delay passed
+	 * @param aNow System.currentTimeMillis()
+	 * @param aListener receiver of the closed bars
+	 * @return number of bars closed
+	 */
+	public int closeDue( long aNow, Listener aListener ) throws Exception
+	{
+		int count = 0;
+		while( heapSize > 0 && heapDeadlines[0] <= aNow )
+		{
+			long deadline = heapDeadlines[0];
+			int s = heapSeries[0];
+			pop();
+			if ( starts[s] != EMPTY && deadlineOf( s ) == deadline )
+			{
+				close( s, aListener );
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @param aNow System.currentTimeMillis()
+	 * @return millisecond until the next bar is due to close, Long.MAX_VALUE if no bar is open
+	 */
+	public long getMillisToNextClose( long aNow )
+	{
+		// drop deadlines of bars already closed on a tick so the worker does not wake up early
+		while( heapSize > 0 && ( starts[heapSeries[0]] == EMPTY || deadlineOf( heapSeries[0] ) != heapDeadlines[0] ) )
+		{
+			pop();
+		}
+		return heapSize == 0 ? Long.MAX_VALUE : Math.max( 0, heapDeadlines[0] - aNow );
+	}
+
+	/**
+	 * @return number of ticks dropped because their bar was already closed
+	 */
+	public long getLateCount()
+	{
+		return lateCount;
+	}
+
+	/**
+	 * resolve the series of a symbol once
+	 */
+	private int[] seriesOf( int aSymbolId, String aSymbol )
+	{
+		if ( aSymbolId >= seriesBySymbol.length )
+		{
+			seriesBySymbol = Arrays.copyOf( seriesBySymbol, Math.max( seriesBySymbol.length * 2, aSymbolId + 1 ) );
+		}
+		int[] series = seriesBySymbol[aSymbolId];
+		if ( series == null )
+		{
+			series = new int[0];
+			for( int i = 0; i < seriesCount; i++ )
+			{
+				if ( symbols[i].equals( aSymbol ) )
+				{
+					series = Arrays.copyOf( series, series.length + 1 );
+					series[series.length - 1] = i;
+				}
+			}
+			seriesBySymbol[aSymbolId] = series;
+		}
+		return series;
+	}
+
+	private long deadlineOf( int aSeries )
+	{
+		return starts[aSeries] + intervals[aSeries] + closeDelayMillis;
+	}
+
+	private void open( int aSeries, long aStart, int aDigits )
+	{
+		starts[aSeries] = aStart;
+		digits[aSeries] = aDigits;
+		tickCounts[aSeries] = 0;
+		spreadSums[aSeries] = 0;
+		push( deadlineOf( aSeries ), aSeries );
+	}
+
+	/**
+	 * publish the open bar of the series
+	 */
+	private void close( int aSeries, Listener aListener ) throws Exception
+	{
+		int barDigits = digits[aSeries];
+		int averageDigits = Math.min( MAX_DIGITS, barDigits + AVERAGE_DIGITS );
+		long averageScale = MetaTraderQuoteParser.powerOfTen( averageDigits - barDigits );
+		int count = tickCounts[aSeries];
+		// rounded half up, spreads are positive for a valid quote
+		long spreadAverage = ( spreadSums[aSeries] * averageScale + count / 2 ) / count;
+		buffer.setLength( 0 );
+		buffer.append( headers[aSeries] );
+		buffer.append( starts[aSeries] );
+		buffer.append( INTERVAL );
+		buffer.append( intervals[aSeries] );
+		buffer.append( OPEN );
+		MetaTraderQuoteParser.appendScaled( buffer, opens[aSeries], barDigits );
+		buffer.append( HIGH );
+		MetaTraderQuoteParser.appendScaled( buffer, highs[aSeries], barDigits );
+		buffer.append( LOW );
+		MetaTraderQuoteParser.appendScaled( buffer, lows[aSeries], barDigits );
+		buffer.append( CLOSE );
+		MetaTraderQuoteParser.appendScaled( buffer, closes[aSeries], barDigits );
+		buffer.append( TICK_COUNT );
+		buffer.append( count );
+		buffer.append( SPREAD_MIN );
+		MetaTraderQuoteParser.appendScaled( buffer, spreadMins[aSeries], barDigits );
+		buffer.append( SPREAD_MAX );
+		MetaTraderQuoteParser.appendScaled( buffer, spreadMaxs[aSeries], barDigits );
+		buffer.append( SPREAD_AVG );
+		MetaTraderQuoteParser.appendScaled( buffer, spreadAverage, averageDigits );
+		buffer.append( '}' );
+		closedUntil[aSeries] = starts[aSeries] + intervals[aSeries];
+		starts[aSeries] = EMPTY;
+		aListener.onBar( datasetUUIDs[aSeries], buffer.toString() );
+	}
+
+	/**
+	 * scale the prices of the open bar to more digits
+	 */
+	private void rescale( int aSeries, int aDigits )
+	{
+		long scale = MetaTraderQuoteParser.powerOfTen( aDigits - digits[aSeries] );
+		opens[aSeries] *= scale;
+		highs[aSeries] *= scale;
+		lows[aSeries] *= scale;
+		closes[aSeries] *= scale;
+		spreadMins[aSeries] *= scale;
+		spreadMaxs[aSeries] *= scale;
+		spreadSums[aSeries] *= scale;
+		digits[aSeries] = aDigits;
+	}
+
+	private void push( long aDeadline, int aSeries )
+	{
+		if ( heapSize == heapDeadlines.length )
+		{
+			heapDeadlines = Arrays.copyOf( heapDeadlines, heapSize * 2 );
+			heapSeries = Arrays.copyOf( heapSeries, heapSize * 2 );
+		}
+		int i = heapSize++;
+		while( i > 0 )
+		{
+			int parent = ( i - 1 ) >>> 1;
+			if ( heapDeadlines[parent] <= aDeadline )
+			{
+				break;
+			}
+			heapDeadlines[i] = heapDeadlines[parent];
+			heapSeries[i] = heapSeries[parent];
+			i = parent;
+		}
+		heapDeadlines[i] = aDeadline;
+		heapSeries[i] = aSeries;
+	}
+
+	private void pop()
+	{
+		long deadline = heapDeadlines[--heapSize];
+		int series = heapSeries[heapSize];
+		int i = 0;
+		int half = heapSize >>> 1;
+		while( i < half )
+		{
+			int child = 2 * i + 1;
+			if ( child + 1 < heapSize && heapDeadlines[child + 1] < heapDeadlines[child] )
+			{
+				child++;
+			}
+			if ( deadline <= heapDeadlines[child] )
+			{
+				break;
+			}
+			heapDeadlines[i] = heapDeadlines[child];
+			heapSeries[i] = heapSeries[child];
+			i = child;
+		}
+		if ( heapSize > 0 )
+		{
+			heapDeadlines[i] = deadline;
+			heapSeries[i] = series;
+		}
+	}
+
+	private void grow( int aLength )
+	{
+		symbols = Arrays.copyOf( symbols, aLength );
+		intervals = Arrays.copyOf( intervals, aLength );
+		datasetUUIDs = Arrays.copyOf( datasetUUIDs, aLength );
+		headers = Arrays.copyOf( headers, aLength );
+		starts = Arrays.copyOf( starts, aLength );
+		closedUntil = Arrays.copyOf( closedUntil, aLength );
+		digits = Arrays.copyOf( digits, aLength );
+		opens = Arrays.copyOf( opens, aLength );
+		highs = Arrays.copyOf( highs, aLength );
+		lows = Arrays.copyOf( lows, aLength );
+		closes = Arrays.copyOf( closes, aLength );
+		tickCounts = Arrays.copyOf( tickCounts, aLength );
+		spreadMins = Arrays.copyOf( spreadMins, aLength );
+		spreadMaxs = Arrays.copyOf( spreadMaxs, aLength );
+		spreadSums = Arrays.copyOf( spreadSums, aLength );
+	}
+}
@@ -0,0 +1,58 @@
+package smash.metatrader;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Block on a condition until signalled, lowest CPU usage at the cost of wake up latency.
+ * The lock is only taken by the signalling side while someone is waiting.
+ */
+public class BlockingWaitStrategy implements WaitStrategy
+{
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition moved = lock.newCondition();
+	private final AtomicInteger waiters = new AtomicInteger();
+
+	public long waitFor( long aValue, AtomicLong aPosition, long aTimeoutNanos ) throws InterruptedException
+	{
+		long position = aPosition.get();
+		if ( position > aValue )
+		{
+			return position;
+		}
+		long remaining = aTimeoutNanos;
+		lock.lock();
+		try
+		{
+			waiters.incrementAndGet();
+			while( ( position = aPosition.get() ) <= aValue && remaining > 0 )
+			{
+				remaining = moved.awaitNanos( remaining );
+			}
+		}
+		finally
+		{
+			waiters.decrementAndGet();
+			lock.unlock();
+		}
+		return position;
+	}
+
+	public void signal()
+	{
+		if ( waiters.get() > 0 )
+		{
+			lock.lock();
+			try
+			{
+				moved.signalAll();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package smash.metatrader;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spin on the position without yielding the core, lowest latency at the cost of a fully used core
+ */
+public class BusySpinWaitStrategy implements WaitStrategy
+{
+	public long waitFor( long aValue, AtomicLong aPosition, long aTimeoutNanos ) throws InterruptedException
+	{
+		long start = System.nanoTime();
+		long position;
+		while( ( position = aPosition.get() ) <= aValue )
+		{
+			if ( System.nanoTime() - start >= aTimeoutNanos )
+			{
+				break;
+			}
+			if ( Thread.interrupted() )
+			{
+				throw new InterruptedException();
+			}
+		}
+		return position;
+	}
+
+	public void signal()
+	{
+	}
+}
@@ -0,0 +1,153 @@
+package smash.metatrader;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue keeping only the latest pending quote per symbol. Symbols with a pending quote
+ * are kept in a dirty list in order of their first pending update so memory is bounded
+ * by the number of symbols instead of the backlog length. Pending quotes are indexed by
+ * symbol id.
+ */
+public class ConflatingQuoteQueue implements QuoteQueue
+{
+	private String[] symbols = new String[32];
+	private QueuedData[] pending = new QueuedData[32];
+	private boolean[] dirty = new boolean[32];
+	private long[] conflatedCounts = new long[32];
+	private int[] dirtyList = new int[32];
+	private int dirtyHead;
+	private int dirtyCount;
+	// consumer owned copy of the polled quote
+	private final QueuedData polled = new QueuedData();
+
+	public synchronized void offer( long aReceivedTime, long aReceivedNanos, long aSequence, int aSymbolId, String anItem, String aData )
+	{
+		int index = indexOf( aSymbolId, anItem );
+		pending[index].set( aReceivedTime, aReceivedNanos, aSequence, aSymbolId, anItem, aData );
+		if ( dirty[index] )
+		{
+			conflatedCounts[index]++;
+		}
+		else
+		{
+			dirty[index] = true;
+			dirtyList[( dirtyHead + dirtyCount ) % dirtyList.length] = index;
+			dirtyCount++;
+			if ( dirtyCount == 1 )
+			{
+				notifyAll();
+			}
+		}
+	}
+
+	public synchronized QueuedData poll( long aTimeout, TimeUnit aUnit ) throws InterruptedException
+	{
+		if ( dirtyCount == 0 )
+		{
+			long deadline = System.nanoTime() + aUnit.toNanos( aTimeout );
+			long remaining = deadline - System.nanoTime();
+			while( dirtyCount == 0 && remaining > 0 )
+			{
+				TimeUnit.NANOSECONDS.timedWait( this, remaining );
+				remaining = deadline - System.nanoTime();
+			}
+			if ( dirtyCount == 0 )
+			{
+				return null;
+			}
+		}
+		int index = dirtyList[dirtyHead];
+		dirtyHead = ( dirtyHead + 1 ) % dirtyList.length;
+		dirtyCount--;
+		dirty[index] = false;
+		QueuedData data = pending[index];
+		polled.set( data.receivedTime, data.receivedNanos, data.sequence, data.symbolId, data.item, data.data );
+		return polled;
+	}
+
+	public synchronized int size()
+	{
+		return dirtyCount;
+	}
+
+	/**
+	 * @param aSymbol symbol
+	 * @return number of quotes replaced by a newer quote before being published
+	 */
+	public synchronized long getConflatedCount( String aSymbol )
+	{
+		for( int i = 0; i < symbols.length; i++ )
+		{
+			if ( aSymbol.equals( symbols[i] ) )
+			{
+				return conflatedCounts[i];
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return number of quotes replaced by a newer quote before being published over the symbols
+	 */
+	public synchronized long getConflatedCount()
+	{
+		long count = 0;
+		for( int i = 0; i < symbols.length; i++ )
+		{
+			count += conflatedCounts[i];
+		}
+		return count;
+	}
+
+	/**
+	 * @return number of conflated quotes by symbol
+	 */
+	public synchronized Map<String,Long> getConflatedCounts()
+	{
+		LinkedHashMap<String,Long> counts = new LinkedHashMap<String,Long>();
+		for( int i = 0; i < symbols.length; i++ )
+		{
+			if ( symbols[i] != null )
+			{
+				counts.put( symbols[i], conflatedCounts[i] );
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * index of symbol, adding a slot for symbol seen the first time
+	 */
+	private int indexOf( int aSymbolId, String aSymbol )
+	{
+		while( aSymbolId >= symbols.length )
+		{
+			grow();
+		}
+		if ( symbols[aSymbolId] == null )
+		{
+			symbols[aSymbolId] = aSymbol;
+			pending[aSymbolId] = new QueuedData();
+		}
+		return aSymbolId;
+	}
+
+	private void grow()
+	{
+		int capacity = symbols.length * 2;
+		int[] newDirtyList = new int[capacity];
+		for( int i = 0; i < dirtyCount; i++ )
+		{
+			newDirtyList[i] = dirtyList[( dirtyHead + i ) % dirtyList.length];
+		}
+		dirtyList = newDirtyList;
+		dirtyHead = 0;
+		symbols = Arrays.copyOf( symbols, capacity );
+		pending = Arrays.copyOf( pending, capacity );
+		dirty = Arrays.copyOf( dirty, capacity );
+		conflatedCounts = Arrays.copyOf( conflatedCounts, capacity );
+	}
+}
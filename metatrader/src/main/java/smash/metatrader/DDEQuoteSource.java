@@ -0,0 +1,73 @@
+package smash.metatrader;
+
+import com.pretty_tools.dde.client.DDEClientConversation;
+import com.pretty_tools.dde.client.DDEClientEventListener;
+
+/**
+ * Quotes advised by Meta Trader 4 over DDE, only available on Windows
+ */
+public class DDEQuoteSource implements QuoteSource
+{
+	private DDEClientConversation conversation;
+
+	/**
+	 * @return true if DDE can be used on this platform
+	 */
+	public static boolean isAvailable()
+	{
+		return System.getProperty("os.name").toLowerCase().indexOf( "win" ) >= 0;
+	}
+
+	public void start( QuoteListener aListener, AsyncLogger aLogger ) throws Exception
+	{
+		conversation = new DDEClientConversation();
+		conversation.setEventListener( new MetaTraderEventListener( aListener ) );
+		conversation.connect( "MT4", "QUOTE" );
+		aLogger.info( "Connected to MT4" );
+	}
+
+	public void subscribe( String aSymbol ) throws Exception
+	{
+		conversation.startAdvice( aSymbol );
+	}
+
+	public void unsubscribe( String aSymbol ) throws Exception
+	{
+		conversation.stopAdvice( aSymbol );
+	}
+
+	public void stop() throws Exception
+	{
+		if ( conversation != null )
+		{
+			conversation.disconnect();
+		}
+	}
+
+	/**
+	 * event listener
+	 */
+	private static class MetaTraderEventListener implements DDEClientEventListener
+	{
+		private QuoteListener listener;
+		
+		/**
+		 * create MetaTraderEventListener
+		 * @param aListener listener receiving quotes
+		 */
+		private	MetaTraderEventListener( QuoteListener aListener )
+		{
+			listener = aListener;
+		}
+		
+		public void onDisconnect() 
+		{
+			listener.onDisconnect();
+		}
+
+		public void onItemChanged(String aTopic, String anItem, String aData) 
+		{
+			listener.onQuote( anItem, aData );
+		}
+	}
+}
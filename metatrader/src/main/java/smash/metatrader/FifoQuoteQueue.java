@@ -0,0 +1,29 @@
+package smash.metatrader;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unbounded queue publishing every quote in order of arrival
+ */
+public class FifoQuoteQueue implements QuoteQueue
+{
+	private final LinkedBlockingQueue<QueuedData> queue = new LinkedBlockingQueue<QueuedData>();
+
+	public void offer( long aReceivedTime, long aReceivedNanos, long aSequence, int aSymbolId, String anItem, String aData )
+	{
+		QueuedData data = new QueuedData();
+		data.set( aReceivedTime, aReceivedNanos, aSequence, aSymbolId, anItem, aData );
+		queue.offer( data );
+	}
+
+	public QueuedData poll( long aTimeout, TimeUnit aUnit ) throws InterruptedException
+	{
+		return queue.poll( aTimeout, aUnit );
+	}
+
+	public int size()
+	{
+		return queue.size();
+	}
+}
@@ -0,0 +1,189 @@
+package smash.metatrader;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latest bid and ask of every symbol in preallocated slots indexed by symbol id. A slot is written
+ * by the publish worker of its symbol only and read under a sequence lock: the writer makes the
+ * slot version odd, stores the values and makes it even again, a reader retries while the version
+ * is odd or changed during its read. Writers never wait on readers and readers never lock, the
+ * slot of a symbol fills a cache line of its own.
+ */
+public class LastValueCache
+{
+	// longs of a slot: version, timestamp, bid, ask, digits
+	private static final int STRIDE = 8;
+	private static final int VERSION = 0;
+	private static final int TIMESTAMP = 1;
+	private static final int BID = 2;
+	private static final int ASK = 3;
+	private static final int DIGITS = 4;
+	private final int capacity;
+	private final AtomicLongArray slots;
+
+	/**
+	 * create LastValueCache
+	 * @param aCapacity number of symbol ids cached, quotes of higher ids are not cached
+	 */
+	public LastValueCache( int aCapacity )
+	{
+		if ( aCapacity < 1 )
+		{
+			throw new IllegalArgumentException( "Invalid last value capacity " + aCapacity );
+		}
+		capacity = aCapacity;
+		slots = new AtomicLongArray( aCapacity * STRIDE );
+	}
+
+	/**
+	 * @return number of symbol ids cached
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * store the latest quote of a symbol, only called by the publish worker of the symbol
+	 * @param aSymbolId symbol id
+	 * @param aTimestamp UTC quote time in millisecond
+	 * @param aParser parser holding the quote
+	 */
+	public void update( int aSymbolId, long aTimestamp, MetaTraderQuoteParser aParser )
+	{
+		if ( aSymbolId >= capacity )
+		{
+			return;
+		}
+		int base = aSymbolId * STRIDE;
+		long version = slots.get( base + VERSION );
+		// ordered stores, the values are never visible before the odd version
+		slots.lazySet( base + VERSION, version + 1 );
+		slots.lazySet( base + TIMESTAMP, aTimestamp );
+		slots.lazySet( base + BID, aParser.getBidPrice() );
+		slots.lazySet( base + ASK, aParser.getAskPrice() );
+		slots.lazySet( base + DIGITS, ( (long)aParser.getBidDigits() << 32 ) | aParser.getAskDigits() );
+		slots.lazySet( base + VERSION, version + 2 );
+	}
+
+	/**
+	 * @param aSymbolId symbol id
+	 * @return version of the slot, changed by every update, 0 if never updated
+	 */
+	public long getVersion( int aSymbolId )
+	{
+		return aSymbolId < capacity ? slots.get( aSymbolId * STRIDE + VERSION ) : 0;
+	}
+
+	/**
+	 * read consistent values of a slot
+	 * @param aSymbolId symbol id
+	 * @param aValue receiver of the values
+	 * @return false if the symbol has no cached quote
+	 */
+	public boolean read( int aSymbolId, LastValue aValue )
+	{
+		if ( aSymbolId >= capacity )
+		{
+			return false;
+		}
+		int base = aSymbolId * STRIDE;
+		while( true )
+		{
+			long version = slots.get( base + VERSION );
+			if ( version == 0 )
+			{
+				return false;
+			}
+			if ( ( version & 1 ) != 0 )
+			{
+				Thread.yield();
+				continue;
+			}
+			long timestamp = slots.get( base + TIMESTAMP );
+			long bid = slots.get( base + BID );
+			long ask = slots.get( base + ASK );
+			long digits = slots.get( base + DIGITS );
+			if ( slots.get( base + VERSION ) == version )
+			{
+				aValue.version = version;
+				aValue.timestamp = timestamp;
+				aValue.bidPrice = bid;
+				aValue.askPrice = ask;
+				aValue.bidDigits = (int)( digits >>> 32 );
+				aValue.askDigits = (int)digits;
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * values read from a slot, reused by a reader
+	 */
+	public static class LastValue
+	{
+		private long version;
+		private long timestamp;
+		private long bidPrice;
+		private int bidDigits;
+		private long askPrice;
+		private int askDigits;
+
+		/**
+		 * @return version of the slot when read, half of it is the number of updates
+		 */
+		public long getVersion()
+		{
+			return version;
+		}
+
+		/**
+		 * @return UTC quote time in millisecond
+		 */
+		public long getTimestamp()
+		{
+			return timestamp;
+		}
+
+		/**
+		 * @return bid price scaled by 10^bidDigits
+		 */
+		public long getBidPrice()
+		{
+			return bidPrice;
+		}
+
+		public int getBidDigits()
+		{
+			return bidDigits;
+		}
+
+		/**
+		 * @return ask price scaled by 10^askDigits
+		 */
+		public long getAskPrice()
+		{
+			return askPrice;
+		}
+
+		public int getAskDigits()
+		{
+			return askDigits;
+		}
+
+		/**
+		 * append as JSON object
+		 * @param aSymbol symbol
+		 * @param aBuilder output
+		 */
+		public void appendJSON( String aSymbol, StringBuilder aBuilder )
+		{
+			aBuilder.append( "{ \"symbol\": \"" ).append( aSymbol ).append( "\", \"timestamp\": " ).append( timestamp );
+			aBuilder.append( ", \"bidPrice\": " );
+			MetaTraderQuoteParser.appendScaled( aBuilder, bidPrice, bidDigits );
+			aBuilder.append( ", \"askPrice\": " );
+			MetaTraderQuoteParser.appendScaled( aBuilder, askPrice, askDigits );
+			aBuilder.append( ", \"updates\": " ).append( version / 2 ).append( '}' );
+		}
+	}
+}
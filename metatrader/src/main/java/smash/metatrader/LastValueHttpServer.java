@@ -0,0 +1,239 @@
+package smash.metatrader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP endpoint serving the last value cache so tools need not ask Smash for the latest quote.
+ * GET /quotes returns every cached quote, GET /quotes/SYMBOL the quote of one symbol and
+ * GET /quotes/stream?symbols=A,B&amp;intervalMillis=100 streams changed quotes as server sent events.
+ * Requests only read the cache, a stream polls slot versions so the publish workers never wait.
+ */
+public class LastValueHttpServer implements HttpHandler
+{
+	public static final String PATH = "/quotes";
+	private static final String STREAM = "stream";
+	private static final long MIN_STREAM_INTERVAL_MILLIS = 10;
+	private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+	private final LastValueCache cache;
+	private final SymbolTable symbols;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private volatile boolean running = true;
+
+	/**
+	 * create LastValueHttpServer bound to the address
+	 * @param aCache cache served
+	 * @param aSymbols symbols resolving names to slots
+	 * @param aHost host name or address to bind, 0.0.0.0 for all interfaces
+	 * @param aPort port, 0 for any free port
+	 */
+	public LastValueHttpServer( LastValueCache aCache, SymbolTable aSymbols, String aHost, int aPort ) throws IOException
+	{
+		cache = aCache;
+		symbols = aSymbols;
+		server = HttpServer.create( new InetSocketAddress( aHost, aPort ), 0 );
+		server.createContext( PATH, this );
+		// a stream holds its thread until the client disconnects
+		executor = Executors.newCachedThreadPool( new ThreadFactory()
+		{
+			public Thread newThread( Runnable aRunnable )
+			{
+				Thread thread = new Thread( aRunnable, "LastValueHttpServer" );
+				thread.setDaemon( true );
+				return thread;
+			}
+		} );
+		server.setExecutor( executor );
+	}
+
+	public void start()
+	{
+		server.start();
+	}
+
+	public void stop()
+	{
+		running = false;
+		server.stop( 0 );
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return port the server is bound to
+	 */
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	}
+
+	public void handle( HttpExchange anExchange ) throws IOException
+	{
+		try
+		{
+			if ( !"GET".equals( anExchange.getRequestMethod() ) )
+			{
+				anExchange.sendResponseHeaders( 405, -1 );
+				return;
+			}
+			URI uri = anExchange.getRequestURI();
+			String path = uri.getPath().substring( PATH.length() );
+			if ( path.startsWith( "/" ) )
+			{
+				path = path.substring( 1 );
+			}
+			if ( STREAM.equals( path ) )
+			{
+				stream( anExchange, parameter( uri, "symbols" ), parameter( uri, "intervalMillis" ) );
+				return;
+			}
+			StringBuilder builder = new StringBuilder( 256 );
+			LastValueCache.LastValue value = new LastValueCache.LastValue();
+			if ( path.length() == 0 )
+			{
+				builder.append( '[' );
+				int symbolCount = symbols.size();
+				for( int i = 0; i < symbolCount; i++ )
+				{
+					if ( symbols.getEncoder( i ) != null && cache.read( i, value ) )
+					{
+						if ( builder.length() > 1 )
+						{
+							builder.append( ", " );
+						}
+						value.appendJSON( symbols.getSymbol( i ), builder );
+					}
+				}
+				builder.append( ']' );
+			}
+			else
+			{
+				int id = symbols.idOf( path );
+				if ( id < 0 || !cache.read( id, value ) )
+				{
+					anExchange.sendResponseHeaders( 404, -1 );
+					return;
+				}
+				value.appendJSON( path, builder );
+			}
+			byte[] body = builder.toString().getBytes( UTF_8 );
+			anExchange.getResponseHeaders().set( "Content-Type", "application/json" );
+			anExchange.sendResponseHeaders( 200, body.length );
+			OutputStream out = anExchange.getResponseBody();
+			out.write( body );
+			out.close();
+		}
+		finally
+		{
+			anExchange.close();
+		}
+	}
+
+	/**
+	 * send the quotes of the symbols, all if null, whenever they change until the client disconnects
+	 */
+	private void stream( HttpExchange anExchange, String aSymbols, String anIntervalMillis ) throws IOException
+	{
+		String[] names = aSymbols == null || aSymbols.length() == 0 ? null : aSymbols.split( "," );
+		long intervalMillis = anIntervalMillis == null ? 100 : Math.max( MIN_STREAM_INTERVAL_MILLIS, Long.parseLong( anIntervalMillis ) );
+		anExchange.getResponseHeaders().set( "Content-Type", "text/event-stream" );
+		anExchange.getResponseHeaders().set( "Cache-Control", "no-cache" );
+		anExchange.sendResponseHeaders( 200, 0 );
+		OutputStream out = anExchange.getResponseBody();
+		StringBuilder builder = new StringBuilder( 4096 );
+		LastValueCache.LastValue value = new LastValueCache.LastValue();
+		// version sent by symbol id
+		long[] sent = new long[0];
+		try
+		{
+			while( running )
+			{
+				int symbolCount = symbols.size();
+				if ( symbolCount > sent.length )
+				{
+					sent = Arrays.copyOf( sent, symbolCount );
+				}
+				builder.setLength( 0 );
+				if ( names == null )
+				{
+					for( int i = 0; i < symbolCount; i++ )
+					{
+						appendChanged( i, symbols.getSymbol( i ), sent, value, builder );
+					}
+				}
+				else
+				{
+					for( String name: names )
+					{
+						int id = symbols.idOf( name );
+						if ( id >= 0 )
+						{
+							appendChanged( id, name, sent, value, builder );
+						}
+					}
+				}
+				if ( builder.length() > 0 )
+				{
+					out.write( builder.toString().getBytes( UTF_8 ) );
+					out.flush();
+				}
+				Thread.sleep( intervalMillis );
+			}
+		}
+		catch( InterruptedException e )
+		{
+			// server stopped
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * append the quote of a symbol as an event if it changed since sent
+	 */
+	private void appendChanged( int anId, String aSymbol, long[] aSent, LastValueCache.LastValue aValue, StringBuilder aBuilder )
+	{
+		if ( symbols.getEncoder( anId ) == null || cache.getVersion( anId ) == aSent[anId] || !cache.read( anId, aValue ) )
+		{
+			return;
+		}
+		aSent[anId] = aValue.getVersion();
+		aBuilder.append( "data: " );
+		aValue.appendJSON( aSymbol, aBuilder );
+		aBuilder.append( "\n\n" );
+	}
+
+	/**
+	 * @return value of a query parameter or null
+	 */
+	private static String parameter( URI anURI, String aName )
+	{
+		String query = anURI.getQuery();
+		if ( query == null )
+		{
+			return null;
+		}
+		for( String pair: query.split( "&" ) )
+		{
+			int separator = pair.indexOf( '=' );
+			if ( separator > 0 && pair.substring( 0, separator ).equals( aName ) )
+			{
+				return pair.substring( separator + 1 );
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,109 @@
+package smash.metatrader;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log linear histogram of latencies in nanosecond. Every power of 2 range is split into
+ * 64 linear buckets so recorded values are kept with less than 2% relative error in a fixed
+ * array. Recording only increments counters and never allocates, it is safe from any thread.
+ * Count and sum are striped so threads recording at once do not contend on them, the maximum
+ * is only written when exceeded.
+ */
+public class LatencyHistogram
+{
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	// values below 2 * SUB_BUCKET_COUNT have a bucket each, above every power of 2 has SUB_BUCKET_COUNT buckets
+	private static final int BUCKET_COUNT = ( 64 - SUB_BUCKET_BITS ) * SUB_BUCKET_COUNT;
+	private final AtomicLongArray counts = new AtomicLongArray( BUCKET_COUNT );
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * record value, negative values are recorded as 0
+	 * @param aValue value in nanosecond
+	 */
+	public void record( long aValue )
+	{
+		long value = Math.max( 0, aValue );
+		counts.incrementAndGet( bucketOf( value ) );
+		count.increment();
+		sum.add( value );
+		long current;
+		while( value > ( current = max.get() ) && !max.compareAndSet( current, value ) )
+		{
+		}
+	}
+
+	/**
+	 * @return number of recorded values
+	 */
+	public long getCount()
+	{
+		return count.sum();
+	}
+
+	/**
+	 * @return sum of recorded values
+	 */
+	public long getSum()
+	{
+		return sum.sum();
+	}
+
+	/**
+	 * @return maximum recorded value, 0 if empty
+	 */
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	/**
+	 * @param aPercentile percentile from 0 to 100
+	 * @return highest value of the bucket holding the percentile capped by the maximum, 0 if empty
+	 */
+	public long getValueAtPercentile( double aPercentile )
+	{
+		long total = count.sum();
+		if ( total == 0 )
+		{
+			return 0;
+		}
+		long rank = Math.max( 1, (long)Math.ceil( total * Math.min( 100, aPercentile ) / 100 ) );
+		long seen = 0;
+		for( int i = 0; i < BUCKET_COUNT; i++ )
+		{
+			seen += counts.get( i );
+			if ( seen >= rank )
+			{
+				return Math.min( highestValueOf( i ), max.get() );
+			}
+		}
+		return max.get();
+	}
+
+	static int bucketOf( long aValue )
+	{
+		if ( aValue < SUB_BUCKET_COUNT << 1 )
+		{
+			return (int)aValue;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros( aValue ) - SUB_BUCKET_BITS;
+		return ( shift << SUB_BUCKET_BITS ) + (int)( aValue >>> shift );
+	}
+
+	static long highestValueOf( int aBucket )
+	{
+		if ( aBucket < SUB_BUCKET_COUNT << 1 )
+		{
+			return aBucket;
+		}
+		int shift = ( aBucket >>> SUB_BUCKET_BITS ) - 1;
+		long lowest = (long)( ( aBucket & ( SUB_BUCKET_COUNT - 1 ) ) + SUB_BUCKET_COUNT ) << shift;
+		return lowest + ( 1L << shift ) - 1;
+	}
+}
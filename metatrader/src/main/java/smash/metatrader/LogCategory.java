@@ -0,0 +1,121 @@
+package smash.metatrader;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Category of log records sampled and rate limited per key e.g. one tick record per symbol per second.
+ * Callers check isEnabled before building arguments so disabled records cost nothing.
+ */
+public class LogCategory
+{
+	private final AsyncLogger logger;
+	private final String name;
+	private final AsyncLogger.Level level;
+	private final long minIntervalNanos;
+	private final int sampleEvery;
+	private final ConcurrentHashMap<Object,KeyState> keyStates = new ConcurrentHashMap<Object,KeyState>();
+	private final AtomicLong suppressedCount = new AtomicLong();
+
+	/**
+	 * create LogCategory
+	 * @param aLogger logger
+	 * @param aName category name
+	 * @param aLevel level of the records of the category
+	 * @param aMaxPerSecond maximum records per key per second, 0 for no limit
+	 * @param aSampleEvery log one of every aSampleEvery records per key, 1 to log all
+	 */
+	LogCategory( AsyncLogger aLogger, String aName, AsyncLogger.Level aLevel, int aMaxPerSecond, int aSampleEvery )
+	{
+		logger = aLogger;
+		name = aName;
+		level = aLevel;
+		minIntervalNanos = aMaxPerSecond > 0 ? 1000000000L / aMaxPerSecond : 0;
+		sampleEvery = Math.max( 1, aSampleEvery );
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * @return true if the level of the category is enabled
+	 */
+	public boolean isEnabled()
+	{
+		return logger.isEnabled( level );
+	}
+
+	/**
+	 * check if a record for the key should be logged now, counting it against the sampling and rate limit
+	 * @param aKey key e.g. symbol
+	 * @return true if the record should be logged
+	 */
+	public boolean isEnabled( Object aKey )
+	{
+		if ( !logger.isEnabled( level ) )
+		{
+			return false;
+		}
+		if ( sampleEvery == 1 && minIntervalNanos == 0 )
+		{
+			return true;
+		}
+		KeyState state = keyStates.get( aKey );
+		if ( state == null )
+		{
+			state = new KeyState();
+			KeyState existing = keyStates.putIfAbsent( aKey, state );
+			if ( existing != null )
+			{
+				state = existing;
+			}
+		}
+		if ( sampleEvery > 1 && state.count.incrementAndGet() % sampleEvery != 0 )
+		{
+			suppressedCount.incrementAndGet();
+			return false;
+		}
+		if ( minIntervalNanos > 0 )
+		{
+			long now = System.nanoTime();
+			long next = state.nextAllowedTime.get();
+			if ( now - next < 0 || !state.nextAllowedTime.compareAndSet( next, now + minIntervalNanos ) )
+			{
+				suppressedCount.incrementAndGet();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * log record at the level of the category
+	 * @param aTemplate message with {} placeholders
+	 * @param anArg0 first argument
+	 * @param anArg1 second argument
+	 * @param anArg2 third argument
+	 */
+	public void log( String aTemplate, Object anArg0, Object anArg1, Object anArg2 )
+	{
+		logger.log( level, aTemplate, anArg0, anArg1, anArg2 );
+	}
+
+	/**
+	 * @return number of records suppressed by sampling or rate limit
+	 */
+	public long getSuppressedCount()
+	{
+		return suppressedCount.get();
+	}
+
+	/**
+	 * sampling and rate limit state of a key
+	 */
+	private static class KeyState
+	{
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong nextAllowedTime = new AtomicLong( System.nanoTime() );
+	}
+}
@@ -0,0 +1,327 @@
+package smash.metatrader;
+
+import java.text.ParseException;
+
+/**
+ * Parse Meta Trader quote of format "yyyy/MM/dd HH:mm:ss bid ask" into primitive fields.
+ * Prices are kept as scaled longs together with their number of decimal digits, and rendered
+ * as their text in the quote which is kept until the next parse.
+ * Parsing and rendering do not allocate, the parser is not thread safe.
+ */
+public class MetaTraderQuoteParser
+{
+	/**
+	 * maximum number of digits which fit in a scaled long price
+	 */
+	private static final int MAX_PRICE_DIGITS = 18;
+	private static final long[] POWERS_OF_TEN = new long[MAX_PRICE_DIGITS + 1];
+	static
+	{
+		POWERS_OF_TEN[0] = 1L;
+		for( int i = 1; i < POWERS_OF_TEN.length; i++ )
+		{
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10L;
+		}
+	}
+
+	private int cachedDayKey = -1;
+	private long cachedDayTime;
+	private CharSequence text;
+	private int position;
+	private int length;
+	private int year;
+	private int month;
+	private int day;
+	private int hour;
+	private int minute;
+	private int second;
+	private long bidPrice;
+	private int bidDigits;
+	private int bidStart;
+	private int bidEnd;
+	private long askPrice;
+	private int askDigits;
+	private int askStart;
+	private int askEnd;
+	private int parsedDigits;
+	private int parsedPrecision;
+
+	/**
+	 * parse quote
+	 * @param aData quote data e.g. "2017/04/21 16:59:58 1.07282 1.07292"
+	 * @throws ParseException if quote is malformed
+	 */
+	public void parse( CharSequence aData ) throws ParseException
+	{
+		text = aData;
+		position = 0;
+		length = aData.length();
+		skipSpaces();
+		year = parseNumber( '/' );
+		month = parseNumber( '/' );
+		day = parseNumber( ' ' );
+		skipSpaces();
+		hour = parseNumber( ':' );
+		minute = parseNumber( ':' );
+		second = parseNumber( ' ' );
+		skipSpaces();
+		bidStart = position;
+		bidPrice = parsePrice();
+		bidEnd = position;
+		bidDigits = parsedDigits;
+		int bidPrecision = parsedPrecision;
+		skipSpaces();
+		askStart = position;
+		askPrice = parsePrice();
+		askEnd = position;
+		askDigits = parsedDigits;
+		// the spread is computed with both prices scaled to the larger number of decimal digits
+		int digits = Math.max( bidDigits, askDigits );
+		if ( bidPrecision + digits - bidDigits > MAX_PRICE_DIGITS || parsedPrecision + digits - askDigits > MAX_PRICE_DIGITS )
+		{
+			throw new ParseException( "Price precision exceeds " + MAX_PRICE_DIGITS + " digits", bidStart );
+		}
+	}
+
+	/**
+	 * @return quote date and time in millisecond as if the server time were UTC, see QuoteTimeConverter
+	 */
+	public long getServerTime()
+	{
+		int dayKey = ( year * 100 + month ) * 100 + day;
+		if ( dayKey != cachedDayKey )
+		{
+			cachedDayTime = daysFromCivil( year, month, day ) * 86400000L;
+			cachedDayKey = dayKey;
+		}
+		return cachedDayTime + hour * 3600000L + minute * 60000L + second * 1000L;
+	}
+
+	/**
+	 * days since 1970-01-01 of a proleptic Gregorian date
+	 */
+	static long daysFromCivil( int aYear, int aMonth, int aDay )
+	{
+		int year = aMonth <= 2 ? aYear - 1 : aYear;
+		int era = ( year >= 0 ? year : year - 399 ) / 400;
+		int yearOfEra = year - era * 400;
+		int dayOfYear = ( 153 * ( aMonth + ( aMonth > 2 ? -3 : 9 ) ) + 2 ) / 5 + aDay - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097L + dayOfEra - 719468;
+	}
+
+	public int getYear()
+	{
+		return year;
+	}
+
+	public int getMonth()
+	{
+		return month;
+	}
+
+	public int getDay()
+	{
+		return day;
+	}
+
+	public int getHour()
+	{
+		return hour;
+	}
+
+	public int getMinute()
+	{
+		return minute;
+	}
+
+	public int getSecond()
+	{
+		return second;
+	}
+
+	/**
+	 * @return bid price scaled by 10^bidDigits
+	 */
+	public long getBidPrice()
+	{
+		return bidPrice;
+	}
+
+	public int getBidDigits()
+	{
+		return bidDigits;
+	}
+
+	/**
+	 * @return ask price scaled by 10^askDigits
+	 */
+	public long getAskPrice()
+	{
+		return askPrice;
+	}
+
+	public int getAskDigits()
+	{
+		return askDigits;
+	}
+
+	/**
+	 * append bid price as in the quote
+	 * @param aBuilder builder
+	 */
+	public void appendBidPrice( StringBuilder aBuilder )
+	{
+		aBuilder.append( text, bidStart, bidEnd );
+	}
+
+	/**
+	 * append ask price as in the quote
+	 * @param aBuilder builder
+	 */
+	public void appendAskPrice( StringBuilder aBuilder )
+	{
+		aBuilder.append( text, askStart, askEnd );
+	}
+
+	/**
+	 * append ask minus bid in the same format as BigDecimal.subtract(...).toPlainString()
+	 * @param aBuilder builder
+	 */
+	public void appendSpread( StringBuilder aBuilder )
+	{
+		int digits = Math.max( bidDigits, askDigits );
+		long spread = askPrice * POWERS_OF_TEN[digits - askDigits] - bidPrice * POWERS_OF_TEN[digits - bidDigits];
+		appendScaled( aBuilder, spread, digits );
+	}
+
+	/**
+	 * @param aDigits number of decimal digits, at most 18
+	 * @return 10^aDigits
+	 */
+	static long powerOfTen( int aDigits )
+	{
+		return POWERS_OF_TEN[aDigits];
+	}
+
+	/**
+	 * append scaled value as plain decimal text
+	 * @param aBuilder builder
+	 * @param aValue value scaled by 10^aDigits
+	 * @param aDigits number of decimal digits
+	 */
+	public static void appendScaled( StringBuilder aBuilder, long aValue, int aDigits )
+	{
+		if ( aValue < 0 )
+		{
+			aBuilder.append( '-' );
+			aValue = -aValue;
+		}
+		if ( aDigits == 0 )
+		{
+			aBuilder.append( aValue );
+			return;
+		}
+		long scale = POWERS_OF_TEN[aDigits];
+		long fraction = aValue % scale;
+		aBuilder.append( aValue / scale );
+		aBuilder.append( '.' );
+		for( int i = aDigits - 1; i > 0 && fraction < POWERS_OF_TEN[i]; i-- )
+		{
+			aBuilder.append( '0' );
+		}
+		aBuilder.append( fraction );
+	}
+
+	/**
+	 * parse decimal price into scaled long, decimal digit count is left in parsedDigits and
+	 * total digit count in parsedPrecision
+	 */
+	private long parsePrice() throws ParseException
+	{
+		int start = position;
+		boolean negative = false;
+		if ( position < length && ( text.charAt( position ) == '-' || text.charAt( position ) == '+' ) )
+		{
+			negative = text.charAt( position ) == '-';
+			position++;
+		}
+		long value = 0;
+		int totalDigits = 0;
+		int digits = -1;
+		for( ; position < length; position++ )
+		{
+			char c = text.charAt( position );
+			if ( c >= '0' && c <= '9' )
+			{
+				value = value * 10 + ( c - '0' );
+				totalDigits++;
+				if ( digits >= 0 )
+				{
+					digits++;
+				}
+			}
+			else if ( c == '.' && digits < 0 )
+			{
+				digits = 0;
+			}
+			else if ( c == ' ' )
+			{
+				break;
+			}
+			else
+			{
+				throw new ParseException( "Invalid price character '" + c + "'", position );
+			}
+		}
+		if ( totalDigits == 0 || totalDigits > MAX_PRICE_DIGITS )
+		{
+			throw new ParseException( "Invalid price", start );
+		}
+		parsedDigits = digits < 0 ? 0 : digits;
+		parsedPrecision = totalDigits;
+		return negative ? -value : value;
+	}
+
+	/**
+	 * parse unsigned number terminated by the given separator or end of text
+	 */
+	private int parseNumber( char aSeparator ) throws ParseException
+	{
+		int start = position;
+		int value = 0;
+		for( ; position < length; position++ )
+		{
+			char c = text.charAt( position );
+			if ( c >= '0' && c <= '9' )
+			{
+				value = value * 10 + ( c - '0' );
+			}
+			else if ( c == aSeparator )
+			{
+				break;
+			}
+			else
+			{
+				throw new ParseException( "Unexpected character '" + c + "'", position );
+			}
+		}
+		if ( position == start || position - start > 9 )
+		{
+			throw new ParseException( "Invalid number", start );
+		}
+		if ( aSeparator != ' ' )
+		{
+			position++;
+		}
+		return value;
+	}
+
+	private void skipSpaces()
+	{
+		while( position < length && text.charAt( position ) == ' ' )
+		{
+			position++;
+		}
+	}
+}
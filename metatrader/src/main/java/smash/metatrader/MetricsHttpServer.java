@@ -0,0 +1,84 @@
+package smash.metatrader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP endpoint serving the publisher metrics at /metrics for Prometheus to scrape.
+ * Requests are served one at a time by the server dispatcher thread.
+ */
+public class MetricsHttpServer implements HttpHandler
+{
+	public static final String PATH = "/metrics";
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+	private final PublisherMetrics metrics;
+	private final HttpServer server;
+	private final StringBuilder builder = new StringBuilder( 8192 );
+
+	/**
+	 * create MetricsHttpServer bound to the address
+	 * @param aMetrics metrics served
+	 * @param aHost host name or address to bind, 0.0.0.0 for all interfaces
+	 * @param aPort port, 0 for any free port
+	 */
+	public MetricsHttpServer( PublisherMetrics aMetrics, String aHost, int aPort ) throws IOException
+	{
+		metrics = aMetrics;
+		server = HttpServer.create( new InetSocketAddress( aHost, aPort ), 0 );
+		server.createContext( PATH, this );
+	}
+
+	public void start()
+	{
+		server.start();
+	}
+
+	public void stop()
+	{
+		server.stop( 0 );
+	}
+
+	/**
+	 * @return port the server is bound to
+	 */
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	}
+
+	public void handle( HttpExchange anExchange ) throws IOException
+	{
+		try
+		{
+			if ( !"GET".equals( anExchange.getRequestMethod() ) && !"HEAD".equals( anExchange.getRequestMethod() ) )
+			{
+				anExchange.sendResponseHeaders( 405, -1 );
+				return;
+			}
+			builder.setLength( 0 );
+			metrics.writePrometheus( builder );
+			byte[] body = builder.toString().getBytes( UTF_8 );
+			anExchange.getResponseHeaders().set( "Content-Type", CONTENT_TYPE );
+			if ( "HEAD".equals( anExchange.getRequestMethod() ) )
+			{
+				anExchange.sendResponseHeaders( 200, -1 );
+				return;
+			}
+			anExchange.sendResponseHeaders( 200, body.length );
+			OutputStream out = anExchange.getResponseBody();
+			out.write( body );
+			out.close();
+		}
+		finally
+		{
+			anExchange.close();
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package smash.metatrader;
+
+/**
+ * Behaviour of a bounded queue when it is full
+ */
+public enum OverflowPolicy
+{
+	/**
+	 * block the offering thread until there is space
+	 */
+	BLOCK,
+	/**
+	 * drop the oldest queued quote to make space
+	 */
+	DROP_OLDEST,
+	/**
+	 * drop the offered quote
+	 */
+	DROP_NEWEST
+}
@@ -0,0 +1,257 @@
+package smash.metatrader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import smash.api.exception.RequestProcessingException;
+
+/**
+ * Accumulate quotes per dataset and publish them as a single payload once the batch reaches
+ * the maximum count or size or when the linger time of its first quote expires.
+ * A batch is published as { "dataset": "&lt;uuid&gt;", "batch": [ &lt;quote&gt;, ... ] }.
+ * With zero linger every quote is published on its own as before.
+ * Quotes carry their journal sequence so the worker knows up to which sequence quotes were published.
+ * A batch whose publish failed keeps its quotes and is published again after another linger time.
+ * Not thread safe, each publish worker owns its batcher.
+ */
+public class PublishBatcher
+{
+	private final PublishSink sink;
+	private final int maxCount;
+	private final int maxBytes;
+	private final long lingerNanos;
+	private final HashMap<String,DatasetBatch> batches = new HashMap<String,DatasetBatch>();
+	// batches holding quotes in order of their linger deadline
+	private final ArrayList<DatasetBatch> openBatches = new ArrayList<DatasetBatch>();
+	private long addedSequence;
+
+	/**
+	 * create PublishBatcher
+	 * @param aSink destination of the published quotes
+	 * @param aMaxCount maximum number of quotes in a batch
+	 * @param aMaxBytes maximum size of a batch payload
+	 * @param aLingerMillis maximum time in millisecond a quote waits for its batch to be published, 0 to publish every quote immediately
+	 */
+	public PublishBatcher( PublishSink aSink, int aMaxCount, int aMaxBytes, long aLingerMillis )
+	{
+		sink = aSink;
+		maxCount = aMaxCount;
+		maxBytes = aMaxBytes;
+		lingerNanos = aLingerMillis * 1000000L;
+	}
+
+	/**
+	 * add quote to the batch of its dataset
+	 * @param aDatasetUUID dataset UUID
+	 * @param aJSON quote JSON
+	 * @param aSequence journal sequence of the quote, 0 if not journaled
+	 * @throws RequestProcessingException if publishing fails
+	 */
+	public void add( String aDatasetUUID, String aJSON, long aSequence ) throws RequestProcessingException
+	{
+		addedSequence = aSequence;
+		DatasetBatch batch = batches.get( aDatasetUUID );
+		if ( batch == null )
+		{
+			batch = new DatasetBatch( aDatasetUUID );
+			batches.put( aDatasetUUID, batch );
+		}
+		if ( lingerNanos == 0 )
+		{
+			batch.record( 1, aJSON.length() );
+			sink.publishData( aDatasetUUID, aJSON );
+			return;
+		}
+		if ( batch.count > 0 && batch.payload.length() + aJSON.length() + 4 > maxBytes )
+		{
+			batch.byteFlushes++;
+			try
+			{
+				flush( batch );
+			}
+			catch( RequestProcessingException e )
+			{
+				// the quote goes to the batch kept for the retry
+				append( batch, aJSON, aSequence );
+				throw e;
+			}
+		}
+		append( batch, aJSON, aSequence );
+		if ( batch.count >= maxCount )
+		{
+			batch.countFlushes++;
+			flush( batch );
+		}
+		else if ( batch.payload.length() >= maxBytes )
+		{
+			batch.byteFlushes++;
+			flush( batch );
+		}
+	}
+
+	/**
+	 * append quote to a batch, opening it if empty
+	 */
+	private void append( DatasetBatch aBatch, String aJSON, long aSequence )
+	{
+		if ( aBatch.count == 0 )
+		{
+			aBatch.deadline = System.nanoTime() + lingerNanos;
+			aBatch.firstSequence = aSequence;
+			openBatches.add( aBatch );
+		}
+		else
+		{
+			aBatch.payload.append( ", " );
+		}
+		aBatch.payload.append( aJSON );
+		aBatch.count++;
+	}
+
+	/**
+	 * publish batches whose linger time expired
+	 * @throws RequestProcessingException if publishing fails
+	 */
+	public void flushExpired() throws RequestProcessingException
+	{
+		long now = System.nanoTime();
+		while( !openBatches.isEmpty() && openBatches.get( 0 ).deadline - now <= 0 )
+		{
+			DatasetBatch batch = openBatches.get( 0 );
+			batch.lingerFlushes++;
+			flush( batch );
+		}
+	}
+
+	/**
+	 * publish all pending batches
+	 * @throws RequestProcessingException if publishing fails
+	 */
+	public void flushAll() throws RequestProcessingException
+	{
+		while( !openBatches.isEmpty() )
+		{
+			flush( openBatches.get( 0 ) );
+		}
+	}
+
+	/**
+	 * drop pending batches without publishing them
+	 */
+	public void discardAll()
+	{
+		while( !openBatches.isEmpty() )
+		{
+			openBatches.remove( 0 ).reset();
+		}
+	}
+
+	/**
+	 * @return sequence up to which added quotes were published, quotes being added in sequence order
+	 */
+	public long getPublishedSequence()
+	{
+		// a batch kept after a failed publish may be behind later batches
+		long publishedSequence = addedSequence;
+		for( int i = 0; i < openBatches.size(); i++ )
+		{
+			publishedSequence = Math.min( publishedSequence, openBatches.get( i ).firstSequence - 1 );
+		}
+		return publishedSequence;
+	}
+
+	/**
+	 * @return nanoseconds until the next linger deadline, Long.MAX_VALUE if there is no pending batch
+	 */
+	public long getNanosToNextDeadline()
+	{
+		if ( openBatches.isEmpty() )
+		{
+			return Long.MAX_VALUE;
+		}
+		return Math.max( 0, openBatches.get( 0 ).deadline - System.nanoTime() );
+	}
+
+	/**
+	 * @return flush metrics by dataset UUID
+	 */
+	public Map<String,String> getMetrics()
+	{
+		LinkedHashMap<String,String> metrics = new LinkedHashMap<String,String>();
+		for( DatasetBatch batch: batches.values() )
+		{
+			metrics.put( batch.datasetUUID, "batches=" + batch.batchCount + " quotes=" + batch.quoteCount + " bytes=" + batch.byteCount
+						+ " countFlushes=" + batch.countFlushes + " byteFlushes=" + batch.byteFlushes + " lingerFlushes=" + batch.lingerFlushes );
+		}
+		return metrics;
+	}
+
+	/**
+	 * publish batch and start a new one, the batch is kept if publishing fails
+	 */
+	private void flush( DatasetBatch aBatch ) throws RequestProcessingException
+	{
+		int length = aBatch.payload.length();
+		aBatch.payload.append( " ] }" );
+		String payload = aBatch.payload.toString();
+		try
+		{
+			sink.publishData( aBatch.datasetUUID, payload );
+		}
+		catch( RequestProcessingException e )
+		{
+			aBatch.payload.setLength( length );
+			// retried after another linger time, the deadline order is kept as every other deadline is earlier
+			openBatches.remove( aBatch );
+			aBatch.deadline = System.nanoTime() + lingerNanos;
+			openBatches.add( aBatch );
+			throw e;
+		}
+		openBatches.remove( aBatch );
+		aBatch.record( aBatch.count, payload.length() );
+		aBatch.reset();
+	}
+
+	/**
+	 * batch and flush metrics of a dataset
+	 */
+	private static class DatasetBatch
+	{
+		private final String datasetUUID;
+		private final StringBuilder payload = new StringBuilder( 1024 );
+		private final int headerLength;
+		private int count;
+		private long deadline;
+		private long firstSequence;
+		private long batchCount;
+		private long quoteCount;
+		private long byteCount;
+		private long countFlushes;
+		private long byteFlushes;
+		private long lingerFlushes;
+
+		private DatasetBatch( String aDatasetUUID )
+		{
+			datasetUUID = aDatasetUUID;
+			payload.append( "{ \"dataset\": \"" );
+			payload.append( aDatasetUUID );
+			payload.append( "\", \"batch\": [ " );
+			headerLength = payload.length();
+		}
+
+		private void record( int aQuoteCount, int aByteCount )
+		{
+			batchCount++;
+			quoteCount += aQuoteCount;
+			byteCount += aByteCount;
+		}
+
+		private void reset()
+		{
+			payload.setLength( headerLength );
+			count = 0;
+		}
+	}
+}
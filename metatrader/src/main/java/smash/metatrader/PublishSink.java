@@ -0,0 +1,49 @@
+package smash.metatrader;
+
+import smash.api.DataCallback;
+import smash.api.SessionEventCallback;
+import smash.api.exception.RequestProcessingException;
+
+/**
+ * Destination of published quotes, Smash.bi or a stand-in for testing
+ */
+public interface PublishSink
+{
+	/**
+	 * connect the sink
+	 * @param aCallback receiver of session events
+	 * @throws Exception if the sink cannot be connected
+	 */
+	void open( SessionEventCallback aCallback ) throws Exception;
+
+	/**
+	 * log in
+	 * @param aUserId user id
+	 * @param aPassword password
+	 * @param aCallback receiver of the login response
+	 * @throws Exception if the login cannot be sent
+	 */
+	void login( String aUserId, String aPassword, DataCallback aCallback ) throws Exception;
+
+	/**
+	 * request permission to publish a dataset
+	 * @param aDatasetUUID dataset UUID
+	 * @param aCallback receiver of the response, granted with status SUCCESS
+	 * @throws Exception if the request cannot be sent
+	 */
+	void publishDataRequest( String aDatasetUUID, DataCallback aCallback ) throws Exception;
+
+	/**
+	 * publish data to a dataset
+	 * @param aDatasetUUID dataset UUID
+	 * @param aJSON record or batch JSON
+	 * @throws RequestProcessingException if the data cannot be published
+	 */
+	void publishData( String aDatasetUUID, String aJSON ) throws RequestProcessingException;
+
+	/**
+	 * log out and disconnect
+	 * @throws Exception if the logout cannot be sent
+	 */
+	void logout() throws Exception;
+}
@@ -0,0 +1,572 @@
+package smash.metatrader;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+/**
+ * Latency histograms of the quote pipeline stages and throughput counters of the publisher.
+ * Percentiles are computed over fixed windows, a timer completes the window so the reported
+ * percentiles and tick rates always cover the last window of recent activity.
+ * Counts and sums are kept since start as expected by Prometheus summaries.
+ */
+public class PublisherMetrics extends TimerTask implements PublisherMetricsMXBean
+{
+	/**
+	 * stage of the quote pipeline
+	 */
+	public enum Stage
+	{
+		/**
+		 * from the quote source callback to the quote queued
+		 */
+		RECEIVE( "receive" ),
+		/**
+		 * from the quote source callback to the quote taken by its publish worker
+		 */
+		DEQUEUE( "dequeue" ),
+		/**
+		 * quote converted to JSON
+		 */
+		SERIALIZE( "serialize" ),
+		/**
+		 * quote handed to Smash, or to its batch when batching
+		 */
+		PUBLISH( "publish" ),
+		/**
+		 * from the quote source callback to the publish returning
+		 */
+		END_TO_END( "endToEnd" );
+
+		private final String label;
+
+		private Stage( String aLabel )
+		{
+			label = aLabel;
+		}
+
+		public String getLabel()
+		{
+			return label;
+		}
+	}
+
+	public static final String OBJECT_NAME = "smash.metatrader:type=PublisherMetrics";
+	private static final double[] PERCENTILES = { 50, 99, 99.9 };
+	private static final String[] PERCENTILE_NAMES = { "p50", "p99", "p999" };
+	private static final String[] QUANTILES = { "0.5", "0.99", "0.999" };
+	private final long windowMillis;
+	private final StageLatency[] stages = new StageLatency[Stage.values().length];
+	private final ConcurrentHashMap<String,SymbolCounter> symbolCounters = new ConcurrentHashMap<String,SymbolCounter>();
+	// counters indexed by symbol id, copied on write when a symbol is seen the first time
+	private volatile SymbolCounter[] symbolCountersById = new SymbolCounter[0];
+	private final AtomicLong publishErrorCount = new AtomicLong();
+	private final AtomicLong journalErrorCount = new AtomicLong();
+	private volatile QuoteQueue[] queues = new QuoteQueue[0];
+	private volatile SubscriptionPipeline subscriptions;
+	private Timer timer;
+
+	/**
+	 * create PublisherMetrics
+	 * @param aWindowMillis length in millisecond of the window percentiles and rates are computed over
+	 */
+	public PublisherMetrics( long aWindowMillis )
+	{
+		if ( aWindowMillis <= 0 )
+		{
+			throw new IllegalArgumentException( "Invalid window " + aWindowMillis );
+		}
+		windowMillis = aWindowMillis;
+		for( int i = 0; i < stages.length; i++ )
+		{
+			stages[i] = new StageLatency();
+		}
+	}
+
+	/**
+	 * start completing windows in the background
+	 */
+	public synchronized void start()
+	{
+		if ( timer == null )
+		{
+			timer = new Timer( "PublisherMetrics", true );
+			timer.scheduleAtFixedRate( this, windowMillis, windowMillis );
+		}
+	}
+
+	/**
+	 * stop completing windows
+	 */
+	public synchronized void stop()
+	{
+		if ( timer != null )
+		{
+			timer.cancel();
+			timer = null;
+		}
+	}
+
+	/**
+	 * register with the platform MBean server
+	 */
+	public void registerMBean() throws Exception
+	{
+		ManagementFactory.getPlatformMBeanServer().registerMBean( this, new ObjectName( OBJECT_NAME ) );
+	}
+
+	/**
+	 * unregister from the platform MBean server if registered
+	 */
+	public void unregisterMBean() throws Exception
+	{
+		ObjectName name = new ObjectName( OBJECT_NAME );
+		if ( ManagementFactory.getPlatformMBeanServer().isRegistered( name ) )
+		{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean( name );
+		}
+	}
+
+	/**
+	 * @param aQueues queues of the publish workers reported as queue depth, conflated and dropped quotes
+	 */
+	public void setQueues( QuoteQueue[] aQueues )
+	{
+		queues = aQueues;
+	}
+
+	/**
+	 * @param aSubscriptions subscription pipeline reported as subscription readiness
+	 */
+	public void setSubscriptions( SubscriptionPipeline aSubscriptions )
+	{
+		subscriptions = aSubscriptions;
+	}
+
+	/**
+	 * record latency of a stage
+	 * @param aStage stage
+	 * @param aNanos latency in nanosecond
+	 */
+	public void record( Stage aStage, long aNanos )
+	{
+		stages[aStage.ordinal()].record( aNanos );
+	}
+
+	/**
+	 * count quote published
+	 * @param aSymbolId id of the symbol in the SymbolTable
+	 * @param aSymbol symbol
+	 */
+	public void recordTick( int aSymbolId, String aSymbol )
+	{
+		counterOf( aSymbolId, aSymbol ).count.incrementAndGet();
+	}
+
+	/**
+	 * count quote not published by the quote filter
+	 * @param aSymbolId id of the symbol in the SymbolTable
+	 * @param aSymbol symbol
+	 * @param aDuplicate true if the quote repeated the last published prices, false if over the rate limit
+	 */
+	public void recordSuppressed( int aSymbolId, String aSymbol, boolean aDuplicate )
+	{
+		SymbolCounter counter = counterOf( aSymbolId, aSymbol );
+		( aDuplicate ? counter.duplicates : counter.rateLimited ).incrementAndGet();
+	}
+
+	private SymbolCounter counterOf( int aSymbolId, String aSymbol )
+	{
+		SymbolCounter[] counters = symbolCountersById;
+		SymbolCounter counter = aSymbolId < counters.length ? counters[aSymbolId] : null;
+		return counter != null ? counter : addSymbolCounter( aSymbolId, aSymbol );
+	}
+
+	private synchronized SymbolCounter addSymbolCounter( int aSymbolId, String aSymbol )
+	{
+		SymbolCounter[] counters = symbolCountersById;
+		if ( aSymbolId < counters.length && counters[aSymbolId] != null )
+		{
+			return counters[aSymbolId];
+		}
+		SymbolCounter counter = symbolCounters.get( aSymbol );
+		if ( counter == null )
+		{
+			counter = new SymbolCounter();
+			symbolCounters.put( aSymbol, counter );
+		}
+		counters = Arrays.copyOf( counters, Math.max( counters.length, aSymbolId + 1 ) );
+		counters[aSymbolId] = counter;
+		symbolCountersById = counters;
+		return counter;
+	}
+
+	/**
+	 * count failed publish attempt
+	 */
+	public void recordPublishError()
+	{
+		publishErrorCount.incrementAndGet();
+	}
+
+	/**
+	 * count tick dropped because it could not be journaled
+	 */
+	public void recordJournalError()
+	{
+		journalErrorCount.incrementAndGet();
+	}
+
+	/**
+	 * @param aStage stage
+	 * @return latency histogram of the last completed window
+	 */
+	public LatencyHistogram getLatency( Stage aStage )
+	{
+		return stages[aStage.ordinal()].completed;
+	}
+
+	/**
+	 * complete the current window
+	 */
+	public void run()
+	{
+		for( StageLatency stage: stages )
+		{
+			stage.rotate();
+		}
+		for( SymbolCounter counter: symbolCounters.values() )
+		{
+			long count = counter.count.get();
+			counter.ticksPerSecond = ( count - counter.windowStartCount ) * 1000.0 / windowMillis;
+			counter.windowStartCount = count;
+		}
+	}
+
+	public long getPublishedCount()
+	{
+		return stages[Stage.PUBLISH.ordinal()].getCount();
+	}
+
+	public long getPublishErrorCount()
+	{
+		return publishErrorCount.get();
+	}
+
+	public long getJournalErrorCount()
+	{
+		return journalErrorCount.get();
+	}
+
+	public int getQueueDepth()
+	{
+		int depth = 0;
+		for( QuoteQueue queue: queues )
+		{
+			depth += queue.size();
+		}
+		return depth;
+	}
+
+	public long getConflatedCount()
+	{
+		long count = 0;
+		for( QuoteQueue queue: queues )
+		{
+			if ( queue instanceof ConflatingQuoteQueue )
+			{
+				count += ((ConflatingQuoteQueue)queue).getConflatedCount();
+			}
+		}
+		return count;
+	}
+
+	public long getDroppedCount()
+	{
+		long count = 0;
+		for( QuoteQueue queue: queues )
+		{
+			if ( queue instanceof RingBufferQuoteQueue )
+			{
+				count += ((RingBufferQuoteQueue)queue).getDroppedCount();
+			}
+		}
+		return count;
+	}
+
+	public int getSubscriptionCount()
+	{
+		SubscriptionPipeline current = subscriptions;
+		return current == null ? 0 : current.getTotalCount();
+	}
+
+	public int getLiveSubscriptionCount()
+	{
+		SubscriptionPipeline current = subscriptions;
+		return current == null ? 0 : current.getLiveCount();
+	}
+
+	public long getStartupMillis()
+	{
+		SubscriptionPipeline current = subscriptions;
+		return current == null ? -1 : current.getStartupMillis();
+	}
+
+	public Map<String,Long> getTicksBySymbol()
+	{
+		TreeMap<String,Long> ticks = new TreeMap<String,Long>();
+		for( Map.Entry<String,SymbolCounter> entry: symbolCounters.entrySet() )
+		{
+			ticks.put( entry.getKey(), entry.getValue().count.get() );
+		}
+		return ticks;
+	}
+
+	public Map<String,Double> getTicksPerSecondBySymbol()
+	{
+		TreeMap<String,Double> rates = new TreeMap<String,Double>();
+		for( Map.Entry<String,SymbolCounter> entry: symbolCounters.entrySet() )
+		{
+			rates.put( entry.getKey(), entry.getValue().ticksPerSecond );
+		}
+		return rates;
+	}
+
+	public Map<String,Long> getDuplicatesBySymbol()
+	{
+		TreeMap<String,Long> duplicates = new TreeMap<String,Long>();
+		for( Map.Entry<String,SymbolCounter> entry: symbolCounters.entrySet() )
+		{
+			duplicates.put( entry.getKey(), entry.getValue().duplicates.get() );
+		}
+		return duplicates;
+	}
+
+	public Map<String,Long> getRateLimitedBySymbol()
+	{
+		TreeMap<String,Long> rateLimited = new TreeMap<String,Long>();
+		for( Map.Entry<String,SymbolCounter> entry: symbolCounters.entrySet() )
+		{
+			rateLimited.put( entry.getKey(), entry.getValue().rateLimited.get() );
+		}
+		return rateLimited;
+	}
+
+	public Map<String,Long> getLatencyMicros()
+	{
+		TreeMap<String,Long> latencies = new TreeMap<String,Long>();
+		for( Stage stage: Stage.values() )
+		{
+			LatencyHistogram histogram = getLatency( stage );
+			for( int i = 0; i < PERCENTILES.length; i++ )
+			{
+				latencies.put( stage.getLabel() + "." + PERCENTILE_NAMES[i], histogram.getValueAtPercentile( PERCENTILES[i] ) / 1000 );
+			}
+			latencies.put( stage.getLabel() + ".max", histogram.getMax() / 1000 );
+		}
+		return latencies;
+	}
+
+	/**
+	 * write metrics in the Prometheus text exposition format
+	 * @param aBuilder output
+	 */
+	public void writePrometheus( StringBuilder aBuilder )
+	{
+		aBuilder.append( "# HELP smash_metatrader_latency_seconds Latency of the quote pipeline stages over the last window\n" );
+		aBuilder.append( "# TYPE smash_metatrader_latency_seconds summary\n" );
+		for( Stage stage: Stage.values() )
+		{
+			StageLatency latency = stages[stage.ordinal()];
+			LatencyHistogram histogram = latency.completed;
+			for( int i = 0; i < PERCENTILES.length; i++ )
+			{
+				aBuilder.append( "smash_metatrader_latency_seconds{stage=\"" ).append( stage.getLabel() ).append( "\",quantile=\"" )
+						.append( QUANTILES[i] ).append( "\"} " ).append( histogram.getValueAtPercentile( PERCENTILES[i] ) / 1e9 ).append( '\n' );
+			}
+			aBuilder.append( "smash_metatrader_latency_seconds_sum{stage=\"" ).append( stage.getLabel() ).append( "\"} " )
+					.append( latency.getSum() / 1e9 ).append( '\n' );
+			aBuilder.append( "smash_metatrader_latency_seconds_count{stage=\"" ).append( stage.getLabel() ).append( "\"} " )
+					.append( latency.getCount() ).append( '\n' );
+		}
+		aBuilder.append( "# HELP smash_metatrader_latency_max_seconds Maximum latency of the quote pipeline stages over the last window\n" );
+		aBuilder.append( "# TYPE smash_metatrader_latency_max_seconds gauge\n" );
+		for( Stage stage: Stage.values() )
+		{
+			aBuilder.append( "smash_metatrader_latency_max_seconds{stage=\"" ).append( stage.getLabel() ).append( "\"} " )
+					.append( getLatency( stage ).getMax() / 1e9 ).append( '\n' );
+		}
+		aBuilder.append( "# HELP smash_metatrader_queue_depth Quotes waiting for their publish worker\n" );
+		aBuilder.append( "# TYPE smash_metatrader_queue_depth gauge\n" );
+		QuoteQueue[] current = queues;
+		for( int i = 0; i < current.length; i++ )
+		{
+			aBuilder.append( "smash_metatrader_queue_depth{worker=\"" ).append( i ).append( "\"} " ).append( current[i].size() ).append( '\n' );
+		}
+		aBuilder.append( "# HELP smash_metatrader_conflated_total Quotes replaced by a newer quote in the queue of their publish worker\n" );
+		aBuilder.append( "# TYPE smash_metatrader_conflated_total counter\n" );
+		for( int i = 0; i < current.length; i++ )
+		{
+			if ( current[i] instanceof ConflatingQuoteQueue )
+			{
+				aBuilder.append( "smash_metatrader_conflated_total{worker=\"" ).append( i ).append( "\"} " )
+						.append( ((ConflatingQuoteQueue)current[i]).getConflatedCount() ).append( '\n' );
+			}
+		}
+		aBuilder.append( "# HELP smash_metatrader_dropped_total Quotes dropped by the full queue of their publish worker\n" );
+		aBuilder.append( "# TYPE smash_metatrader_dropped_total counter\n" );
+		for( int i = 0; i < current.length; i++ )
+		{
+			if ( current[i] instanceof RingBufferQuoteQueue )
+			{
+				aBuilder.append( "smash_metatrader_dropped_total{worker=\"" ).append( i ).append( "\"} " )
+						.append( ((RingBufferQuoteQueue)current[i]).getDroppedCount() ).append( '\n' );
+			}
+		}
+		aBuilder.append( "# HELP smash_metatrader_ticks_total Quotes published\n" );
+		aBuilder.append( "# TYPE smash_metatrader_ticks_total counter\n" );
+		for( Map.Entry<String,Long> entry: getTicksBySymbol().entrySet() )
+		{
+			appendSymbolSample( aBuilder, "smash_metatrader_ticks_total", entry.getKey() ).append( entry.getValue() ).append( '\n' );
+		}
+		aBuilder.append( "# HELP smash_metatrader_ticks_per_second Quotes published per second over the last window\n" );
+		aBuilder.append( "# TYPE smash_metatrader_ticks_per_second gauge\n" );
+		for( Map.Entry<String,Double> entry: getTicksPerSecondBySymbol().entrySet() )
+		{
+			appendSymbolSample( aBuilder, "smash_metatrader_ticks_per_second", entry.getKey() ).append( entry.getValue() ).append( '\n' );
+		}
+		aBuilder.append( "# HELP smash_metatrader_suppressed_total Quotes not published by the quote filter\n" );
+		aBuilder.append( "# TYPE smash_metatrader_suppressed_total counter\n" );
+		for( Map.Entry<String,Long> entry: getDuplicatesBySymbol().entrySet() )
+		{
+			appendSymbolLabel( aBuilder.append( "smash_metatrader_suppressed_total{symbol=\"" ), entry.getKey() )
+					.append( "\",reason=\"duplicate\"} " ).append( entry.getValue() ).append( '\n' );
+		}
+		for( Map.Entry<String,Long> entry: getRateLimitedBySymbol().entrySet() )
+		{
+			appendSymbolLabel( aBuilder.append( "smash_metatrader_suppressed_total{symbol=\"" ), entry.getKey() )
+					.append( "\",reason=\"rateLimited\"} " ).append( entry.getValue() ).append( '\n' );
+		}
+		SubscriptionPipeline pipeline = subscriptions;
+		if ( pipeline != null )
+		{
+			aBuilder.append( "# HELP smash_metatrader_subscriptions Datasets requested for publishing by state\n" );
+			aBuilder.append( "# TYPE smash_metatrader_subscriptions gauge\n" );
+			aBuilder.append( "smash_metatrader_subscriptions{state=\"total\"} " ).append( pipeline.getTotalCount() ).append( '\n' );
+			aBuilder.append( "smash_metatrader_subscriptions{state=\"live\"} " ).append( pipeline.getLiveCount() ).append( '\n' );
+			aBuilder.append( "smash_metatrader_subscriptions{state=\"outstanding\"} " ).append( pipeline.getOutstandingCount() ).append( '\n' );
+			aBuilder.append( "# HELP smash_metatrader_subscription_retries_total Publish requests retried after a denial or timeout\n" );
+			aBuilder.append( "# TYPE smash_metatrader_subscription_retries_total counter\n" );
+			aBuilder.append( "smash_metatrader_subscription_retries_total " ).append( pipeline.getRetryCount() ).append( '\n' );
+			aBuilder.append( "# HELP smash_metatrader_startup_seconds Time from login until every dataset was live, -1 until then\n" );
+			aBuilder.append( "# TYPE smash_metatrader_startup_seconds gauge\n" );
+			long startupMillis = pipeline.getStartupMillis();
+			aBuilder.append( "smash_metatrader_startup_seconds " ).append( startupMillis < 0 ? -1 : startupMillis / 1e3 ).append( '\n' );
+		}
+		aBuilder.append( "# HELP smash_metatrader_publish_errors_total Failed publish attempts\n" );
+		aBuilder.append( "# TYPE smash_metatrader_publish_errors_total counter\n" );
+		aBuilder.append( "smash_metatrader_publish_errors_total " ).append( publishErrorCount.get() ).append( '\n' );
+		aBuilder.append( "# HELP smash_metatrader_journal_errors_total Ticks dropped because they could not be journaled\n" );
+		aBuilder.append( "# TYPE smash_metatrader_journal_errors_total counter\n" );
+		aBuilder.append( "smash_metatrader_journal_errors_total " ).append( journalErrorCount.get() ).append( '\n' );
+	}
+
+	/**
+	 * append sample name with symbol label, escaping the label value
+	 */
+	private static StringBuilder appendSymbolSample( StringBuilder aBuilder, String aName, String aSymbol )
+	{
+		aBuilder.append( aName ).append( "{symbol=\"" );
+		return appendSymbolLabel( aBuilder, aSymbol ).append( "\"} " );
+	}
+
+	/**
+	 * append symbol escaped as label value
+	 */
+	private static StringBuilder appendSymbolLabel( StringBuilder aBuilder, String aSymbol )
+	{
+		for( int i = 0; i < aSymbol.length(); i++ )
+		{
+			char c = aSymbol.charAt( i );
+			if ( c == '\\' || c == '"' )
+			{
+				aBuilder.append( '\\' ).append( c );
+			}
+			else if ( c == '\n' )
+			{
+				aBuilder.append( "\\n" );
+			}
+			else
+			{
+				aBuilder.append( c );
+			}
+		}
+		return aBuilder;
+	}
+
+	/**
+	 * latency of a stage recorded into the current window, the count and sum since start are
+	 * those of the histograms so a record only updates the histogram
+	 */
+	private static class StageLatency
+	{
+		// count and sum of the histograms of the windows before the completed one
+		private long retiredCount;
+		private long retiredSum;
+		private volatile LatencyHistogram recording = new LatencyHistogram();
+		private volatile LatencyHistogram completed = new LatencyHistogram();
+
+		private void record( long aNanos )
+		{
+			recording.record( aNanos );
+		}
+
+		/**
+		 * complete the recording window, a fresh histogram is used so late records of threads
+		 * still holding the completed one are not lost
+		 */
+		private synchronized void rotate()
+		{
+			LatencyHistogram next = new LatencyHistogram();
+			retiredCount += completed.getCount();
+			retiredSum += completed.getSum();
+			completed = recording;
+			recording = next;
+		}
+
+		/**
+		 * @return number of records since start
+		 */
+		private synchronized long getCount()
+		{
+			return retiredCount + completed.getCount() + recording.getCount();
+		}
+
+		/**
+		 * @return sum of the records since start
+		 */
+		private synchronized long getSum()
+		{
+			return retiredSum + completed.getSum() + recording.getSum();
+		}
+	}
+
+	/**
+	 * published and suppressed quotes of a symbol
+	 */
+	private static class SymbolCounter
+	{
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong duplicates = new AtomicLong();
+		private final AtomicLong rateLimited = new AtomicLong();
+		private long windowStartCount;
+		private volatile double ticksPerSecond;
+	}
+}
@@ -0,0 +1,79 @@
+package smash.metatrader;
+
+import java.util.Map;
+
+/**
+ * JMX view of the publisher metrics, latencies are in microsecond over the last completed window
+ */
+public interface PublisherMetricsMXBean
+{
+	/**
+	 * @return number of quotes published since start
+	 */
+	long getPublishedCount();
+
+	/**
+	 * @return number of failed publish attempts since start
+	 */
+	long getPublishErrorCount();
+
+	/**
+	 * @return number of ticks dropped since start because they could not be journaled
+	 */
+	long getJournalErrorCount();
+
+	/**
+	 * @return number of quotes waiting in the queues of the publish workers
+	 */
+	int getQueueDepth();
+
+	/**
+	 * @return number of quotes replaced by a newer quote in the conflating queues of the publish workers since start
+	 */
+	long getConflatedCount();
+
+	/**
+	 * @return number of quotes dropped by the full ring buffer queues of the publish workers since start
+	 */
+	long getDroppedCount();
+
+	/**
+	 * @return number of datasets requested for publishing after login
+	 */
+	int getSubscriptionCount();
+
+	/**
+	 * @return number of datasets granted with their quotes started
+	 */
+	int getLiveSubscriptionCount();
+
+	/**
+	 * @return time in millisecond from login until every dataset was live, -1 until then
+	 */
+	long getStartupMillis();
+
+	/**
+	 * @return number of quotes published since start by symbol
+	 */
+	Map<String,Long> getTicksBySymbol();
+
+	/**
+	 * @return quotes published per second over the last completed window by symbol
+	 */
+	Map<String,Double> getTicksPerSecondBySymbol();
+
+	/**
+	 * @return number of quotes dropped since start as repeating the last published prices by symbol
+	 */
+	Map<String,Long> getDuplicatesBySymbol();
+
+	/**
+	 * @return number of quotes replaced by a newer quote since start to keep under the rate limit by symbol
+	 */
+	Map<String,Long> getRateLimitedBySymbol();
+
+	/**
+	 * @return latency percentiles in microsecond keyed by stage and percentile e.g. endToEnd.p99
+	 */
+	Map<String,Long> getLatencyMicros();
+}
@@ -0,0 +1,51 @@
+package smash.metatrader;
+
+/**
+ * Quote received from Meta Trader waiting to be published
+ */
+class QueuedData
+{
+	long receivedTime;
+	long receivedNanos;
+	long sequence;
+	int symbolId;
+	String item;
+	String data;
+
+	/**
+	 * create empty QueuedData to be filled by set
+	 */
+	QueuedData()
+	{
+	}
+
+	/**
+	 * create QueuedData of symbol id 0
+	 * @param aReceivedTime time received in millisecond
+	 * @param anItem Meta Trader item i.e. symbol
+	 * @param aData quote data
+	 */
+	QueuedData( long aReceivedTime, String anItem, String aData )
+	{
+		set( aReceivedTime, System.nanoTime(), 0, 0, anItem, aData );
+	}
+
+	/**
+	 * set content
+	 * @param aReceivedTime time received in millisecond
+	 * @param aReceivedNanos System.nanoTime() when received, used to measure latency
+	 * @param aSequence journal sequence, 0 if not journaled
+	 * @param aSymbolId id of the symbol in the SymbolTable
+	 * @param anItem Meta Trader item i.e. symbol
+	 * @param aData quote data
+	 */
+	void set( long aReceivedTime, long aReceivedNanos, long aSequence, int aSymbolId, String anItem, String aData )
+	{
+		receivedTime = aReceivedTime;
+		receivedNanos = aReceivedNanos;
+		sequence = aSequence;
+		symbolId = aSymbolId;
+		item = anItem;
+		data = aData;
+	}
+}
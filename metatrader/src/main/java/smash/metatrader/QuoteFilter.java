@@ -0,0 +1,274 @@
+package smash.metatrader;
+
+import java.util.Arrays;
+
+/**
+ * Filter of the parsed quotes of a publish worker before they are serialized. Quotes repeating the
+ * last published bid and ask of their symbol are dropped unless the heartbeat interval elapsed.
+ * The publish rate of a symbol is capped by a token bucket, a quote over the rate is held and
+ * replaced by newer quotes so the latest value is published as soon as the bucket refills.
+ * State is kept in arrays indexed by symbol id. Not thread safe, a symbol is always handled by
+ * the same publish worker.
+ */
+public class QuoteFilter
+{
+	/**
+	 * outcome of a quote
+	 */
+	public enum Decision
+	{
+		/**
+		 * publish the quote now
+		 */
+		PUBLISH,
+		/**
+		 * drop the quote
+		 */
+		DROP,
+		/**
+		 * the filter holds the quote until the rate allows it, see pollHeld
+		 */
+		HOLD
+	}
+
+	private final boolean suppressDuplicates;
+	private final long heartbeatNanos;
+	// 0 for no rate limit
+	private final double tokensPerNano;
+	private final double burst;
+	private final PublisherMetrics metrics;
+	private boolean[] published = new boolean[0];
+	private long[] lastBid = new long[0];
+	private int[] lastBidDigits = new int[0];
+	private long[] lastAsk = new long[0];
+	private int[] lastAskDigits = new int[0];
+	private long[] lastPublishNanos = new long[0];
+	private double[] tokens = new double[0];
+	private long[] refillNanos = new long[0];
+	private QueuedData[] held = new QueuedData[0];
+	private long[] heldBid = new long[0];
+	private int[] heldBidDigits = new int[0];
+	private long[] heldAsk = new long[0];
+	private int[] heldAskDigits = new int[0];
+	private boolean[] holding = new boolean[0];
+	// ids of the symbols with a held quote
+	private int[] holdingList = new int[16];
+	private int holdingCount;
+
+	/**
+	 * create QuoteFilter
+	 * @param aSuppressDuplicates true to drop quotes repeating the last published bid and ask
+	 * @param aHeartbeatMillis interval after which a repeated quote is published anyway, 0 for none
+	 * @param aMaxPerSecond maximum quotes published per second and symbol, 0 for no limit
+	 * @param aBurst quotes a symbol may publish at once after being quiet
+	 * @param aMetrics metrics counting the suppressed quotes
+	 */
+	public QuoteFilter( boolean aSuppressDuplicates, long aHeartbeatMillis, double aMaxPerSecond, int aBurst, PublisherMetrics aMetrics )
+	{
+		if ( aHeartbeatMillis < 0 || aMaxPerSecond < 0 || aBurst < 1 )
+		{
+			throw new IllegalArgumentException( "Invalid filter heartbeat " + aHeartbeatMillis + " rate " + aMaxPerSecond + " burst " + aBurst );
+		}
+		suppressDuplicates = aSuppressDuplicates;
+		heartbeatNanos = aHeartbeatMillis * 1000000L;
+		tokensPerNano = aMaxPerSecond / 1e9;
+		burst = aBurst;
+		metrics = aMetrics;
+	}
+
+	/**
+	 * @param aData quote
+	 * @param aParser parser holding the parsed quote
+	 * @param aNowNanos System.nanoTime()
+	 * @return decision, the filter copies the quote when holding it
+	 */
+	public Decision accept( QueuedData aData, MetaTraderQuoteParser aParser, long aNowNanos )
+	{
+		int id = aData.symbolId;
+		ensureCapacity( id );
+		refill( id, aNowNanos );
+		long bid = aParser.getBidPrice();
+		int bidDigits = aParser.getBidDigits();
+		long ask = aParser.getAskPrice();
+		int askDigits = aParser.getAskDigits();
+		if ( suppressDuplicates && published[id] && bid == lastBid[id] && bidDigits == lastBidDigits[id] && ask == lastAsk[id]
+				&& askDigits == lastAskDigits[id] && ( heartbeatNanos == 0 || aNowNanos - lastPublishNanos[id] < heartbeatNanos ) )
+		{
+			// the latest value is the published one, a held quote is stale
+			if ( holding[id] )
+			{
+				release( id );
+				metrics.recordSuppressed( id, aData.item, false );
+			}
+			metrics.recordSuppressed( id, aData.item, true );
+			return Decision.DROP;
+		}
+		if ( tokensPerNano > 0 && tokens[id] < 1 )
+		{
+			if ( holding[id] )
+			{
+				metrics.recordSuppressed( id, aData.item, false );
+			}
+			else
+			{
+				hold( id );
+			}
+			held[id].set( aData.receivedTime, aData.receivedNanos, aData.sequence, id, aData.item, aData.data );
+			heldBid[id] = bid;
+			heldBidDigits[id] = bidDigits;
+			heldAsk[id] = ask;
+			heldAskDigits[id] = askDigits;
+			return Decision.HOLD;
+		}
+		if ( holding[id] )
+		{
+			release( id );
+			metrics.recordSuppressed( id, aData.item, false );
+		}
+		published( id, bid, bidDigits, ask, askDigits, aNowNanos );
+		return Decision.PUBLISH;
+	}
+
+	/**
+	 * take a held quote the rate now allows to publish
+	 * @param aNowNanos System.nanoTime()
+	 * @param anAll true to take held quotes regardless of the rate e.g. on shutdown
+	 * @return held quote valid until the next call or null if none is due
+	 */
+	public QueuedData pollHeld( long aNowNanos, boolean anAll )
+	{
+		for( int i = 0; i < holdingCount; i++ )
+		{
+			int id = holdingList[i];
+			refill( id, aNowNanos );
+			if ( anAll || tokens[id] >= 1 )
+			{
+				release( id );
+				published( id, heldBid[id], heldBidDigits[id], heldAsk[id], heldAskDigits[id], aNowNanos );
+				return held[id];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param aNowNanos System.nanoTime()
+	 * @return nanosecond until a held quote is due, Long.MAX_VALUE if none is held
+	 */
+	public long getNanosToNextHeld( long aNowNanos )
+	{
+		long nanos = Long.MAX_VALUE;
+		for( int i = 0; i < holdingCount; i++ )
+		{
+			int id = holdingList[i];
+			double available = Math.min( burst, tokens[id] + Math.max( 0, aNowNanos - refillNanos[id] ) * tokensPerNano );
+			nanos = Math.min( nanos, available >= 1 ? 0 : (long)Math.ceil( ( 1 - available ) / tokensPerNano ) );
+		}
+		return nanos;
+	}
+
+	/**
+	 * @return lowest journal sequence of the held quotes, Long.MAX_VALUE if none is held
+	 */
+	public long getOldestHeldSequence()
+	{
+		long sequence = Long.MAX_VALUE;
+		for( int i = 0; i < holdingCount; i++ )
+		{
+			sequence = Math.min( sequence, held[holdingList[i]].sequence );
+		}
+		return sequence;
+	}
+
+	/**
+	 * forget held quotes e.g. when they are published again by a journal replay
+	 */
+	public void discardHeld()
+	{
+		for( int i = 0; i < holdingCount; i++ )
+		{
+			holding[holdingList[i]] = false;
+		}
+		holdingCount = 0;
+	}
+
+	private void published( int anId, long aBid, int aBidDigits, long anAsk, int anAskDigits, long aNowNanos )
+	{
+		if ( tokensPerNano > 0 )
+		{
+			tokens[anId] -= 1;
+		}
+		published[anId] = true;
+		lastBid[anId] = aBid;
+		lastBidDigits[anId] = aBidDigits;
+		lastAsk[anId] = anAsk;
+		lastAskDigits[anId] = anAskDigits;
+		lastPublishNanos[anId] = aNowNanos;
+	}
+
+	private void refill( int anId, long aNowNanos )
+	{
+		if ( tokensPerNano > 0 )
+		{
+			if ( refillNanos[anId] != Long.MIN_VALUE )
+			{
+				tokens[anId] = Math.min( burst, tokens[anId] + Math.max( 0, aNowNanos - refillNanos[anId] ) * tokensPerNano );
+			}
+			refillNanos[anId] = aNowNanos;
+		}
+	}
+
+	private void hold( int anId )
+	{
+		if ( holdingCount == holdingList.length )
+		{
+			holdingList = Arrays.copyOf( holdingList, holdingCount * 2 );
+		}
+		holdingList[holdingCount++] = anId;
+		holding[anId] = true;
+	}
+
+	private void release( int anId )
+	{
+		holding[anId] = false;
+		for( int i = 0; i < holdingCount; i++ )
+		{
+			if ( holdingList[i] == anId )
+			{
+				holdingList[i] = holdingList[--holdingCount];
+				return;
+			}
+		}
+	}
+
+	private void ensureCapacity( int anId )
+	{
+		if ( anId < published.length )
+		{
+			return;
+		}
+		int oldLength = published.length;
+		int length = Math.max( anId + 1, oldLength * 2 );
+		published = Arrays.copyOf( published, length );
+		lastBid = Arrays.copyOf( lastBid, length );
+		lastBidDigits = Arrays.copyOf( lastBidDigits, length );
+		lastAsk = Arrays.copyOf( lastAsk, length );
+		lastAskDigits = Arrays.copyOf( lastAskDigits, length );
+		lastPublishNanos = Arrays.copyOf( lastPublishNanos, length );
+		tokens = Arrays.copyOf( tokens, length );
+		refillNanos = Arrays.copyOf( refillNanos, length );
+		held = Arrays.copyOf( held, length );
+		heldBid = Arrays.copyOf( heldBid, length );
+		heldBidDigits = Arrays.copyOf( heldBidDigits, length );
+		heldAsk = Arrays.copyOf( heldAsk, length );
+		heldAskDigits = Arrays.copyOf( heldAskDigits, length );
+		holding = Arrays.copyOf( holding, length );
+		for( int i = oldLength; i < length; i++ )
+		{
+			// full bucket from the first quote
+			tokens[i] = burst;
+			refillNanos[i] = Long.MIN_VALUE;
+			held[i] = new QueuedData();
+		}
+	}
+}
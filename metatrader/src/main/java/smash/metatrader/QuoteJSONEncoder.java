@@ -0,0 +1,63 @@
+package smash.metatrader;
+
+/**
+ * JSON encoder of the quotes of a subscribed dataset. The dataset and typeId prefix is rendered
+ * once at subscription, a quote only appends its timestamps and prices. Immutable, the output
+ * buffer is owned by the publish worker and sized once so rendering never grows it.
+ */
+public class QuoteJSONEncoder
+{
+	private static final char[] BID_PRICE = ", \"bidPrice\": ".toCharArray();
+	private static final char[] ASK_PRICE = ", \"askPrice\": ".toCharArray();
+	private static final char[] SPREAD = ", \"spread\": ".toCharArray();
+	private static final char[] QUOTE_TIME = ", \"quoteTime\": ".toCharArray();
+	// two timestamps and three prices of at most 20 characters each
+	private static final int VALUES_CAPACITY = 5 * 20;
+	private final String datasetUUID;
+	private final char[] header;
+
+	/**
+	 * create QuoteJSONEncoder
+	 * @param aDatasetUUID dataset UUID
+	 * @param aTypeId data type id
+	 */
+	public QuoteJSONEncoder( String aDatasetUUID, String aTypeId )
+	{
+		datasetUUID = aDatasetUUID;
+		header = ( "{ \"dataset\": \"" + aDatasetUUID + "\", \"typeId\": \"" + aTypeId + "\", \"timestamp\": " ).toCharArray();
+	}
+
+	/**
+	 * @return dataset UUID
+	 */
+	public String getDatasetUUID()
+	{
+		return datasetUUID;
+	}
+
+	/**
+	 * render the parsed quote into the buffer, replacing its content
+	 * @param aTimestamp UTC quote time with millisecond precision
+	 * @param aQuoteTime UTC quote time with second precision
+	 * @param aParser parser holding the quote
+	 * @param aBuffer buffer owned by the calling thread
+	 * @return JSON
+	 */
+	public String encode( long aTimestamp, long aQuoteTime, MetaTraderQuoteParser aParser, StringBuilder aBuffer )
+	{
+		aBuffer.setLength( 0 );
+		aBuffer.ensureCapacity( header.length + BID_PRICE.length + ASK_PRICE.length + SPREAD.length + QUOTE_TIME.length + VALUES_CAPACITY + 1 );
+		aBuffer.append( header );
+		aBuffer.append( aTimestamp );
+		aBuffer.append( BID_PRICE );
+		aParser.appendBidPrice( aBuffer );
+		aBuffer.append( ASK_PRICE );
+		aParser.appendAskPrice( aBuffer );
+		aBuffer.append( SPREAD );
+		aParser.appendSpread( aBuffer );
+		aBuffer.append( QUOTE_TIME );
+		aBuffer.append( aQuoteTime );
+		aBuffer.append( '}' );
+		return aBuffer.toString();
+	}
+}
@@ -0,0 +1,19 @@
+package smash.metatrader;
+
+/**
+ * Listener of a QuoteSource
+ */
+public interface QuoteListener
+{
+	/**
+	 * quote received
+	 * @param aSymbol symbol
+	 * @param aData quote data "yyyy/MM/dd HH:mm:ss bid ask"
+	 */
+	void onQuote( String aSymbol, String aData );
+
+	/**
+	 * source disconnected
+	 */
+	void onDisconnect();
+}
@@ -0,0 +1,34 @@
+package smash.metatrader;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hand off of quotes from the Meta Trader listener to the publishing task
+ */
+public interface QuoteQueue
+{
+	/**
+	 * offer quote
+	 * @param aReceivedTime time received in millisecond
+	 * @param aReceivedNanos System.nanoTime() when received
+	 * @param aSequence journal sequence, 0 if not journaled
+	 * @param aSymbolId id of the symbol in the SymbolTable
+	 * @param anItem Meta Trader item i.e. symbol
+	 * @param aData quote data
+	 */
+	void offer( long aReceivedTime, long aReceivedNanos, long aSequence, int aSymbolId, String anItem, String aData );
+
+	/**
+	 * poll next quote, the returned data is only valid until the next poll
+	 * @param aTimeout timeout
+	 * @param aUnit timeout unit
+	 * @return next quote or null if none available within timeout
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	QueuedData poll( long aTimeout, TimeUnit aUnit ) throws InterruptedException;
+
+	/**
+	 * @return number of quotes waiting to be polled
+	 */
+	int size();
+}
@@ -0,0 +1,35 @@
+package smash.metatrader;
+
+/**
+ * Source of Meta Trader formatted quotes "yyyy/MM/dd HH:mm:ss bid ask"
+ */
+public interface QuoteSource
+{
+	/**
+	 * start delivering quotes of subscribed symbols
+	 * @param aListener listener receiving quotes
+	 * @param aLogger logger of the events of the source
+	 * @throws Exception if the source cannot be started
+	 */
+	void start( QuoteListener aListener, AsyncLogger aLogger ) throws Exception;
+
+	/**
+	 * start delivering quotes of a symbol
+	 * @param aSymbol symbol
+	 * @throws Exception if the symbol cannot be subscribed
+	 */
+	void subscribe( String aSymbol ) throws Exception;
+
+	/**
+	 * stop delivering quotes of a symbol
+	 * @param aSymbol symbol
+	 * @throws Exception if the symbol cannot be unsubscribed
+	 */
+	void unsubscribe( String aSymbol ) throws Exception;
+
+	/**
+	 * stop delivering quotes
+	 * @throws Exception if the source cannot be stopped cleanly
+	 */
+	void stop() throws Exception;
+}
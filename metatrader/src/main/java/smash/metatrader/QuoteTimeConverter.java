@@ -0,0 +1,85 @@
+package smash.metatrader;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+
+/**
+ * Convert Meta Trader server time to UTC. The server clock runs at one offset from UTC while a
+ * reference zone e.g. New York observes daylight saving time and at another offset otherwise.
+ * The server times at which the offset changes are computed once from the zone rules, the offset
+ * of the interval holding the last quote is cached so a quote converts with integer arithmetic.
+ * Server times repeated when the clock goes back resolve to the earlier offset.
+ * Not thread safe.
+ */
+public class QuoteTimeConverter
+{
+	private static final int FIRST_YEAR = 1970;
+	private static final int LAST_YEAR = 2100;
+	// server time from which offsets[i + 1] applies, offsets[0] applies before the first boundary
+	private final long[] boundaries;
+	private final long[] offsets;
+	private long cachedFrom = Long.MAX_VALUE;
+	private long cachedUntil = Long.MIN_VALUE;
+	private long cachedOffset;
+
+	/**
+	 * create QuoteTimeConverter
+	 * @param aZone zone whose daylight saving time selects the offset
+	 * @param aDaylightSavingTimeOffset server offset from UTC in millisecond during daylight saving time
+	 * @param aStandardTimeOffset server offset from UTC in millisecond otherwise
+	 */
+	public QuoteTimeConverter( ZoneId aZone, long aDaylightSavingTimeOffset, long aStandardTimeOffset )
+	{
+		ZoneRules rules = aZone.getRules();
+		Instant end = Instant.parse( LAST_YEAR + "-01-01T00:00:00Z" );
+		Instant instant = Instant.parse( FIRST_YEAR + "-01-01T00:00:00Z" );
+		long[] transitionBoundaries = new long[64];
+		long[] transitionOffsets = new long[65];
+		boolean daylight = rules.isDaylightSavings( instant );
+		transitionOffsets[0] = daylight ? aDaylightSavingTimeOffset : aStandardTimeOffset;
+		int count = 0;
+		ZoneOffsetTransition transition;
+		while( ( transition = rules.nextTransition( instant ) ) != null && transition.getInstant().isBefore( end ) )
+		{
+			instant = transition.getInstant();
+			if ( rules.isDaylightSavings( instant ) == daylight )
+			{
+				// change of the zone standard offset, the server offset stays the same
+				continue;
+			}
+			daylight = !daylight;
+			if ( count == transitionBoundaries.length )
+			{
+				transitionBoundaries = Arrays.copyOf( transitionBoundaries, count * 2 );
+				transitionOffsets = Arrays.copyOf( transitionOffsets, count * 2 + 1 );
+			}
+			// the server clock reads the old offset up to the transition
+			transitionBoundaries[count] = instant.toEpochMilli() + transitionOffsets[count];
+			transitionOffsets[count + 1] = daylight ? aDaylightSavingTimeOffset : aStandardTimeOffset;
+			count++;
+		}
+		boundaries = Arrays.copyOf( transitionBoundaries, count );
+		offsets = Arrays.copyOf( transitionOffsets, count + 1 );
+	}
+
+	/**
+	 * @param aServerTime server date and time in millisecond as if it were UTC
+	 * @return UTC time in millisecond
+	 */
+	public long toUTC( long aServerTime )
+	{
+		if ( aServerTime < cachedFrom || aServerTime >= cachedUntil )
+		{
+			int index = Arrays.binarySearch( boundaries, aServerTime );
+			// index of the offset applying at the server time
+			int interval = index >= 0 ? index + 1 : -index - 1;
+			cachedFrom = interval == 0 ? Long.MIN_VALUE : boundaries[interval - 1];
+			cachedUntil = interval == boundaries.length ? Long.MAX_VALUE : boundaries[interval];
+			cachedOffset = offsets[interval];
+		}
+		return aServerTime - cachedOffset;
+	}
+}
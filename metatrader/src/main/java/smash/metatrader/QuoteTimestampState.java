@@ -0,0 +1,41 @@
+package smash.metatrader;
+
+/**
+ * Sub-second timestamp state of a symbol. Meta Trader reports quote time in 1s unit so the
+ * millisecond portion is synthesized from the time the quotes of the same second were received.
+ * Not thread safe, a symbol is always handled by the same publish worker.
+ */
+public class QuoteTimestampState
+{
+	private long lastQuoteTimestamp = -1;
+	private long lastQuoteReceivedTime = -1;
+	private long lastQuoteReceivedTimeIncrements = 0;
+
+	/**
+	 * @param aQuoteTimeWithSecondPrecision quote time with second precision
+	 * @param aReceivedTime time quote received in millisecond
+	 * @return quote time with millisecond precision
+	 */
+	public long toMillisecondPrecision( long aQuoteTimeWithSecondPrecision, long aReceivedTime )
+	{
+		// if quote time is not the same as before or is the firt quote time, then 
+		// use the quote time as is which is the time starting from 0 millisecond
+		if ( aQuoteTimeWithSecondPrecision != lastQuoteTimestamp )
+		{
+			lastQuoteTimestamp = aQuoteTimeWithSecondPrecision;
+			lastQuoteReceivedTime = aReceivedTime;	
+			lastQuoteReceivedTimeIncrements = 0;
+			return aQuoteTimeWithSecondPrecision;
+		}
+		// if the quote time is the same as the previously one, then find the difference between
+		// the current quote receive time and the previous quote receive time in millisecond and
+		// use that as the millisecond portion of the quote time since the quote time reported is in 1s unit
+		lastQuoteReceivedTimeIncrements++;
+		long timeDifference = Math.abs( aReceivedTime - lastQuoteReceivedTime )  + lastQuoteReceivedTimeIncrements;
+		if ( timeDifference > 999 )
+		{
+			timeDifference = 999;
+		}
+		return aQuoteTimeWithSecondPrecision + timeDifference;
+	}
+}
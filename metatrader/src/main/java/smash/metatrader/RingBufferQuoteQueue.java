@@ -0,0 +1,141 @@
+package smash.metatrader;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single producer single consumer queue over a preallocated ring of quote slots.
+ * Offering a quote only fills a slot so the hand off does not allocate.
+ */
+public class RingBufferQuoteQueue implements QuoteQueue
+{
+	private static final long BLOCK_WAIT_NANOS = TimeUnit.SECONDS.toNanos( 1 );
+	private final QueuedData[] slots;
+	private final int mask;
+	private final WaitStrategy waitStrategy;
+	private final OverflowPolicy overflowPolicy;
+	// next position to be written by the producer
+	private final AtomicLong producerPosition = new AtomicLong();
+	// next position to be read by the consumer, also moved by the producer when dropping the oldest quote
+	private final AtomicLong consumerPosition = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	// consumer owned copy of the polled quote
+	private final QueuedData polled = new QueuedData();
+
+	/**
+	 * create RingBufferQuoteQueue
+	 * @param aCapacity capacity, rounded up to a power of 2
+	 * @param aWaitStrategy wait strategy
+	 * @param anOverflowPolicy behaviour when full
+	 */
+	public RingBufferQuoteQueue( int aCapacity, WaitStrategy aWaitStrategy, OverflowPolicy anOverflowPolicy )
+	{
+		if ( aCapacity < 1 || aCapacity > 1 << 30 )
+		{
+			throw new IllegalArgumentException( "Invalid capacity " + aCapacity );
+		}
+		int capacity = Integer.highestOneBit( aCapacity );
+		if ( capacity < aCapacity )
+		{
+			capacity = capacity << 1;
+		}
+		slots = new QueuedData[capacity];
+		for( int i = 0; i < capacity; i++ )
+		{
+			slots[i] = new QueuedData();
+		}
+		mask = capacity - 1;
+		waitStrategy = aWaitStrategy;
+		overflowPolicy = anOverflowPolicy;
+	}
+
+	public void offer( long aReceivedTime, long aReceivedNanos, long aSequence, int aSymbolId, String anItem, String aData )
+	{
+		long position = producerPosition.get();
+		long capacity = slots.length;
+		long oldest;
+		while( position - ( oldest = consumerPosition.get() ) >= capacity )
+		{
+			if ( overflowPolicy == OverflowPolicy.DROP_NEWEST )
+			{
+				droppedCount.incrementAndGet();
+				return;
+			}
+			else if ( overflowPolicy == OverflowPolicy.DROP_OLDEST )
+			{
+				// the consumer detects the drop when moving its position fails
+				if ( consumerPosition.compareAndSet( oldest, oldest + 1 ) )
+				{
+					droppedCount.incrementAndGet();
+				}
+			}
+			else
+			{
+				try
+				{
+					waitStrategy.waitFor( position - capacity, consumerPosition, BLOCK_WAIT_NANOS );
+				}
+				catch( InterruptedException e )
+				{
+					Thread.currentThread().interrupt();
+					droppedCount.incrementAndGet();
+					return;
+				}
+			}
+		}
+		slots[(int)position & mask].set( aReceivedTime, aReceivedNanos, aSequence, aSymbolId, anItem, aData );
+		producerPosition.set( position + 1 );
+		waitStrategy.signal();
+	}
+
+	public QueuedData poll( long aTimeout, TimeUnit aUnit ) throws InterruptedException
+	{
+		long start = System.nanoTime();
+		long timeout = aUnit.toNanos( aTimeout );
+		while( true )
+		{
+			long position = consumerPosition.get();
+			if ( producerPosition.get() <= position )
+			{
+				long remaining = timeout - ( System.nanoTime() - start );
+				if ( remaining <= 0 || waitStrategy.waitFor( position, producerPosition, remaining ) <= position )
+				{
+					return null;
+				}
+				continue;
+			}
+			QueuedData slot = slots[(int)position & mask];
+			polled.set( slot.receivedTime, slot.receivedNanos, slot.sequence, slot.symbolId, slot.item, slot.data );
+			// fails if the producer dropped this quote and may have overwritten the slot while copying
+			if ( consumerPosition.compareAndSet( position, position + 1 ) )
+			{
+				if ( overflowPolicy == OverflowPolicy.BLOCK )
+				{
+					waitStrategy.signal();
+				}
+				return polled;
+			}
+		}
+	}
+
+	public int size()
+	{
+		return (int)( producerPosition.get() - consumerPosition.get() );
+	}
+
+	/**
+	 * @return capacity
+	 */
+	public int getCapacity()
+	{
+		return slots.length;
+	}
+
+	/**
+	 * @return number of quotes dropped because the queue was full
+	 */
+	public long getDroppedCount()
+	{
+		return droppedCount.get();
+	}
+}
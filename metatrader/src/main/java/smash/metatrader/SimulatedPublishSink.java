@@ -0,0 +1,248 @@
+package smash.metatrader;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import smash.api.DataCallback;
+import smash.api.SessionEvent;
+import smash.api.SessionEventCallback;
+import smash.api.exception.RequestProcessingException;
+
+/**
+ * In-process stand-in for Smash.bi used to load test the publishers without a server. Login and
+ * publish requests are answered after a latency with jitter, publishing is capped to a rate by
+ * blocking the caller as a server applying backpressure would, publishes fail and requests are
+ * denied at configured rates, and periodic outages reject every publish and leave requests
+ * unanswered until the session recovers. Published data is counted and dropped.
+ */
+public class SimulatedPublishSink implements PublishSink
+{
+	private static final String GRANTED = "{ \"status\": \"SUCCESS\" }";
+	private static final String DENIED = "{ \"status\": \"FAILURE\" }";
+	private final Random random;
+	private final ScheduledExecutorService executor;
+	private long latencyMicros;
+	private long jitterMicros;
+	private long publishIntervalNanos;
+	private double publishErrorRate;
+	private double requestDenyRate;
+	private long outagePeriodMillis;
+	private long outageMillis;
+	private SessionEventCallback sessionCallback;
+	private volatile boolean down;
+	// time the next capped publish may proceed
+	private long nextPublishNanos;
+	private final AtomicLong publishedCount = new AtomicLong();
+	private final AtomicLong publishedBytes = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong deniedCount = new AtomicLong();
+
+	/**
+	 * create SimulatedPublishSink answering at once without errors or a rate cap
+	 * @param aSeed random seed of the jitter and the injected errors
+	 */
+	public SimulatedPublishSink( long aSeed )
+	{
+		random = new Random( aSeed );
+		executor = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+		{
+			public Thread newThread( Runnable aRunnable )
+			{
+				Thread thread = new Thread( aRunnable, "SimulatedPublishSink" );
+				thread.setDaemon( true );
+				return thread;
+			}
+		} );
+	}
+
+	/**
+	 * set response latency, must be called before open
+	 * @param aLatencyMicros time in microsecond before a login or publish request is answered
+	 * @param aJitterMicros maximum time in microsecond added to or removed from the latency
+	 */
+	public void setLatency( long aLatencyMicros, long aJitterMicros )
+	{
+		latencyMicros = aLatencyMicros;
+		jitterMicros = aJitterMicros;
+	}
+
+	/**
+	 * set throughput cap, must be called before open
+	 * @param aMaxPerSecond maximum number of publish calls per second, callers block beyond it, 0 for no cap
+	 */
+	public void setMaxPublishRate( double aMaxPerSecond )
+	{
+		publishIntervalNanos = aMaxPerSecond > 0 ? (long)( 1000000000L / aMaxPerSecond ) : 0;
+	}
+
+	/**
+	 * set error injection, must be called before open
+	 * @param aPublishErrorRate probability a publish call fails
+	 * @param aRequestDenyRate probability a publish request is denied
+	 */
+	public void setErrorRates( double aPublishErrorRate, double aRequestDenyRate )
+	{
+		publishErrorRate = aPublishErrorRate;
+		requestDenyRate = aRequestDenyRate;
+	}
+
+	/**
+	 * set periodic outages, must be called before open
+	 * @param aPeriodMillis time in millisecond from the start of an outage to the start of the next, 0 for no outage
+	 * @param anOutageMillis length in millisecond of an outage
+	 */
+	public void setOutages( long aPeriodMillis, long anOutageMillis )
+	{
+		if ( aPeriodMillis > 0 && ( anOutageMillis <= 0 || anOutageMillis >= aPeriodMillis ) )
+		{
+			throw new IllegalArgumentException( "Invalid outage " + anOutageMillis + "ms every " + aPeriodMillis + "ms" );
+		}
+		outagePeriodMillis = aPeriodMillis;
+		outageMillis = anOutageMillis;
+	}
+
+	public void open( SessionEventCallback aCallback )
+	{
+		sessionCallback = aCallback;
+		if ( outagePeriodMillis > 0 )
+		{
+			executor.scheduleAtFixedRate( new Runnable()
+			{
+				public void run()
+				{
+					down = true;
+					executor.schedule( new Runnable()
+					{
+						public void run()
+						{
+							down = false;
+							sessionCallback.onEvent( SessionEvent.RECOVERED );
+						}
+					}, outageMillis, TimeUnit.MILLISECONDS );
+				}
+			}, outagePeriodMillis, outagePeriodMillis, TimeUnit.MILLISECONDS );
+		}
+	}
+
+	public void login( String aUserId, String aPassword, DataCallback aCallback )
+	{
+		respond( aCallback, GRANTED );
+	}
+
+	public void publishDataRequest( String aDatasetUUID, DataCallback aCallback )
+	{
+		requestCount.incrementAndGet();
+		if ( down )
+		{
+			// lost, the requester times out
+			return;
+		}
+		if ( requestDenyRate > 0 && random.nextDouble() < requestDenyRate )
+		{
+			deniedCount.incrementAndGet();
+			respond( aCallback, DENIED );
+			return;
+		}
+		respond( aCallback, GRANTED );
+	}
+
+	public void publishData( String aDatasetUUID, String aJSON ) throws RequestProcessingException
+	{
+		if ( publishIntervalNanos > 0 )
+		{
+			long slot;
+			synchronized( this )
+			{
+				slot = Math.max( System.nanoTime(), nextPublishNanos );
+				nextPublishNanos = slot + publishIntervalNanos;
+			}
+			long wait;
+			while( ( wait = slot - System.nanoTime() ) > 0 )
+			{
+				LockSupport.parkNanos( wait );
+			}
+		}
+		if ( down || publishErrorRate > 0 && random.nextDouble() < publishErrorRate )
+		{
+			rejectedCount.incrementAndGet();
+			throw new RequestProcessingException( down ? "Simulated outage" : "Simulated publish error" );
+		}
+		publishedCount.incrementAndGet();
+		publishedBytes.addAndGet( aJSON.length() );
+	}
+
+	public void logout()
+	{
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return number of publish calls accepted
+	 */
+	public long getPublishedCount()
+	{
+		return publishedCount.get();
+	}
+
+	/**
+	 * @return number of characters published
+	 */
+	public long getPublishedBytes()
+	{
+		return publishedBytes.get();
+	}
+
+	/**
+	 * @return number of publish calls failed by an injected error or an outage
+	 */
+	public long getRejectedCount()
+	{
+		return rejectedCount.get();
+	}
+
+	/**
+	 * @return number of publish requests received
+	 */
+	public long getRequestCount()
+	{
+		return requestCount.get();
+	}
+
+	/**
+	 * @return number of publish requests denied
+	 */
+	public long getDeniedCount()
+	{
+		return deniedCount.get();
+	}
+
+	/**
+	 * @return true during an outage
+	 */
+	public boolean isDown()
+	{
+		return down;
+	}
+
+	private void respond( final DataCallback aCallback, final String aResponse )
+	{
+		long delay = latencyMicros;
+		if ( jitterMicros > 0 )
+		{
+			delay += (long)( ( random.nextDouble() * 2 - 1 ) * jitterMicros );
+		}
+		executor.schedule( new Runnable()
+		{
+			public void run()
+			{
+				aCallback.onReceive( aResponse );
+			}
+		}, Math.max( 0, delay ), TimeUnit.MICROSECONDS );
+	}
+}
@@ -1,56 +1,119 @@
 package smash.metatrader;
 
+import java.io.File;
 import java.io.FileInputStream;
-import java.math.BigDecimal;
+import java.lang.management.ManagementFactory;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map.Entry;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
-import java.util.TimeZone;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
-import smash.api.CallbackClient;
+import javax.management.ObjectName;
+
 import smash.api.DataCallback;
 import smash.api.SessionEvent;
 import smash.api.SessionEventCallback;
 
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import com.pretty_tools.dde.client.DDEClientConversation;
-import com.pretty_tools.dde.client.DDEClientEventListener;
-
 /**
  * Subscribe to Meta Trader quotes and publish to Smash.bi
  */
-public class SmashMetaTraderPublisher implements SessionEventCallback 
+public class SmashMetaTraderPublisher implements SessionEventCallback, SubscriptionAdminMXBean 
 {
+	/**
+	 * publish every quote in order of arrival
+	 */
+	public static final String QUEUE_MODE_FIFO = "fifo";
+	/**
+	 * publish only the latest pending quote of each symbol
+	 */
+	public static final String QUEUE_MODE_CONFLATE = "conflate";
+	/**
+	 * publish through a bounded preallocated ring buffer
+	 */
+	public static final String QUEUE_MODE_RING = "ring";
+	public static final String WAIT_STRATEGY_BLOCKING = "blocking";
+	public static final String WAIT_STRATEGY_YIELDING = "yielding";
+	public static final String WAIT_STRATEGY_BUSY_SPIN = "busySpin";
+	public static final String ADMIN_OBJECT_NAME = "smash.metatrader:type=SubscriptionAdmin";
+	// time in millisecond dispose waits for a publish worker to flush
+	private static final long WORKER_JOIN_MILLIS = 10000;
 	private static long daylightSavingTimeOffset = 0L;
 	private static long standardTimeOffset = 0L;
-	private final SimpleDateFormat dateFormat = new SimpleDateFormat( "yyyy/MM/dd HH:mm:ss" );
-	private DDEClientConversation conversation;
+	private QuoteSource quoteSource;
 	private final CountDownLatch eventDisconnect = new CountDownLatch(1);
-	private final LinkedBlockingQueue<QueuedData> queue = new LinkedBlockingQueue<QueuedData>();
-	private final HashMap<String,String> symbolToDatasetUUIDLookup = new HashMap<String,String>();
-	private CallbackClient client;
-	private final JsonParser jsonParser = new JsonParser();
+	private QuoteQueue[] queues;
+	private Thread[] workers;
+	private int publishWorkerCount = 1;
+	private String queueMode = QUEUE_MODE_FIFO;
+	private int ringBufferSize = 65536;
+	private String waitStrategy = WAIT_STRATEGY_BLOCKING;
+	private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+	private int batchMaxCount = 100;
+	private int batchMaxBytes = 65536;
+	private long batchLingerMillis = 0;
+	private long batchMetricsIntervalMillis = 0;
+	private boolean filterDuplicates;
+	private long filterHeartbeatMillis;
+	private double filterMaxPerSecond;
+	private int filterBurst = 1;
+	private String barTypeId;
+	private long barCloseDelayMillis = 500;
+	private final List<BarMapping> barMappings = new ArrayList<BarMapping>();
+	private AsyncLogger.Level logLevel = AsyncLogger.Level.INFO;
+	private int logBufferSize = 8192;
+	private int tickLogMaxPerSecond = 1;
+	private int tickLogSampleEvery = 1;
+	private AsyncLogger logger;
+	private LogCategory tickLog;
+	private LogCategory journalLog;
+	private long metricsWindowMillis = 60000;
+	private String metricsHost;
+	private int metricsPort;
+	private boolean metricsJMX;
+	private PublisherMetrics metrics;
+	private MetricsHttpServer metricsServer;
+	private int lastValueCapacity;
+	private String lastValueHost;
+	private int lastValuePort;
+	// null when disabled
+	private LastValueCache lastValues;
+	private LastValueHttpServer lastValueServer;
+	private String journalDirectory;
+	private int journalSegmentBytes = 64 * 1024 * 1024;
+	private long journalReplayRetryMillis = 5000;
+	private TickJournal[] journals;
+	private int subscriptionWindow = 32;
+	private long subscriptionTimeoutMillis = 10000;
+	private long subscriptionRetryMillis = 1000;
+	private SubscriptionPipeline subscriptions;
+	private String configFile;
+	private long configReloadMillis;
+	private boolean adminJMX;
+	private Timer configReloadTimer;
+	private final SymbolTable symbols = new SymbolTable();
+	private PublishSink sink;
 	private String smashHost;
 	private String smashVPN;
 	private String smashUserId;
 	private String smashPassword;
-	private boolean smashLoggedIn;
-	private boolean disposed;
-	private boolean canPerformDDE;
+	private volatile boolean smashLoggedIn;
+	// incremented to make the publish workers replay their journal
+	private volatile int replayGeneration;
+	// seen by busy spinning publish workers
+	private volatile boolean disposed;
 	private String typeId;
-	private long lastQuoteTimestamp = -1;
-	private long lastQuoteReceivedTime = -1;
-	private long lastQuoteReceivedTimeIncrements = 0;
-	private TimeZone newYorkTimeZone = TimeZone.getTimeZone("America/New_York");
+	// daylight saving time of New York selects the server offset
+	private ZoneId newYorkTimeZone = ZoneId.of("America/New_York");
 	
 	/**
 	 * create SmashMetaTraderPublisher
@@ -60,8 +123,6 @@ public class SmashMetaTraderPublisher implements SessionEventCallback
 	public SmashMetaTraderPublisher( String aSmashHost, String aSmashVPN, 
 			String aSmashUserId, String aSmashPassword, String aTypeId )
 	{
-		Runtime.getRuntime().addShutdownHook( new Thread( new ShutdownHook() ));
-		canPerformDDE = System.getProperty("os.name").toLowerCase().indexOf( "win" ) >= 0;
 		smashHost = aSmashHost;
 		smashVPN = aSmashVPN;
 		smashUserId = aSmashUserId;
@@ -74,41 +135,442 @@ public class SmashMetaTraderPublisher implements SessionEventCallback
 	 */
 	public void initialize() throws Exception
 	{
+		if ( !barMappings.isEmpty() && barTypeId == null )
+		{
+			throw new IllegalStateException( "Bar mapping without bar type id" );
+		}
+		logger = new AsyncLogger( logLevel, logBufferSize, System.out );
+		Runtime.getRuntime().addShutdownHook( new Thread( new ShutdownHook() ));
+		tickLog = logger.createCategory( "tick", AsyncLogger.Level.DEBUG, tickLogMaxPerSecond, tickLogSampleEvery );
+		journalLog = logger.createCategory( "journal", AsyncLogger.Level.ERROR, 1, 1 );
+		queues = new QuoteQueue[publishWorkerCount];
+		for( int i = 0; i < queues.length; i++ )
+		{
+			queues[i] = createQueue();
+		}
+		if ( journalDirectory != null )
+		{
+			journals = new TickJournal[queues.length];
+			for( int i = 0; i < journals.length; i++ )
+			{
+				journals[i] = new TickJournal( new File( journalDirectory, "worker-" + i ), journalSegmentBytes );
+				logger.info( "Journal worker-{} watermark {} last {}", i, journals[i].getWatermark(), journals[i].getLastSequence() );
+			}
+		}
+		metrics = new PublisherMetrics( metricsWindowMillis );
+		metrics.setQueues( queues );
+		metrics.start();
+		if ( metricsJMX )
+		{
+			metrics.registerMBean();
+		}
+		if ( metricsHost != null )
+		{
+			metricsServer = new MetricsHttpServer( metrics, metricsHost, metricsPort );
+			metricsServer.start();
+			logger.info( "Metrics at http://{}:{}{}", metricsHost, metricsServer.getPort(), MetricsHttpServer.PATH );
+		}
+		if ( lastValueCapacity > 0 )
+		{
+			lastValues = new LastValueCache( lastValueCapacity );
+			if ( lastValueHost != null )
+			{
+				lastValueServer = new LastValueHttpServer( lastValues, symbols, lastValueHost, lastValuePort );
+				lastValueServer.start();
+				logger.info( "Last values at http://{}:{}{}", lastValueHost, lastValueServer.getPort(), LastValueHttpServer.PATH );
+			}
+		}
 		// prepare MT4
-		if ( canPerformDDE )
+		if ( quoteSource != null )
+		{
+			quoteSource.start( new QuoteSourceListener( eventDisconnect ), logger );
+		}
+		if ( sink == null )
+		{
+			sink = new SmashPublishSink( smashHost, smashVPN );
+		}
+		sink.open( this );
+		subscriptions = new SubscriptionPipeline( new SubscriptionPipeline.Requester()
+		{
+			public void request( String aDatasetUUID, DataCallback aCallback ) throws Exception
+			{
+				sink.publishDataRequest( aDatasetUUID, aCallback );
+			}
+		}, quoteSource, logger, subscriptionWindow, subscriptionTimeoutMillis, subscriptionRetryMillis );
+		synchronized( this )
+		{
+			for( int i = 0; i < symbols.size(); i++ )
+			{
+				if ( symbols.getEncoder( i ) != null )
+				{
+					subscriptions.add( symbols.getEncoder( i ).getDatasetUUID(), symbols.getSymbol( i ) );
+				}
+			}
+		}
+		for( BarMapping barMapping: barMappings )
+		{
+			subscriptions.add( barMapping.datasetUUID, null );
+		}
+		metrics.setSubscriptions( subscriptions );
+		if ( adminJMX )
+		{
+			ManagementFactory.getPlatformMBeanServer().registerMBean( this, new ObjectName( ADMIN_OBJECT_NAME ) );
+		}
+		if ( configFile != null && configReloadMillis > 0 )
+		{
+			configReloadTimer = new Timer( "ConfigReload", true );
+			configReloadTimer.schedule( new ConfigReloadTask(), configReloadMillis, configReloadMillis );
+		}
+		workers = new Thread[queues.length];
+		for( int i = 0; i < queues.length; i++ )
 		{
-			conversation = new DDEClientConversation();
-			conversation.setEventListener( new MetaTraderEventListener(eventDisconnect) );
-			conversation.connect( "MT4", "QUOTE" );
-System.out.println( "Connected to MT4" );
+			workers[i] = new Thread( new PublishToSmashTask( queues[i], journals == null ? null : journals[i] ), "PublishToSmashTask-" + i );
+			workers[i].start();
 		}
-		client = new CallbackClient( smashHost, smashVPN, this );
-		Thread thread = new Thread( new PublishToSmashTask() );
-		thread.start();
 		// prepare Smash.bi
-System.out.println( "Logging in " + smashUserId + " " + smashPassword );
-		client.login(smashUserId, smashPassword, new LoginResponseCallback());
-		System.out.println( "MT4 DDE started" );
+		logger.info( "Logging in {}", smashUserId );
+		sink.login(smashUserId, smashPassword, new LoginResponseCallback());
+		logger.info( "MT4 publisher started" );
 	}
 
 	/**
-	 * publish all
+	 * set destination of the published quotes, must be called before initialize
+	 * @param aSink sink or null to publish to Smash.bi
 	 */
-	private void publishAll()
-	{	
-		for(Entry<String, String> keyValue:symbolToDatasetUUIDLookup.entrySet())
+	public void setPublishSink( PublishSink aSink )
+	{
+		sink = aSink;
+	}
+
+	/**
+	 * set source of quotes, must be called before initialize
+	 * @param aQuoteSource quote source or null if quotes are not available on this platform
+	 */
+	public void setQuoteSource( QuoteSource aQuoteSource )
+	{
+		quoteSource = aQuoteSource;
+	}
+
+	/**
+	 * set queue mode, must be called before initialize
+	 * @param aQueueMode QUEUE_MODE_FIFO, QUEUE_MODE_CONFLATE or QUEUE_MODE_RING
+	 */
+	public void setQueueMode( String aQueueMode )
+	{
+		queueMode = aQueueMode;
+	}
+
+	/**
+	 * set number of publish workers, symbols are partitioned onto the workers by hash 
+	 * so quotes of a symbol are always published in order, must be called before initialize
+	 * @param aPublishWorkerCount number of publish workers
+	 */
+	public void setPublishWorkerCount( int aPublishWorkerCount )
+	{
+		if ( aPublishWorkerCount < 1 )
 		{
+			throw new IllegalArgumentException( "Invalid publish worker count " + aPublishWorkerCount );
+		}
+		publishWorkerCount = aPublishWorkerCount;
+	}
+
+	/**
+	 * @param aSymbol symbol
+	 * @return index of the publish worker handling the symbol
+	 */
+	private int workerOf( String aSymbol )
+	{
+		return workerOf( aSymbol, queues.length );
+	}
+
+	/**
+	 * @param aSymbol symbol
+	 * @param aWorkerCount number of publish workers
+	 * @return index of the publish worker handling the symbol, the same for a symbol on every run
+	 */
+	static int workerOf( String aSymbol, int aWorkerCount )
+	{
+		return ( aSymbol.hashCode() & 0x7fffffff ) % aWorkerCount;
+	}
+
+	/**
+	 * set ring buffer configuration used by QUEUE_MODE_RING, must be called before initialize
+	 * @param aSize number of slots, rounded up to a power of 2
+	 * @param aWaitStrategy WAIT_STRATEGY_BLOCKING, WAIT_STRATEGY_YIELDING or WAIT_STRATEGY_BUSY_SPIN
+	 * @param anOverflowPolicy behaviour when the ring buffer is full
+	 */
+	public void setRingBuffer( int aSize, String aWaitStrategy, OverflowPolicy anOverflowPolicy )
+	{
+		ringBufferSize = aSize;
+		waitStrategy = aWaitStrategy;
+		overflowPolicy = anOverflowPolicy;
+	}
+
+	/**
+	 * set batching of quotes published to Smash, must be called before initialize
+	 * @param aMaxCount maximum number of quotes in a batch
+	 * @param aMaxBytes maximum size of a batch payload
+	 * @param aLingerMillis maximum time in millisecond a quote waits for its batch, 0 to publish every quote on its own
+	 * @param aMetricsIntervalMillis interval in millisecond to print per dataset flush metrics, 0 to disable
+	 */
+	public void setBatching( int aMaxCount, int aMaxBytes, long aLingerMillis, long aMetricsIntervalMillis )
+	{
+		batchMaxCount = aMaxCount;
+		batchMaxBytes = aMaxBytes;
+		batchLingerMillis = aLingerMillis;
+		batchMetricsIntervalMillis = aMetricsIntervalMillis;
+	}
+
+	/**
+	 * set filtering of quotes before they are published, must be called before initialize
+	 * @param aSuppressDuplicates true to drop quotes repeating the last published bid and ask of their symbol
+	 * @param aHeartbeatMillis interval in millisecond after which a repeated quote is published anyway, 0 for none
+	 * @param aMaxPerSecond maximum quotes published per second and symbol, the latest quote over the rate
+	 * is published when the rate allows it, 0 for no limit
+	 * @param aBurst quotes a symbol may publish at once after being quiet
+	 */
+	public void setQuoteFilter( boolean aSuppressDuplicates, long aHeartbeatMillis, double aMaxPerSecond, int aBurst )
+	{
+		filterDuplicates = aSuppressDuplicates;
+		filterHeartbeatMillis = aHeartbeatMillis;
+		filterMaxPerSecond = aMaxPerSecond;
+		filterBurst = aBurst;
+	}
+
+	/**
+	 * set bar aggregation, must be called before initialize
+	 * @param aTypeId data type id of the bar datasets
+	 * @param aCloseDelayMillis time in millisecond a bar without ticks stays open after its end for late ticks
+	 */
+	public void setBars( String aTypeId, long aCloseDelayMillis )
+	{
+		barTypeId = aTypeId;
+		barCloseDelayMillis = aCloseDelayMillis;
+	}
+
+	/**
+	 * add bars of a subscribed symbol published to a bar dataset, must be called before initialize
+	 * @param aSymbol symbol
+	 * @param anIntervalMillis bar interval in millisecond
+	 * @param aDatasetUUID bar dataset UUID
+	 */
+	public void addToBarMapping( String aSymbol, long anIntervalMillis, String aDatasetUUID )
+	{
+		if ( anIntervalMillis <= 0 )
+		{
+			throw new IllegalArgumentException( "Invalid bar interval " + anIntervalMillis );
+		}
+		barMappings.add( new BarMapping( aSymbol, anIntervalMillis, aDatasetUUID ) );
+	}
+
+	/**
+	 * add bars of subscribed symbols, must be called before initialize
+	 * @param aMapping comma separated symbol, interval and bar dataset UUID triples e.g. EURUSD,1m,uuid
+	 * @throws IllegalArgumentException if an entry is incomplete or its interval is invalid
+	 */
+	public void addToBarMapping( String aMapping )
+	{
+		StringTokenizer tokenizer = new StringTokenizer( aMapping, "," );
+		while( tokenizer.hasMoreTokens() )
+		{
+			String symbol = tokenizer.nextToken().trim();
+			if ( !tokenizer.hasMoreTokens() )
+			{
+				throw new IllegalArgumentException( "Invalid bar mapping " + symbol + ", no interval and dataset" );
+			}
+			String interval = tokenizer.nextToken().trim();
+			if ( !tokenizer.hasMoreTokens() )
+			{
+				throw new IllegalArgumentException( "Invalid bar mapping " + symbol + "," + interval + ", no dataset" );
+			}
+			String datasetUUID = tokenizer.nextToken().trim();
+			long intervalMillis;
 			try
 			{
-				System.out.println( "Request publish to " + keyValue.getKey() );
-				String datasetUUID = keyValue.getValue();
-				client.publishDataRequest(datasetUUID, new PublishRequestResponseCallback( datasetUUID, keyValue.getKey() ) );
+				intervalMillis = parseInterval( interval );
 			}
-			catch( Throwable t )
+			catch( NumberFormatException e )
 			{
-				t.printStackTrace();
+				throw new IllegalArgumentException( "Invalid bar mapping " + symbol + "," + interval + "," + datasetUUID + ", bad interval" );
 			}
-		}		
+			addToBarMapping( symbol, intervalMillis, datasetUUID );
+		}
+	}
+
+	/**
+	 * @param anInterval interval in millisecond or with unit ms, s, m or h e.g. 1s, 1m
+	 * @return interval in millisecond
+	 */
+	static long parseInterval( String anInterval )
+	{
+		String interval = anInterval.trim();
+		long unit = 1;
+		if ( interval.endsWith( "ms" ) )
+		{
+			interval = interval.substring( 0, interval.length() - 2 );
+		}
+		else if ( interval.endsWith( "s" ) )
+		{
+			unit = 1000;
+			interval = interval.substring( 0, interval.length() - 1 );
+		}
+		else if ( interval.endsWith( "m" ) )
+		{
+			unit = 60000;
+			interval = interval.substring( 0, interval.length() - 1 );
+		}
+		else if ( interval.endsWith( "h" ) )
+		{
+			unit = 3600000;
+			interval = interval.substring( 0, interval.length() - 1 );
+		}
+		return Long.parseLong( interval ) * unit;
+	}
+
+	/**
+	 * set startup of the subscriptions after login, must be called before initialize
+	 * @param aWindow maximum number of outstanding publish requests
+	 * @param aTimeoutMillis time in millisecond after which an unanswered publish request is retried
+	 * @param aRetryMillis delay in millisecond before retrying a failed publish request, doubled on every retry
+	 */
+	public void setSubscriptionPipeline( int aWindow, long aTimeoutMillis, long aRetryMillis )
+	{
+		subscriptionWindow = aWindow;
+		subscriptionTimeoutMillis = aTimeoutMillis;
+		subscriptionRetryMillis = aRetryMillis;
+	}
+
+	/**
+	 * set config file the subscription mapping is reloaded from, must be called before initialize
+	 * @param aConfigFile config file
+	 * @param aReloadMillis interval in millisecond to check the file for changes, 0 to reload only on request
+	 */
+	public void setConfigReload( String aConfigFile, long aReloadMillis )
+	{
+		configFile = aConfigFile;
+		configReloadMillis = aReloadMillis;
+	}
+
+	/**
+	 * set administration of the subscriptions, must be called before initialize
+	 * @param aJMX true to register the SubscriptionAdmin MXBean with the platform MBean server
+	 */
+	public void setAdmin( boolean aJMX )
+	{
+		adminJMX = aJMX;
+	}
+
+	/**
+	 * set logging, must be called before initialize
+	 * @param aLevel minimum level logged, tick records are logged at debug level
+	 * @param aBufferSize number of records buffered for the background writer
+	 * @param aTickMaxPerSecond maximum tick records per symbol per second, 0 for no limit
+	 * @param aTickSampleEvery log one of every aTickSampleEvery ticks per symbol
+	 */
+	public void setLogging( AsyncLogger.Level aLevel, int aBufferSize, int aTickMaxPerSecond, int aTickSampleEvery )
+	{
+		logLevel = aLevel;
+		logBufferSize = aBufferSize;
+		tickLogMaxPerSecond = aTickMaxPerSecond;
+		tickLogSampleEvery = aTickSampleEvery;
+	}
+
+	/**
+	 * set metrics reporting, must be called before initialize
+	 * @param aWindowMillis length in millisecond of the window latency percentiles and tick rates are computed over
+	 * @param aHost host name or address the metrics HTTP endpoint binds to, null to disable the endpoint
+	 * @param aPort port of the metrics HTTP endpoint
+	 * @param aJMX true to register the metrics with the platform MBean server
+	 */
+	public void setMetrics( long aWindowMillis, String aHost, int aPort, boolean aJMX )
+	{
+		metricsWindowMillis = aWindowMillis;
+		metricsHost = aHost;
+		metricsPort = aPort;
+		metricsJMX = aJMX;
+	}
+
+	/**
+	 * set cache of the latest quote of every symbol, must be called before initialize
+	 * @param aCapacity number of symbols cached, 0 to disable the cache
+	 * @param aHost host name or address the last value HTTP endpoint binds to, null to disable the endpoint
+	 * @param aPort port of the last value HTTP endpoint
+	 */
+	public void setLastValues( int aCapacity, String aHost, int aPort )
+	{
+		lastValueCapacity = aCapacity;
+		lastValueHost = aHost;
+		lastValuePort = aPort;
+	}
+
+	/**
+	 * set write ahead journal of accepted ticks replayed after publish failures and restarts,
+	 * must be called before initialize
+	 * @param aDirectory directory holding a journal per publish worker, null to disable journaling
+	 * @param aSegmentBytes size of a journal segment file
+	 * @param aReplayRetryMillis time in millisecond between replay attempts after a publish failed
+	 */
+	public void setJournal( String aDirectory, int aSegmentBytes, long aReplayRetryMillis )
+	{
+		journalDirectory = aDirectory;
+		journalSegmentBytes = aSegmentBytes;
+		journalReplayRetryMillis = aReplayRetryMillis;
+	}
+
+	/**
+	 * @return metrics of the publisher, null before initialize
+	 */
+	public PublisherMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * create queue for the configured queue mode
+	 */
+	private QuoteQueue createQueue()
+	{
+		if ( QUEUE_MODE_CONFLATE.equals( queueMode ) )
+		{
+			return new ConflatingQuoteQueue();
+		}
+		if ( QUEUE_MODE_RING.equals( queueMode ) )
+		{
+			return new RingBufferQuoteQueue( ringBufferSize, createWaitStrategy(), overflowPolicy );
+		}
+		if ( QUEUE_MODE_FIFO.equals( queueMode ) )
+		{
+			return new FifoQuoteQueue();
+		}
+		throw new IllegalArgumentException( "Unknown queue mode " + queueMode );
+	}
+
+	/**
+	 * create wait strategy for the configured ring buffer wait strategy
+	 */
+	private WaitStrategy createWaitStrategy()
+	{
+		if ( WAIT_STRATEGY_BUSY_SPIN.equals( waitStrategy ) )
+		{
+			return new BusySpinWaitStrategy();
+		}
+		if ( WAIT_STRATEGY_YIELDING.equals( waitStrategy ) )
+		{
+			return new YieldingWaitStrategy();
+		}
+		if ( WAIT_STRATEGY_BLOCKING.equals( waitStrategy ) )
+		{
+			return new BlockingWaitStrategy();
+		}
+		throw new IllegalArgumentException( "Unknown wait strategy " + waitStrategy );
+	}
+
+	/**
+	 * publish all
+	 */
+	private void publishAll()
+	{	
+		subscriptions.start();
 	}
 	
 	/**
@@ -116,55 +578,243 @@ System.out.println( "Logging in " + smashUserId + " " + smashPassword );
 	 * @param aSymbol symbol
 	 * @param aDatasetUUID dataset UUID
 	 */
-	public void addToSubscription( String aSymbol, String aDatasetUUID )
+	public synchronized void addToSubscription( String aSymbol, String aDatasetUUID )
 	{
-		symbolToDatasetUUIDLookup.put( aSymbol, aDatasetUUID );
-		if ( smashLoggedIn)
+		int id = symbols.idOf( aSymbol );
+		String previousDatasetUUID = id < 0 ? null : symbols.getEncoder( id ).getDatasetUUID();
+		if ( aDatasetUUID.equals( previousDatasetUUID ) )
 		{
-			try
+			return;
+		}
+		symbols.add( aSymbol, new QuoteJSONEncoder( aDatasetUUID, typeId ) );
+		if ( subscriptions != null )
+		{
+			logger.info( "Subscribing {} to {}", aSymbol, aDatasetUUID );
+			subscriptions.add( aDatasetUUID, aSymbol );
+			if ( previousDatasetUUID != null )
 			{
-				System.out.println( "Subscribing to " + aSymbol );
-				client.publishDataRequest(aDatasetUUID, new PublishRequestResponseCallback( aDatasetUUID, aSymbol ) );
+				subscriptions.remove( previousDatasetUUID );
 			}
-			catch( Throwable t )
+		}
+	}
+
+	/**
+	 * remove from subscription, quotes of the symbol are no longer published
+	 * @param aSymbol symbol
+	 */
+	public synchronized void removeFromSubscription( String aSymbol )
+	{
+		int id = symbols.idOf( aSymbol );
+		if ( id < 0 )
+		{
+			return;
+		}
+		String datasetUUID = symbols.getEncoder( id ).getDatasetUUID();
+		symbols.remove( aSymbol );
+		if ( subscriptions != null )
+		{
+			logger.info( "Unsubscribing {} from {}", aSymbol, datasetUUID );
+			subscriptions.remove( datasetUUID );
+		}
+	}
+
+	/**
+	 * apply a subscription mapping, only added, moved and removed symbols are requested or stopped
+	 * @param aMapping dataset UUID by symbol
+	 */
+	public synchronized void reloadSubscriptions( Map<String,String> aMapping )
+	{
+		Map<String,String> current = getSubscriptions();
+		for( String symbol: current.keySet() )
+		{
+			if ( !aMapping.containsKey( symbol ) )
 			{
-				t.printStackTrace();
-			}			
+				removeFromSubscription( symbol );
+			}
 		}
+		for( Map.Entry<String,String> entry: aMapping.entrySet() )
+		{
+			addToSubscription( entry.getKey(), entry.getValue() );
+		}
+	}
+
+	public Map<String,String> getSubscriptions()
+	{
+		TreeMap<String,String> mapping = new TreeMap<String,String>();
+		int symbolCount = symbols.size();
+		for( int i = 0; i < symbolCount; i++ )
+		{
+			QuoteJSONEncoder encoder = symbols.getEncoder( i );
+			if ( encoder != null )
+			{
+				mapping.put( symbols.getSymbol( i ), encoder.getDatasetUUID() );
+			}
+		}
+		return mapping;
+	}
+
+	public void reloadConfig() throws Exception
+	{
+		if ( configFile == null )
+		{
+			throw new IllegalStateException( "No config file" );
+		}
+		Properties properties = new Properties();
+		FileInputStream in = new FileInputStream( configFile );
+		try
+		{
+			properties.load( in );
+		}
+		finally
+		{
+			in.close();
+		}
+		reloadSubscriptions( parseSubscriptionMapping( properties.getProperty( "smash.metaTraderPublisher.subscriptionMapping", "" ) ) );
+	}
+
+	/**
+	 * @param aMapping comma separated symbol and dataset UUID pairs
+	 * @return dataset UUID by symbol in order of the mapping
+	 */
+	static Map<String,String> parseSubscriptionMapping( String aMapping )
+	{
+		LinkedHashMap<String,String> mapping = new LinkedHashMap<String,String>();
+		StringTokenizer tokenizer = new StringTokenizer( aMapping, "," );
+		while( tokenizer.hasMoreTokens() )
+		{
+			String symbol = tokenizer.nextToken().trim();
+			if ( !tokenizer.hasMoreTokens() )
+			{
+				throw new IllegalArgumentException( "No dataset for " + symbol );
+			}
+			mapping.put( symbol, tokenizer.nextToken().trim() );
+		}
+		return mapping;
 	}
 	
 	public void onEvent(SessionEvent anEvent) 
 	{
-		System.out.println("SessionEvent:" + anEvent);
+		logger.info( "SessionEvent:{}", anEvent );
+		if ( anEvent == SessionEvent.RECOVERED )
+		{
+			replayGeneration++;
+		}
 	}
 	
 	/**
-	 * dispose
+	 * dispose, the publish workers publish their held quotes and pending batches and checkpoint
+	 * their journal before the journals are closed and the sink logged out
 	 */
 	public void dispose()
 	{
-		disposed = true;
-    	System.out.println("Disconnecting...");
+		synchronized( this )
+		{
+			if ( disposed )
+			{
+				return;
+			}
+			disposed = true;
+		}
+		logger.info( "Disconnecting..." );
 		try
 		{
-        	client.logout();
+			if ( quoteSource != null )
+			{
+				quoteSource.stop();
+			}
 		}
 		catch( Throwable t )
 		{
-			t.printStackTrace();
+			logger.error( "Quote source stop failed {}", quoteSource, t );
+		}
+		if ( configReloadTimer != null )
+		{
+			configReloadTimer.cancel();
+		}
+		if ( subscriptions != null )
+		{
+			subscriptions.stop();
+		}
+		for( int i = 0; workers != null && i < workers.length; i++ )
+		{
+			// wake the worker waiting for quotes
+			workers[i].interrupt();
+		}
+		for( int i = 0; workers != null && i < workers.length; i++ )
+		{
+			try
+			{
+				workers[i].join( WORKER_JOIN_MILLIS );
+			}
+			catch( InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+			}
+			if ( workers[i].isAlive() )
+			{
+				logger.log( AsyncLogger.Level.ERROR, "{} still publishing", workers[i].getName(), null, null );
+			}
+		}
+		for( int i = 0; queues != null && i < queues.length; i++ )
+		{
+			if ( queues[i] instanceof ConflatingQuoteQueue )
+			{
+				logger.info( "Conflated quotes worker-{} {}", i, ((ConflatingQuoteQueue)queues[i]).getConflatedCounts() );
+			}
+			if ( queues[i] instanceof RingBufferQuoteQueue )
+			{
+				logger.info( "Dropped quotes worker-{} {}", i, ((RingBufferQuoteQueue)queues[i]).getDroppedCount() );
+			}
+		}
+		for( int i = 0; journals != null && i < journals.length; i++ )
+		{
+			journals[i].close();
 		}
 		try
 		{
-			if ( canPerformDDE )
+			if ( sink != null )
 			{
-				conversation.disconnect();
+				sink.logout();
 			}
 		}
 		catch( Throwable t )
 		{
-			t.printStackTrace();
+			logger.error( "Logout failed {}", smashUserId, t );
+		}
+		try
+		{
+			ObjectName adminName = new ObjectName( ADMIN_OBJECT_NAME );
+			if ( ManagementFactory.getPlatformMBeanServer().isRegistered( adminName ) )
+			{
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean( adminName );
+			}
 		}
-        System.out.println("Exit");
+		catch( Throwable t )
+		{
+			logger.error( "Unregister failed {}", ADMIN_OBJECT_NAME, t );
+		}
+		if ( metricsServer != null )
+		{
+			metricsServer.stop();
+		}
+		if ( lastValueServer != null )
+		{
+			lastValueServer.stop();
+		}
+		if ( metrics != null )
+		{
+			metrics.stop();
+			try
+			{
+				metrics.unregisterMBean();
+			}
+			catch( Throwable t )
+			{
+				logger.error( "Unregister failed {}", "metrics", t );
+			}
+		}
+		logger.info( "Exit" );
+		logger.close();
 	}
 	
 	/**
@@ -183,72 +833,42 @@ System.out.println( "Logging in " + smashUserId + " " + smashPassword );
 		}
 	}
 	
+	/**
+	 * @return converter of Meta Trader server time to UTC using the configured offsets
+	 */
+	QuoteTimeConverter createTimeConverter()
+	{
+		return new QuoteTimeConverter( newYorkTimeZone, daylightSavingTimeOffset, standardTimeOffset );
+	}
+
 	/**
 	 * convert quote data to JSON 
+	 * @param anEncoder encoder of the quote dataset
+	 * @param aData quote data
+	 * @param aParser parser owned by the calling worker
+	 * @param aConverter server time converter owned by the calling worker
+	 * @param aState timestamp state of the quote symbol
+	 * @param aBuffer buffer owned by the calling worker
 	 */
-	private String toJSON( String aDatasetId, QueuedData aData ) throws ParseException
-	{
-		StringBuilder builder = new StringBuilder();
-		String datasetUUID = aDatasetId;
-		builder.append( "{ \"dataset\": \"" );
-		builder.append( datasetUUID );
-		builder.append( "\", \"typeId\": \"" );
-		builder.append( typeId );
-		builder.append( "\", \"timestamp\": " );
-		StringTokenizer dataTokenizer = new StringTokenizer( aData.data, " " );
-		String dateTimeText = dataTokenizer.nextToken() + " " + dataTokenizer.nextToken();
-		Date dateTime = dateFormat.parse( dateTimeText );
-		long quoteTimeWithSecondPrecision = dateTime.getTime();
-		
-		// adjust time to UTC
-		// if New York in daylight saving adjust by reducing 3hrs
-		if ( newYorkTimeZone.inDaylightTime( new Date() ) )
-		{
-			quoteTimeWithSecondPrecision = quoteTimeWithSecondPrecision - daylightSavingTimeOffset;
-		}
-		// if New York NOT in daylight saving adjust by reducing 2hrs
-		else
-		{
-			quoteTimeWithSecondPrecision = quoteTimeWithSecondPrecision - standardTimeOffset;
-		}
+	String toJSON( QuoteJSONEncoder anEncoder, QueuedData aData, MetaTraderQuoteParser aParser, QuoteTimeConverter aConverter,
+					QuoteTimestampState aState, StringBuilder aBuffer ) throws ParseException
+	{
+		aParser.parse( aData.data );
+		return toParsedJSON( anEncoder, aData, aParser, aConverter, aState, aBuffer );
+	}
 
-		long quoteTimeWithMillisecondPrecision = quoteTimeWithSecondPrecision;
-		// if quote time is not the same as before or is the firt quote time, then 
-		// use the quote time as is which is the time starting from 0 millisecond
-		if ( quoteTimeWithSecondPrecision != lastQuoteTimestamp )
-		{
-			lastQuoteTimestamp = quoteTimeWithSecondPrecision;
-			lastQuoteReceivedTime = aData.receivedTime;	
-			lastQuoteReceivedTimeIncrements = 0;
-		}
-		// if the quote time is the same as the previously one, then find the difference between
-		// the current quote receive time and the previous quote receive time in millisecond and
-		// use that as the millisecond portion of the quote time since the quote time reported is in 1s unit
-		else
-		{
-			lastQuoteReceivedTimeIncrements++;
-			long timeDifference = Math.abs( aData.receivedTime - lastQuoteReceivedTime )  + lastQuoteReceivedTimeIncrements;
-			if ( timeDifference > 999 )
-			{
-				timeDifference = 999;
-			}
-			quoteTimeWithMillisecondPrecision = quoteTimeWithSecondPrecision + timeDifference;
-		}
-		builder.append( quoteTimeWithMillisecondPrecision );
-		String bidPriceText = dataTokenizer.nextToken();
-		String askPriceText = dataTokenizer.nextToken();
-		BigDecimal bidPrice = new BigDecimal( bidPriceText );
-		BigDecimal askPrice = new BigDecimal( askPriceText );
-		builder.append( ", \"bidPrice\": " );
-		builder.append( bidPriceText );
-		builder.append( ", \"askPrice\": " );
-		builder.append( askPriceText );
-		builder.append( ", \"spread\": " );
-		builder.append( askPrice.subtract( bidPrice ).toPlainString() );
-		builder.append( ", \"quoteTime\": " );
-		builder.append( quoteTimeWithSecondPrecision );
-		builder.append( "}" );
-		return builder.toString();
+	/**
+	 * convert quote data already parsed by the parser to JSON
+	 */
+	private String toParsedJSON( QuoteJSONEncoder anEncoder, QueuedData aData, MetaTraderQuoteParser aParser, QuoteTimeConverter aConverter,
+					QuoteTimestampState aState, StringBuilder aBuffer )
+	{
+		// adjust time to UTC by the offset in effect at the quote time, e.g. 3hrs while New York
+		// is in daylight saving and 2hrs otherwise
+		long quoteTimeWithSecondPrecision = aConverter.toUTC( aParser.getServerTime() );
+
+		long quoteTimeWithMillisecondPrecision = aState.toMillisecondPrecision( quoteTimeWithSecondPrecision, aData.receivedTime );
+		return anEncoder.encode( quoteTimeWithMillisecondPrecision, quoteTimeWithSecondPrecision, aParser, aBuffer );
 	}
 	
 	/**
@@ -258,7 +878,7 @@ System.out.println( "Logging in " + smashUserId + " " + smashPassword );
 	{
 		public void onReceive(String aData) 
 		{
-System.out.println( "Receive Login Response " + aData );
+			logger.info( "Receive Login Response {}", aData );
 			//JsonElement jsonElement = jsonParser.parse(aData);
 			//JsonObject jsonObject = jsonElement.getAsJsonObject();
 			//if ( jsonObject.get( "responseType" ).getAsInt()==0 )
@@ -281,67 +901,167 @@ System.out.println( "Receive Login Response " + aData );
 	}
 	
 	/**
-	 * event listener
+	 * quote source listener
 	 */
-	private class MetaTraderEventListener implements DDEClientEventListener
+	private class QuoteSourceListener implements QuoteListener
 	{
 		private CountDownLatch eventDisconnect;
 		
 		/**
-		 * create MetaTraderEventListener
+		 * create QuoteSourceListener
 		 * @param anEventDisconnect event disconnect handling
 		 */
-		private	MetaTraderEventListener( CountDownLatch anEventDisconnect )
+		private	QuoteSourceListener( CountDownLatch anEventDisconnect )
 		{
 			eventDisconnect = anEventDisconnect;
 		}
 		
 		public void onDisconnect() 
 		{
-			System.out.println( "Disconnected" );
+			logger.info( "Disconnected" );
 			eventDisconnect.countDown();
 		}
 
-		public void onItemChanged(String aTopic, String anItem, String aData) 
+		public void onQuote( String aSymbol, String aData ) 
 		{
-			QueuedData data = new QueuedData( System.currentTimeMillis(), anItem, aData );
-			queue.offer( data );
+			long receivedNanos = System.nanoTime();
+			long receivedTime = System.currentTimeMillis();
+			int symbolId = symbols.idOf( aSymbol );
+			if ( symbolId < 0 )
+			{
+				// not subscribed, nothing to publish
+				return;
+			}
+			int worker = workerOf( aSymbol );
+			long sequence = 0;
+			if ( journals != null )
+			{
+				try
+				{
+					sequence = journals[worker].append( receivedTime, aSymbol, aData );
+				}
+				catch( Throwable t )
+				{
+					// the worker only publishes journaled ticks, a tick that cannot be replayed is dropped
+					metrics.recordJournalError();
+					if ( journalLog.isEnabled( aSymbol ) )
+					{
+						journalLog.log( "Journal append failed, tick dropped {} {}", aSymbol, t, null );
+					}
+					return;
+				}
+			}
+			queues[worker].offer( receivedTime, receivedNanos, sequence, symbolId, aSymbol, aData );
+			metrics.record( PublisherMetrics.Stage.RECEIVE, System.nanoTime() - receivedNanos );
 		}
 	}
 	
-	private class QueuedData
+	/**
+	 * publish quotes of the symbols assigned to a worker. With a journal, ticks after the journal
+	 * watermark are replayed on start, after a publish failed and when the Smash session recovers;
+	 * queued ticks are skipped while replay is pending or when replay already published them.
+	 * Bars are aggregated from every parsed tick before filtering, a tick is aggregated once even
+	 * when replayed; bars are not journaled so a bar lost to a publish failure is not published again.
+	 * The last value cache is updated from the same ticks, so it never goes back to a replayed quote.
+	 */
+	private class PublishToSmashTask implements Runnable, TickJournal.Listener, BarAggregator.Listener
 	{
-		private long receivedTime;
-		private String item;
-		private String data;
+		private final QuoteQueue queue;
+		private final TickJournal journal;
+		private final MetaTraderQuoteParser quoteParser = new MetaTraderQuoteParser();
+		private final QuoteTimeConverter timeConverter = createTimeConverter();
+		// indexed by symbol id
+		private QuoteTimestampState[] timestampStates = new QuoteTimestampState[16];
+		private final PublishBatcher batcher;
+		private final QueuedData replayed = new QueuedData();
+		private final StringBuilder jsonBuffer = new StringBuilder();
+		// null when quotes are not filtered
+		private final QuoteFilter filter;
+		// null without bar mappings
+		private final BarAggregator bars;
+		private long nextMetricsTime;
+		private boolean replayRequired;
+		private int replayedGeneration;
+		private long nextReplayTime;
+		// sequence of the last tick handed to the batcher
+		private long publishedSequence;
+		// sequence of the last tick added to the bars and the last value cache
+		private long observedSequence;
 		
-		private QueuedData( long aReceivedTime, String anItem, String aData )
+		/**
+		 * create PublishToSmashTask
+		 * @param aQueue queue of the worker
+		 * @param aJournal journal of the worker or null
+		 */
+		private PublishToSmashTask( QuoteQueue aQueue, TickJournal aJournal )
 		{
-			receivedTime = aReceivedTime;
-			item = anItem;
-			data = aData;
+			queue = aQueue;
+			journal = aJournal;
+			batcher = new PublishBatcher( sink, batchMaxCount, batchMaxBytes, batchLingerMillis );
+			nextMetricsTime = System.currentTimeMillis() + batchMetricsIntervalMillis;
+			replayRequired = journal != null;
+			replayedGeneration = replayGeneration;
+			filter = filterDuplicates || filterMaxPerSecond > 0
+						? new QuoteFilter( filterDuplicates, filterHeartbeatMillis, filterMaxPerSecond, filterBurst, metrics ) : null;
+			bars = barMappings.isEmpty() ? null : new BarAggregator( barTypeId, barCloseDelayMillis );
+			for( int i = 0; bars != null && i < barMappings.size(); i++ )
+			{
+				BarMapping barMapping = barMappings.get( i );
+				bars.addSeries( barMapping.symbol, barMapping.intervalMillis, barMapping.datasetUUID );
+			}
 		}
-	}
-	
-	private class PublishToSmashTask implements Runnable
-	{
+		
 		public void run()
 		{
 			while( !disposed )
 			{
 				try
 				{
-					QueuedData data = queue.poll( 10, TimeUnit.SECONDS );
+					if ( journal != null && ( replayRequired || replayedGeneration != replayGeneration ) )
+					{
+						replay();
+					}
+					long timeout = Math.min( TimeUnit.SECONDS.toNanos( 10 ), batcher.getNanosToNextDeadline() );
+					if ( replayRequired )
+					{
+						timeout = Math.min( timeout, TimeUnit.MILLISECONDS.toNanos( journalReplayRetryMillis ) );
+					}
+					if ( filter != null )
+					{
+						timeout = Math.min( timeout, filter.getNanosToNextHeld( System.nanoTime() ) );
+					}
+					if ( bars != null )
+					{
+						timeout = Math.min( timeout, TimeUnit.MILLISECONDS.toNanos( bars.getMillisToNextClose( System.currentTimeMillis() ) ) );
+					}
+					QueuedData data = queue.poll( timeout, TimeUnit.NANOSECONDS );
 					if ( data != null )
 					{
-						String datasetUUID = symbolToDatasetUUIDLookup.get( data.item );
-						if ( datasetUUID != null )
-						{						
-							String jsonData = toJSON(datasetUUID, data);
-System.out.println( "POST DATA " + datasetUUID + " " + jsonData + " Size " + queue.size() );	
-							client.publishData(datasetUUID, jsonData);
+						long dequeuedNanos = System.nanoTime();
+						metrics.record( PublisherMetrics.Stage.DEQUEUE, dequeuedNanos - data.receivedNanos );
+						if ( journal == null || ( !replayRequired && data.sequence > publishedSequence ) )
+						{
+							publish( data, dequeuedNanos );
 						}
 					}
+					if ( filter != null && !replayRequired )
+					{
+						publishHeld( false );
+					}
+					if ( bars != null && !replayRequired )
+					{
+						bars.closeDue( System.currentTimeMillis(), this );
+					}
+					batcher.flushExpired();
+					if ( journal != null && !replayRequired )
+					{
+						journal.checkpoint( checkpointOf( batcher.getPublishedSequence() ) );
+					}
+					if ( batchMetricsIntervalMillis > 0 && System.currentTimeMillis() >= nextMetricsTime )
+					{
+						logger.info( "{} batches {}", Thread.currentThread().getName(), batcher.getMetrics() );
+						nextMetricsTime = System.currentTimeMillis() + batchMetricsIntervalMillis;
+					}
 				}
 				catch( InterruptedException e )
 				{
@@ -349,48 +1069,242 @@ System.out.println( "POST DATA " + datasetUUID + " " + jsonData + " Size " + que
 				}
 				catch( Throwable t )
 				{
-					t.printStackTrace();
+					publishFailed( t );
 				}
 			}
+			// woken by dispose, the flush below must not be interrupted
+			Thread.interrupted();
+			try
+			{
+				if ( !replayRequired )
+				{
+					if ( filter != null )
+					{
+						publishHeld( true );
+					}
+					batcher.flushAll();
+					if ( journal != null )
+					{
+						journal.checkpoint( batcher.getPublishedSequence() );
+					}
+				}
+			}
+			catch( Throwable t )
+			{
+				publishFailed( t );
+			}
 		}
-	}
-	
-	/**
-	 * login response callback
-	 */
-	private class PublishRequestResponseCallback implements DataCallback
-	{
-		private String datasetUUID;
-		private String symbol;
-		
+
+		public void onTick( long aSequence, long aReceivedTime, String anItem, String aData ) throws Exception
+		{
+			int symbolId = symbols.idOf( anItem );
+			if ( symbolId < 0 )
+			{
+				return;
+			}
+			long now = System.nanoTime();
+			replayed.set( aReceivedTime, now, aSequence, symbolId, anItem, aData );
+			publish( replayed, now );
+		}
+
 		/**
-		 * create PublishRequestResponseCallback
-		 * @param aDatasetUUID data set UUID
-		 * @param aSymbol symbol
+		 * publish journaled ticks after the watermark at full rate once logged in to Smash
 		 */
-		private PublishRequestResponseCallback( String aDatasetUUID, String aSymbol ){
-			datasetUUID = aDatasetUUID;
-			symbol = aSymbol;
+		private void replay() throws Exception
+		{
+			if ( !smashLoggedIn || System.currentTimeMillis() < nextReplayTime )
+			{
+				return;
+			}
+			int generation = replayGeneration;
+			long watermark = journal.getWatermark();
+			// pending batches and held quotes are ticks after the watermark published again by the replay
+			batcher.discardAll();
+			if ( filter != null )
+			{
+				filter.discardHeld();
+			}
+			long last = journal.replay( watermark, this );
+			batcher.flushAll();
+			journal.checkpoint( checkpointOf( last ) );
+			publishedSequence = last;
+			replayRequired = false;
+			replayedGeneration = generation;
+			if ( last > watermark )
+			{
+				logger.info( "{} replayed journal from {} to {}", Thread.currentThread().getName(), watermark, last );
+			}
 		}
-		
-		public void onReceive(String aData) 
+
+		/**
+		 * log publish failure, with a journal stop publishing until the ticks after the watermark are replayed
+		 */
+		private void publishFailed( Throwable aThrowable )
 		{
-System.out.println( "Receive Publish Response " + aData );
-			JsonElement jsonElement = jsonParser.parse(aData);
-			JsonObject jsonObject = jsonElement.getAsJsonObject();
-			if ( "SUCCESS".equals( jsonObject.get( "status" ).getAsString() ) )
+			metrics.recordPublishError();
+			logger.error( "Publish failed {}", Thread.currentThread().getName(), aThrowable );
+			if ( journal != null )
 			{
-				if ( canPerformDDE )
+				replayRequired = true;
+				batcher.discardAll();
+				if ( filter != null )
 				{
-					try{
-System.out.println( "Subscribe to " + symbol );						
-						conversation.startAdvice(symbol);
-					}
-					catch( Throwable t ){
-						t.printStackTrace();
-					}
+					filter.discardHeld();
 				}
+				nextReplayTime = System.currentTimeMillis() + journalReplayRetryMillis;
+			}
+		}
+
+		/**
+		 * @param aPublishedSequence sequence of the last tick handed to Smash
+		 * @return journal watermark, before the oldest quote held by the filter
+		 */
+		private long checkpointOf( long aPublishedSequence )
+		{
+			return filter == null ? aPublishedSequence : Math.min( aPublishedSequence, filter.getOldestHeldSequence() - 1 );
+		}
+
+		/**
+		 * publish the quotes held by the filter the rate now allows
+		 * @param anAll true to publish every held quote
+		 */
+		private void publishHeld( boolean anAll ) throws Exception
+		{
+			long now = System.nanoTime();
+			QueuedData held;
+			while( ( held = filter.pollHeld( now, anAll ) ) != null )
+			{
+				quoteParser.parse( held.data );
+				publishParsed( held, now );
+			}
+		}
+
+		/**
+		 * parse tick, filter it, convert it to JSON and hand it to the batcher
+		 */
+		private void publish( QueuedData aData, long aDequeuedNanos ) throws Exception
+		{
+			try
+			{
+				quoteParser.parse( aData.data );
+			}
+			catch( ParseException e )
+			{
+				// not a publish failure, replaying the tick would fail again
+				logger.error( "Malformed quote {}", aData.data, e );
+				return;
+			}
+			if ( ( bars != null || lastValues != null ) && ( journal == null || aData.sequence > observedSequence ) )
+			{
+				observedSequence = aData.sequence;
+				long quoteTime = timeConverter.toUTC( quoteParser.getServerTime() );
+				if ( lastValues != null )
+				{
+					lastValues.update( aData.symbolId, quoteTime, quoteParser );
+				}
+				if ( bars != null )
+				{
+					bars.onTick( aData.symbolId, aData.item, quoteTime, quoteParser, this );
+				}
+			}
+			if ( filter != null && filter.accept( aData, quoteParser, System.nanoTime() ) != QuoteFilter.Decision.PUBLISH )
+			{
+				return;
+			}
+			publishParsed( aData, aDequeuedNanos );
+		}
+
+		public void onBar( String aDatasetUUID, String aJSON ) throws Exception
+		{
+			if ( tickLog.isEnabled( aDatasetUUID ) )
+			{
+				tickLog.log( "POST BAR {} {} Size {}", aDatasetUUID, aJSON, queue.size() );
+			}
+			// a bar covers the ticks handed to the batcher so far
+			batcher.add( aDatasetUUID, aJSON, publishedSequence );
+		}
+
+		/**
+		 * convert tick parsed by the quote parser to JSON and hand it to the batcher
+		 */
+		private void publishParsed( QueuedData aData, long aDequeuedNanos ) throws Exception
+		{
+			int symbolId = aData.symbolId;
+			QuoteJSONEncoder encoder = symbols.getEncoder( symbolId );
+			if ( encoder == null )
+			{
+				// removed from subscription since queued
+				return;
+			}
+			String datasetUUID = encoder.getDatasetUUID();
+			if ( symbolId >= timestampStates.length )
+			{
+				timestampStates = Arrays.copyOf( timestampStates, Math.max( timestampStates.length * 2, symbolId + 1 ) );
+			}
+			QuoteTimestampState timestampState = timestampStates[symbolId];
+			if ( timestampState == null )
+			{
+				timestampState = new QuoteTimestampState();
+				timestampStates[symbolId] = timestampState;
+			}
+			String jsonData = toParsedJSON(encoder, aData, quoteParser, timeConverter, timestampState, jsonBuffer);
+			long serializedNanos = System.nanoTime();
+			metrics.record( PublisherMetrics.Stage.SERIALIZE, serializedNanos - aDequeuedNanos );
+			if ( tickLog.isEnabled( aData.item ) )
+			{
+				tickLog.log( "POST DATA {} {} Size {}", datasetUUID, jsonData, queue.size() );
 			}
+			batcher.add(datasetUUID, jsonData, aData.sequence);
+			// held quotes are published after later ones
+			publishedSequence = Math.max( publishedSequence, aData.sequence );
+			long publishedNanos = System.nanoTime();
+			metrics.record( PublisherMetrics.Stage.PUBLISH, publishedNanos - serializedNanos );
+			metrics.record( PublisherMetrics.Stage.END_TO_END, publishedNanos - aData.receivedNanos );
+			metrics.recordTick( symbolId, aData.item );
+		}
+	}
+	
+	/**
+	 * apply the subscription mapping when the config file changed
+	 */
+	private class ConfigReloadTask extends TimerTask
+	{
+		private long lastModified = new File( configFile ).lastModified();
+
+		public void run()
+		{
+			long modified = new File( configFile ).lastModified();
+			if ( modified == lastModified )
+			{
+				return;
+			}
+			lastModified = modified;
+			try
+			{
+				logger.info( "Reloading subscriptions from {}", configFile );
+				reloadConfig();
+			}
+			catch( Throwable t )
+			{
+				logger.error( "Reload failed {}", configFile, t );
+			}
+		}
+	}
+
+	/**
+	 * bars of a symbol and interval published to a bar dataset
+	 */
+	private static class BarMapping
+	{
+		private final String symbol;
+		private final long intervalMillis;
+		private final String datasetUUID;
+
+		private BarMapping( String aSymbol, long anIntervalMillis, String aDatasetUUID )
+		{
+			symbol = aSymbol;
+			intervalMillis = anIntervalMillis;
+			datasetUUID = aDatasetUUID;
 		}
 	}
 	
@@ -406,24 +1320,113 @@ System.out.println( "Subscribe to " + symbol );
     												properties.getProperty( "smash.metaTraderPublisher.smashUserId" ),
     												properties.getProperty( "smash.metaTraderPublisher.smashPassword" ),
     												properties.getProperty( "smash.metaTraderPublisher.smashMetaTraderQuoteTypeId" ));
-    		StringTokenizer subscriptionMappingConfig = new StringTokenizer( 
-    											properties.getProperty( "smash.metaTraderPublisher.subscriptionMapping" ), "," );
+    		String quoteSourceType = properties.getProperty( "smash.metaTraderPublisher.quoteSource", "dde" );
+    		if ( "synthetic".equals( quoteSourceType ) )
+    		{
+    			String symbols = properties.getProperty( "smash.metaTraderPublisher.synthetic.symbols", "" ).trim();
+    			publisher.setQuoteSource( new SyntheticQuoteSource( 
+    												Long.parseLong( properties.getProperty( "smash.metaTraderPublisher.synthetic.rate", "1000" ) ),
+    												Long.parseLong( properties.getProperty( "smash.metaTraderPublisher.synthetic.seed", "0" ) ),
+    												symbols.length() == 0 ? new String[0] : symbols.split( "\\s*,\\s*" ) ) );
+    		}
+    		else if ( "socket".equals( quoteSourceType ) )
+    		{
+    			publisher.setQuoteSource( new SocketQuoteSource( 
+    												properties.getProperty( "smash.metaTraderPublisher.socket.host", "0.0.0.0" ),
+    												Integer.parseInt( properties.getProperty( "smash.metaTraderPublisher.socket.tcpPort", "9501" ) ),
+    												Integer.parseInt( properties.getProperty( "smash.metaTraderPublisher.socket.udpPort", "-1" ) ),
+    												Integer.parseInt( properties.getProperty( "smash.metaTraderPublisher.socket.bufferSize", "16384" ) ) ) );
+    		}
+    		else if ( "dde".equals( quoteSourceType ) )
+    		{
+    			if ( DDEQuoteSource.isAvailable() )
+    			{
+    				publisher.setQuoteSource( new DDEQuoteSource() );
+    			}
+    		}
+    		else
+    		{
+    			throw new IllegalArgumentException( "Unknown quote source " + quoteSourceType );
+    		}
+    		String publishSinkType = properties.getProperty( "smash.metaTraderPublisher.publishSink", "smash" );
+    		if ( "simulated".equals( publishSinkType ) )
+    		{
+    			SimulatedPublishSink simulatedSink = new SimulatedPublishSink( 
+    												Long.parseLong( properties.getProperty( "smash.metaTraderPublisher.simulated.seed", "0" ) ) );
+    			simulatedSink.setLatency( Long.parseLong( properties.getProperty( "smash.metaTraderPublisher.simulated.latencyMicros", "0" ) ),
+    									Long.parseLong( properties.getProperty( "smash.metaTraderPublisher.simulated.jitterMicros", "0" ) ) );
+    			simulatedSink.setMaxPublishRate( Double.parseDouble( properties.getProperty( "smash.metaTraderPublisher.simulated.maxPublishPerSecond", "0" ) ) );
+    			simulatedSink.setErrorRates( Double.parseDouble( properties.getProperty( "smash.metaTraderPublisher.simulated.publishErrorRate", "0" ) ),
+    									Double.parseDouble( properties.getProperty( "smash.metaTraderPublisher.simulated.requestDenyRate", "0" ) ) );
+    			simulatedSink.setOutages( Long.parseLong( properties.getProperty( "smash.metaTraderPublisher.simulated.outagePeriodMillis", "0" ) ),
+    									Long.parseLong( properties.getProperty( "smash.metaTraderPublisher.simulated.outageMillis", "0" ) ) );
+    			publisher.setPublishSink( simulatedSink );
+    		}
+    		else if ( !"smash".equals( publishSinkType ) )
+    		{
+    			throw new IllegalArgumentException( "Unknown publish sink " + publishSinkType );
+    		}
+    		if ( properties.getProperty( "smash.metaTraderPublisher.queueMode" ) != null )
+    		{
+    			publisher.setQueueMode( properties.getProperty( "smash.metaTraderPublisher.queueMode" ) );
+    		}
+    		if ( properties.getProperty( "smash.metaTraderPublisher.publishWorkers" ) != null )
+    		{
+    			publisher.setPublishWorkerCount( Integer.parseInt( properties.getProperty( "smash.metaTraderPublisher.publishWorkers" ) ) );
+    		}
+    		if ( properties.getProperty( "smash.metaTraderPublisher.batchLingerMillis" ) != null )
+    		{
+    			publisher.setBatching( Integer.parseInt( properties.getProperty( "smash.metaTraderPublisher.batchMaxCount", "100" ) ),
+    									Integer.parseInt( properties.getProperty( "smash.metaTraderPublisher.batchMaxBytes", "65536" ) ),
+    									Long.parseLong( properties.getProperty( "smash.metaTraderPublisher.batchLingerMillis" ) ),
+    									Long.parseLong( properties.getProperty( "smash.metaTraderPublisher.batchMetricsIntervalMillis", "0" ) ) );
+    		}
+    		publisher.setLogging( AsyncLogger.Level.valueOf( properties.getProperty( "smash.metaTraderPublisher.log.level", "INFO" ) ),
+    							Integer.parseInt( properties.getProperty( "smash.metaTraderPublisher.log.bufferSize", "8192" ) ),
+    							Integer.parseInt( properties.getProperty( "smash.metaTraderPublisher.log.tickMaxPerSecond", "1" ) ),
+    							Integer.parseInt( properties.getProperty( "smash.metaTraderPublisher.log.tickSampleEvery", "1" ) ) );
+    		if ( properties.getProperty( "smash.metaTraderPublisher.ringBufferSize" ) != null )
+    		{
+    			publisher.setRingBuffer( Integer.parseInt( properties.getProperty( "smash.metaTraderPublisher.ringBufferSize" ) ),
+    									properties.getProperty( "smash.metaTraderPublisher.ringBufferWaitStrategy", WAIT_STRATEGY_BLOCKING ),
+    									OverflowPolicy.valueOf( properties.getProperty( "smash.metaTraderPublisher.ringBufferOverflowPolicy", "BLOCK" ) ) );
+    		}
+    		String metricsHost = properties.getProperty( "smash.metaTraderPublisher.metrics.host", "" ).trim();
+    		publisher.setMetrics( Long.parseLong( properties.getProperty( "smash.metaTraderPublisher.metrics.windowMillis", "60000" ) ),
+    							metricsHost.length() == 0 ? null : metricsHost,
+    							Integer.parseInt( properties.getProperty( "smash.metaTraderPublisher.metrics.port", "9404" ) ),
+    							Boolean.parseBoolean( properties.getProperty( "smash.metaTraderPublisher.metrics.jmx", "false" ) ) );
+    		String lastValueHost = properties.getProperty( "smash.metaTraderPublisher.lastValue.host", "" ).trim();
+    		publisher.setLastValues( Integer.parseInt( properties.getProperty( "smash.metaTraderPublisher.lastValue.capacity", "0" ) ),
+    								lastValueHost.length() == 0 ? null : lastValueHost,
+    								Integer.parseInt( properties.getProperty( "smash.metaTraderPublisher.lastValue.port", "9405" ) ) );
+    		String journalDirectory = properties.getProperty( "smash.metaTraderPublisher.journal.directory", "" ).trim();
+    		if ( journalDirectory.length() > 0 )
+    		{
+    			publisher.setJournal( journalDirectory,
+    								Integer.parseInt( properties.getProperty( "smash.metaTraderPublisher.journal.segmentBytes", "67108864" ) ),
+    								Long.parseLong( properties.getProperty( "smash.metaTraderPublisher.journal.replayRetryMillis", "5000" ) ) );
+    		}
+    		publisher.setSubscriptionPipeline( Integer.parseInt( properties.getProperty( "smash.metaTraderPublisher.subscription.window", "32" ) ),
+    										Long.parseLong( properties.getProperty( "smash.metaTraderPublisher.subscription.timeoutMillis", "10000" ) ),
+    										Long.parseLong( properties.getProperty( "smash.metaTraderPublisher.subscription.retryMillis", "1000" ) ) );
+    		publisher.setQuoteFilter( Boolean.parseBoolean( properties.getProperty( "smash.metaTraderPublisher.filter.suppressDuplicates", "false" ) ),
+    								Long.parseLong( properties.getProperty( "smash.metaTraderPublisher.filter.heartbeatMillis", "0" ) ),
+    								Double.parseDouble( properties.getProperty( "smash.metaTraderPublisher.filter.maxPerSecond", "0" ) ),
+    								Integer.parseInt( properties.getProperty( "smash.metaTraderPublisher.filter.burst", "1" ) ) );
     		daylightSavingTimeOffset = Long.parseLong( properties.getProperty( "smash.metaTraderPublisher.daylightSavingTimeOffset") );
     		standardTimeOffset = Long.parseLong( properties.getProperty( "smash.metaTraderPublisher.standardTimeOffset") );
     		
-    		String symbol = null;
-    		while( subscriptionMappingConfig.hasMoreTokens())
+    		if ( properties.getProperty( "smash.metaTraderPublisher.smashMetaTraderBarTypeId" ) != null )
     		{
-    			if ( symbol == null )
-    			{
-    				symbol = subscriptionMappingConfig.nextToken();
-    			}
-    			else
-    			{
-    				publisher.addToSubscription( symbol, subscriptionMappingConfig.nextToken() );
-    				symbol = null;
-    			}
+    			publisher.setBars( properties.getProperty( "smash.metaTraderPublisher.smashMetaTraderBarTypeId" ),
+    							Long.parseLong( properties.getProperty( "smash.metaTraderPublisher.bar.closeDelayMillis", "500" ) ) );
     		}
+    		publisher.addToBarMapping( properties.getProperty( "smash.metaTraderPublisher.barMapping", "" ) );
+    		
+    		publisher.setConfigReload( args[0], Long.parseLong( properties.getProperty( "smash.metaTraderPublisher.configReloadMillis", "0" ) ) );
+    		publisher.setAdmin( Boolean.parseBoolean( properties.getProperty( "smash.metaTraderPublisher.admin.jmx", "true" ) ) );
+    		publisher.reloadSubscriptions( parseSubscriptionMapping( properties.getProperty( "smash.metaTraderPublisher.subscriptionMapping" ) ) );
     		publisher.initialize();
     		publisher.await();
     	}
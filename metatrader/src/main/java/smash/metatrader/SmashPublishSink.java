@@ -0,0 +1,132 @@
+package smash.metatrader;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import smash.api.CallbackClient;
+import smash.api.DataCallback;
+import smash.api.SessionEventCallback;
+import smash.api.exception.RequestProcessingException;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+/**
+ * Publish to Smash.bi through the callback client. The client keeps the topic of every granted
+ * dataset in a HashMap that its messaging thread writes when a publish data response arrives and
+ * that publishData reads without synchronization. The sink records the granted datasets in a
+ * concurrent map once the client stored their topic, so a publish only reads the topic of a
+ * dataset it sees granted and a dataset waits on its own grant only. A read racing the resize of
+ * the client map for another grant may miss the topic, such a publish is retried.
+ */
+public class SmashPublishSink implements PublishSink
+{
+	// attempts of a publish missing the topic of a granted dataset
+	private static final int MISSED_TOPIC_ATTEMPTS = 1000;
+	private final String host;
+	private final String vpn;
+	private final ConcurrentHashMap<String,Boolean> grantedDatasets = new ConcurrentHashMap<String,Boolean>();
+	private CallbackClient client;
+
+	/**
+	 * create SmashPublishSink
+	 * @param aHost smash host
+	 * @param aVPN VPN identifier
+	 */
+	public SmashPublishSink( String aHost, String aVPN )
+	{
+		host = aHost;
+		vpn = aVPN;
+	}
+
+	public void open( SessionEventCallback aCallback ) throws Exception
+	{
+		client = new CallbackClient( host, vpn, aCallback );
+	}
+
+	/**
+	 * @return client once open e.g. to query datasets
+	 */
+	public CallbackClient getClient()
+	{
+		return client;
+	}
+
+	public void login( String aUserId, String aPassword, DataCallback aCallback ) throws Exception
+	{
+		client.login( aUserId, aPassword, aCallback );
+	}
+
+	public void publishDataRequest( final String aDatasetUUID, final DataCallback aCallback ) throws Exception
+	{
+		client.publishDataRequest( aDatasetUUID, new DataCallback()
+		{
+			public void onReceive( String aData )
+			{
+				// the client stored the topic before calling back
+				granted( aDatasetUUID, aData );
+				aCallback.onReceive( aData );
+			}
+		});
+	}
+
+	public void publishData( String aDatasetUUID, String aJSON ) throws RequestProcessingException
+	{
+		if ( !grantedDatasets.containsKey( aDatasetUUID ) )
+		{
+			throw new RequestProcessingException( "Dataset " + aDatasetUUID + " not granted" );
+		}
+		for( int attempt = 1; ; attempt++ )
+		{
+			try
+			{
+				send( aDatasetUUID, aJSON );
+				return;
+			}
+			catch( IllegalStateException e )
+			{
+				// topic missed while the client map is resized
+				if ( attempt >= MISSED_TOPIC_ATTEMPTS )
+				{
+					throw new RequestProcessingException( "Topic of dataset " + aDatasetUUID + " not found", e );
+				}
+				Thread.yield();
+			}
+		}
+	}
+
+	public void logout() throws Exception
+	{
+		grantedDatasets.clear();
+		client.logout();
+	}
+
+	/**
+	 * record the response of a publish data request
+	 * @param aDatasetUUID dataset UUID
+	 * @param aResponse response, granted with status SUCCESS
+	 */
+	void granted( String aDatasetUUID, String aResponse )
+	{
+		try
+		{
+			JsonElement status = new JsonParser().parse( aResponse ).getAsJsonObject().get( "status" );
+			if ( status != null && "SUCCESS".equals( status.getAsString() ) )
+			{
+				grantedDatasets.put( aDatasetUUID, Boolean.TRUE );
+			}
+		}
+		catch( RuntimeException e )
+		{
+			// not granted
+		}
+	}
+
+	/**
+	 * publish through the client
+	 * @throws IllegalStateException if the client has no topic for the dataset
+	 */
+	void send( String aDatasetUUID, String aJSON ) throws RequestProcessingException
+	{
+		client.publishData( aDatasetUUID, aJSON );
+	}
+}
@@ -0,0 +1,484 @@
+package smash.metatrader;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+/**
+ * Quotes pushed over TCP or UDP e.g. by a Meta Trader Expert Advisor, one quote per line
+ * "symbol yyyy/MM/dd HH:mm:ss bid ask". A single selector thread serves any number of terminals,
+ * every connection reads into its own direct buffer and lines are scanned in place: the symbol is
+ * matched against the subscribed symbols without decoding it, only the quote data of a subscribed
+ * symbol is decoded into the String handed to the listener. Lines of unsubscribed symbols and
+ * lines without a quote are skipped. A terminal disconnecting does not stop the source.
+ */
+public class SocketQuoteSource implements QuoteSource, Runnable
+{
+	private final String host;
+	private final int tcpPort;
+	private final int udpPort;
+	private final int bufferSize;
+	// subscribed symbols by String hash, copy on write so the selector thread never locks
+	private volatile String[] subscribed = new String[16];
+	private int subscribedCount;
+	private volatile boolean running;
+	private QuoteListener listener;
+	private AsyncLogger logger;
+	private Selector selector;
+	private ServerSocketChannel server;
+	private DatagramChannel datagram;
+	private ByteBuffer datagramBuffer;
+	private Thread thread;
+	private char[] chars = new char[64];
+	private volatile int connectionCount;
+	private volatile long quoteCount;
+	private volatile long skippedCount;
+
+	/**
+	 * create SocketQuoteSource
+	 * @param aHost host name or address to bind, 0.0.0.0 for all interfaces
+	 * @param aTCPPort TCP port, 0 for any free port, negative to disable TCP
+	 * @param aUDPPort UDP port, 0 for any free port, negative to disable UDP
+	 * @param aBufferSize receive buffer size of a connection, the maximum length of a line
+	 */
+	public SocketQuoteSource( String aHost, int aTCPPort, int aUDPPort, int aBufferSize )
+	{
+		if ( aBufferSize < 64 )
+		{
+			throw new IllegalArgumentException( "Invalid socket buffer size " + aBufferSize );
+		}
+		host = aHost;
+		tcpPort = aTCPPort;
+		udpPort = aUDPPort;
+		bufferSize = aBufferSize;
+	}
+
+	public synchronized void start( QuoteListener aListener, AsyncLogger aLogger ) throws Exception
+	{
+		listener = aListener;
+		logger = aLogger;
+		selector = Selector.open();
+		if ( tcpPort >= 0 )
+		{
+			server = ServerSocketChannel.open();
+			server.bind( new InetSocketAddress( host, tcpPort ) );
+			server.configureBlocking( false );
+			server.register( selector, SelectionKey.OP_ACCEPT );
+		}
+		if ( udpPort >= 0 )
+		{
+			datagram = DatagramChannel.open();
+			datagram.setOption( StandardSocketOptions.SO_RCVBUF, Math.max( bufferSize, 1 << 20 ) );
+			datagram.bind( new InetSocketAddress( host, udpPort ) );
+			datagram.configureBlocking( false );
+			datagram.register( selector, SelectionKey.OP_READ );
+			datagramBuffer = ByteBuffer.allocateDirect( Math.max( bufferSize, 65536 ) );
+		}
+		running = true;
+		thread = new Thread( this, "SocketQuoteSource" );
+		thread.setDaemon( true );
+		thread.start();
+		logger.info( "Listening to quotes on {} TCP {} UDP {}", host, getTCPPort(), getUDPPort() );
+	}
+
+	public synchronized void subscribe( String aSymbol ) throws Exception
+	{
+		String[] current = subscribed;
+		if ( indexOf( current, aSymbol ) >= 0 )
+		{
+			return;
+		}
+		int capacity = current.length;
+		while( ( subscribedCount + 1 ) * 2 > capacity )
+		{
+			capacity = capacity * 2;
+		}
+		String[] updated = new String[capacity];
+		for( String symbol: current )
+		{
+			if ( symbol != null )
+			{
+				put( updated, symbol );
+			}
+		}
+		put( updated, aSymbol );
+		subscribedCount++;
+		subscribed = updated;
+	}
+
+	public synchronized void unsubscribe( String aSymbol ) throws Exception
+	{
+		String[] current = subscribed;
+		if ( indexOf( current, aSymbol ) < 0 )
+		{
+			return;
+		}
+		String[] updated = new String[current.length];
+		for( String symbol: current )
+		{
+			if ( symbol != null && !symbol.equals( aSymbol ) )
+			{
+				put( updated, symbol );
+			}
+		}
+		subscribedCount--;
+		subscribed = updated;
+	}
+
+	public void stop() throws Exception
+	{
+		running = false;
+		if ( selector == null )
+		{
+			return;
+		}
+		selector.wakeup();
+		if ( thread != null )
+		{
+			thread.join( 1000 );
+		}
+		logger.info( "Socket quotes received {} skipped {}", quoteCount, skippedCount );
+	}
+
+	/**
+	 * @return bound TCP port, -1 if TCP is disabled or not started
+	 */
+	public int getTCPPort()
+	{
+		return server == null ? -1 : server.socket().getLocalPort();
+	}
+
+	/**
+	 * @return bound UDP port, -1 if UDP is disabled or not started
+	 */
+	public int getUDPPort()
+	{
+		return datagram == null ? -1 : datagram.socket().getLocalPort();
+	}
+
+	/**
+	 * @return number of open TCP connections
+	 */
+	public int getConnectionCount()
+	{
+		return connectionCount;
+	}
+
+	/**
+	 * @return number of quotes handed to the listener
+	 */
+	public long getQuoteCount()
+	{
+		return quoteCount;
+	}
+
+	/**
+	 * @return number of lines skipped, unsubscribed or malformed
+	 */
+	public long getSkippedCount()
+	{
+		return skippedCount;
+	}
+
+	public void run()
+	{
+		try
+		{
+			while( running )
+			{
+				selector.select();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while( keys.hasNext() )
+				{
+					SelectionKey key = keys.next();
+					keys.remove();
+					try
+					{
+						if ( key.isAcceptable() )
+						{
+							accept();
+						}
+						else if ( key.channel() == datagram )
+						{
+							receive();
+						}
+						else if ( key.isReadable() )
+						{
+							read( key );
+						}
+					}
+					catch( IOException e )
+					{
+						logger.info( "Quote connection closed {}", e.toString() );
+						close( key );
+					}
+				}
+			}
+		}
+		catch( Throwable t )
+		{
+			logger.error( "Quote source failed {}", host, t );
+		}
+		finally
+		{
+			for( SelectionKey key: selector.keys() )
+			{
+				close( key );
+			}
+			try
+			{
+				selector.close();
+			}
+			catch( IOException e )
+			{
+				logger.error( "Selector close failed {}", host, e );
+			}
+		}
+	}
+
+	private void accept() throws IOException
+	{
+		SocketChannel channel;
+		while( ( channel = server.accept() ) != null )
+		{
+			channel.configureBlocking( false );
+			channel.setOption( StandardSocketOptions.TCP_NODELAY, Boolean.TRUE );
+			channel.register( selector, SelectionKey.OP_READ, new Connection( bufferSize ) );
+			connectionCount++;
+		}
+	}
+
+	/**
+	 * read available bytes of a connection and handle its complete lines, a partial line stays in the buffer
+	 */
+	private void read( SelectionKey aKey ) throws IOException
+	{
+		SocketChannel channel = (SocketChannel)aKey.channel();
+		Connection connection = (Connection)aKey.attachment();
+		ByteBuffer buffer = connection.buffer;
+		int read = channel.read( buffer );
+		if ( read < 0 )
+		{
+			close( aKey );
+			return;
+		}
+		int end = buffer.position();
+		int start = 0;
+		if ( connection.overflow )
+		{
+			// skip the rest of a line longer than the buffer
+			while( start < end && buffer.get( start ) != '\n' )
+			{
+				start++;
+			}
+			connection.overflow = start == end;
+			start = Math.min( start + 1, end );
+		}
+		start = lines( buffer, start, end, false );
+		if ( start == 0 && end == buffer.capacity() )
+		{
+			skippedCount++;
+			connection.overflow = true;
+			start = end;
+		}
+		buffer.limit( end );
+		buffer.position( start );
+		buffer.compact();
+	}
+
+	/**
+	 * receive available datagrams, a datagram holds whole lines and the last may miss its newline
+	 */
+	private void receive() throws IOException
+	{
+		while( true )
+		{
+			datagramBuffer.clear();
+			if ( datagram.receive( datagramBuffer ) == null )
+			{
+				return;
+			}
+			lines( datagramBuffer, 0, datagramBuffer.position(), true );
+		}
+	}
+
+	/**
+	 * handle the lines of the buffer between the indexes
+	 * @param anAll true to handle the trailing bytes as a line
+	 * @return index after the last handled line
+	 */
+	private int lines( ByteBuffer aBuffer, int aStart, int anEnd, boolean anAll )
+	{
+		int start = aStart;
+		for( int i = aStart; i < anEnd; i++ )
+		{
+			if ( aBuffer.get( i ) == '\n' )
+			{
+				line( aBuffer, start, i );
+				start = i + 1;
+			}
+		}
+		if ( anAll && start < anEnd )
+		{
+			line( aBuffer, start, anEnd );
+			start = anEnd;
+		}
+		return start;
+	}
+
+	/**
+	 * hand the quote of a subscribed symbol to the listener
+	 */
+	private void line( ByteBuffer aBuffer, int aStart, int anEnd )
+	{
+		int end = anEnd;
+		while( end > aStart && isSpace( aBuffer.get( end - 1 ) ) )
+		{
+			end--;
+		}
+		int symbolStart = aStart;
+		while( symbolStart < end && isSpace( aBuffer.get( symbolStart ) ) )
+		{
+			symbolStart++;
+		}
+		int symbolEnd = symbolStart;
+		int hash = 0;
+		byte b;
+		while( symbolEnd < end && !isSpace( b = aBuffer.get( symbolEnd ) ) )
+		{
+			hash = 31 * hash + ( b & 0xff );
+			symbolEnd++;
+		}
+		int dataStart = symbolEnd;
+		while( dataStart < end && isSpace( aBuffer.get( dataStart ) ) )
+		{
+			dataStart++;
+		}
+		String symbol = symbolEnd > symbolStart && dataStart < end ? lookup( aBuffer, symbolStart, symbolEnd, hash ) : null;
+		if ( symbol == null )
+		{
+			skippedCount++;
+			return;
+		}
+		int length = end - dataStart;
+		if ( length > chars.length )
+		{
+			chars = new char[Math.max( length, chars.length * 2 )];
+		}
+		for( int i = 0; i < length; i++ )
+		{
+			// quotes are ASCII
+			chars[i] = (char)( aBuffer.get( dataStart + i ) & 0xff );
+		}
+		quoteCount++;
+		listener.onQuote( symbol, new String( chars, 0, length ) );
+	}
+
+	/**
+	 * @return subscribed symbol equal to the bytes or null
+	 */
+	private String lookup( ByteBuffer aBuffer, int aStart, int anEnd, int aHash )
+	{
+		String[] table = subscribed;
+		int mask = table.length - 1;
+		int length = anEnd - aStart;
+		for( int slot = mix( aHash ) & mask; table[slot] != null; slot = ( slot + 1 ) & mask )
+		{
+			String symbol = table[slot];
+			if ( symbol.length() == length && symbol.hashCode() == aHash && equals( symbol, aBuffer, aStart ) )
+			{
+				return symbol;
+			}
+		}
+		return null;
+	}
+
+	private void close( SelectionKey aKey )
+	{
+		if ( !aKey.channel().isOpen() )
+		{
+			return;
+		}
+		aKey.cancel();
+		try
+		{
+			aKey.channel().close();
+		}
+		catch( IOException e )
+		{
+			logger.error( "Quote connection close failed {}", host, e );
+		}
+		if ( aKey.channel() instanceof SocketChannel )
+		{
+			connectionCount--;
+		}
+	}
+
+	/**
+	 * receive state of a TCP connection
+	 */
+	private static class Connection
+	{
+		private final ByteBuffer buffer;
+		// true while skipping a line longer than the buffer
+		private boolean overflow;
+
+		private Connection( int aBufferSize )
+		{
+			buffer = ByteBuffer.allocateDirect( aBufferSize );
+		}
+	}
+
+	private static boolean equals( String aSymbol, ByteBuffer aBuffer, int aStart )
+	{
+		for( int i = 0; i < aSymbol.length(); i++ )
+		{
+			if ( aSymbol.charAt( i ) != ( aBuffer.get( aStart + i ) & 0xff ) )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isSpace( byte aByte )
+	{
+		return aByte == ' ' || aByte == '\t' || aByte == '\r' || aByte == '\n';
+	}
+
+	private static int indexOf( String[] aTable, String aSymbol )
+	{
+		int mask = aTable.length - 1;
+		for( int slot = mix( aSymbol.hashCode() ) & mask; aTable[slot] != null; slot = ( slot + 1 ) & mask )
+		{
+			if ( aTable[slot].equals( aSymbol ) )
+			{
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	private static void put( String[] aTable, String aSymbol )
+	{
+		int mask = aTable.length - 1;
+		int slot = mix( aSymbol.hashCode() ) & mask;
+		while( aTable[slot] != null )
+		{
+			slot = ( slot + 1 ) & mask;
+		}
+		aTable[slot] = aSymbol;
+	}
+
+	private static int mix( int aHash )
+	{
+		return aHash ^ ( aHash >>> 16 );
+	}
+}
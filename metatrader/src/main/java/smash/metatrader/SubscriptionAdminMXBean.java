@@ -0,0 +1,33 @@
+package smash.metatrader;
+
+import java.util.Map;
+
+/**
+ * JMX administration of the subscriptions of a running publisher, a change only requests or
+ * stops the datasets it touches
+ */
+public interface SubscriptionAdminMXBean
+{
+	/**
+	 * @return dataset UUID by subscribed symbol
+	 */
+	Map<String,String> getSubscriptions();
+
+	/**
+	 * subscribe to a symbol or move it to another dataset
+	 * @param aSymbol symbol
+	 * @param aDatasetUUID dataset UUID
+	 */
+	void addToSubscription( String aSymbol, String aDatasetUUID );
+
+	/**
+	 * stop publishing a symbol
+	 * @param aSymbol symbol
+	 */
+	void removeFromSubscription( String aSymbol );
+
+	/**
+	 * apply the subscription mapping of the config file
+	 */
+	void reloadConfig() throws Exception;
+}
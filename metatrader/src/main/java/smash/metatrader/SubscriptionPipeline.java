@@ -0,0 +1,420 @@
+package smash.metatrader;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import smash.api.DataCallback;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+/**
+ * Request permission to publish the datasets after login and start the quotes of a symbol as soon
+ * as its dataset is granted. Up to a window of requests is outstanding, every response or timeout
+ * frees a slot for the next pending dataset; a denied or timed out request is retried with a
+ * backoff while the others proceed. State is confined to one pipeline thread, responses arriving
+ * on the Smash client thread are handed over to it. Readiness is read through volatile counters.
+ */
+public class SubscriptionPipeline
+{
+	/**
+	 * issue a publish request
+	 */
+	public interface Requester
+	{
+		/**
+		 * @param aDatasetUUID dataset UUID
+		 * @param aCallback receiver of the response
+		 */
+		void request( String aDatasetUUID, DataCallback aCallback ) throws Exception;
+	}
+
+	private static final long MAX_RETRY_MILLIS = 60000;
+	private final Requester requester;
+	private final QuoteSource quoteSource;
+	private final AsyncLogger logger;
+	private final int window;
+	private final long timeoutMillis;
+	private final long retryMillis;
+	private final ScheduledExecutorService executor;
+	private final JsonParser jsonParser = new JsonParser();
+	// confined to the pipeline thread
+	private final List<Entry> entries = new ArrayList<Entry>();
+	private final HashMap<String,Entry> entriesByDataset = new HashMap<String,Entry>();
+	private final ArrayDeque<Entry> pending = new ArrayDeque<Entry>();
+	private final HashMap<String,Boolean> advised = new HashMap<String,Boolean>();
+	private boolean started;
+	private int outstanding;
+	private long attempts;
+	private long startNanos;
+	private volatile int totalCount;
+	private volatile int liveCount;
+	private volatile int outstandingCount;
+	private volatile long retryCount;
+	private volatile long startupMillis = -1;
+
+	/**
+	 * create SubscriptionPipeline
+	 * @param aRequester issuer of publish requests
+	 * @param aQuoteSource source of the quotes started once a dataset is granted, null if not available
+	 * @param aLogger logger
+	 * @param aWindow maximum number of outstanding requests
+	 * @param aTimeoutMillis time in millisecond after which an unanswered request is retried
+	 * @param aRetryMillis delay in millisecond before the first retry, doubled on every retry up to a minute
+	 */
+	public SubscriptionPipeline( Requester aRequester, QuoteSource aQuoteSource, AsyncLogger aLogger, int aWindow, long aTimeoutMillis, long aRetryMillis )
+	{
+		if ( aWindow < 1 || aTimeoutMillis <= 0 || aRetryMillis <= 0 )
+		{
+			throw new IllegalArgumentException( "Invalid subscription window " + aWindow + " timeout " + aTimeoutMillis + " retry " + aRetryMillis );
+		}
+		requester = aRequester;
+		quoteSource = aQuoteSource;
+		logger = aLogger;
+		window = aWindow;
+		timeoutMillis = aTimeoutMillis;
+		retryMillis = aRetryMillis;
+		executor = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+		{
+			public Thread newThread( Runnable aRunnable )
+			{
+				Thread thread = new Thread( aRunnable, "SubscriptionPipeline" );
+				thread.setDaemon( true );
+				return thread;
+			}
+		} );
+	}
+
+	/**
+	 * add dataset, requested once started
+	 * @param aDatasetUUID dataset UUID
+	 * @param aSymbol symbol whose quotes start when granted or null for a dataset without quotes e.g. bars
+	 */
+	public void add( final String aDatasetUUID, final String aSymbol )
+	{
+		executor.execute( new Runnable()
+		{
+			public void run()
+			{
+				if ( entriesByDataset.containsKey( aDatasetUUID ) )
+				{
+					return;
+				}
+				Entry entry = new Entry( aDatasetUUID, aSymbol );
+				entries.add( entry );
+				entriesByDataset.put( aDatasetUUID, entry );
+				totalCount = entries.size();
+				if ( started )
+				{
+					// a late subscription counts toward readiness but not the startup time
+					pending.add( entry );
+					pump();
+				}
+			}
+		} );
+	}
+
+	/**
+	 * remove dataset, the quotes of its symbol stop unless another dataset has the same symbol
+	 * @param aDatasetUUID dataset UUID
+	 */
+	public void remove( final String aDatasetUUID )
+	{
+		executor.execute( new Runnable()
+		{
+			public void run()
+			{
+				Entry entry = entriesByDataset.remove( aDatasetUUID );
+				if ( entry == null )
+				{
+					return;
+				}
+				entries.remove( entry );
+				pending.remove( entry );
+				entry.removed = true;
+				if ( entry.attempt != 0 )
+				{
+					// the response is ignored
+					entry.attempt = 0;
+					release();
+					pump();
+				}
+				if ( entry.live )
+				{
+					liveCount--;
+				}
+				totalCount = entries.size();
+				if ( entry.symbol != null && advised.containsKey( entry.symbol ) && !hasSymbol( entry.symbol ) )
+				{
+					advised.remove( entry.symbol );
+					try
+					{
+						quoteSource.unsubscribe( entry.symbol );
+					}
+					catch( Throwable t )
+					{
+						logger.error( "Unsubscribe failed {}", entry.symbol, t );
+					}
+				}
+			}
+		} );
+	}
+
+	/**
+	 * request every dataset again e.g. after login, responses to earlier requests are ignored
+	 */
+	public void start()
+	{
+		executor.execute( new Runnable()
+		{
+			public void run()
+			{
+				started = true;
+				startNanos = System.nanoTime();
+				startupMillis = -1;
+				pending.clear();
+				outstanding = 0;
+				for( Entry entry: entries )
+				{
+					entry.attempt = 0;
+					entry.live = false;
+					entry.retries = 0;
+					pending.add( entry );
+				}
+				liveCount = 0;
+				logger.info( "Requesting publish of {} datasets {} at a time", entries.size(), window );
+				pump();
+			}
+		} );
+	}
+
+	/**
+	 * stop the pipeline thread
+	 */
+	public void stop()
+	{
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return number of datasets
+	 */
+	public int getTotalCount()
+	{
+		return totalCount;
+	}
+
+	/**
+	 * @return number of datasets granted with their quotes started
+	 */
+	public int getLiveCount()
+	{
+		return liveCount;
+	}
+
+	/**
+	 * @return number of requests waiting for a response
+	 */
+	public int getOutstandingCount()
+	{
+		return outstandingCount;
+	}
+
+	/**
+	 * @return number of requests retried
+	 */
+	public long getRetryCount()
+	{
+		return retryCount;
+	}
+
+	/**
+	 * @return time in millisecond from start until every dataset was live, -1 until then
+	 */
+	public long getStartupMillis()
+	{
+		return startupMillis;
+	}
+
+	/**
+	 * @return true once every dataset is live
+	 */
+	public boolean isReady()
+	{
+		return totalCount > 0 && liveCount == totalCount;
+	}
+
+	private boolean hasSymbol( String aSymbol )
+	{
+		for( Entry entry: entries )
+		{
+			if ( aSymbol.equals( entry.symbol ) )
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * issue pending requests up to the window
+	 */
+	private void pump()
+	{
+		Entry entry;
+		while( outstanding < window && ( entry = pending.poll() ) != null )
+		{
+			final Entry requested = entry;
+			final long attempt = ++attempts;
+			requested.attempt = attempt;
+			outstanding++;
+			outstandingCount = outstanding;
+			try
+			{
+				requester.request( requested.datasetUUID, new DataCallback()
+				{
+					public void onReceive( final String aData )
+					{
+						executor.execute( new Runnable()
+						{
+							public void run()
+							{
+								responded( requested, attempt, aData );
+							}
+						} );
+					}
+				} );
+			}
+			catch( Throwable t )
+			{
+				logger.error( "Publish request failed {}", requested.datasetUUID, t );
+				failed( requested );
+				continue;
+			}
+			executor.schedule( new Runnable()
+			{
+				public void run()
+				{
+					if ( requested.attempt == attempt )
+					{
+						logger.info( "Publish request of {} timed out", requested.datasetUUID );
+						failed( requested );
+					}
+				}
+			}, timeoutMillis, TimeUnit.MILLISECONDS );
+		}
+	}
+
+	private void responded( Entry anEntry, long anAttempt, String aData )
+	{
+		if ( anEntry.attempt != anAttempt )
+		{
+			// timed out or requested again since
+			return;
+		}
+		boolean granted;
+		try
+		{
+			JsonElement status = jsonParser.parse( aData ).getAsJsonObject().get( "status" );
+			granted = status != null && "SUCCESS".equals( status.getAsString() );
+		}
+		catch( Throwable t )
+		{
+			granted = false;
+		}
+		if ( !granted )
+		{
+			logger.info( "Publish of {} not granted {}", anEntry.datasetUUID, aData );
+			failed( anEntry );
+			return;
+		}
+		anEntry.attempt = 0;
+		release();
+		if ( anEntry.symbol != null && quoteSource != null && !advised.containsKey( anEntry.symbol ) )
+		{
+			try
+			{
+				quoteSource.subscribe( anEntry.symbol );
+				advised.put( anEntry.symbol, Boolean.TRUE );
+			}
+			catch( Throwable t )
+			{
+				logger.error( "Subscribe failed {}", anEntry.symbol, t );
+				retry( anEntry );
+				pump();
+				return;
+			}
+		}
+		anEntry.live = true;
+		liveCount++;
+		if ( liveCount == totalCount && startupMillis < 0 )
+		{
+			startupMillis = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - startNanos );
+			logger.info( "All {} datasets live after {}ms", totalCount, startupMillis );
+		}
+		pump();
+	}
+
+	/**
+	 * free the slot of a failed request and retry it later
+	 */
+	private void failed( Entry anEntry )
+	{
+		anEntry.attempt = 0;
+		release();
+		retry( anEntry );
+		pump();
+	}
+
+	private void retry( final Entry anEntry )
+	{
+		long delay = Math.min( MAX_RETRY_MILLIS, retryMillis << Math.min( anEntry.retries, 16 ) );
+		anEntry.retries++;
+		retryCount++;
+		final long generation = startNanos;
+		executor.schedule( new Runnable()
+		{
+			public void run()
+			{
+				// started again since, the entry is already pending
+				if ( generation == startNanos && !anEntry.live && !anEntry.removed )
+				{
+					pending.add( anEntry );
+					pump();
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS );
+	}
+
+	private void release()
+	{
+		outstanding--;
+		outstandingCount = outstanding;
+	}
+
+	/**
+	 * dataset requested by the pipeline
+	 */
+	private static class Entry
+	{
+		private final String datasetUUID;
+		private final String symbol;
+		// attempt of the outstanding request, 0 when none is outstanding
+		private long attempt;
+		private int retries;
+		private boolean live;
+		private boolean removed;
+
+		private Entry( String aDatasetUUID, String aSymbol )
+		{
+			datasetUUID = aDatasetUUID;
+			symbol = aSymbol;
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package smash.metatrader;
+
+/**
+ * Subscribed symbols numbered with dense ids in order of subscription. A symbol is resolved once
+ * when its quote arrives through an open addressing table, the per symbol data is then read from
+ * arrays indexed by the id. Adding or removing a symbol publishes a new immutable snapshot so
+ * readers never lock and always see complete entries; ids never change once assigned, a removed
+ * symbol keeps its id for when it is added again.
+ */
+public class SymbolTable
+{
+	private volatile Snapshot snapshot = new Snapshot( 16, 0 );
+
+	/**
+	 * add symbol or replace the dataset of a subscribed symbol
+	 * @param aSymbol Meta Trader item i.e. symbol
+	 * @param anEncoder JSON encoder of the symbol dataset
+	 * @return id of the symbol
+	 */
+	public synchronized int add( String aSymbol, QuoteJSONEncoder anEncoder )
+	{
+		Snapshot current = snapshot;
+		int id = current.idOf( aSymbol );
+		for( int i = 0; id < 0 && i < current.size; i++ )
+		{
+			if ( current.encoders[i] == null && current.symbols[i].equals( aSymbol ) )
+			{
+				id = i;
+			}
+		}
+		int size = id < 0 ? current.size + 1 : current.size;
+		int capacity = current.slots.length;
+		while( size * 2 > capacity )
+		{
+			capacity = capacity * 2;
+		}
+		Snapshot next = copy( current, capacity, size, id );
+		if ( id < 0 )
+		{
+			id = current.size;
+		}
+		next.put( id, aSymbol, anEncoder );
+		snapshot = next;
+		return id;
+	}
+
+	/**
+	 * remove symbol, quotes of the symbol no longer resolve
+	 * @param aSymbol symbol
+	 * @return id of the removed symbol, -1 if not subscribed
+	 */
+	public synchronized int remove( String aSymbol )
+	{
+		Snapshot current = snapshot;
+		int id = current.idOf( aSymbol );
+		if ( id >= 0 )
+		{
+			Snapshot next = copy( current, current.slots.length, current.size, id );
+			next.retire( id, aSymbol );
+			snapshot = next;
+		}
+		return id;
+	}
+
+	/**
+	 * @param aSymbol symbol
+	 * @return id of the symbol, -1 if not subscribed
+	 */
+	public int idOf( String aSymbol )
+	{
+		return snapshot.idOf( aSymbol );
+	}
+
+	/**
+	 * @param anId symbol id
+	 * @return symbol
+	 */
+	public String getSymbol( int anId )
+	{
+		return snapshot.symbols[anId];
+	}
+
+	/**
+	 * @param anId symbol id
+	 * @return JSON encoder of the symbol dataset, null if the symbol was removed
+	 */
+	public QuoteJSONEncoder getEncoder( int anId )
+	{
+		return snapshot.encoders[anId];
+	}
+
+	/**
+	 * @return number of symbols, ids are 0 to size - 1
+	 */
+	public int size()
+	{
+		return snapshot.size;
+	}
+
+	/**
+	 * @return copy of the snapshot without the entry of the skipped id
+	 */
+	private static Snapshot copy( Snapshot aSnapshot, int aCapacity, int aSize, int aSkippedId )
+	{
+		Snapshot next = new Snapshot( aCapacity, aSize );
+		for( int i = 0; i < aSnapshot.size; i++ )
+		{
+			if ( i == aSkippedId )
+			{
+				continue;
+			}
+			if ( aSnapshot.encoders[i] == null )
+			{
+				next.retire( i, aSnapshot.symbols[i] );
+			}
+			else
+			{
+				next.put( i, aSnapshot.symbols[i], aSnapshot.encoders[i] );
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * immutable once published
+	 */
+	private static class Snapshot
+	{
+		// slot holds id + 1, 0 for an empty slot
+		private final int[] slots;
+		private final String[] symbols;
+		private final QuoteJSONEncoder[] encoders;
+		private final int size;
+
+		private Snapshot( int aCapacity, int aSize )
+		{
+			slots = new int[aCapacity];
+			symbols = new String[aSize];
+			encoders = new QuoteJSONEncoder[aSize];
+			size = aSize;
+		}
+
+		private int idOf( String aSymbol )
+		{
+			int mask = slots.length - 1;
+			int slot = mix( aSymbol.hashCode() ) & mask;
+			int entry;
+			while( ( entry = slots[slot] ) != 0 )
+			{
+				if ( symbols[entry - 1].equals( aSymbol ) )
+				{
+					return entry - 1;
+				}
+				slot = ( slot + 1 ) & mask;
+			}
+			return -1;
+		}
+
+		private void put( int anId, String aSymbol, QuoteJSONEncoder anEncoder )
+		{
+			int mask = slots.length - 1;
+			int slot = mix( aSymbol.hashCode() ) & mask;
+			while( slots[slot] != 0 )
+			{
+				slot = ( slot + 1 ) & mask;
+			}
+			slots[slot] = anId + 1;
+			symbols[anId] = aSymbol;
+			encoders[anId] = anEncoder;
+		}
+
+		/**
+		 * keep the id of a removed symbol out of the slots
+		 */
+		private void retire( int anId, String aSymbol )
+		{
+			symbols[anId] = aSymbol;
+		}
+
+		private static int mix( int aHash )
+		{
+			return aHash ^ ( aHash >>> 16 );
+		}
+	}
+}
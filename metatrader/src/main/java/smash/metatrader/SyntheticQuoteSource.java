@@ -0,0 +1,222 @@
+package smash.metatrader;
+
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Deterministic generator of Meta Trader formatted quotes following a random walk, used to load
+ * test the publishing pipeline without Meta Trader. Quotes are emitted round robin over the
+ * symbols at a configured aggregate rate, the prices of a symbol follow the same walk for the same seed.
+ */
+public class SyntheticQuoteSource implements QuoteSource, Runnable
+{
+	private static final int MAX_BURST = 1024;
+	private final long rate;
+	private final long seed;
+	private final GregorianCalendar calendar = new GregorianCalendar();
+	private final StringBuilder builder = new StringBuilder( 64 );
+	private volatile SymbolWalk[] walks = new SymbolWalk[0];
+	private volatile boolean running;
+	private QuoteListener listener;
+	private AsyncLogger logger;
+	private Thread thread;
+	private long cachedSecond = -1;
+	private String cachedDateTime;
+	private long emittedCount;
+
+	/**
+	 * create SyntheticQuoteSource
+	 * @param aRate aggregate number of quotes per second, 0 for as fast as possible
+	 * @param aSeed random seed
+	 * @param aSymbols symbols emitted in addition to the subscribed symbols
+	 */
+	public SyntheticQuoteSource( long aRate, long aSeed, String... aSymbols )
+	{
+		rate = aRate;
+		seed = aSeed;
+		for( String symbol: aSymbols )
+		{
+			addSymbol( symbol );
+		}
+	}
+
+	public synchronized void start( QuoteListener aListener, AsyncLogger aLogger ) throws Exception
+	{
+		listener = aListener;
+		logger = aLogger;
+		running = true;
+		thread = new Thread( this, "SyntheticQuoteSource" );
+		thread.setDaemon( true );
+		thread.start();
+	}
+
+	public void subscribe( String aSymbol ) throws Exception
+	{
+		addSymbol( aSymbol );
+	}
+
+	public synchronized void unsubscribe( String aSymbol ) throws Exception
+	{
+		SymbolWalk[] current = walks;
+		for( int i = 0; i < current.length; i++ )
+		{
+			if ( current[i].symbol.equals( aSymbol ) )
+			{
+				SymbolWalk[] updated = new SymbolWalk[current.length - 1];
+				System.arraycopy( current, 0, updated, 0, i );
+				System.arraycopy( current, i + 1, updated, i, current.length - i - 1 );
+				walks = updated;
+				return;
+			}
+		}
+	}
+
+	public void stop() throws Exception
+	{
+		running = false;
+		if ( thread != null )
+		{
+			thread.join( 1000 );
+		}
+		if ( logger != null )
+		{
+			logger.info( "Synthetic quotes emitted {}", emittedCount );
+		}
+	}
+
+	public void run()
+	{
+		long start = System.nanoTime();
+		double quotesPerNano = rate / 1e9;
+		int next = 0;
+		while( running )
+		{
+			SymbolWalk[] current = walks;
+			if ( current.length == 0 )
+			{
+				LockSupport.parkNanos( 1000000L );
+				start = System.nanoTime();
+				emittedCount = 0;
+				continue;
+			}
+			long burst = MAX_BURST;
+			if ( rate > 0 )
+			{
+				long due = (long)( ( System.nanoTime() - start ) * quotesPerNano );
+				burst = Math.min( due - emittedCount, MAX_BURST );
+				if ( burst <= 0 )
+				{
+					LockSupport.parkNanos( Math.max( 1000L, (long)( ( 1 - burst ) / quotesPerNano ) ) );
+					continue;
+				}
+			}
+			for( long i = 0; i < burst; i++ )
+			{
+				if ( next >= current.length )
+				{
+					next = 0;
+				}
+				SymbolWalk walk = current[next++];
+				listener.onQuote( walk.symbol, nextQuote( walk ) );
+			}
+			emittedCount += burst;
+		}
+	}
+
+	/**
+	 * @return number of quotes emitted
+	 */
+	public long getEmittedCount()
+	{
+		return emittedCount;
+	}
+
+	/**
+	 * move symbol price one step and render quote
+	 */
+	private String nextQuote( SymbolWalk aWalk )
+	{
+		aWalk.bid = Math.max( aWalk.minimum, aWalk.bid + aWalk.random.nextInt( 5 ) - 2 );
+		long ask = aWalk.bid + 1 + aWalk.random.nextInt( 20 );
+		builder.setLength( 0 );
+		builder.append( dateTime( System.currentTimeMillis() ) );
+		MetaTraderQuoteParser.appendScaled( builder, aWalk.bid, aWalk.digits );
+		builder.append( ' ' );
+		MetaTraderQuoteParser.appendScaled( builder, ask, aWalk.digits );
+		return builder.toString();
+	}
+
+	/**
+	 * render "yyyy/MM/dd HH:mm:ss " in the default time zone, cached per second
+	 */
+	private String dateTime( long aTime )
+	{
+		long second = aTime / 1000;
+		if ( second != cachedSecond )
+		{
+			calendar.setTimeInMillis( second * 1000 );
+			cachedDateTime = String.format( "%04d/%02d/%02d %02d:%02d:%02d ", calendar.get( GregorianCalendar.YEAR ),
+							calendar.get( GregorianCalendar.MONTH ) + 1, calendar.get( GregorianCalendar.DAY_OF_MONTH ),
+							calendar.get( GregorianCalendar.HOUR_OF_DAY ), calendar.get( GregorianCalendar.MINUTE ), calendar.get( GregorianCalendar.SECOND ) );
+			cachedSecond = second;
+		}
+		return cachedDateTime;
+	}
+
+	private synchronized void addSymbol( String aSymbol )
+	{
+		SymbolWalk[] current = walks;
+		for( SymbolWalk walk: current )
+		{
+			if ( walk.symbol.equals( aSymbol ) )
+			{
+				return;
+			}
+		}
+		SymbolWalk[] updated = Arrays.copyOf( current, current.length + 1 );
+		updated[current.length] = new SymbolWalk( aSymbol, seed );
+		walks = updated;
+	}
+
+	/**
+	 * random walk state of a symbol
+	 */
+	private static class SymbolWalk
+	{
+		private final String symbol;
+		private final int digits;
+		private final long minimum;
+		private final Random random;
+		private long bid;
+
+		/**
+		 * create SymbolWalk
+		 * @param aSymbol symbol
+		 * @param aSeed random seed of the source
+		 */
+		private SymbolWalk( String aSymbol, long aSeed )
+		{
+			symbol = aSymbol;
+			random = new Random( aSeed ^ aSymbol.hashCode() );
+			double start = random.nextDouble();
+			if ( aSymbol.indexOf( "JPY" ) >= 0 )
+			{
+				digits = 3;
+				bid = 80000 + (long)( start * 60000 );
+			}
+			else if ( aSymbol.indexOf( "GOLD" ) >= 0 || aSymbol.indexOf( "XAU" ) >= 0 )
+			{
+				digits = 2;
+				bid = 100000 + (long)( start * 50000 );
+			}
+			else
+			{
+				digits = 5;
+				bid = 50000 + (long)( start * 100000 );
+			}
+			minimum = bid / 10;
+		}
+	}
+}
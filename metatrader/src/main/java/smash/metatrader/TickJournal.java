@@ -0,0 +1,294 @@
+package smash.metatrader;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Append only journal of ticks in memory mapped segment files. Every appended tick gets the next
+ * sequence number, the sequence of the last published tick is checkpointed so ticks after the
+ * watermark can be replayed after an outage or a restart. Segments wholly below the watermark are
+ * deleted when a new segment is started.
+ * <p>
+ * A record is [int length][long sequence][long receivedTime][short itemLength][item][data] with the
+ * length written last so a record interrupted by a crash reads as the end of the segment. Items and
+ * data are stored one byte per char, Meta Trader symbols and quotes are ASCII.
+ * Records are written to the page cache without forcing them to disk, they survive the process
+ * but not the operating system failing.
+ * <p>
+ * Appending is safe from any thread, checkpointing is done by a single consumer.
+ */
+public class TickJournal
+{
+	/**
+	 * receives replayed ticks
+	 */
+	public interface Listener
+	{
+		/**
+		 * @param aSequence sequence
+		 * @param aReceivedTime time received in millisecond
+		 * @param anItem Meta Trader item i.e. symbol
+		 * @param aData quote data
+		 */
+		void onTick( long aSequence, long aReceivedTime, String anItem, String aData ) throws Exception;
+	}
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".journal";
+	private static final String CHECKPOINT_FILE = "checkpoint";
+	private static final int HEADER_LENGTH = 4 + 8 + 8 + 2;
+	private final File directory;
+	private final int segmentBytes;
+	// guarded by this
+	private final ArrayList<Segment> segments = new ArrayList<Segment>();
+	private final MappedByteBuffer checkpoint;
+	private Segment current;
+	private long nextSequence;
+	private volatile long watermark;
+
+	/**
+	 * open journal in the directory, creating the directory if needed
+	 * @param aDirectory directory of the segment and checkpoint files
+	 * @param aSegmentBytes size of a segment file
+	 * @throws IOException if the journal cannot be opened
+	 */
+	public TickJournal( File aDirectory, int aSegmentBytes ) throws IOException
+	{
+		if ( aSegmentBytes < 1024 )
+		{
+			throw new IllegalArgumentException( "Invalid segment size " + aSegmentBytes );
+		}
+		if ( !aDirectory.isDirectory() && !aDirectory.mkdirs() )
+		{
+			throw new IOException( "Cannot create journal directory " + aDirectory );
+		}
+		directory = aDirectory;
+		segmentBytes = aSegmentBytes;
+		checkpoint = map( new File( aDirectory, CHECKPOINT_FILE ), 8 );
+		watermark = checkpoint.getLong( 0 );
+		nextSequence = watermark + 1;
+		File[] files = aDirectory.listFiles( new FilenameFilter()
+		{
+			public boolean accept( File aDirectory, String aName )
+			{
+				return aName.startsWith( SEGMENT_PREFIX ) && aName.endsWith( SEGMENT_SUFFIX );
+			}
+		} );
+		// names are zero padded first sequences so they sort in sequence order
+		Arrays.sort( files );
+		for( int i = 0; i < files.length; i++ )
+		{
+			Segment segment = new Segment( files[i], map( files[i], (int)Math.max( files[i].length(), HEADER_LENGTH ) ) );
+			if ( segment.lastSequence <= watermark && i < files.length - 1 && files[i].delete() )
+			{
+				continue;
+			}
+			segments.add( segment );
+			nextSequence = Math.max( nextSequence, segment.lastSequence + 1 );
+		}
+		if ( !segments.isEmpty() )
+		{
+			current = segments.get( segments.size() - 1 );
+		}
+	}
+
+	/**
+	 * append tick
+	 * @param aReceivedTime time received in millisecond
+	 * @param anItem Meta Trader item i.e. symbol
+	 * @param aData quote data
+	 * @return sequence of the tick
+	 * @throws IOException if a new segment cannot be created
+	 */
+	public synchronized long append( long aReceivedTime, String anItem, String aData ) throws IOException
+	{
+		int length = HEADER_LENGTH + anItem.length() + aData.length();
+		// a zero length after the record marks the end of the segment
+		if ( length + 4 > segmentBytes )
+		{
+			throw new IllegalArgumentException( "Tick of " + length + " bytes exceeds segment size" );
+		}
+		if ( current == null || current.limit + length + 4 > current.buffer.capacity() )
+		{
+			roll();
+		}
+		MappedByteBuffer buffer = current.buffer;
+		int start = current.limit;
+		long sequence = nextSequence++;
+		buffer.putLong( start + 4, sequence );
+		buffer.putLong( start + 12, aReceivedTime );
+		buffer.putShort( start + 20, (short)anItem.length() );
+		int position = start + HEADER_LENGTH;
+		for( int i = 0; i < anItem.length(); i++ )
+		{
+			buffer.put( position++, (byte)anItem.charAt( i ) );
+		}
+		for( int i = 0; i < aData.length(); i++ )
+		{
+			buffer.put( position++, (byte)aData.charAt( i ) );
+		}
+		buffer.putInt( start, length );
+		current.lastSequence = sequence;
+		current.limit = position;
+		return sequence;
+	}
+
+	/**
+	 * @return sequence of the last appended tick, the watermark if none was appended
+	 */
+	public synchronized long getLastSequence()
+	{
+		return nextSequence - 1;
+	}
+
+	/**
+	 * @return sequence of the last published tick
+	 */
+	public long getWatermark()
+	{
+		return watermark;
+	}
+
+	/**
+	 * record that every tick up to the sequence was published, lower sequences are ignored
+	 * @param aSequence sequence
+	 */
+	public void checkpoint( long aSequence )
+	{
+		if ( aSequence > watermark )
+		{
+			watermark = aSequence;
+			checkpoint.putLong( 0, aSequence );
+		}
+	}
+
+	/**
+	 * replay ticks appended after the sequence up to the last tick appended when reached
+	 * @param aSequence sequence after which ticks are replayed, usually the watermark
+	 * @param aListener listener
+	 * @return sequence of the last replayed tick, aSequence if none
+	 */
+	public long replay( long aSequence, Listener aListener ) throws Exception
+	{
+		Segment[] snapshot;
+		synchronized( this )
+		{
+			snapshot = segments.toArray( new Segment[segments.size()] );
+		}
+		long last = aSequence;
+		for( Segment segment: snapshot )
+		{
+			if ( segment.lastSequence <= last )
+			{
+				continue;
+			}
+			ByteBuffer buffer = segment.buffer.duplicate();
+			byte[] bytes = new byte[256];
+			int position = 0;
+			int limit;
+			while( position < ( limit = segment.limit ) )
+			{
+				int length = buffer.getInt( position );
+				long sequence = buffer.getLong( position + 4 );
+				if ( sequence > last )
+				{
+					long receivedTime = buffer.getLong( position + 12 );
+					int itemLength = buffer.getShort( position + 20 );
+					int dataLength = length - HEADER_LENGTH - itemLength;
+					if ( bytes.length < length )
+					{
+						bytes = new byte[length];
+					}
+					buffer.position( position + HEADER_LENGTH );
+					buffer.get( bytes, 0, itemLength + dataLength );
+					aListener.onTick( sequence, receivedTime, new String( bytes, 0, itemLength, "ISO-8859-1" ),
+								new String( bytes, itemLength, dataLength, "ISO-8859-1" ) );
+					last = sequence;
+				}
+				position += length;
+			}
+		}
+		return last;
+	}
+
+	/**
+	 * force written ticks and the checkpoint to disk
+	 */
+	public synchronized void close()
+	{
+		for( Segment segment: segments )
+		{
+			segment.buffer.force();
+		}
+		checkpoint.force();
+	}
+
+	/**
+	 * start a new segment, deleting segments wholly below the watermark
+	 */
+	private void roll() throws IOException
+	{
+		for( int i = segments.size() - 1; i >= 0; i-- )
+		{
+			// a segment the file of which cannot be deleted while mapped is deleted on the next open
+			if ( segments.get( i ).lastSequence <= watermark )
+			{
+				segments.remove( i ).file.delete();
+			}
+		}
+		File file = new File( directory, String.format( "%s%020d%s", SEGMENT_PREFIX, nextSequence, SEGMENT_SUFFIX ) );
+		current = new Segment( file, map( file, segmentBytes ) );
+		segments.add( current );
+	}
+
+	private static MappedByteBuffer map( File aFile, int aLength ) throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile( aFile, "rw" );
+		try
+		{
+			return file.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, aLength );
+		}
+		finally
+		{
+			// the mapping stays valid after the channel is closed
+			file.close();
+		}
+	}
+
+	/**
+	 * mapped segment file
+	 */
+	private static class Segment
+	{
+		private final File file;
+		private final MappedByteBuffer buffer;
+		// end of the written records, published to replaying readers
+		private volatile int limit;
+		private volatile long lastSequence;
+
+		/**
+		 * create Segment, scanning existing records
+		 */
+		private Segment( File aFile, MappedByteBuffer aBuffer )
+		{
+			file = aFile;
+			buffer = aBuffer;
+			int position = 0;
+			int length;
+			while( position + HEADER_LENGTH <= buffer.capacity() && ( length = buffer.getInt( position ) ) >= HEADER_LENGTH
+						&& position + length <= buffer.capacity() )
+			{
+				lastSequence = buffer.getLong( position + 4 );
+				position += length;
+			}
+			limit = position;
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package smash.metatrader;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Strategy used by RingBufferQuoteQueue to wait for the other side to move its position
+ */
+public interface WaitStrategy
+{
+	/**
+	 * wait until the position moves past the given value or the timeout expires
+	 * @param aValue value to move past
+	 * @param aPosition position of the other side
+	 * @param aTimeoutNanos timeout in nanoseconds
+	 * @return last observed position
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	long waitFor( long aValue, AtomicLong aPosition, long aTimeoutNanos ) throws InterruptedException;
+
+	/**
+	 * signal waiting side that a position has moved
+	 */
+	void signal();
+}
@@ -0,0 +1,40 @@
+package smash.metatrader;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spin on the position for a while and then yield the core to other threads between checks
+ */
+public class YieldingWaitStrategy implements WaitStrategy
+{
+	private static final int SPIN_TRIES = 100;
+
+	public long waitFor( long aValue, AtomicLong aPosition, long aTimeoutNanos ) throws InterruptedException
+	{
+		long start = System.nanoTime();
+		int counter = SPIN_TRIES;
+		long position;
+		while( ( position = aPosition.get() ) <= aValue )
+		{
+			if ( counter > 0 )
+			{
+				counter--;
+				continue;
+			}
+			if ( System.nanoTime() - start >= aTimeoutNanos )
+			{
+				break;
+			}
+			if ( Thread.interrupted() )
+			{
+				throw new InterruptedException();
+			}
+			Thread.yield();
+		}
+		return position;
+	}
+
+	public void signal()
+	{
+	}
+}
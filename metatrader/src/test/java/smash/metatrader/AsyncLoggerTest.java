@@ -0,0 +1,117 @@
+package smash.metatrader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Test AsyncLogger and LogCategory
+ */
+public class AsyncLoggerTest extends TestCase
+{
+	private static final String LINE_SEPARATOR = System.getProperty( "line.separator" );
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	private final PrintStream out = new PrintStream( bytes, true );
+
+	/**
+	 * records still buffered at close are written in order
+	 */
+	public void testDrainOnClose() throws Exception
+	{
+		AsyncLogger logger = new AsyncLogger( AsyncLogger.Level.INFO, 1024, out );
+		StringBuilder expected = new StringBuilder();
+		for( int i = 0; i < 500; i++ )
+		{
+			logger.info( "record {} of {}", i, "test" );
+			expected.append( "record " + i + " of test" + LINE_SEPARATOR );
+		}
+		logger.close();
+		assertEquals( 0, logger.getDroppedCount() );
+		assertEquals( expected.toString(), bytes.toString() );
+	}
+
+	public void testLevel() throws Exception
+	{
+		AsyncLogger logger = new AsyncLogger( AsyncLogger.Level.WARN, 16, out );
+		assertFalse( logger.isEnabled( AsyncLogger.Level.INFO ) );
+		assertTrue( logger.isEnabled( AsyncLogger.Level.ERROR ) );
+		logger.info( "dropped by level" );
+		logger.error( "failed {}", "EURUSD", new IllegalStateException( "test" ) );
+		logger.close();
+		String output = bytes.toString();
+		assertTrue( output.startsWith( "failed EURUSD" + LINE_SEPARATOR + "java.lang.IllegalStateException: test" ) );
+		assertTrue( output.indexOf( "dropped by level" ) < 0 );
+	}
+
+	/**
+	 * one of every sampled records is logged per key, the others are counted as suppressed
+	 */
+	public void testSampling() throws Exception
+	{
+		AsyncLogger logger = new AsyncLogger( AsyncLogger.Level.DEBUG, 16, out );
+		LogCategory category = logger.createCategory( "tick", AsyncLogger.Level.DEBUG, 0, 4 );
+		int enabled = 0;
+		for( int i = 0; i < 100; i++ )
+		{
+			if ( category.isEnabled( "EURUSD" ) )
+			{
+				enabled++;
+			}
+		}
+		assertEquals( 25, enabled );
+		assertEquals( 75, category.getSuppressedCount() );
+		// keys are sampled independently
+		assertFalse( category.isEnabled( "USDJPY" ) );
+		assertFalse( category.isEnabled( "USDJPY" ) );
+		assertFalse( category.isEnabled( "USDJPY" ) );
+		assertTrue( category.isEnabled( "USDJPY" ) );
+		assertEquals( 78, category.getSuppressedCount() );
+		logger.close();
+	}
+
+	/**
+	 * records beyond the rate of a key are suppressed until the interval passed
+	 */
+	public void testRateLimit() throws Exception
+	{
+		AsyncLogger logger = new AsyncLogger( AsyncLogger.Level.DEBUG, 16, out );
+		LogCategory category = logger.createCategory( "tick", AsyncLogger.Level.DEBUG, 1, 1 );
+		int enabled = 0;
+		for( int i = 0; i < 1000; i++ )
+		{
+			if ( category.isEnabled( "EURUSD" ) )
+			{
+				enabled++;
+			}
+		}
+		assertEquals( 1, enabled );
+		assertEquals( 999, category.getSuppressedCount() );
+		// keys are limited independently
+		assertTrue( category.isEnabled( "USDJPY" ) );
+		LogCategory fast = logger.createCategory( "fast", AsyncLogger.Level.DEBUG, 20, 1 );
+		assertTrue( fast.isEnabled( "EURUSD" ) );
+		assertFalse( fast.isEnabled( "EURUSD" ) );
+		Thread.sleep( 60 );
+		assertTrue( fast.isEnabled( "EURUSD" ) );
+		assertEquals( 1, fast.getSuppressedCount() );
+		logger.close();
+	}
+
+	/**
+	 * a category below the logger level is disabled without counting suppressed records
+	 */
+	public void testDisabledCategory() throws Exception
+	{
+		AsyncLogger logger = new AsyncLogger( AsyncLogger.Level.INFO, 16, out );
+		LogCategory category = logger.createCategory( "tick", AsyncLogger.Level.DEBUG, 1, 4 );
+		assertFalse( category.isEnabled() );
+		assertFalse( category.isEnabled( "EURUSD" ) );
+		assertEquals( 0, category.getSuppressedCount() );
+		logger.setLevel( AsyncLogger.Level.DEBUG );
+		assertTrue( category.isEnabled() );
+		category.log( "POST DATA {} {} Size {}", "a", "{}", 1 );
+		logger.close();
+		assertEquals( "POST DATA a {} Size 1" + LINE_SEPARATOR, bytes.toString() );
+	}
+}
@@ -0,0 +1,156 @@
+package smash.metatrader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Test BarAggregator
+ */
+public class BarAggregatorTest extends TestCase
+{
+	private final MetaTraderQuoteParser parser = new MetaTraderQuoteParser();
+	private final List<String> bars = new ArrayList<String>();
+	private final BarAggregator.Listener listener = new BarAggregator.Listener()
+	{
+		public void onBar( String aDatasetUUID, String aJSON )
+		{
+			bars.add( aJSON );
+		}
+	};
+
+	public void testBar() throws Exception
+	{
+		BarAggregator aggregator = new BarAggregator( "bar", 500 );
+		aggregator.addSeries( "EURUSD", 1000, "second" );
+		aggregator.addSeries( "EURUSD", 60000, "minute" );
+		tick( aggregator, 0, "EURUSD", 60000, "1.07282 1.07292" );
+		tick( aggregator, 0, "EURUSD", 60000, "1.0729 1.07294" );
+		tick( aggregator, 0, "EURUSD", 60999, "1.07279 1.07285" );
+		assertEquals( 0, bars.size() );
+		// a tick of the next second closes the second bar only
+		tick( aggregator, 0, "EURUSD", 61000, "1.07281 1.07291" );
+		assertEquals( 1, bars.size() );
+		assertEquals( "{ \"dataset\": \"second\", \"typeId\": \"bar\", \"timestamp\": 60000, \"interval\": 1000, "
+						+ "\"open\": 1.07282, \"high\": 1.07290, \"low\": 1.07279, \"close\": 1.07279, \"tickCount\": 3, "
+						+ "\"spreadMin\": 0.00004, \"spreadMax\": 0.00010, \"spreadAvg\": 0.0000667}", bars.get( 0 ) );
+		// the minute bar closes on time without ticks
+		assertEquals( 1000, aggregator.getMillisToNextClose( 61500 ) );
+		assertEquals( 0, aggregator.closeDue( 62499, listener ) );
+		assertEquals( 1, aggregator.closeDue( 62500, listener ) );
+		assertEquals( 58000, aggregator.getMillisToNextClose( 62500 ) );
+		assertEquals( 1, aggregator.closeDue( 120500, listener ) );
+		assertEquals( Long.MAX_VALUE, aggregator.getMillisToNextClose( 120500 ) );
+		assertEquals( "{ \"dataset\": \"minute\", \"typeId\": \"bar\", \"timestamp\": 60000, \"interval\": 60000, "
+						+ "\"open\": 1.07282, \"high\": 1.07290, \"low\": 1.07279, \"close\": 1.07281, \"tickCount\": 4, "
+						+ "\"spreadMin\": 0.00004, \"spreadMax\": 0.00010, \"spreadAvg\": 0.0000750}", bars.get( 2 ) );
+	}
+
+	/**
+	 * ticks of a closed bar are dropped, a closed bar is not opened again
+	 */
+	public void testLateTick() throws Exception
+	{
+		BarAggregator aggregator = new BarAggregator( "bar", 0 );
+		aggregator.addSeries( "EURUSD", 1000, "second" );
+		tick( aggregator, 0, "EURUSD", 2000, "1.07282 1.07292" );
+		tick( aggregator, 0, "EURUSD", 3000, "1.07282 1.07292" );
+		tick( aggregator, 0, "EURUSD", 2500, "1.07282 1.07292" );
+		assertEquals( 1, bars.size() );
+		assertEquals( 1, aggregator.getLateCount() );
+		// the stale deadline of the bar closed by a tick closes nothing
+		assertEquals( 0, aggregator.closeDue( 3999, listener ) );
+		assertEquals( 1, aggregator.closeDue( 4000, listener ) );
+		tick( aggregator, 0, "EURUSD", 3999, "1.07282 1.07292" );
+		assertEquals( 2, aggregator.getLateCount() );
+		assertEquals( 2, bars.size() );
+	}
+
+	/**
+	 * prices of the bar take the most digits of its ticks
+	 */
+	public void testDigits() throws Exception
+	{
+		BarAggregator aggregator = new BarAggregator( "bar", 0 );
+		aggregator.addSeries( "USDJPY", 1000, "second" );
+		aggregator.addSeries( "EURUSD", 1000, "other" );
+		tick( aggregator, 1, "USDJPY", 0, "111.53 111.54" );
+		tick( aggregator, 1, "USDJPY", 0, "111.532 111.541" );
+		aggregator.closeDue( 1000, listener );
+		assertEquals( 1, bars.size() );
+		assertEquals( "{ \"dataset\": \"second\", \"typeId\": \"bar\", \"timestamp\": 0, \"interval\": 1000, "
+						+ "\"open\": 111.530, \"high\": 111.532, \"low\": 111.530, \"close\": 111.532, \"tickCount\": 2, "
+						+ "\"spreadMin\": 0.009, \"spreadMax\": 0.010, \"spreadAvg\": 0.00950}", bars.get( 0 ) );
+	}
+
+	/**
+	 * closing on time only visits due bars, many idle series cost nothing
+	 */
+	public void testManySeries() throws Exception
+	{
+		BarAggregator aggregator = new BarAggregator( "bar", 0 );
+		for( int i = 0; i < 1000; i++ )
+		{
+			aggregator.addSeries( "SYMBOL" + i, 1000 * ( i % 7 + 1 ), "dataset" + i );
+		}
+		for( int i = 0; i < 1000; i++ )
+		{
+			tick( aggregator, i, "SYMBOL" + i, 0, "1.07282 1.07292" );
+		}
+		int closed = 0;
+		for( long now = 1000; now <= 7000; now += 1000 )
+		{
+			int due = aggregator.closeDue( now, listener );
+			assertTrue( due > 0 );
+			closed += due;
+		}
+		assertEquals( 1000, closed );
+		assertEquals( Long.MAX_VALUE, aggregator.getMillisToNextClose( 7000 ) );
+	}
+
+	public void testParseInterval()
+	{
+		assertEquals( 250, SmashMetaTraderPublisher.parseInterval( "250ms" ) );
+		assertEquals( 1000, SmashMetaTraderPublisher.parseInterval( "1s" ) );
+		assertEquals( 60000, SmashMetaTraderPublisher.parseInterval( " 1m" ) );
+		assertEquals( 3600000, SmashMetaTraderPublisher.parseInterval( "1h" ) );
+		assertEquals( 5000, SmashMetaTraderPublisher.parseInterval( "5000" ) );
+	}
+
+	/**
+	 * an incomplete bar mapping entry or a bad interval is reported with the entry
+	 */
+	public void testBarMapping()
+	{
+		SmashMetaTraderPublisher publisher = new SmashMetaTraderPublisher( "localhost", "default", "user", "password", "bdd2b349-574d-45a0-5dd2-af116e0c0dbf" );
+		publisher.addToBarMapping( "EURUSD, 1m, a,\nGBPUSD, 1s, b" );
+		String[] malformed = { "EURUSD,1m,a,GBPUSD", "EURUSD,1m,a,GBPUSD,1s", "EURUSD,1x,a", "EURUSD,0,a" };
+		for( String mapping: malformed )
+		{
+			try
+			{
+				publisher.addToBarMapping( mapping );
+				fail( mapping );
+			}
+			catch( IllegalArgumentException e )
+			{
+			}
+		}
+		try
+		{
+			publisher.addToBarMapping( "EURUSD,1m,a,GBPUSD,1s" );
+			fail();
+		}
+		catch( IllegalArgumentException e )
+		{
+			assertEquals( "Invalid bar mapping GBPUSD,1s, no dataset", e.getMessage() );
+		}
+	}
+
+	private void tick( BarAggregator anAggregator, int aSymbolId, String aSymbol, long aTime, String aPrices ) throws Exception
+	{
+		parser.parse( "2017/04/21 16:59:58 " + aPrices );
+		anAggregator.onTick( aSymbolId, aSymbol, aTime, parser, listener );
+	}
+}
@@ -0,0 +1,141 @@
+package smash.metatrader;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Open addressing table of ASCII keys looked up directly from bytes so a CSV row does not
+ * allocate a String to find its key. Filled once before lookups start, lookups are thread safe.
+ * @param <V> value
+ */
+public class CSVKeyTable<V>
+{
+	private byte[][] keys = new byte[16][];
+	private Object[] values = new Object[16];
+	private int size;
+
+	/**
+	 * add key, replacing the value of an existing key
+	 * @param aKey ASCII key
+	 * @param aValue value
+	 */
+	public void put( String aKey, V aValue )
+	{
+		if ( ( size + 1 ) * 2 > keys.length )
+		{
+			resize();
+		}
+		byte[] key = new byte[aKey.length()];
+		for( int i = 0; i < key.length; i++ )
+		{
+			key[i] = (byte)aKey.charAt( i );
+		}
+		int mask = keys.length - 1;
+		int slot = hash( key, 0, key.length ) & mask;
+		while( keys[slot] != null && !Arrays.equals( keys[slot], key ) )
+		{
+			slot = ( slot + 1 ) & mask;
+		}
+		if ( keys[slot] == null )
+		{
+			size++;
+		}
+		keys[slot] = key;
+		values[slot] = aValue;
+	}
+
+	/**
+	 * @param aBuffer buffer holding the key bytes
+	 * @param aStart index of the first key byte
+	 * @param anEnd index after the last key byte
+	 * @return value of the key or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V get( ByteBuffer aBuffer, int aStart, int anEnd )
+	{
+		int slot = find( aBuffer, aStart, anEnd );
+		return slot < 0 ? null : (V)values[slot];
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	private int find( ByteBuffer aBuffer, int aStart, int anEnd )
+	{
+		int hash = 0;
+		for( int i = aStart; i < anEnd; i++ )
+		{
+			hash = 31 * hash + aBuffer.get( i );
+		}
+		int mask = keys.length - 1;
+		int slot = mix( hash ) & mask;
+		byte[] key;
+		while( ( key = keys[slot] ) != null )
+		{
+			if ( key.length == anEnd - aStart && matches( key, aBuffer, aStart ) )
+			{
+				return slot;
+			}
+			slot = ( slot + 1 ) & mask;
+		}
+		return -1;
+	}
+
+	private static boolean matches( byte[] aKey, ByteBuffer aBuffer, int aStart )
+	{
+		for( int i = 0; i < aKey.length; i++ )
+		{
+			if ( aKey[i] != aBuffer.get( aStart + i ) )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int hash( byte[] aKey, int aStart, int anEnd )
+	{
+		int hash = 0;
+		for( int i = aStart; i < anEnd; i++ )
+		{
+			hash = 31 * hash + aKey[i];
+		}
+		return mix( hash );
+	}
+
+	private static int mix( int aHash )
+	{
+		return aHash ^ ( aHash >>> 16 );
+	}
+
+	private void resize()
+	{
+		byte[][] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new byte[oldKeys.length * 2][];
+		values = new Object[keys.length];
+		size = 0;
+		for( int i = 0; i < oldKeys.length; i++ )
+		{
+			if ( oldKeys[i] != null )
+			{
+				addResized( oldKeys[i], oldValues[i] );
+			}
+		}
+	}
+
+	private void addResized( byte[] aKey, Object aValue )
+	{
+		int mask = keys.length - 1;
+		int slot = hash( aKey, 0, aKey.length ) & mask;
+		while( keys[slot] != null )
+		{
+			slot = ( slot + 1 ) & mask;
+		}
+		keys[slot] = aKey;
+		values[slot] = aValue;
+		size++;
+	}
+}
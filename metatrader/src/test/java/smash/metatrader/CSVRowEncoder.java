@@ -0,0 +1,152 @@
+package smash.metatrader;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * JSON encoder of the CSV rows of a dataset compiled from the data field mapping. The constant
+ * header and the quoted key of every field are rendered once, a row only appends its timestamp
+ * and copies its decimal fields in mapping order. Immutable, the output buffer is owned by the
+ * calling thread.
+ */
+public class CSVRowEncoder
+{
+	private final String datasetUUID;
+	private final char[] header;
+	private final char[][] fieldKeys;
+	private final int[] fieldColumns;
+	private final int sizeHint;
+
+	/**
+	 * create CSVRowEncoder
+	 * @param aDatasetUUID dataset UUID
+	 * @param aTypeId data type id
+	 * @param aFieldIds data field ids in output order
+	 * @param aFieldColumns column index of every data field
+	 */
+	public CSVRowEncoder( String aDatasetUUID, String aTypeId, String[] aFieldIds, int[] aFieldColumns )
+	{
+		datasetUUID = aDatasetUUID;
+		header = ( "{ \"dataset\": \"" + aDatasetUUID + "\", \"typeId\": \"" + aTypeId + "\", \"timestamp\": " ).toCharArray();
+		fieldKeys = new char[aFieldIds.length][];
+		int size = header.length + 20;
+		for( int i = 0; i < aFieldIds.length; i++ )
+		{
+			fieldKeys[i] = ( ", \"" + aFieldIds[i] + "\": " ).toCharArray();
+			size += fieldKeys[i].length + 24;
+		}
+		fieldColumns = aFieldColumns.clone();
+		sizeHint = size + 1;
+	}
+
+	/**
+	 * @return dataset UUID
+	 */
+	public String getDatasetUUID()
+	{
+		return datasetUUID;
+	}
+
+	/**
+	 * @return buffer capacity holding a typical row without growing
+	 */
+	public int getSizeHint()
+	{
+		return sizeHint;
+	}
+
+	/**
+	 * append the JSON of the current row of the reader
+	 * @param aTimestamp UTC timestamp of the row in millisecond
+	 * @param aRow reader positioned on the row
+	 * @param aBuffer output
+	 */
+	public void encode( long aTimestamp, MappedCSVReader aRow, StringBuilder aBuffer )
+	{
+		aBuffer.append( header );
+		aBuffer.append( aTimestamp );
+		for( int i = 0; i < fieldKeys.length; i++ )
+		{
+			aBuffer.append( fieldKeys[i] );
+			aRow.appendDecimal( fieldColumns[i], aBuffer );
+		}
+		aBuffer.append( '}' );
+	}
+
+	/**
+	 * append the JSON of a split row
+	 * @param aTimestamp UTC timestamp of the row in millisecond
+	 * @param aRow fields of the row
+	 * @param aBuffer output
+	 */
+	public void encode( long aTimestamp, List<String> aRow, StringBuilder aBuffer )
+	{
+		aBuffer.append( header );
+		aBuffer.append( aTimestamp );
+		for( int i = 0; i < fieldKeys.length; i++ )
+		{
+			aBuffer.append( fieldKeys[i] );
+			appendDecimal( aRow.get( fieldColumns[i] ), aBuffer );
+		}
+		aBuffer.append( '}' );
+	}
+
+	/**
+	 * append decimal as BigDecimal.toPlainString() would render it, decimals already in that form
+	 * are copied and others go through BigDecimal
+	 * @throws NumberFormatException if the value is not a number
+	 */
+	static void appendDecimal( String aValue, StringBuilder aBuffer )
+	{
+		if ( isPlain( aValue ) )
+		{
+			aBuffer.append( aValue );
+		}
+		else
+		{
+			aBuffer.append( new BigDecimal( aValue ).toPlainString() );
+		}
+	}
+
+	/**
+	 * @return true for -?digits[.digits] without redundant leading zeros and not a negative zero
+	 */
+	private static boolean isPlain( String aValue )
+	{
+		int length = aValue.length();
+		int i = length > 0 && aValue.charAt( 0 ) == '-' ? 1 : 0;
+		int integerStart = i;
+		boolean zero = true;
+		while( i < length && isDigit( aValue.charAt( i ) ) )
+		{
+			zero = zero && aValue.charAt( i ) == '0';
+			i++;
+		}
+		if ( i == integerStart || ( aValue.charAt( integerStart ) == '0' && i - integerStart > 1 ) )
+		{
+			return false;
+		}
+		if ( i < length )
+		{
+			if ( aValue.charAt( i ) != '.' || ++i == length )
+			{
+				return false;
+			}
+			while( i < length && isDigit( aValue.charAt( i ) ) )
+			{
+				zero = zero && aValue.charAt( i ) == '0';
+				i++;
+			}
+			if ( i < length )
+			{
+				return false;
+			}
+		}
+		return integerStart == 0 || !zero;
+	}
+
+	private static boolean isDigit( char aChar )
+	{
+		return aChar >= '0' && aChar <= '9';
+	}
+}
@@ -0,0 +1,211 @@
+package smash.metatrader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+/**
+ * Sparse index of a CSV file from timestamp to row offset. An entry is recorded every stride
+ * bytes with the offset of a row and the latest timestamp of the rows before it, so the index
+ * answers where reading can start to see every row at or after a time even when rows of
+ * different datasets are not strictly ordered. The index is built in one streaming pass and
+ * saved next to the file; it is reused while the file length, modification time, timestamp
+ * column, pattern and stride are unchanged. Rows whose timestamp does not parse e.g. a header
+ * do not move the latest timestamp.
+ */
+public class CSVTimestampIndex
+{
+	private static final int MAGIC = 0x54534958;
+	private static final int VERSION = 1;
+	private final long[] offsets;
+	private final long[] latestBefore;
+
+	private CSVTimestampIndex( long[] anOffsets, long[] aLatestBefore )
+	{
+		offsets = anOffsets;
+		latestBefore = aLatestBefore;
+	}
+
+	/**
+	 * load the saved index of the file or build and save it
+	 * @param aFile CSV file
+	 * @param anIndexFile saved index
+	 * @param aTimestampColumn index of the timestamp field
+	 * @param aTimestampPattern DateTimeFormatter pattern of the timestamp
+	 * @param aZone time zone of the timestamps
+	 * @param aStrideBytes bytes between entries
+	 * @param aRegionBytes size of a mapped region while building
+	 * @return index
+	 */
+	public static CSVTimestampIndex open( File aFile, File anIndexFile, int aTimestampColumn, String aTimestampPattern, ZoneId aZone,
+			int aStrideBytes, int aRegionBytes ) throws IOException
+	{
+		if ( aStrideBytes < 1 )
+		{
+			throw new IllegalArgumentException( "Invalid index stride " + aStrideBytes );
+		}
+		String key = aFile.length() + "/" + aFile.lastModified() + "/" + aTimestampColumn + "/" + aTimestampPattern + "/" + aZone.getId() + "/" + aStrideBytes;
+		if ( anIndexFile.isFile() )
+		{
+			CSVTimestampIndex index = load( anIndexFile, key );
+			if ( index != null )
+			{
+				return index;
+			}
+		}
+		CSVTimestampIndex index = build( aFile, aTimestampColumn, new CSVTimestampParser( aTimestampPattern, aZone ), aStrideBytes, aRegionBytes );
+		index.save( anIndexFile, key );
+		return index;
+	}
+
+	/**
+	 * build the index in one pass over the file
+	 */
+	static CSVTimestampIndex build( File aFile, int aTimestampColumn, CSVTimestampParser aParser, int aStrideBytes, int aRegionBytes ) throws IOException
+	{
+		long[] offsets = new long[64];
+		long[] latestBefore = new long[64];
+		int count = 1;
+		offsets[0] = 0;
+		latestBefore[0] = Long.MIN_VALUE;
+		long latest = Long.MIN_VALUE;
+		long nextEntry = aStrideBytes;
+		MappedCSVReader reader = new MappedCSVReader( aFile, aRegionBytes );
+		try
+		{
+			while( reader.next() )
+			{
+				if ( reader.getRowOffset() >= nextEntry )
+				{
+					if ( count == offsets.length )
+					{
+						offsets = Arrays.copyOf( offsets, count * 2 );
+						latestBefore = Arrays.copyOf( latestBefore, count * 2 );
+					}
+					offsets[count] = reader.getRowOffset();
+					latestBefore[count] = latest;
+					count++;
+					nextEntry = reader.getRowOffset() + aStrideBytes;
+				}
+				if ( aTimestampColumn < reader.getFieldCount() )
+				{
+					try
+					{
+						latest = Math.max( latest, reader.parseTimestamp( aTimestampColumn, aParser ) );
+					}
+					catch( ParseException e )
+					{
+						// header or malformed row
+					}
+				}
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return new CSVTimestampIndex( Arrays.copyOf( offsets, count ), Arrays.copyOf( latestBefore, count ) );
+	}
+
+	/**
+	 * @return saved index or null if it was saved for another file state
+	 */
+	private static CSVTimestampIndex load( File anIndexFile, String aKey ) throws IOException
+	{
+		DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( anIndexFile ) ) );
+		try
+		{
+			if ( in.readInt() != MAGIC || in.readInt() != VERSION || !aKey.equals( in.readUTF() ) )
+			{
+				return null;
+			}
+			int count = in.readInt();
+			long[] offsets = new long[count];
+			long[] latestBefore = new long[count];
+			for( int i = 0; i < count; i++ )
+			{
+				offsets[i] = in.readLong();
+				latestBefore[i] = in.readLong();
+			}
+			return new CSVTimestampIndex( offsets, latestBefore );
+		}
+		catch( IOException e )
+		{
+			// truncated, rebuilt
+			return null;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * save to a temporary file renamed over the index, a crash never leaves a partial index
+	 */
+	private void save( File anIndexFile, String aKey ) throws IOException
+	{
+		File temporary = new File( anIndexFile.getPath() + ".tmp" );
+		DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temporary ) ) );
+		try
+		{
+			out.writeInt( MAGIC );
+			out.writeInt( VERSION );
+			out.writeUTF( aKey );
+			out.writeInt( offsets.length );
+			for( int i = 0; i < offsets.length; i++ )
+			{
+				out.writeLong( offsets[i] );
+				out.writeLong( latestBefore[i] );
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+		if ( anIndexFile.exists() && !anIndexFile.delete() || !temporary.renameTo( anIndexFile ) )
+		{
+			throw new IOException( "Cannot save index " + anIndexFile );
+		}
+	}
+
+	/**
+	 * @param aTime UTC epoch milliseconds
+	 * @return offset of a row such that every row before it is earlier than the time
+	 */
+	public long seek( long aTime )
+	{
+		// latestBefore never decreases, find the last entry earlier than the time
+		int low = 0;
+		int high = offsets.length - 1;
+		while( low < high )
+		{
+			int middle = ( low + high + 1 ) >>> 1;
+			if ( latestBefore[middle] < aTime )
+			{
+				low = middle;
+			}
+			else
+			{
+				high = middle - 1;
+			}
+		}
+		return offsets[low];
+	}
+
+	/**
+	 * @return number of entries
+	 */
+	public int size()
+	{
+		return offsets.length;
+	}
+}
@@ -0,0 +1,265 @@
+package smash.metatrader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+
+import smash.api.BatchDataCallback;
+
+import junit.framework.TestCase;
+
+/**
+ * Test CSVTimestampIndex and resuming SmashCSVPublisher
+ */
+public class CSVTimestampIndexTest extends TestCase
+{
+	private static final String DATASET_UUID = "2a3e3f11-1bc1-11e7-9297-0a900cdd7aeb";
+	private static final String PATTERN = "yyyy-MM-dd:HH:mm:ss";
+	private static final ZoneId ZONE = ZoneId.of( "America/New_York" );
+	private File file;
+	private File indexFile;
+
+	protected void setUp() throws Exception
+	{
+		file = File.createTempFile( "CSVTimestampIndexTest", ".csv" );
+		indexFile = new File( file.getPath() + ".tsidx" );
+		StringBuilder content = new StringBuilder( "time, id, country, coupon, maturity, issuer, bid, ask, bidYield, askYield\n" );
+		for( int i = 0; i < 2000; i++ )
+		{
+			// two rows of each symbol a second, rows of the other symbol slightly out of order
+			int second = i / 4 + ( i % 4 == 3 ? 1 : 0 );
+			content.append( String.format( "2017-04-03:09:%02d:%02d, %s, CAN, 1.500, 2026-06-01, GOC, 101.%03d, 101.5, 1.3, 1.4\n",
+							second / 60, second % 60, i % 2 == 0 ? "135087D35" : "OTHER", i % 1000 ) );
+		}
+		FileOutputStream out = new FileOutputStream( file );
+		out.write( content.toString().getBytes( StandardCharsets.ISO_8859_1 ) );
+		out.close();
+	}
+
+	protected void tearDown() throws Exception
+	{
+		file.delete();
+		indexFile.delete();
+	}
+
+	/**
+	 * every row before the offset found is earlier than the time, the offset is at most a stride before the first later row
+	 */
+	public void testSeek() throws Exception
+	{
+		CSVTimestampIndex index = CSVTimestampIndex.open( file, indexFile, 0, PATTERN, ZONE, 1000, 4096 );
+		assertTrue( index.size() > 50 );
+		ArrayList<long[]> rows = new ArrayList<long[]>();
+		MappedCSVReader reader = new MappedCSVReader( file, 4096 );
+		CSVTimestampParser parser = new CSVTimestampParser( PATTERN, ZONE );
+		assertTrue( reader.next() );
+		while( reader.next() )
+		{
+			rows.add( new long[] { reader.getRowOffset(), reader.parseTimestamp( 0, parser ) } );
+		}
+		reader.close();
+		assertEquals( 0, index.seek( Long.MIN_VALUE ) );
+		for( int i = 0; i < rows.size(); i += 37 )
+		{
+			long time = rows.get( i )[1];
+			long offset = index.seek( time );
+			long firstAtOrAfter = -1;
+			for( long[] row: rows )
+			{
+				if ( row[0] < offset )
+				{
+					assertTrue( row[1] < time );
+				}
+				else if ( row[1] >= time && firstAtOrAfter < 0 )
+				{
+					firstAtOrAfter = row[0];
+				}
+			}
+			assertTrue( firstAtOrAfter - offset <= 1000 + 100 );
+		}
+	}
+
+	/**
+	 * the saved index is reused until the file changes
+	 */
+	public void testReuse() throws Exception
+	{
+		int size = CSVTimestampIndex.open( file, indexFile, 0, PATTERN, ZONE, 1000, 4096 ).size();
+		assertTrue( indexFile.setLastModified( 1000000 ) );
+		assertEquals( size, CSVTimestampIndex.open( file, indexFile, 0, PATTERN, ZONE, 1000, 4096 ).size() );
+		assertEquals( 1000000, indexFile.lastModified() );
+		// another stride rebuilds it
+		assertTrue( CSVTimestampIndex.open( file, indexFile, 0, PATTERN, ZONE, 500, 4096 ).size() > size );
+		assertTrue( indexFile.lastModified() != 1000000 );
+	}
+
+	/**
+	 * resuming from the index publishes exactly the rows after those stored, including the rest of a tie
+	 */
+	public void testResume() throws Exception
+	{
+		SmashCSVPublisher publisher = new SmashCSVPublisher( "localhost", "default", "user", "password", "d2ac4f70-61a7-5a0d-6593-100a6fc761a2",
+						file.getPath(), 1, 0, PATTERN );
+		publisher.addToSubscription( "135087D35", DATASET_UUID );
+		publisher.addToDataFieldMapping( "bidPrice", 6 );
+		final ArrayList<Long> all = new ArrayList<Long>();
+		publisher.ingest( new SmashCSVPublisher.RowListener()
+		{
+			public void onRow( String aDatasetUUID, long aTimestamp, String aJSON )
+			{
+				all.add( aTimestamp );
+			}
+		} );
+		assertEquals( 1000, all.size() );
+		// rows 0 to 700 stored, the last one shares its second with the next unpublished row
+		long latest = all.get( 700 );
+		int tie = 0;
+		for( int i = 0; i <= 700; i++ )
+		{
+			if ( all.get( i ) == latest )
+			{
+				tie++;
+			}
+		}
+		assertEquals( 1, tie );
+		assertEquals( latest, all.get( 701 ).longValue() );
+		publisher.setResumePoint( DATASET_UUID, latest, tie );
+		assertEquals( latest, publisher.getResumeTime() );
+		CSVTimestampIndex index = CSVTimestampIndex.open( file, indexFile, 0, PATTERN, ZONE, 1000, 4096 );
+		long start = index.seek( publisher.getResumeTime() );
+		assertTrue( start > file.length() / 2 );
+		final SmashCSVPublisher resumed = publisher;
+		final ArrayList<Long> rest = new ArrayList<Long>();
+		publisher.setIngestion( 2, 1500 );
+		publisher.ingest( new SmashCSVPublisher.RowListener()
+		{
+			public void onRow( String aDatasetUUID, long aTimestamp, String aJSON )
+			{
+				if ( !resumed.isPublished( aDatasetUUID, aTimestamp ) )
+				{
+					rest.add( aTimestamp );
+				}
+			}
+		}, start );
+		assertEquals( all.subList( 701, 1000 ), rest );
+	}
+
+	/**
+	 * the resume point is queried with the latest stored time, then the records stored before the next
+	 * millisecond as an ISO 8601 snapshot end time, and the rows after them are published
+	 */
+	public void testResumeQuery() throws Exception
+	{
+		SmashCSVPublisher publisher = new SmashCSVPublisher( "localhost", "default", "user", "password", "d2ac4f70-61a7-5a0d-6593-100a6fc761a2",
+						file.getPath(), 1, 0, PATTERN );
+		publisher.addToSubscription( "135087D35", DATASET_UUID );
+		publisher.addToDataFieldMapping( "bidPrice", 6 );
+		final ArrayList<Long> all = new ArrayList<Long>();
+		publisher.ingest( new SmashCSVPublisher.RowListener()
+		{
+			public void onRow( String aDatasetUUID, long aTimestamp, String aJSON )
+			{
+				all.add( aTimestamp );
+			}
+		} );
+		// rows 0 to 700 stored
+		final long latest = all.get( 700 );
+		final ArrayList<String> requests = new ArrayList<String>();
+		publisher.setResumeQuery( new SmashCSVPublisher.ResumeQuery()
+		{
+			public void getLatestData( String aDatasetUUID, long aCount, BatchDataCallback aCallback )
+			{
+				requests.add( aDatasetUUID + " " + aCount );
+				aCallback.onReceive( "{ \"status\": \"SUCCESS\", \"data\": [ { \"timestamp\": " + latest + " } ] }", true );
+			}
+
+			public void getDataBeforeTime( String aDatasetUUID, String aSnapshotEndTime, long aCount, BatchDataCallback aCallback )
+			{
+				requests.add( aDatasetUUID + " " + aSnapshotEndTime + " " + aCount );
+				aCallback.onReceive( "{ \"status\": \"SUCCESS\", \"data\": [ { \"timestamp\": " + ( latest - 1000 ) + " }", false );
+				aCallback.onReceive( "{ \"timestamp\": " + latest + " } ] }", true );
+			}
+		} );
+		SimulatedPublishSink sink = new SimulatedPublishSink( 1 );
+		publisher.setPublishSink( sink );
+		publisher.setResume( true, 1000, 16 );
+		publisher.requestResumePoints();
+		assertEquals( 2, requests.size() );
+		assertEquals( DATASET_UUID + " 1", requests.get( 0 ) );
+		assertEquals( DATASET_UUID + " " + Instant.ofEpochMilli( latest + 1 ).toString() + " 16", requests.get( 1 ) );
+		assertEquals( "2017-04-03T13:05:50.001Z", Instant.ofEpochMilli( latest + 1 ).toString() );
+		assertEquals( latest, publisher.getResumeTime() );
+		assertEquals( 1000 - 701, sink.getPublishedCount() );
+	}
+
+	/**
+	 * records tied at the latest stored time beyond the looked up number are queried again
+	 * for twice as many until all are found, and that many rows at that time are skipped
+	 */
+	public void testResumeQueryTies() throws Exception
+	{
+		SmashCSVPublisher publisher = new SmashCSVPublisher( "localhost", "default", "user", "password", "d2ac4f70-61a7-5a0d-6593-100a6fc761a2",
+						file.getPath(), 1, 0, PATTERN );
+		publisher.addToSubscription( "135087D35", DATASET_UUID );
+		publisher.addToDataFieldMapping( "bidPrice", 6 );
+		final ArrayList<Long> all = new ArrayList<Long>();
+		publisher.ingest( new SmashCSVPublisher.RowListener()
+		{
+			public void onRow( String aDatasetUUID, long aTimestamp, String aJSON )
+			{
+				all.add( aTimestamp );
+			}
+		} );
+		final long latest = all.get( 700 );
+		int first = all.indexOf( latest );
+		int last = all.lastIndexOf( latest );
+		// rows up to the second last at the latest time stored
+		final int stored = last - first;
+		final ArrayList<Long> counts = new ArrayList<Long>();
+		publisher.setResumeQuery( new SmashCSVPublisher.ResumeQuery()
+		{
+			public void getLatestData( String aDatasetUUID, long aCount, BatchDataCallback aCallback )
+			{
+				aCallback.onReceive( "{ \"status\": \"SUCCESS\", \"data\": [ { \"timestamp\": " + latest + " } ] }", true );
+			}
+
+			public void getDataBeforeTime( String aDatasetUUID, String aSnapshotEndTime, long aCount, BatchDataCallback aCallback )
+			{
+				counts.add( aCount );
+				StringBuilder data = new StringBuilder( "{ \"status\": \"SUCCESS\", \"data\": [ " );
+				for( int i = 0; i < aCount; i++ )
+				{
+					data.append( i == 0 ? "" : ", " ).append( "{ \"timestamp\": " ).append( i < stored ? latest : latest - 1000 ).append( " }" );
+				}
+				aCallback.onReceive( data.append( " ] }" ).toString(), true );
+			}
+		} );
+		SimulatedPublishSink sink = new SimulatedPublishSink( 1 );
+		publisher.setPublishSink( sink );
+		publisher.setResume( true, 1000, 1 );
+		publisher.requestResumePoints();
+		long expected = 1;
+		for( Long count: counts )
+		{
+			assertEquals( expected, count.longValue() );
+			expected *= 2;
+		}
+		// a full first response of one tied record is queried again for two
+		assertEquals( 1, stored );
+		assertEquals( 2, counts.size() );
+		assertEquals( latest, publisher.getResumeTime() );
+		assertEquals( all.size() - last, sink.getPublishedCount() );
+	}
+
+	public void testLatestTimestamp()
+	{
+		String response = "{ \"status\": \"SUCCESS\", \"data\": [ { \"timestamp\": 1500 }, { \"timestamp\": 2000 }, { \"timestamp\": \"2000\" } ] }";
+		assertEquals( 2000, SmashCSVPublisher.getLatestTimestamp( response ) );
+		assertEquals( 2, SmashCSVPublisher.countTimestamps( response, 2000 ) );
+		assertEquals( 3000, SmashCSVPublisher.getLatestTimestamp( "[ { \"data\": \"{ \\\"timestamp\\\": 3000 }\" } ]" ) );
+		assertEquals( Long.MIN_VALUE, SmashCSVPublisher.getLatestTimestamp( "{ \"status\": \"SUCCESS\", \"data\": [] }" ) );
+	}
+}
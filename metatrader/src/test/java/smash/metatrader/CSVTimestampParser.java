@@ -0,0 +1,187 @@
+package smash.metatrader;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Parse CSV timestamps from bytes into UTC epoch milliseconds. Patterns made of fixed width
+ * yyyy, MM, dd, HH, mm, ss and S fields separated by literals are parsed in place, the offset of
+ * the time zone is cached for the current local hour. Other patterns and values outside the
+ * fixed width fields are parsed with DateTimeFormatter so results always match it.
+ * Not thread safe.
+ */
+public class CSVTimestampParser
+{
+	private static final int YEAR = 0;
+	private static final int MONTH = 1;
+	private static final int DAY = 2;
+	private static final int HOUR = 3;
+	private static final int MINUTE = 4;
+	private static final int SECOND = 5;
+	private static final int FRACTION = 6;
+	private final DateTimeFormatter formatter;
+	private final ZoneId zone;
+	// per pattern character the field it belongs to, -1 for a literal
+	private final int[] fieldAt;
+	private final byte[] literals;
+	private final boolean fixedWidth;
+	private final int[] values = new int[7];
+	private long cachedHour = Long.MIN_VALUE;
+	private long cachedHourStartMillis;
+
+	/**
+	 * create CSVTimestampParser
+	 * @param aPattern DateTimeFormatter pattern
+	 * @param aZone time zone of the timestamps
+	 */
+	public CSVTimestampParser( String aPattern, ZoneId aZone )
+	{
+		formatter = DateTimeFormatter.ofPattern( aPattern ).withZone( aZone );
+		zone = aZone;
+		fieldAt = new int[aPattern.length()];
+		literals = new byte[aPattern.length()];
+		fixedWidth = compile( aPattern );
+	}
+
+	/**
+	 * @param aBuffer buffer holding the timestamp
+	 * @param aStart index of the first timestamp byte
+	 * @param anEnd index after the last timestamp byte
+	 * @return UTC epoch milliseconds
+	 * @throws ParseException if the timestamp does not match the pattern
+	 */
+	public long parse( ByteBuffer aBuffer, int aStart, int anEnd ) throws ParseException
+	{
+		if ( !fixedWidth || anEnd - aStart != fieldAt.length || !parseFields( aBuffer, aStart ) )
+		{
+			return parseFormatted( aBuffer, aStart, anEnd );
+		}
+		long hour = MetaTraderQuoteParser.daysFromCivil( values[YEAR], values[MONTH], values[DAY] ) * 24 + values[HOUR];
+		if ( hour != cachedHour )
+		{
+			LocalDateTime hourStart = LocalDateTime.of( values[YEAR], values[MONTH], values[DAY], values[HOUR], 0 );
+			cachedHourStartMillis = ZonedDateTime.ofLocal( hourStart, zone, null ).toInstant().toEpochMilli();
+			cachedHour = hour;
+		}
+		return cachedHourStartMillis + values[MINUTE] * 60000L + values[SECOND] * 1000L + values[FRACTION];
+	}
+
+	/**
+	 * parse fields in place
+	 * @return false if a value is not a digit or out of range
+	 */
+	private boolean parseFields( ByteBuffer aBuffer, int aStart )
+	{
+		for( int i = 0; i < values.length; i++ )
+		{
+			values[i] = 0;
+		}
+		int fractionScale = 100;
+		for( int i = 0; i < fieldAt.length; i++ )
+		{
+			byte b = aBuffer.get( aStart + i );
+			int field = fieldAt[i];
+			if ( field < 0 )
+			{
+				if ( b != literals[i] )
+				{
+					return false;
+				}
+				continue;
+			}
+			if ( b < '0' || b > '9' )
+			{
+				return false;
+			}
+			if ( field == FRACTION )
+			{
+				values[FRACTION] += ( b - '0' ) * fractionScale;
+				fractionScale /= 10;
+			}
+			else
+			{
+				values[field] = values[field] * 10 + ( b - '0' );
+			}
+		}
+		return values[MONTH] >= 1 && values[MONTH] <= 12 && values[DAY] >= 1 && values[DAY] <= lengthOfMonth( values[YEAR], values[MONTH] )
+					&& values[HOUR] <= 23 && values[MINUTE] <= 59 && values[SECOND] <= 59;
+	}
+
+	private long parseFormatted( ByteBuffer aBuffer, int aStart, int anEnd ) throws ParseException
+	{
+		byte[] bytes = new byte[anEnd - aStart];
+		for( int i = 0; i < bytes.length; i++ )
+		{
+			bytes[i] = aBuffer.get( aStart + i );
+		}
+		String text = new String( bytes, StandardCharsets.ISO_8859_1 );
+		try
+		{
+			return ZonedDateTime.parse( text, formatter ).toInstant().toEpochMilli();
+		}
+		catch( DateTimeParseException e )
+		{
+			throw new ParseException( "Invalid timestamp " + text, e.getErrorIndex() );
+		}
+	}
+
+	/**
+	 * map pattern characters to fields
+	 * @return true if the pattern only has fields parsed in place and has every field down to the second
+	 */
+	private boolean compile( String aPattern )
+	{
+		boolean[] present = new boolean[values.length];
+		for( int i = 0; i < aPattern.length(); )
+		{
+			char c = aPattern.charAt( i );
+			int width = 1;
+			while( i + width < aPattern.length() && aPattern.charAt( i + width ) == c )
+			{
+				width++;
+			}
+			int field;
+			switch( c )
+			{
+				case 'y': field = width == 4 ? YEAR : -2; break;
+				case 'M': field = width == 2 ? MONTH : -2; break;
+				case 'd': field = width == 2 ? DAY : -2; break;
+				case 'H': field = width == 2 ? HOUR : -2; break;
+				case 'm': field = width == 2 ? MINUTE : -2; break;
+				case 's': field = width == 2 ? SECOND : -2; break;
+				case 'S': field = width <= 3 ? FRACTION : -2; break;
+				default: field = Character.isLetter( c ) || c == '\'' || c == '[' || c == ']' ? -2 : -1; break;
+			}
+			if ( field == -2 || ( field >= 0 && present[field] ) )
+			{
+				return false;
+			}
+			if ( field >= 0 )
+			{
+				present[field] = true;
+			}
+			for( int j = 0; j < width; j++ )
+			{
+				fieldAt[i + j] = field;
+				literals[i + j] = (byte)c;
+			}
+			i += width;
+		}
+		return present[YEAR] && present[MONTH] && present[DAY] && present[HOUR] && present[MINUTE] && present[SECOND];
+	}
+
+	private static int lengthOfMonth( int aYear, int aMonth )
+	{
+		if ( aMonth == 2 )
+		{
+			return ( aYear % 4 == 0 && ( aYear % 100 != 0 || aYear % 400 == 0 ) ) ? 29 : 28;
+		}
+		return aMonth == 4 || aMonth == 6 || aMonth == 9 || aMonth == 11 ? 30 : 31;
+	}
+}
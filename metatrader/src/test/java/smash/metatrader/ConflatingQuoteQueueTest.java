@@ -0,0 +1,139 @@
+package smash.metatrader;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Test ConflatingQuoteQueue
+ */
+public class ConflatingQuoteQueueTest extends TestCase
+{
+	private static final int COUNT = 200000;
+	private static final int SYMBOL_COUNT = 8;
+
+	/**
+	 * a pending quote is replaced by a newer quote of the same symbol and counted as conflated
+	 */
+	public void testConflate() throws Exception
+	{
+		ConflatingQuoteQueue queue = new ConflatingQuoteQueue();
+		for( int i = 0; i < 3; i++ )
+		{
+			queue.offer( i, i, i, 0, "EURUSD", "data" + i );
+		}
+		queue.offer( 3, 3, 3, 1, "USDJPY", "data3" );
+		assertEquals( 2, queue.size() );
+		QueuedData data = queue.poll( 0, TimeUnit.MILLISECONDS );
+		assertEquals( "EURUSD", data.item );
+		assertEquals( "data2", data.data );
+		assertEquals( 2, data.receivedTime );
+		assertEquals( 2, queue.getConflatedCount( "EURUSD" ) );
+		assertEquals( 0, queue.getConflatedCount( "USDJPY" ) );
+		assertEquals( 0, queue.getConflatedCount( "GBPUSD" ) );
+		assertEquals( "{EURUSD=2, USDJPY=0}", queue.getConflatedCounts().toString() );
+		// a quote offered after its symbol was polled is pending again, not conflated
+		queue.offer( 4, 4, 4, 0, "EURUSD", "data4" );
+		assertEquals( 2, queue.getConflatedCount( "EURUSD" ) );
+		assertEquals( "USDJPY", queue.poll( 0, TimeUnit.MILLISECONDS ).item );
+		assertEquals( "data4", queue.poll( 0, TimeUnit.MILLISECONDS ).data );
+		assertNull( queue.poll( 1, TimeUnit.MILLISECONDS ) );
+		assertEquals( 0, queue.size() );
+	}
+
+	/**
+	 * symbols are polled in order of their first pending quote, a later quote keeps the place of its symbol
+	 */
+	public void testDirtyOrder() throws Exception
+	{
+		ConflatingQuoteQueue queue = new ConflatingQuoteQueue();
+		queue.offer( 0, 0, 0, 2, "GBPUSD", "a" );
+		queue.offer( 1, 1, 1, 0, "EURUSD", "b" );
+		queue.offer( 2, 2, 2, 1, "USDJPY", "c" );
+		queue.offer( 3, 3, 3, 2, "GBPUSD", "d" );
+		assertEquals( "GBPUSD", queue.poll( 0, TimeUnit.MILLISECONDS ).item );
+		queue.offer( 4, 4, 4, 2, "GBPUSD", "e" );
+		assertEquals( "EURUSD", queue.poll( 0, TimeUnit.MILLISECONDS ).item );
+		assertEquals( "USDJPY", queue.poll( 0, TimeUnit.MILLISECONDS ).item );
+		QueuedData data = queue.poll( 0, TimeUnit.MILLISECONDS );
+		assertEquals( "GBPUSD", data.item );
+		assertEquals( "e", data.data );
+	}
+
+	/**
+	 * slots grow for new symbol ids while the dirty list has wrapped around, the order is kept
+	 */
+	public void testGrowAndWrap() throws Exception
+	{
+		ConflatingQuoteQueue queue = new ConflatingQuoteQueue();
+		// move the head of the dirty list to the middle
+		for( int i = 0; i < 20; i++ )
+		{
+			queue.offer( i, i, i, i, "SYMBOL" + i, "data" );
+		}
+		for( int i = 0; i < 20; i++ )
+		{
+			assertEquals( i, queue.poll( 0, TimeUnit.MILLISECONDS ).symbolId );
+		}
+		// wraps around the initial 32 entries, then grows twice
+		for( int i = 0; i < 100; i++ )
+		{
+			int symbolId = ( i * 7 ) % 100;
+			queue.offer( i, i, i, symbolId, "SYMBOL" + symbolId, "data" );
+		}
+		assertEquals( 100, queue.size() );
+		for( int i = 0; i < 100; i++ )
+		{
+			QueuedData data = queue.poll( 0, TimeUnit.MILLISECONDS );
+			assertEquals( ( i * 7 ) % 100, data.symbolId );
+			assertEquals( "SYMBOL" + data.symbolId, data.item );
+			assertEquals( i, data.receivedTime );
+		}
+		assertNull( queue.poll( 0, TimeUnit.MILLISECONDS ) );
+	}
+
+	/**
+	 * a consumer thread sees the quotes of every symbol in order ending with the latest, every quote
+	 * offered is either received or conflated
+	 */
+	public void testHandOff() throws Exception
+	{
+		final ConflatingQuoteQueue queue = new ConflatingQuoteQueue();
+		Thread producer = new Thread( new Runnable()
+		{
+			public void run()
+			{
+				for( int i = 0; i < COUNT; i++ )
+				{
+					int symbolId = i % SYMBOL_COUNT;
+					queue.offer( i, i, i, symbolId, "SYMBOL" + symbolId, "data" );
+				}
+			}
+		});
+		producer.start();
+		long[] last = new long[SYMBOL_COUNT];
+		java.util.Arrays.fill( last, -1 );
+		int finished = 0;
+		long received = 0;
+		while( finished < SYMBOL_COUNT )
+		{
+			QueuedData data = queue.poll( 10, TimeUnit.SECONDS );
+			assertNotNull( data );
+			assertTrue( data.receivedTime > last[data.symbolId] );
+			last[data.symbolId] = data.receivedTime;
+			received++;
+			if ( data.receivedTime >= COUNT - SYMBOL_COUNT )
+			{
+				finished++;
+			}
+		}
+		producer.join();
+		assertNull( queue.poll( 1, TimeUnit.MILLISECONDS ) );
+		long conflated = 0;
+		for( long count: queue.getConflatedCounts().values() )
+		{
+			conflated += count;
+		}
+		assertEquals( COUNT, received + conflated );
+	}
+}
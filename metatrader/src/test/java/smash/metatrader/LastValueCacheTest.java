@@ -0,0 +1,140 @@
+package smash.metatrader;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import junit.framework.TestCase;
+
+/**
+ * Test LastValueCache and LastValueHttpServer
+ */
+public class LastValueCacheTest extends TestCase
+{
+	public void testUpdate() throws Exception
+	{
+		LastValueCache cache = new LastValueCache( 2 );
+		LastValueCache.LastValue value = new LastValueCache.LastValue();
+		assertFalse( cache.read( 0, value ) );
+		assertEquals( 0, cache.getVersion( 0 ) );
+		MetaTraderQuoteParser parser = new MetaTraderQuoteParser();
+		parser.parse( "2024/01/02 10:00:00 1.10501 1.10512" );
+		cache.update( 0, 1000, parser );
+		parser.parse( "2024/01/02 10:00:01 1.1050 1.1052" );
+		cache.update( 0, 2000, parser );
+		// beyond the capacity
+		cache.update( 2, 2000, parser );
+		assertTrue( cache.read( 0, value ) );
+		assertFalse( cache.read( 1, value ) );
+		assertFalse( cache.read( 2, value ) );
+		assertEquals( 4, cache.getVersion( 0 ) );
+		StringBuilder builder = new StringBuilder();
+		value.appendJSON( "EURUSD", builder );
+		assertEquals( "{ \"symbol\": \"EURUSD\", \"timestamp\": 2000, \"bidPrice\": 1.1050, \"askPrice\": 1.1052, \"updates\": 2}", builder.toString() );
+	}
+
+	/**
+	 * a reader never sees the values of two different updates while the writer runs
+	 */
+	public void testConsistentRead() throws Exception
+	{
+		final LastValueCache cache = new LastValueCache( 1 );
+		final int updates = 200000;
+		Thread writer = new Thread()
+		{
+			public void run()
+			{
+				MetaTraderQuoteParser parser = new MetaTraderQuoteParser();
+				try
+				{
+					for( int i = 1; i <= updates; i++ )
+					{
+						parser.parse( "2024/01/02 10:00:00 " + i + ".5 " + ( i + 1 ) + ".5" );
+						cache.update( 0, i, parser );
+					}
+				}
+				catch( Exception e )
+				{
+					throw new RuntimeException( e );
+				}
+			}
+		};
+		writer.start();
+		LastValueCache.LastValue value = new LastValueCache.LastValue();
+		long lastVersion = 0;
+		while( writer.isAlive() || lastVersion < 2L * updates )
+		{
+			if ( cache.read( 0, value ) )
+			{
+				assertTrue( value.getVersion() >= lastVersion );
+				lastVersion = value.getVersion();
+				assertEquals( value.getTimestamp() * 10 + 5, value.getBidPrice() );
+				assertEquals( value.getBidPrice() + 10, value.getAskPrice() );
+				assertEquals( lastVersion / 2, value.getTimestamp() );
+			}
+		}
+		writer.join();
+		assertEquals( updates, value.getTimestamp() );
+	}
+
+	public void testHttp() throws Exception
+	{
+		SymbolTable symbols = new SymbolTable();
+		symbols.add( "EURUSD", new QuoteJSONEncoder( "a", "type" ) );
+		symbols.add( "USDJPY", new QuoteJSONEncoder( "b", "type" ) );
+		symbols.add( "GBPUSD", new QuoteJSONEncoder( "c", "type" ) );
+		LastValueCache cache = new LastValueCache( 16 );
+		MetaTraderQuoteParser parser = new MetaTraderQuoteParser();
+		parser.parse( "2024/01/02 10:00:00 1.10501 1.10512" );
+		cache.update( 0, 1000, parser );
+		parser.parse( "2024/01/02 10:00:00 150.101 150.112" );
+		cache.update( 1, 1000, parser );
+		LastValueHttpServer server = new LastValueHttpServer( cache, symbols, "localhost", 0 );
+		server.start();
+		try
+		{
+			String base = "http://localhost:" + server.getPort() + LastValueHttpServer.PATH;
+			assertEquals( "{ \"symbol\": \"EURUSD\", \"timestamp\": 1000, \"bidPrice\": 1.10501, \"askPrice\": 1.10512, \"updates\": 1}", get( base + "/EURUSD" ) );
+			assertEquals( "[{ \"symbol\": \"EURUSD\", \"timestamp\": 1000, \"bidPrice\": 1.10501, \"askPrice\": 1.10512, \"updates\": 1}, "
+						+ "{ \"symbol\": \"USDJPY\", \"timestamp\": 1000, \"bidPrice\": 150.101, \"askPrice\": 150.112, \"updates\": 1}]", get( base ) );
+			// known symbol without a quote yet and unknown symbol
+			assertEquals( 404, ( (HttpURLConnection)new URL( base + "/GBPUSD" ).openConnection() ).getResponseCode() );
+			assertEquals( 404, ( (HttpURLConnection)new URL( base + "/XAUUSD" ).openConnection() ).getResponseCode() );
+			HttpURLConnection connection = (HttpURLConnection)new URL( base + "/stream?symbols=USDJPY,GBPUSD&intervalMillis=10" ).openConnection();
+			assertEquals( 200, connection.getResponseCode() );
+			assertTrue( connection.getContentType().startsWith( "text/event-stream" ) );
+			BufferedReader reader = new BufferedReader( new InputStreamReader( connection.getInputStream(), "UTF-8" ) );
+			assertEquals( "data: { \"symbol\": \"USDJPY\", \"timestamp\": 1000, \"bidPrice\": 150.101, \"askPrice\": 150.112, \"updates\": 1}", reader.readLine() );
+			assertEquals( "", reader.readLine() );
+			// only changed symbols are sent again
+			parser.parse( "2024/01/02 10:00:01 1.27001 1.27012" );
+			cache.update( 2, 2000, parser );
+			assertEquals( "data: { \"symbol\": \"GBPUSD\", \"timestamp\": 2000, \"bidPrice\": 1.27001, \"askPrice\": 1.27012, \"updates\": 1}", reader.readLine() );
+			assertEquals( "", reader.readLine() );
+			reader.close();
+		}
+		finally
+		{
+			server.stop();
+		}
+	}
+
+	private static String get( String anURL ) throws Exception
+	{
+		HttpURLConnection connection = (HttpURLConnection)new URL( anURL ).openConnection();
+		assertEquals( 200, connection.getResponseCode() );
+		InputStream in = connection.getInputStream();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while( ( read = in.read( buffer ) ) > 0 )
+		{
+			out.write( buffer, 0, read );
+		}
+		in.close();
+		return out.toString( "UTF-8" );
+	}
+}
@@ -0,0 +1,82 @@
+package smash.metatrader;
+
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for LatencyHistogram
+ */
+public class LatencyHistogramTest
+    extends TestCase
+{
+	/**
+	 * Create the test case
+	 *
+	 * @param testName name of the test case
+	 */
+	public LatencyHistogramTest( String testName )
+	{
+		super( testName );
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite()
+	{
+		return new TestSuite( LatencyHistogramTest.class );
+	}
+
+	/**
+	 * buckets are contiguous and every value falls in the bucket covering it
+	 */
+	public void testBuckets()
+	{
+		long previousHighest = -1;
+		for( int bucket = 0; bucket < 1000; bucket++ )
+		{
+			long highest = LatencyHistogram.highestValueOf( bucket );
+			assertEquals( bucket, LatencyHistogram.bucketOf( previousHighest + 1 ) );
+			assertEquals( bucket, LatencyHistogram.bucketOf( highest ) );
+			previousHighest = highest;
+		}
+		Random random = new Random( 0 );
+		for( int i = 0; i < 100000; i++ )
+		{
+			long value = random.nextLong() >>> ( 1 + random.nextInt( 63 ) );
+			long highest = LatencyHistogram.highestValueOf( LatencyHistogram.bucketOf( value ) );
+			assertTrue( value <= highest );
+			assertTrue( highest - value <= value / 50 + 1 );
+		}
+		assertTrue( LatencyHistogram.bucketOf( Long.MAX_VALUE ) >= 0 );
+	}
+
+	/**
+	 * percentiles are within the precision of the buckets
+	 */
+	public void testPercentiles()
+	{
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals( 0, histogram.getValueAtPercentile( 99 ) );
+		for( long value = 1; value <= 100000; value++ )
+		{
+			histogram.record( value * 1000 );
+		}
+		assertEquals( 100000, histogram.getCount() );
+		assertEquals( 100000000L, histogram.getMax() );
+		assertEquals( 100000000L, histogram.getValueAtPercentile( 100 ) );
+		assertClose( 50000000L, histogram.getValueAtPercentile( 50 ) );
+		assertClose( 99000000L, histogram.getValueAtPercentile( 99 ) );
+		assertClose( 99900000L, histogram.getValueAtPercentile( 99.9 ) );
+		histogram.record( -5 );
+		assertEquals( 0, histogram.getValueAtPercentile( 0 ) );
+	}
+
+	private static void assertClose( long anExpected, long anActual )
+	{
+		assertTrue( anExpected + " " + anActual, Math.abs( anActual - anExpected ) <= anExpected / 50 );
+	}
+}
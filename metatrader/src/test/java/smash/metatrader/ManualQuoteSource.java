@@ -0,0 +1,36 @@
+package smash.metatrader;
+
+/**
+ * Quote source fed by a test through the listener the publisher started it with
+ */
+public class ManualQuoteSource implements QuoteSource
+{
+	private volatile QuoteListener listener;
+
+	public void start( QuoteListener aListener, AsyncLogger aLogger )
+	{
+		listener = aListener;
+	}
+
+	public void subscribe( String aSymbol )
+	{
+	}
+
+	public void unsubscribe( String aSymbol )
+	{
+	}
+
+	public void stop()
+	{
+	}
+
+	/**
+	 * deliver quote to the publisher
+	 * @param aSymbol symbol
+	 * @param aData quote data "yyyy/MM/dd HH:mm:ss bid ask"
+	 */
+	public void quote( String aSymbol, String aData )
+	{
+		listener.onQuote( aSymbol, aData );
+	}
+}
@@ -0,0 +1,339 @@
+package smash.metatrader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * Streaming reader of comma separated rows over memory mapped regions of a file. Field boundaries
+ * are located in the mapped bytes, spaces around commas are trimmed as by split("\\s*,\\s*"),
+ * and fields are converted from their bytes without building a String per field.
+ * Rows are separated by \n or \r\n, blank rows are skipped. A reader may cover a byte range of the
+ * file, reading the rows starting in the range, so ranges split at any offset cover every row once.
+ * Not thread safe.
+ */
+public class MappedCSVReader implements Closeable
+{
+	/**
+	 * default size of a mapped region
+	 */
+	public static final int DEFAULT_REGION_BYTES = 64 * 1024 * 1024;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long fileLength;
+	private final long end;
+	private final int regionBytes;
+	private MappedByteBuffer region;
+	private long regionStart;
+	private int regionLength;
+	// file offset of the next row
+	private long position;
+	private long rowOffset;
+	// the first row scanned is the tail of a row starting before the range
+	private boolean skipRow;
+	private int[] fieldStarts = new int[16];
+	private int[] fieldEnds = new int[16];
+	private int fieldCount;
+
+	/**
+	 * open reader at the start of the file
+	 * @param aFile file
+	 * @param aRegionBytes size of a mapped region, rows must be shorter
+	 */
+	public MappedCSVReader( File aFile, int aRegionBytes ) throws IOException
+	{
+		this( aFile, 0, Long.MAX_VALUE, aRegionBytes );
+	}
+
+	/**
+	 * open reader of the rows starting in a byte range of the file
+	 * @param aFile file
+	 * @param aStart offset of the range
+	 * @param anEnd offset after the range
+	 * @param aRegionBytes size of a mapped region, rows must be shorter
+	 */
+	public MappedCSVReader( File aFile, long aStart, long anEnd, int aRegionBytes ) throws IOException
+	{
+		file = new RandomAccessFile( aFile, "r" );
+		channel = file.getChannel();
+		fileLength = channel.size();
+		end = Math.min( anEnd, fileLength );
+		regionBytes = aRegionBytes;
+		regionStart = -1;
+		// a row starts in the range if the byte before it ends the previous row
+		position = aStart > 0 ? aStart - 1 : 0;
+		skipRow = aStart > 0;
+	}
+
+	/**
+	 * move to the next row
+	 * @return false after the last row starting in the range
+	 */
+	public boolean next() throws IOException
+	{
+		while( position < end )
+		{
+			if ( regionStart < 0 || position < regionStart || position >= regionStart + regionLength )
+			{
+				map( position );
+			}
+			int index = (int)( position - regionStart );
+			int rowEnd = scanRow( index );
+			if ( rowEnd < 0 )
+			{
+				if ( index == 0 )
+				{
+					throw new IOException( "Row at " + position + " longer than " + regionBytes + " bytes" );
+				}
+				// row continues past the region, map a region starting with it
+				map( position );
+				continue;
+			}
+			rowOffset = position;
+			position = regionStart + rowEnd + 1;
+			if ( skipRow )
+			{
+				skipRow = false;
+			}
+			else if ( fieldCount > 0 )
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return file offset of the current row
+	 */
+	public long getRowOffset()
+	{
+		return rowOffset;
+	}
+
+	/**
+	 * @return number of fields of the current row
+	 */
+	public int getFieldCount()
+	{
+		return fieldCount;
+	}
+
+	/**
+	 * @param aField field index
+	 * @return value of the field in the table, null if the field is missing or not in the table
+	 */
+	public <V> V lookup( int aField, CSVKeyTable<V> aTable )
+	{
+		return aField < fieldCount ? aTable.get( region, fieldStarts[aField], fieldEnds[aField] ) : null;
+	}
+
+	/**
+	 * @param aField field index
+	 * @param aParser timestamp parser
+	 * @return UTC epoch milliseconds of the timestamp field
+	 */
+	public long parseTimestamp( int aField, CSVTimestampParser aParser ) throws ParseException
+	{
+		checkField( aField );
+		return aParser.parse( region, fieldStarts[aField], fieldEnds[aField] );
+	}
+
+	/**
+	 * append decimal field as BigDecimal.toPlainString() would render it, plain decimals are
+	 * copied from the mapped bytes, other forms e.g. with an exponent go through BigDecimal
+	 * @param aField field index
+	 * @param aBuilder output
+	 * @throws NumberFormatException if the field is not a number
+	 */
+	public void appendDecimal( int aField, StringBuilder aBuilder )
+	{
+		checkField( aField );
+		int start = fieldStarts[aField];
+		int end = fieldEnds[aField];
+		if ( !appendPlainDecimal( start, end, aBuilder ) )
+		{
+			aBuilder.append( new BigDecimal( getString( aField ) ).toPlainString() );
+		}
+	}
+
+	/**
+	 * @param aField field index
+	 * @return field as a new String
+	 */
+	public String getString( int aField )
+	{
+		checkField( aField );
+		byte[] bytes = new byte[fieldEnds[aField] - fieldStarts[aField]];
+		for( int i = 0; i < bytes.length; i++ )
+		{
+			bytes[i] = region.get( fieldStarts[aField] + i );
+		}
+		return new String( bytes, StandardCharsets.ISO_8859_1 );
+	}
+
+	public void close() throws IOException
+	{
+		file.close();
+	}
+
+	/**
+	 * copy [+-]digits[.digits] dropping the plus sign, leading zeros and the sign of zero
+	 * @return false if the field is not a plain decimal
+	 */
+	private boolean appendPlainDecimal( int aStart, int anEnd, StringBuilder aBuilder )
+	{
+		int i = aStart;
+		boolean negative = false;
+		if ( i < anEnd && ( region.get( i ) == '-' || region.get( i ) == '+' ) )
+		{
+			negative = region.get( i ) == '-';
+			i++;
+		}
+		int integerStart = i;
+		while( i < anEnd && isDigit( region.get( i ) ) )
+		{
+			i++;
+		}
+		int integerEnd = i;
+		int fractionStart = i;
+		int fractionEnd = i;
+		if ( i < anEnd && region.get( i ) == '.' )
+		{
+			fractionStart = ++i;
+			while( i < anEnd && isDigit( region.get( i ) ) )
+			{
+				i++;
+			}
+			fractionEnd = i;
+		}
+		if ( i != anEnd || integerEnd - integerStart + fractionEnd - fractionStart == 0 )
+		{
+			return false;
+		}
+		while( integerStart < integerEnd - 1 && region.get( integerStart ) == '0' )
+		{
+			integerStart++;
+		}
+		boolean zero = true;
+		for( int j = integerStart; zero && j < integerEnd; j++ )
+		{
+			zero = region.get( j ) == '0';
+		}
+		for( int j = fractionStart; zero && j < fractionEnd; j++ )
+		{
+			zero = region.get( j ) == '0';
+		}
+		if ( negative && !zero )
+		{
+			aBuilder.append( '-' );
+		}
+		if ( integerStart == integerEnd )
+		{
+			aBuilder.append( '0' );
+		}
+		for( int j = integerStart; j < integerEnd; j++ )
+		{
+			aBuilder.append( (char)region.get( j ) );
+		}
+		if ( fractionEnd > fractionStart )
+		{
+			aBuilder.append( '.' );
+			for( int j = fractionStart; j < fractionEnd; j++ )
+			{
+				aBuilder.append( (char)region.get( j ) );
+			}
+		}
+		return true;
+	}
+
+	private static boolean isDigit( byte aByte )
+	{
+		return aByte >= '0' && aByte <= '9';
+	}
+
+	private static boolean isSpace( byte aByte )
+	{
+		return aByte == ' ' || aByte == '\t' || aByte == '\r' || aByte == '\f' || aByte == 0x0b;
+	}
+
+	private void checkField( int aField )
+	{
+		if ( aField >= fieldCount )
+		{
+			throw new IndexOutOfBoundsException( "Field " + aField + " of row at " + rowOffset + " with " + fieldCount + " fields" );
+		}
+	}
+
+	/**
+	 * locate the fields of the row starting at the region index
+	 * @return region index of the row end, the \n or the end of the file, -1 if the row continues past the region
+	 */
+	private int scanRow( int anIndex )
+	{
+		fieldCount = 0;
+		int i = anIndex;
+		boolean lastRegion = regionStart + regionLength >= fileLength;
+		boolean blank = true;
+		while( true )
+		{
+			// skip spaces before the field
+			while( i < regionLength && isSpace( region.get( i ) ) )
+			{
+				i++;
+			}
+			int start = i;
+			byte b = 0;
+			while( i < regionLength && ( b = region.get( i ) ) != ',' && b != '\n' )
+			{
+				i++;
+			}
+			if ( i == regionLength && !lastRegion )
+			{
+				return -1;
+			}
+			int end = i;
+			while( end > start && isSpace( region.get( end - 1 ) ) )
+			{
+				end--;
+			}
+			blank = blank && end == start && ( i == regionLength || b == '\n' );
+			if ( !blank )
+			{
+				addField( start, end );
+			}
+			if ( i == regionLength || b == '\n' )
+			{
+				return i;
+			}
+			// skip the comma
+			i++;
+		}
+	}
+
+	private void addField( int aStart, int anEnd )
+	{
+		if ( fieldCount == fieldStarts.length )
+		{
+			fieldStarts = Arrays.copyOf( fieldStarts, fieldCount * 2 );
+			fieldEnds = Arrays.copyOf( fieldEnds, fieldCount * 2 );
+		}
+		fieldStarts[fieldCount] = aStart;
+		fieldEnds[fieldCount] = anEnd;
+		fieldCount++;
+	}
+
+	private void map( long aPosition ) throws IOException
+	{
+		regionStart = aPosition;
+		regionLength = (int)Math.min( regionBytes, fileLength - aPosition );
+		region = channel.map( FileChannel.MapMode.READ_ONLY, aPosition, regionLength );
+	}
+}
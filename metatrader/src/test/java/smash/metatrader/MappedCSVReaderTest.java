@@ -0,0 +1,282 @@
+package smash.metatrader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for MappedCSVReader
+ */
+public class MappedCSVReaderTest
+    extends TestCase
+{
+	private static final String DATASET_UUID = "2a3e3f11-1bc1-11e7-9297-0a900cdd7aeb";
+	private File file;
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName name of the test case
+	 */
+	public MappedCSVReaderTest( String testName )
+	{
+		super( testName );
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite()
+	{
+		return new TestSuite( MappedCSVReaderTest.class );
+	}
+
+	protected void setUp() throws Exception
+	{
+		file = File.createTempFile( "MappedCSVReaderTest", ".csv" );
+	}
+
+	protected void tearDown() throws Exception
+	{
+		file.delete();
+	}
+
+	/**
+	 * rows give the same JSON as the split rows, also when rows cross mapped regions
+	 */
+	public void testSameJSONAsSplit() throws Exception
+	{
+		StringBuilder content = new StringBuilder();
+		for( int i = 0; i < 500; i++ )
+		{
+			content.append( String.format( "2017-%02d-%02d:%02d:%02d:%02d , 135087D35,CAN, 1.500, 2026-06-01, GOC, %s, 101.%03d , 1.3%03d,1.3234",
+							1 + i % 12, 1 + i % 28, i % 24, i % 60, ( i * 7 ) % 60, i % 2 == 0 ? "+0101.234" : "101.2", i, i ) );
+			content.append( i % 3 == 0 ? "\r\n" : "\n" );
+			if ( i % 50 == 0 )
+			{
+				content.append( "\n" );
+			}
+			if ( i % 7 == 0 )
+			{
+				content.append( "2017-04-03:09:30:01, OTHER, CAN\n" );
+			}
+		}
+		content.append( "2017-03-12:02:30:00, 135087D35, CAN, 1.500, 2026-06-01, GOC, 1E+2, -0.000, .5, 5." );
+		write( content.toString() );
+		SmashCSVPublisher publisher = createPublisher();
+		CSVTimestampParser parser = new CSVTimestampParser( "yyyy-MM-dd:HH:mm:ss", ZoneId.of( "America/New_York" ) );
+		CSVKeyTable<String> datasets = new CSVKeyTable<String>();
+		datasets.put( "135087D35", DATASET_UUID );
+		String[] lines = content.toString().split( "\n" );
+		int[] regionSizes = { 100, 257, MappedCSVReader.DEFAULT_REGION_BYTES };
+		for( int regionSize: regionSizes )
+		{
+			MappedCSVReader reader = new MappedCSVReader( file, regionSize );
+			int count = 0;
+			for( String line: lines )
+			{
+				List<String> data = Arrays.asList( line.trim().split( "\\s*,\\s*" ) );
+				if ( data.size() < 2 || !"135087D35".equals( data.get( 1 ) ) )
+				{
+					continue;
+				}
+				do
+				{
+					assertTrue( reader.next() );
+				}
+				while( reader.lookup( 1, datasets ) == null );
+				assertEquals( publisher.toJSON( DATASET_UUID, data ), publisher.toJSON( DATASET_UUID, reader.parseTimestamp( 0, parser ), reader ) );
+				count++;
+			}
+			while( reader.next() )
+			{
+				assertNull( reader.lookup( 1, datasets ) );
+			}
+			reader.close();
+			assertEquals( 501, count );
+		}
+	}
+
+	/**
+	 * ranges split at any offset read every row once
+	 */
+	public void testRanges() throws Exception
+	{
+		StringBuilder content = new StringBuilder();
+		for( int i = 0; i < 300; i++ )
+		{
+			content.append( i ).append( ", row" ).append( i % 5 == 0 ? "\r\n\n" : "\n" );
+		}
+		content.append( "300, last" );
+		write( content.toString() );
+		for( int chunk = 1; chunk < 40; chunk += 3 )
+		{
+			int expected = 0;
+			for( long start = 0; start < file.length(); start += chunk )
+			{
+				MappedCSVReader reader = new MappedCSVReader( file, start, start + chunk, 64 );
+				while( reader.next() )
+				{
+					assertEquals( String.valueOf( expected++ ), reader.getString( 0 ) );
+				}
+				reader.close();
+			}
+			assertEquals( 301, expected );
+		}
+	}
+
+	/**
+	 * parallel ingestion hands rows over in file order
+	 */
+	public void testParallelIngest() throws Exception
+	{
+		StringBuilder content = new StringBuilder();
+		for( int i = 0; i < 2000; i++ )
+		{
+			content.append( String.format( "2017-04-03:09:%02d:%02d, %s, CAN, 1.500, 2026-06-01, GOC, 101.%03d, 101.5, 1.3, 1.4\n",
+							i / 60 % 60, i % 60, i % 3 == 0 ? "OTHER" : "135087D35", i % 1000 ) );
+		}
+		write( content.toString() );
+		SmashCSVPublisher publisher = createPublisher();
+		final ArrayList<String> sequential = new ArrayList<String>();
+		publisher.ingest( new SmashCSVPublisher.RowListener()
+		{
+			public void onRow( String aDatasetUUID, long aTimestamp, String aJSON )
+			{
+				sequential.add( aJSON );
+			}
+		} );
+		assertEquals( 1333, sequential.size() );
+		publisher.setIngestion( 3, 1000 );
+		final ArrayList<String> parallel = new ArrayList<String>();
+		publisher.ingest( new SmashCSVPublisher.RowListener()
+		{
+			public void onRow( String aDatasetUUID, long aTimestamp, String aJSON )
+			{
+				parallel.add( aJSON );
+			}
+		} );
+		assertEquals( sequential, parallel );
+	}
+
+	/**
+	 * a row longer than the mapped region is reported
+	 */
+	public void testRowLongerThanRegion() throws Exception
+	{
+		write( "a,b\n0123456789,0123456789,0123456789\n" );
+		MappedCSVReader reader = new MappedCSVReader( file, 16 );
+		assertTrue( reader.next() );
+		assertEquals( 2, reader.getFieldCount() );
+		try
+		{
+			reader.next();
+			fail();
+		}
+		catch( java.io.IOException e )
+		{
+		}
+		reader.close();
+	}
+
+	/**
+	 * decimals render as BigDecimal.toPlainString()
+	 */
+	public void testDecimal() throws Exception
+	{
+		String[] values = { "0", "-0", "+1.50", "007", "00.5", ".5", "-.5", "5.", "-0.000", "123456789012345678901234567890.1", "1E+3", "-2.5e-3" };
+		StringBuilder content = new StringBuilder();
+		for( String value: values )
+		{
+			content.append( " " ).append( value ).append( " \n" );
+		}
+		write( content.toString() );
+		MappedCSVReader reader = new MappedCSVReader( file, 1024 );
+		for( String value: values )
+		{
+			assertTrue( reader.next() );
+			StringBuilder builder = new StringBuilder();
+			reader.appendDecimal( 0, builder );
+			assertEquals( value, new BigDecimal( value ).toPlainString(), builder.toString() );
+		}
+		assertFalse( reader.next() );
+		reader.close();
+	}
+
+	/**
+	 * encoded rows keep the configured field order and render decimals as BigDecimal
+	 */
+	public void testEncoder() throws Exception
+	{
+		String[] values = { "0", "-0", "+1.50", "007", "00.5", ".5", "-.5", "5.", "-0.000", "0.000", "-1.25", "101.234", "1E+3", "-2.5e-3" };
+		CSVRowEncoder encoder = new CSVRowEncoder( DATASET_UUID, "type", new String[] { "z", "a" }, new int[] { 1, 0 } );
+		for( String value: values )
+		{
+			StringBuilder buffer = new StringBuilder();
+			encoder.encode( 42, Arrays.asList( value, "1.5" ), buffer );
+			assertEquals( "{ \"dataset\": \"" + DATASET_UUID + "\", \"typeId\": \"type\", \"timestamp\": 42, \"z\": 1.5, \"a\": "
+							+ new BigDecimal( value ).toPlainString() + "}", buffer.toString() );
+		}
+		try
+		{
+			CSVRowEncoder.appendDecimal( "1.2.3", new StringBuilder() );
+			fail();
+		}
+		catch( NumberFormatException e )
+		{
+		}
+	}
+
+	/**
+	 * timestamps parsed in place match DateTimeFormatter across daylight saving changes
+	 */
+	public void testTimestamp() throws Exception
+	{
+		ZoneId zone = ZoneId.of( "America/New_York" );
+		String[] patterns = { "yyyy-MM-dd:HH:mm:ss", "yyyy/MM/dd HH:mm:ss.SSS", "yyyy-M-d H:mm:ss" };
+		for( String pattern: patterns )
+		{
+			CSVTimestampParser parser = new CSVTimestampParser( pattern, zone );
+			DateTimeFormatter formatter = DateTimeFormatter.ofPattern( pattern ).withZone( zone );
+			ZonedDateTime time = ZonedDateTime.of( 2017, 3, 11, 20, 0, 0, 123000000, zone );
+			while( time.getYear() == 2017 )
+			{
+				String text = formatter.format( time );
+				ByteBuffer buffer = ByteBuffer.wrap( text.getBytes( StandardCharsets.ISO_8859_1 ) );
+				assertEquals( text, ZonedDateTime.parse( text, formatter ).toInstant().toEpochMilli(), parser.parse( buffer, 0, text.length() ) );
+				time = time.plusMinutes( time.getMonthValue() == 3 || time.getMonthValue() == 11 ? 7 : 997 );
+			}
+		}
+	}
+
+	private SmashCSVPublisher createPublisher()
+	{
+		SmashCSVPublisher publisher = new SmashCSVPublisher( "localhost", "default", "user", "password", "d2ac4f70-61a7-5a0d-6593-100a6fc761a2",
+						file.getPath(), 1, 0, "yyyy-MM-dd:HH:mm:ss" );
+		publisher.addToSubscription( "135087D35", DATASET_UUID );
+		publisher.addToDataFieldMapping( "bidPrice", 6 );
+		publisher.addToDataFieldMapping( "askPrice", 7 );
+		publisher.addToDataFieldMapping( "bidYield", 8 );
+		publisher.addToDataFieldMapping( "askYield", 9 );
+		return publisher;
+	}
+
+	private void write( String aContent ) throws Exception
+	{
+		FileOutputStream out = new FileOutputStream( file );
+		out.write( aContent.getBytes( StandardCharsets.ISO_8859_1 ) );
+		out.close();
+	}
+}
@@ -0,0 +1,343 @@
+package smash.metatrader;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.StringTokenizer;
+import java.util.TimeZone;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for MetaTraderQuoteParser
+ */
+public class MetaTraderQuoteParserTest
+    extends TestCase
+{
+	private static final String DATASET_UUID = "d027ed21-f07b-11e6-a62e-0a5c8256a8bc";
+	private static final String TYPE_ID = "bdd2b349-574d-45a0-5dd2-af116e0c0dbf";
+	private static final long DAYLIGHT_SAVING_TIME_OFFSET = 10800000;
+	private static final long STANDARD_TIME_OFFSET = 7200000;
+	private static final String[] QUOTES = {
+		"2017/04/21 16:59:58 1.07282 1.07292",
+		"2017/04/21 16:59:58 1.07283 1.07292",
+		"2017/04/21 16:59:58 1.07283 1.07293",
+		"2017/04/21 16:59:59 111.532 111.548",
+		"2017/04/21 17:00:00 1284.50 1285.10",
+		"2017/04/21 17:00:00 0.99990 1.00010",
+		"2017/04/21 17:00:00 1.2 1.23450",
+		"2017/04/21 17:00:00 1.23450 1.2",
+		"2017/04/21 17:00:00 1.07292 1.07282",
+		"2017/04/21 17:00:00 1.07292 1.07292",
+		"2017/04/21 17:00:01  0.71503   0.71520",
+		"2017/12/31 23:59:59 95 96",
+		"2018/01/01 00:00:00 0.00001 0.00100",
+		"2017/03/12 02:30:00 1.06512 1.06530",
+		"2017/11/05 01:30:00 1.16512 1.16530",
+		// signs and decimal points as accepted by BigDecimal, copied as in the quote
+		"2017/11/05 01:30:01 +1.0 1.",
+		"2017/11/05 01:30:01 .5 -0.0",
+		"2017/11/05 01:30:01 -0.0 +.25",
+		// largest precision once both prices are scaled to the same number of digits
+		"2017/11/05 01:30:02 12345678901234567.8 1.0",
+		"2017/11/05 01:30:02 0.12345678901234567 0.12345678901234568"
+	};
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName name of the test case
+	 */
+	public MetaTraderQuoteParserTest( String testName )
+	{
+		super( testName );
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite()
+	{
+		return new TestSuite( MetaTraderQuoteParserTest.class );
+	}
+
+	/**
+	 * parsed fields
+	 */
+	public void testParseFields() throws ParseException
+	{
+		MetaTraderQuoteParser parser = new MetaTraderQuoteParser();
+		parser.parse( "2017/04/21 16:59:58 111.532 111.548" );
+		assertEquals( 2017, parser.getYear() );
+		assertEquals( 4, parser.getMonth() );
+		assertEquals( 21, parser.getDay() );
+		assertEquals( 16, parser.getHour() );
+		assertEquals( 59, parser.getMinute() );
+		assertEquals( 58, parser.getSecond() );
+		assertEquals( 111532L, parser.getBidPrice() );
+		assertEquals( 3, parser.getBidDigits() );
+		assertEquals( 111548L, parser.getAskPrice() );
+		assertEquals( 3, parser.getAskDigits() );
+	}
+
+	/**
+	 * server time must match SimpleDateFormat in UTC, also across years and month ends
+	 */
+	public void testServerTime() throws ParseException
+	{
+		MetaTraderQuoteParser parser = new MetaTraderQuoteParser();
+		SimpleDateFormat dateFormat = new SimpleDateFormat( "yyyy/MM/dd HH:mm:ss" );
+		dateFormat.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+		String[] times = { "1970/01/01 00:00:00", "2016/02/29 23:59:59", "2016/12/31 23:59:59", "2017/01/01 00:00:00", "2017/03/12 02:30:00", "2100/03/01 12:00:00" };
+		for( String time: times )
+		{
+			parser.parse( time + " 1.07282 1.07292" );
+			assertEquals( time, dateFormat.parse( time ).getTime(), parser.getServerTime() );
+		}
+		for( String quote: QUOTES )
+		{
+			parser.parse( quote );
+			assertEquals( quote, dateFormat.parse( quote.substring( 0, 19 ) ).getTime(), parser.getServerTime() );
+		}
+	}
+
+	/**
+	 * spread must match BigDecimal
+	 */
+	public void testSpread() throws ParseException
+	{
+		MetaTraderQuoteParser parser = new MetaTraderQuoteParser();
+		for( String quote: QUOTES )
+		{
+			parser.parse( quote );
+			StringTokenizer tokenizer = new StringTokenizer( quote, " " );
+			tokenizer.nextToken();
+			tokenizer.nextToken();
+			BigDecimal bid = new BigDecimal( tokenizer.nextToken() );
+			BigDecimal ask = new BigDecimal( tokenizer.nextToken() );
+			StringBuilder builder = new StringBuilder();
+			parser.appendSpread( builder );
+			assertEquals( quote, ask.subtract( bid ).toPlainString(), builder.toString() );
+		}
+	}
+
+	/**
+	 * malformed quotes are rejected
+	 */
+	public void testMalformed()
+	{
+		MetaTraderQuoteParser parser = new MetaTraderQuoteParser();
+		String[] malformed = { "", "2017/04/21", "2017/04/21 16:59:58 1.07282", "2017-04-21 16:59:58 1.07282 1.07292",
+				"2017/04/21 16:59:58 1.07x82 1.07292", "2017/04/21 16:59:58 1.0.7 1.07292",
+				// the spread would overflow a scaled long
+				"2017/04/21 16:59:58 123456789012345678 1.5", "2017/04/21 16:59:58 1.5 999999999999999999" };
+		for( String quote: malformed )
+		{
+			try
+			{
+				parser.parse( quote );
+				fail( "Expected ParseException for " + quote );
+			}
+			catch( ParseException e )
+			{}
+		}
+	}
+
+	/**
+	 * JSON must be byte identical to the StringTokenizer/SimpleDateFormat/BigDecimal implementation
+	 */
+	public void testJSONIdenticalToLegacy() throws ParseException
+	{
+		SmashMetaTraderPublisher publisher = new SmashMetaTraderPublisher( "localhost", "default", "user", "password", TYPE_ID );
+		assertJSONIdenticalToLegacy( publisher, publisher.createTimeConverter(), new LegacyConverter( "UTC", 0, 0 ) );
+	}
+
+	/**
+	 * with server offsets configured, JSON must be byte identical to the original implementation on a
+	 * host in any zone, the converter offsets are the server offsets from the host zone instead of UTC
+	 */
+	public void testJSONIdenticalToLegacyWithOffsets() throws ParseException
+	{
+		SmashMetaTraderPublisher publisher = new SmashMetaTraderPublisher( "localhost", "default", "user", "password", TYPE_ID );
+		ZoneId newYork = ZoneId.of( "America/New_York" );
+		// host zone, its offset from UTC in millisecond
+		String[] hostZones = { "UTC", "GMT+02:00", "GMT-05:00" };
+		long[] hostOffsets = { 0, 7200000, -18000000 };
+		for( int i = 0; i < hostZones.length; i++ )
+		{
+			QuoteTimeConverter converter = new QuoteTimeConverter( newYork, DAYLIGHT_SAVING_TIME_OFFSET + hostOffsets[i], STANDARD_TIME_OFFSET + hostOffsets[i] );
+			assertJSONIdenticalToLegacy( publisher, converter, new LegacyConverter( hostZones[i], DAYLIGHT_SAVING_TIME_OFFSET, STANDARD_TIME_OFFSET ) );
+		}
+	}
+
+	private void assertJSONIdenticalToLegacy( SmashMetaTraderPublisher aPublisher, QuoteTimeConverter aConverter, LegacyConverter aLegacy ) throws ParseException
+	{
+		MetaTraderQuoteParser parser = new MetaTraderQuoteParser();
+		QuoteTimestampState state = new QuoteTimestampState();
+		QuoteJSONEncoder encoder = new QuoteJSONEncoder( DATASET_UUID, TYPE_ID );
+		StringBuilder buffer = new StringBuilder();
+		long receivedTime = 1492793998000L;
+		for( int i = 0; i < QUOTES.length * 3; i++ )
+		{
+			String quote = QUOTES[i % QUOTES.length];
+			receivedTime += i % 4;
+			QueuedData data = new QueuedData( receivedTime, "EURUSD", quote );
+			assertEquals( quote, aLegacy.toJSON( DATASET_UUID, receivedTime, quote ), aPublisher.toJSON( encoder, data, parser, aConverter, state, buffer ) );
+		}
+	}
+
+	/**
+	 * parsing and rendering of a quote should not allocate
+	 */
+	public void testParseDoesNotAllocate() throws ParseException
+	{
+		if ( !( ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean ) )
+		{
+			return;
+		}
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		MetaTraderQuoteParser parser = new MetaTraderQuoteParser();
+		StringBuilder builder = new StringBuilder( 256 );
+		long threadId = Thread.currentThread().getId();
+		parseAll( parser, builder, 1000 );
+		long before = threadBean.getThreadAllocatedBytes( threadId );
+		parseAll( parser, builder, 100000 );
+		long allocated = threadBean.getThreadAllocatedBytes( threadId ) - before;
+		assertTrue( "Allocated " + allocated + " bytes", allocated < 4096 );
+	}
+
+	/**
+	 * rendering JSON into the worker buffer allocates little more than the resulting String
+	 */
+	public void testJSONAllocation() throws ParseException
+	{
+		if ( !( ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean ) )
+		{
+			return;
+		}
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		SmashMetaTraderPublisher publisher = new SmashMetaTraderPublisher( "localhost", "default", "user", "password", TYPE_ID );
+		MetaTraderQuoteParser parser = new MetaTraderQuoteParser();
+		QuoteTimestampState state = new QuoteTimestampState();
+		QuoteJSONEncoder encoder = new QuoteJSONEncoder( DATASET_UUID, TYPE_ID );
+		QuoteTimeConverter converter = publisher.createTimeConverter();
+		StringBuilder buffer = new StringBuilder();
+		QueuedData[] quotes = new QueuedData[QUOTES.length];
+		for( int i = 0; i < quotes.length; i++ )
+		{
+			quotes[i] = new QueuedData( 1492793998000L + i, "EURUSD", QUOTES[i] );
+		}
+		long threadId = Thread.currentThread().getId();
+		int length = 0;
+		for( int i = 0; i < 1000; i++ )
+		{
+			length = publisher.toJSON( encoder, quotes[i % quotes.length], parser, converter, state, buffer ).length();
+		}
+		long before = threadBean.getThreadAllocatedBytes( threadId );
+		for( int i = 0; i < 100000; i++ )
+		{
+			publisher.toJSON( encoder, quotes[i % quotes.length], parser, converter, state, buffer );
+		}
+		long allocated = ( threadBean.getThreadAllocatedBytes( threadId ) - before ) / 100000;
+		assertTrue( "Allocated " + allocated + " bytes per quote", allocated < 2 * length + 128 );
+	}
+
+	private void parseAll( MetaTraderQuoteParser aParser, StringBuilder aBuilder, int aCount ) throws ParseException
+	{
+		for( int i = 0; i < aCount; i++ )
+		{
+			aParser.parse( QUOTES[i % QUOTES.length] );
+			aBuilder.setLength( 0 );
+			aBuilder.append( aParser.getServerTime() );
+			aParser.appendBidPrice( aBuilder );
+			aParser.appendAskPrice( aBuilder );
+			aParser.appendSpread( aBuilder );
+		}
+	}
+
+	/**
+	 * copy of the original toJSON implementation used as reference. Server time is read in the host
+	 * zone and the offset is picked from daylight saving time in New York when the quote arrived,
+	 * the original looked it up at the wall-clock time of a quote published in real time.
+	 */
+	private static class LegacyConverter
+	{
+		private final SimpleDateFormat dateFormat = new SimpleDateFormat( "yyyy/MM/dd HH:mm:ss" );
+		private final TimeZone newYorkTimeZone = TimeZone.getTimeZone( "America/New_York" );
+		private final long daylightSavingTimeOffset;
+		private final long standardTimeOffset;
+
+		/**
+		 * @param aHostZone default time zone of the host
+		 * @param aDaylightSavingTimeOffset configured server offset during daylight saving time
+		 * @param aStandardTimeOffset configured server offset otherwise
+		 */
+		private LegacyConverter( String aHostZone, long aDaylightSavingTimeOffset, long aStandardTimeOffset )
+		{
+			dateFormat.setTimeZone( TimeZone.getTimeZone( aHostZone ) );
+			daylightSavingTimeOffset = aDaylightSavingTimeOffset;
+			standardTimeOffset = aStandardTimeOffset;
+		}
+		private long lastQuoteTimestamp = -1;
+		private long lastQuoteReceivedTime = -1;
+		private long lastQuoteReceivedTimeIncrements = 0;
+
+		private String toJSON( String aDatasetId, long aReceivedTime, String aData ) throws ParseException
+		{
+			StringBuilder builder = new StringBuilder();
+			builder.append( "{ \"dataset\": \"" );
+			builder.append( aDatasetId );
+			builder.append( "\", \"typeId\": \"" );
+			builder.append( TYPE_ID );
+			builder.append( "\", \"timestamp\": " );
+			StringTokenizer dataTokenizer = new StringTokenizer( aData, " " );
+			String dateTimeText = dataTokenizer.nextToken() + " " + dataTokenizer.nextToken();
+			long quoteTimeWithSecondPrecision = dateFormat.parse( dateTimeText ).getTime();
+			if ( newYorkTimeZone.inDaylightTime( new Date( quoteTimeWithSecondPrecision - standardTimeOffset ) ) )
+			{
+				quoteTimeWithSecondPrecision = quoteTimeWithSecondPrecision - daylightSavingTimeOffset;
+			}
+			else
+			{
+				quoteTimeWithSecondPrecision = quoteTimeWithSecondPrecision - standardTimeOffset;
+			}
+			long quoteTimeWithMillisecondPrecision = quoteTimeWithSecondPrecision;
+			if ( quoteTimeWithSecondPrecision != lastQuoteTimestamp )
+			{
+				lastQuoteTimestamp = quoteTimeWithSecondPrecision;
+				lastQuoteReceivedTime = aReceivedTime;
+				lastQuoteReceivedTimeIncrements = 0;
+			}
+			else
+			{
+				lastQuoteReceivedTimeIncrements++;
+				long timeDifference = Math.abs( aReceivedTime - lastQuoteReceivedTime )  + lastQuoteReceivedTimeIncrements;
+				if ( timeDifference > 999 )
+				{
+					timeDifference = 999;
+				}
+				quoteTimeWithMillisecondPrecision = quoteTimeWithSecondPrecision + timeDifference;
+			}
+			builder.append( quoteTimeWithMillisecondPrecision );
+			String bidPriceText = dataTokenizer.nextToken();
+			String askPriceText = dataTokenizer.nextToken();
+			BigDecimal bidPrice = new BigDecimal( bidPriceText );
+			BigDecimal askPrice = new BigDecimal( askPriceText );
+			builder.append( ", \"bidPrice\": " );
+			builder.append( bidPriceText );
+			builder.append( ", \"askPrice\": " );
+			builder.append( askPriceText );
+			builder.append( ", \"spread\": " );
+			builder.append( askPrice.subtract( bidPrice ).toPlainString() );
+			builder.append( ", \"quoteTime\": " );
+			builder.append( quoteTimeWithSecondPrecision );
+			builder.append( "}" );
+			return builder.toString();
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package smash.metatrader;
+
+import java.util.ArrayList;
+
+import smash.api.DataCallback;
+import smash.api.SessionEventCallback;
+import smash.api.exception.RequestProcessingException;
+
+import junit.framework.TestCase;
+
+/**
+ * Test PublishBatcher
+ */
+public class PublishBatcherTest extends TestCase
+{
+	private static final long HOUR_MILLIS = 3600000;
+	private final RecordingSink sink = new RecordingSink();
+
+	/**
+	 * without linger every quote is published on its own
+	 */
+	public void testNoLinger() throws Exception
+	{
+		PublishBatcher batcher = new PublishBatcher( sink, 100, 65536, 0 );
+		batcher.add( "a", "{ \"q\": 1 }", 1 );
+		batcher.add( "a", "{ \"q\": 2 }", 2 );
+		assertEquals( "[a { \"q\": 1 }, a { \"q\": 2 }]", sink.published.toString() );
+		assertEquals( 2, batcher.getPublishedSequence() );
+		assertEquals( Long.MAX_VALUE, batcher.getNanosToNextDeadline() );
+	}
+
+	public void testCountFlush() throws Exception
+	{
+		PublishBatcher batcher = new PublishBatcher( sink, 3, 65536, HOUR_MILLIS );
+		batcher.add( "a", "{ \"q\": 1 }", 1 );
+		batcher.add( "a", "{ \"q\": 2 }", 2 );
+		assertTrue( sink.published.isEmpty() );
+		batcher.add( "a", "{ \"q\": 3 }", 3 );
+		assertEquals( "[a { \"dataset\": \"a\", \"batch\": [ { \"q\": 1 }, { \"q\": 2 }, { \"q\": 3 } ] }]", sink.published.toString() );
+		assertEquals( "batches=1 quotes=3 bytes=67 countFlushes=1 byteFlushes=0 lingerFlushes=0", batcher.getMetrics().get( "a" ) );
+	}
+
+	/**
+	 * a batch is published before a quote would take it over the maximum size
+	 */
+	public void testByteFlush() throws Exception
+	{
+		// header of 29 characters, a quote of 10 and the closing of 4
+		PublishBatcher batcher = new PublishBatcher( sink, 100, 50, HOUR_MILLIS );
+		batcher.add( "d", "{ \"q\": 1 }", 1 );
+		assertTrue( sink.published.isEmpty() );
+		batcher.add( "d", "{ \"q\": 2 }", 2 );
+		assertEquals( "[d { \"dataset\": \"d\", \"batch\": [ { \"q\": 1 } ] }]", sink.published.toString() );
+		// a single quote beyond the maximum size is published at once
+		batcher.add( "e", "{ \"quote\": \"beyond the maximum size of a batch\" }", 3 );
+		assertEquals( 2, sink.published.size() );
+		assertEquals( "batches=1 quotes=1 bytes=43 countFlushes=0 byteFlushes=1 lingerFlushes=0", batcher.getMetrics().get( "d" ) );
+		assertEquals( 1, batcher.getPublishedSequence() );
+	}
+
+	public void testLingerFlush() throws Exception
+	{
+		PublishBatcher batcher = new PublishBatcher( sink, 100, 65536, 50 );
+		assertEquals( Long.MAX_VALUE, batcher.getNanosToNextDeadline() );
+		batcher.add( "a", "{ \"q\": 1 }", 1 );
+		batcher.flushExpired();
+		assertTrue( sink.published.isEmpty() );
+		long nanosToDeadline = batcher.getNanosToNextDeadline();
+		assertTrue( nanosToDeadline > 0 && nanosToDeadline <= 50000000L );
+		Thread.sleep( 60 );
+		assertEquals( 0, batcher.getNanosToNextDeadline() );
+		batcher.flushExpired();
+		assertEquals( 1, sink.published.size() );
+		assertEquals( Long.MAX_VALUE, batcher.getNanosToNextDeadline() );
+		assertEquals( "batches=1 quotes=1 bytes=43 countFlushes=0 byteFlushes=0 lingerFlushes=1", batcher.getMetrics().get( "a" ) );
+	}
+
+	/**
+	 * pending batches are published in the order of their first quote
+	 */
+	public void testFlushAll() throws Exception
+	{
+		PublishBatcher batcher = new PublishBatcher( sink, 100, 65536, HOUR_MILLIS );
+		batcher.add( "b", "{ \"q\": 1 }", 1 );
+		batcher.add( "a", "{ \"q\": 2 }", 2 );
+		batcher.add( "b", "{ \"q\": 3 }", 3 );
+		batcher.flushExpired();
+		assertTrue( sink.published.isEmpty() );
+		batcher.flushAll();
+		assertEquals( "[b { \"dataset\": \"b\", \"batch\": [ { \"q\": 1 }, { \"q\": 3 } ] }, a { \"dataset\": \"a\", \"batch\": [ { \"q\": 2 } ] }]",
+						sink.published.toString() );
+		batcher.flushAll();
+		assertEquals( 2, sink.published.size() );
+	}
+
+	/**
+	 * the watermark stays before the first quote of the oldest pending batch
+	 */
+	public void testPublishedSequence() throws Exception
+	{
+		PublishBatcher batcher = new PublishBatcher( sink, 2, 65536, HOUR_MILLIS );
+		assertEquals( 0, batcher.getPublishedSequence() );
+		batcher.add( "a", "{ \"q\": 1 }", 1 );
+		assertEquals( 0, batcher.getPublishedSequence() );
+		batcher.add( "b", "{ \"q\": 2 }", 2 );
+		batcher.add( "a", "{ \"q\": 3 }", 3 );
+		assertEquals( 1, sink.published.size() );
+		assertEquals( 1, batcher.getPublishedSequence() );
+		batcher.flushAll();
+		assertEquals( 3, batcher.getPublishedSequence() );
+		batcher.add( "a", "{ \"q\": 4 }", 4 );
+		batcher.discardAll();
+		assertEquals( 4, batcher.getPublishedSequence() );
+	}
+
+	/**
+	 * a batch whose publish failed keeps its quotes, including the quote that triggered the flush,
+	 * and holds the watermark until it is published
+	 */
+	public void testFailedFlush() throws Exception
+	{
+		PublishBatcher batcher = new PublishBatcher( sink, 2, 50, HOUR_MILLIS );
+		sink.failing = true;
+		batcher.add( "a", "{ \"q\": 1 }", 1 );
+		try
+		{
+			batcher.add( "a", "{ \"q\": 2 }", 2 );
+			fail();
+		}
+		catch( RequestProcessingException e )
+		{
+		}
+		try
+		{
+			// byte flush
+			batcher.add( "a", "{ \"q\": 3 }", 3 );
+			fail();
+		}
+		catch( RequestProcessingException e )
+		{
+		}
+		batcher.add( "b", "{ \"q\": 4 }", 4 );
+		assertEquals( 0, batcher.getPublishedSequence() );
+		try
+		{
+			batcher.flushAll();
+			fail();
+		}
+		catch( RequestProcessingException e )
+		{
+		}
+		// retried after another linger time
+		assertTrue( batcher.getNanosToNextDeadline() > 0 );
+		assertTrue( sink.published.isEmpty() );
+		sink.failing = false;
+		batcher.flushAll();
+		assertEquals( "[b { \"dataset\": \"b\", \"batch\": [ { \"q\": 4 } ] }, a { \"dataset\": \"a\", \"batch\": [ { \"q\": 1 }, { \"q\": 2 }, { \"q\": 3 } ] }]",
+						sink.published.toString() );
+		assertEquals( 4, batcher.getPublishedSequence() );
+	}
+
+	/**
+	 * sink recording the published payloads
+	 */
+	private static class RecordingSink implements PublishSink
+	{
+		private final ArrayList<String> published = new ArrayList<String>();
+		private boolean failing;
+
+		public void open( SessionEventCallback aCallback )
+		{
+		}
+
+		public void login( String aUserId, String aPassword, DataCallback aCallback )
+		{
+		}
+
+		public void publishDataRequest( String aDatasetUUID, DataCallback aCallback )
+		{
+		}
+
+		public void publishData( String aDatasetUUID, String aJSON ) throws RequestProcessingException
+		{
+			if ( failing )
+			{
+				throw new RequestProcessingException( "Publish failed" );
+			}
+			published.add( aDatasetUUID + " " + aJSON );
+		}
+
+		public void logout()
+		{
+		}
+	}
+}
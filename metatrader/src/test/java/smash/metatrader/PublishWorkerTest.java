@@ -0,0 +1,285 @@
+package smash.metatrader;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.management.JMX;
+import javax.management.ObjectName;
+
+import smash.api.exception.RequestProcessingException;
+
+import junit.framework.TestCase;
+
+/**
+ * Test partitioning of the symbols onto the publish workers
+ */
+public class PublishWorkerTest extends TestCase
+{
+	private static final String[] SYMBOLS = { "EURUSD", "USDJPY", "GBPUSD", "AUDUSD", "USDCHF", "USDCAD", "NZDUSD", "XAUUSD" };
+	private static final int WORKER_COUNT = 4;
+	private static final int TICKS_PER_SYMBOL = 5;
+	private static final Pattern TIMESTAMPS = Pattern.compile( "\"timestamp\": (\\d+).*\"quoteTime\": (\\d+)" );
+
+	/**
+	 * a symbol maps to the same worker whatever the symbols seen before
+	 */
+	public void testWorkerOf()
+	{
+		HashSet<Integer> workers = new HashSet<Integer>();
+		for( String symbol: SYMBOLS )
+		{
+			int worker = SmashMetaTraderPublisher.workerOf( symbol, WORKER_COUNT );
+			assertTrue( worker >= 0 && worker < WORKER_COUNT );
+			assertEquals( worker, SmashMetaTraderPublisher.workerOf( new String( symbol ), WORKER_COUNT ) );
+			assertEquals( 0, SmashMetaTraderPublisher.workerOf( symbol, 1 ) );
+			workers.add( Integer.valueOf( worker ) );
+		}
+		assertTrue( workers.size() > 1 );
+	}
+
+	/**
+	 * every quote of a symbol is published by its worker, and quotes of different symbols in the same
+	 * second, on the same or another worker, do not move the millisecond portion of each other
+	 */
+	public void testTimestampStateBySymbol() throws Exception
+	{
+		RecordingSink sink = new RecordingSink();
+		SmashMetaTraderPublisher publisher = createPublisher( sink );
+		publisher.setPublishWorkerCount( WORKER_COUNT );
+		ManualQuoteSource source = new ManualQuoteSource();
+		publisher.setQuoteSource( source );
+		for( String symbol: SYMBOLS )
+		{
+			publisher.addToSubscription( symbol, "dataset-" + symbol );
+		}
+		publisher.initialize();
+		try
+		{
+			awaitLive( publisher, SYMBOLS.length );
+			for( int i = 0; i < TICKS_PER_SYMBOL; i++ )
+			{
+				for( String symbol: SYMBOLS )
+				{
+					source.quote( symbol, "2024/01/02 10:00:00 1.1050" + i + " 1.1052" + i );
+				}
+			}
+			for( int i = 0; i < 500 && sink.getPublishedCount() < SYMBOLS.length * TICKS_PER_SYMBOL; i++ )
+			{
+				Thread.sleep( 10 );
+			}
+		}
+		finally
+		{
+			publisher.dispose();
+		}
+		for( String symbol: SYMBOLS )
+		{
+			ArrayList<String[]> records = sink.getRecords( "dataset-" + symbol );
+			assertEquals( TICKS_PER_SYMBOL, records.size() );
+			long previous = -1;
+			for( int i = 0; i < records.size(); i++ )
+			{
+				assertEquals( "PublishToSmashTask-" + SmashMetaTraderPublisher.workerOf( symbol, WORKER_COUNT ), records.get( i )[0] );
+				Matcher matcher = TIMESTAMPS.matcher( records.get( i )[1] );
+				assertTrue( matcher.find() );
+				long timestamp = Long.parseLong( matcher.group( 1 ) );
+				long quoteTime = Long.parseLong( matcher.group( 2 ) );
+				if ( i == 0 )
+				{
+					// first quote of the second starts at 0 millisecond
+					assertEquals( quoteTime, timestamp );
+				}
+				else
+				{
+					assertTrue( timestamp > previous );
+					assertTrue( timestamp - quoteTime <= 999 );
+				}
+				previous = timestamp;
+			}
+		}
+	}
+
+	/**
+	 * a batch still lingering on dispose is published before the sink is logged out
+	 */
+	public void testDisposeFlushesBatch() throws Exception
+	{
+		RecordingSink sink = new RecordingSink();
+		SmashMetaTraderPublisher publisher = createPublisher( sink );
+		publisher.setBatching( 100, 65536, 3600000, 0 );
+		ManualQuoteSource source = new ManualQuoteSource();
+		publisher.setQuoteSource( source );
+		publisher.addToSubscription( "EURUSD", "dataset-EURUSD" );
+		publisher.initialize();
+		try
+		{
+			awaitLive( publisher, 1 );
+			for( int i = 0; i < 3; i++ )
+			{
+				source.quote( "EURUSD", "2024/01/02 10:00:0" + i + " 1.1050" + i + " 1.1052" + i );
+			}
+			for( int i = 0; i < 500 && publisher.getMetrics().getPublishedCount() < 3; i++ )
+			{
+				Thread.sleep( 10 );
+			}
+			// handed to the batcher, lingering for an hour
+			assertEquals( 3, publisher.getMetrics().getPublishedCount() );
+			assertEquals( 0, sink.getPublishedCount() );
+		}
+		finally
+		{
+			publisher.dispose();
+		}
+		assertEquals( 1, sink.publishedAtLogout );
+		ArrayList<String[]> records = sink.getRecords( "dataset-EURUSD" );
+		assertEquals( 1, records.size() );
+		assertTrue( records.get( 0 )[1].startsWith( "{ \"dataset\": \"dataset-EURUSD\", \"batch\": [ " ) );
+		assertTrue( records.get( 0 )[1].indexOf( "\"askPrice\": 1.10522" ) > 0 );
+	}
+
+	/**
+	 * a quote held by the rate limit on dispose is published before the sink is logged out
+	 */
+	public void testDisposePublishesHeld() throws Exception
+	{
+		RecordingSink sink = new RecordingSink();
+		SmashMetaTraderPublisher publisher = createPublisher( sink );
+		publisher.setQuoteFilter( false, 0, 0.01, 1 );
+		ManualQuoteSource source = new ManualQuoteSource();
+		publisher.setQuoteSource( source );
+		publisher.addToSubscription( "EURUSD", "dataset-EURUSD" );
+		publisher.initialize();
+		try
+		{
+			awaitLive( publisher, 1 );
+			// the first quote is published, the second held and replaced by the third
+			for( int i = 0; i < 3; i++ )
+			{
+				source.quote( "EURUSD", "2024/01/02 10:00:0" + i + " 1.1050" + i + " 1.1052" + i );
+			}
+			for( int i = 0; i < 500 && !Long.valueOf( 1 ).equals( publisher.getMetrics().getRateLimitedBySymbol().get( "EURUSD" ) ); i++ )
+			{
+				Thread.sleep( 10 );
+			}
+			assertEquals( Long.valueOf( 1 ), publisher.getMetrics().getRateLimitedBySymbol().get( "EURUSD" ) );
+			assertEquals( 1, sink.getPublishedCount() );
+		}
+		finally
+		{
+			publisher.dispose();
+		}
+		assertEquals( 2, sink.publishedAtLogout );
+		ArrayList<String[]> records = sink.getRecords( "dataset-EURUSD" );
+		assertEquals( 2, records.size() );
+		assertTrue( records.get( 1 )[1].indexOf( "\"askPrice\": 1.10522" ) > 0 );
+	}
+
+	/**
+	 * the subscription admin is registered without the metrics MBean and subscribes a symbol
+	 * while the others keep publishing
+	 */
+	public void testAdmin() throws Exception
+	{
+		RecordingSink sink = new RecordingSink();
+		SmashMetaTraderPublisher publisher = createPublisher( sink );
+		publisher.setAdmin( true );
+		ManualQuoteSource source = new ManualQuoteSource();
+		publisher.setQuoteSource( source );
+		publisher.addToSubscription( "EURUSD", "dataset-EURUSD" );
+		publisher.initialize();
+		ObjectName adminName = new ObjectName( SmashMetaTraderPublisher.ADMIN_OBJECT_NAME );
+		try
+		{
+			awaitLive( publisher, 1 );
+			assertFalse( ManagementFactory.getPlatformMBeanServer().isRegistered( new ObjectName( PublisherMetrics.OBJECT_NAME ) ) );
+			SubscriptionAdminMXBean admin = JMX.newMXBeanProxy( ManagementFactory.getPlatformMBeanServer(), adminName, SubscriptionAdminMXBean.class );
+			admin.addToSubscription( "USDJPY", "dataset-USDJPY" );
+			source.quote( "EURUSD", "2024/01/02 10:00:00 1.10500 1.10520" );
+			awaitLive( publisher, 2 );
+			source.quote( "USDJPY", "2024/01/02 10:00:00 111.532 111.541" );
+			assertEquals( "{EURUSD=dataset-EURUSD, USDJPY=dataset-USDJPY}", admin.getSubscriptions().toString() );
+			for( int i = 0; i < 500 && sink.getPublishedCount() < 2; i++ )
+			{
+				Thread.sleep( 10 );
+			}
+		}
+		finally
+		{
+			publisher.dispose();
+		}
+		assertFalse( ManagementFactory.getPlatformMBeanServer().isRegistered( adminName ) );
+		assertEquals( 1, sink.getRecords( "dataset-EURUSD" ).size() );
+		assertEquals( 1, sink.getRecords( "dataset-USDJPY" ).size() );
+	}
+
+	/**
+	 * @return publisher of the sink logging errors only
+	 */
+	static SmashMetaTraderPublisher createPublisher( PublishSink aSink )
+	{
+		SmashMetaTraderPublisher publisher = new SmashMetaTraderPublisher( "localhost", "default", "user", "password", "bdd2b349-574d-45a0-5dd2-af116e0c0dbf" );
+		publisher.setLogging( AsyncLogger.Level.ERROR, 1024, 1, 1 );
+		publisher.setPublishSink( aSink );
+		return publisher;
+	}
+
+	/**
+	 * wait until the datasets are granted and their quotes started
+	 */
+	static void awaitLive( SmashMetaTraderPublisher aPublisher, int aCount ) throws InterruptedException
+	{
+		for( int i = 0; i < 500 && aPublisher.getMetrics().getLiveSubscriptionCount() < aCount; i++ )
+		{
+			Thread.sleep( 10 );
+		}
+		assertEquals( aCount, aPublisher.getMetrics().getLiveSubscriptionCount() );
+	}
+
+	/**
+	 * simulated sink recording the publishing thread and JSON of every quote by dataset
+	 */
+	private static class RecordingSink extends SimulatedPublishSink
+	{
+		private final HashMap<String,ArrayList<String[]>> records = new HashMap<String,ArrayList<String[]>>();
+		private volatile long publishedAtLogout = -1;
+
+		private RecordingSink()
+		{
+			super( 1 );
+		}
+
+		public void publishData( String aDatasetUUID, String aJSON ) throws RequestProcessingException
+		{
+			synchronized( records )
+			{
+				ArrayList<String[]> datasetRecords = records.get( aDatasetUUID );
+				if ( datasetRecords == null )
+				{
+					datasetRecords = new ArrayList<String[]>();
+					records.put( aDatasetUUID, datasetRecords );
+				}
+				datasetRecords.add( new String[] { Thread.currentThread().getName(), aJSON } );
+			}
+			super.publishData( aDatasetUUID, aJSON );
+		}
+
+		public void logout()
+		{
+			publishedAtLogout = getPublishedCount();
+			super.logout();
+		}
+
+		private ArrayList<String[]> getRecords( String aDatasetUUID )
+		{
+			synchronized( records )
+			{
+				ArrayList<String[]> datasetRecords = records.get( aDatasetUUID );
+				return datasetRecords == null ? new ArrayList<String[]>() : datasetRecords;
+			}
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package smash.metatrader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for PublisherMetrics
+ */
+public class PublisherMetricsTest
+    extends TestCase
+{
+	/**
+	 * Create the test case
+	 *
+	 * @param testName name of the test case
+	 */
+	public PublisherMetricsTest( String testName )
+	{
+		super( testName );
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite()
+	{
+		return new TestSuite( PublisherMetricsTest.class );
+	}
+
+	/**
+	 * percentiles and rates cover the last completed window
+	 */
+	public void testWindow()
+	{
+		PublisherMetrics metrics = new PublisherMetrics( 1000 );
+		metrics.record( PublisherMetrics.Stage.END_TO_END, 2000000 );
+		metrics.recordTick( 0, "EURUSD" );
+		metrics.recordTick( 0, "EURUSD" );
+		assertEquals( 0, metrics.getLatency( PublisherMetrics.Stage.END_TO_END ).getCount() );
+		metrics.run();
+		assertEquals( 1, metrics.getLatency( PublisherMetrics.Stage.END_TO_END ).getCount() );
+		assertEquals( Long.valueOf( 2000 ), metrics.getLatencyMicros().get( "endToEnd.p99" ) );
+		assertEquals( Double.valueOf( 2.0 ), metrics.getTicksPerSecondBySymbol().get( "EURUSD" ) );
+		metrics.run();
+		assertEquals( 0, metrics.getLatency( PublisherMetrics.Stage.END_TO_END ).getCount() );
+		assertEquals( Double.valueOf( 0.0 ), metrics.getTicksPerSecondBySymbol().get( "EURUSD" ) );
+		assertEquals( Long.valueOf( 2 ), metrics.getTicksBySymbol().get( "EURUSD" ) );
+	}
+
+	/**
+	 * counts and sums since start add up the windows, whatever the window recorded into
+	 */
+	public void testTotalsAcrossWindows()
+	{
+		PublisherMetrics metrics = new PublisherMetrics( 1000 );
+		for( int window = 0; window < 4; window++ )
+		{
+			for( int i = 0; i <= window; i++ )
+			{
+				metrics.record( PublisherMetrics.Stage.PUBLISH, 1000 );
+			}
+			metrics.run();
+		}
+		metrics.record( PublisherMetrics.Stage.PUBLISH, 1000 );
+		assertEquals( 11, metrics.getPublishedCount() );
+		assertEquals( 4, metrics.getLatency( PublisherMetrics.Stage.PUBLISH ).getCount() );
+		StringBuilder builder = new StringBuilder();
+		metrics.writePrometheus( builder );
+		assertTrue( builder.indexOf( "smash_metatrader_latency_seconds_count{stage=\"publish\"} 11\n" ) >= 0 );
+		assertTrue( builder.indexOf( "smash_metatrader_latency_seconds_sum{stage=\"publish\"} 1.1E-5\n" ) >= 0 );
+	}
+
+	/**
+	 * conflated and dropped quotes of the worker queues are counted next to the queue depth
+	 */
+	public void testQueueLosses()
+	{
+		PublisherMetrics metrics = new PublisherMetrics( 1000 );
+		ConflatingQuoteQueue conflating = new ConflatingQuoteQueue();
+		RingBufferQuoteQueue ringBuffer = new RingBufferQuoteQueue( 4, new BlockingWaitStrategy(), OverflowPolicy.DROP_NEWEST );
+		for( int i = 0; i < 6; i++ )
+		{
+			conflating.offer( i, i, i, i % 2, i % 2 == 0 ? "EURUSD" : "GBPUSD", "data" );
+			ringBuffer.offer( i, i, i, 0, "EURUSD", "data" );
+		}
+		metrics.setQueues( new QuoteQueue[] { new FifoQuoteQueue(), conflating, ringBuffer } );
+		assertEquals( 4, metrics.getConflatedCount() );
+		assertEquals( 2, metrics.getDroppedCount() );
+		StringBuilder builder = new StringBuilder();
+		metrics.writePrometheus( builder );
+		assertTrue( builder.toString(), builder.indexOf( "smash_metatrader_conflated_total{worker=\"1\"} 4\n" ) >= 0 );
+		assertTrue( builder.toString(), builder.indexOf( "smash_metatrader_dropped_total{worker=\"2\"} 2\n" ) >= 0 );
+		assertTrue( builder.toString(), builder.indexOf( "smash_metatrader_conflated_total{worker=\"0\"}" ) < 0 );
+	}
+
+	/**
+	 * metrics are served in the Prometheus text format
+	 */
+	public void testScrape() throws Exception
+	{
+		PublisherMetrics metrics = new PublisherMetrics( 1000 );
+		FifoQuoteQueue queue = new FifoQuoteQueue();
+		queue.offer( 0, 0, 0, 1, "GBPUSD", "data" );
+		metrics.setQueues( new QuoteQueue[] { queue } );
+		metrics.record( PublisherMetrics.Stage.PUBLISH, 1500 );
+		metrics.recordTick( 1, "GBPUSD" );
+		metrics.recordPublishError();
+		metrics.run();
+		MetricsHttpServer server = new MetricsHttpServer( metrics, "localhost", 0 );
+		server.start();
+		try
+		{
+			HttpURLConnection connection = (HttpURLConnection)new URL( "http://localhost:" + server.getPort() + MetricsHttpServer.PATH ).openConnection();
+			assertEquals( 200, connection.getResponseCode() );
+			assertTrue( connection.getContentType().startsWith( "text/plain" ) );
+			InputStream in = connection.getInputStream();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while( ( read = in.read( buffer ) ) > 0 )
+			{
+				out.write( buffer, 0, read );
+			}
+			in.close();
+			String body = out.toString( "UTF-8" );
+			assertTrue( body, body.contains( "smash_metatrader_latency_seconds{stage=\"publish\",quantile=\"0.99\"} 1.5E-6\n" ) );
+			assertTrue( body, body.contains( "smash_metatrader_latency_seconds_count{stage=\"publish\"} 1\n" ) );
+			assertTrue( body, body.contains( "smash_metatrader_queue_depth{worker=\"0\"} 1\n" ) );
+			assertTrue( body, body.contains( "smash_metatrader_ticks_total{symbol=\"GBPUSD\"} 1\n" ) );
+			assertTrue( body, body.contains( "smash_metatrader_publish_errors_total 1\n" ) );
+		}
+		finally
+		{
+			server.stop();
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package smash.metatrader;
+
+import java.text.ParseException;
+
+import junit.framework.TestCase;
+
+/**
+ * Test QuoteFilter
+ */
+public class QuoteFilterTest extends TestCase
+{
+	private static final long SECOND = 1000000000L;
+	private final MetaTraderQuoteParser parser = new MetaTraderQuoteParser();
+	private final PublisherMetrics metrics = new PublisherMetrics( 1000 );
+	private long sequence;
+
+	public void testDuplicates() throws ParseException
+	{
+		QuoteFilter filter = new QuoteFilter( true, 0, 0, 1, metrics );
+		assertEquals( QuoteFilter.Decision.PUBLISH, accept( filter, "1.07282 1.07292", 0 ) );
+		assertEquals( QuoteFilter.Decision.DROP, accept( filter, "1.07282 1.07292", 1 ) );
+		// same price with another number of digits is a different quote
+		assertEquals( QuoteFilter.Decision.PUBLISH, accept( filter, "1.072820 1.07292", 2 ) );
+		assertEquals( QuoteFilter.Decision.PUBLISH, accept( filter, "1.07283 1.07292", 3 ) );
+		assertEquals( QuoteFilter.Decision.DROP, accept( filter, "1.07283 1.07292", 4 ) );
+		assertEquals( Long.valueOf( 2 ), metrics.getDuplicatesBySymbol().get( "EURUSD" ) );
+	}
+
+	public void testHeartbeat() throws ParseException
+	{
+		QuoteFilter filter = new QuoteFilter( true, 1000, 0, 1, metrics );
+		assertEquals( QuoteFilter.Decision.PUBLISH, accept( filter, "1.07282 1.07292", 0 ) );
+		assertEquals( QuoteFilter.Decision.DROP, accept( filter, "1.07282 1.07292", SECOND / 2 ) );
+		assertEquals( QuoteFilter.Decision.PUBLISH, accept( filter, "1.07282 1.07292", SECOND ) );
+		assertEquals( QuoteFilter.Decision.DROP, accept( filter, "1.07282 1.07292", SECOND + 1 ) );
+	}
+
+	/**
+	 * quotes over the rate are replaced by newer ones and the latest is published once the bucket refills
+	 */
+	public void testRateLimit() throws ParseException
+	{
+		QuoteFilter filter = new QuoteFilter( false, 0, 2, 1, metrics );
+		assertEquals( QuoteFilter.Decision.PUBLISH, accept( filter, "1.07282 1.07292", 0 ) );
+		assertEquals( QuoteFilter.Decision.HOLD, accept( filter, "1.07283 1.07292", 1 ) );
+		assertEquals( QuoteFilter.Decision.HOLD, accept( filter, "1.07284 1.07292", 2 ) );
+		// the replaced quote is never published, the journal only needs the latest
+		assertEquals( 3, filter.getOldestHeldSequence() );
+		assertEquals( SECOND / 2 - 2, filter.getNanosToNextHeld( 2 ) );
+		assertNull( filter.pollHeld( SECOND / 4, false ) );
+		QueuedData held = filter.pollHeld( SECOND / 2, false );
+		assertEquals( "2017/04/21 16:59:58 1.07284 1.07292", held.data );
+		assertEquals( 3, held.sequence );
+		assertNull( filter.pollHeld( SECOND / 2, false ) );
+		assertEquals( Long.MAX_VALUE, filter.getOldestHeldSequence() );
+		assertEquals( Long.valueOf( 1 ), metrics.getRateLimitedBySymbol().get( "EURUSD" ) );
+		// the bucket refilled, a new quote is published and no quote is held
+		assertEquals( QuoteFilter.Decision.PUBLISH, accept( filter, "1.07285 1.07292", SECOND ) );
+		assertEquals( Long.MAX_VALUE, filter.getNanosToNextHeld( SECOND ) );
+	}
+
+	/**
+	 * a held quote is stale once the last published prices are quoted again
+	 */
+	public void testDuplicateReleasesHeld() throws ParseException
+	{
+		QuoteFilter filter = new QuoteFilter( true, 0, 1, 1, metrics );
+		assertEquals( QuoteFilter.Decision.PUBLISH, accept( filter, "1.07282 1.07292", 0 ) );
+		assertEquals( QuoteFilter.Decision.HOLD, accept( filter, "1.07283 1.07292", 1 ) );
+		assertEquals( QuoteFilter.Decision.DROP, accept( filter, "1.07282 1.07292", 2 ) );
+		assertNull( filter.pollHeld( SECOND * 2, false ) );
+		assertEquals( QuoteFilter.Decision.HOLD, accept( filter, "1.07283 1.07292", 3 ) );
+		filter.discardHeld();
+		assertNull( filter.pollHeld( SECOND * 2, true ) );
+	}
+
+	private QuoteFilter.Decision accept( QuoteFilter aFilter, String aPrices, long aNowNanos ) throws ParseException
+	{
+		QueuedData data = new QueuedData();
+		data.set( 0, aNowNanos, ++sequence, 0, "EURUSD", "2017/04/21 16:59:58 " + aPrices );
+		parser.parse( data.data );
+		return aFilter.accept( data, parser, aNowNanos );
+	}
+}
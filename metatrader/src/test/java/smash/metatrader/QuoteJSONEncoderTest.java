@@ -0,0 +1,107 @@
+package smash.metatrader;
+
+import java.math.BigDecimal;
+
+import junit.framework.TestCase;
+
+/**
+ * Test QuoteJSONEncoder renders the same bytes as the StringBuilder/BigDecimal implementation it replaced
+ */
+public class QuoteJSONEncoderTest extends TestCase
+{
+	private static final String DATASET_UUID = "d027ed21-f07b-11e6-a62e-0a5c8256a8bc";
+	private static final String TYPE_ID = "bdd2b349-574d-45a0-5dd2-af116e0c0dbf";
+	private static final String[][] PRICES = {
+		// digit counts
+		{ "95", "96" },
+		{ "1.2", "1.3" },
+		{ "1284.50", "1285.10" },
+		{ "111.532", "111.548" },
+		{ "0.7150", "0.7152" },
+		{ "1.07282", "1.07292" },
+		{ "0.000001", "0.000010" },
+		{ "12.12345678", "12.12345679" },
+		// mixed digit counts
+		{ "1.2", "1.23450" },
+		{ "1.23450", "1.2" },
+		{ "95", "95.001" },
+		// negative spread and negative prices
+		{ "1.07292", "1.07282" },
+		{ "-1.07282", "1.07292" },
+		{ "-0.5", "-0.25" },
+		{ "-95", "-96" },
+		// zero
+		{ "0", "0" },
+		{ "0.00000", "0.00000" },
+		{ "0", "0.00001" },
+		{ "0.00001", "0" },
+		{ "1.07282", "1.07282" }
+	};
+	private static final long[][] TIMESTAMPS = {
+		{ 1492793998000L, 1492793998000L },
+		{ 1492793998999L, 1492793998000L },
+		{ 0, 0 },
+		{ 7, 0 },
+		{ -1000, -1000 },
+		{ -999, -1000 }
+	};
+
+	public void testIdenticalToLegacy() throws Exception
+	{
+		QuoteJSONEncoder encoder = new QuoteJSONEncoder( DATASET_UUID, TYPE_ID );
+		MetaTraderQuoteParser parser = new MetaTraderQuoteParser();
+		StringBuilder buffer = new StringBuilder();
+		for( String[] prices: PRICES )
+		{
+			parser.parse( "2017/04/21 16:59:58 " + prices[0] + " " + prices[1] );
+			for( long[] timestamps: TIMESTAMPS )
+			{
+				assertEquals( prices[0] + " " + prices[1], toLegacyJSON( timestamps[0], timestamps[1], prices[0], prices[1] ),
+								encoder.encode( timestamps[0], timestamps[1], parser, buffer ) );
+			}
+		}
+		assertEquals( DATASET_UUID, encoder.getDatasetUUID() );
+	}
+
+	/**
+	 * a buffer reused across quotes holds only the last quote
+	 */
+	public void testBufferReused() throws Exception
+	{
+		QuoteJSONEncoder encoder = new QuoteJSONEncoder( DATASET_UUID, TYPE_ID );
+		MetaTraderQuoteParser parser = new MetaTraderQuoteParser();
+		StringBuilder buffer = new StringBuilder( "previous content" );
+		parser.parse( "2017/04/21 16:59:58 12.12345678 12.12345679" );
+		encoder.encode( 1, 1, parser, buffer );
+		parser.parse( "2017/04/21 16:59:58 95 96" );
+		String json = encoder.encode( 2, 2, parser, buffer );
+		assertEquals( toLegacyJSON( 2, 2, "95", "96" ), json );
+		assertEquals( json, buffer.toString() );
+	}
+
+	/**
+	 * rendering of the publisher before the encoder
+	 */
+	private static String toLegacyJSON( long aTimestamp, long aQuoteTime, String aBidPriceText, String anAskPriceText )
+	{
+		StringBuilder builder = new StringBuilder();
+		builder.append( "{ \"dataset\": \"" );
+		builder.append( DATASET_UUID );
+		builder.append( "\", \"typeId\": \"" );
+		builder.append( TYPE_ID );
+		builder.append( "\", \"timestamp\": " );
+		builder.append( aTimestamp );
+		BigDecimal bidPrice = new BigDecimal( aBidPriceText );
+		BigDecimal askPrice = new BigDecimal( anAskPriceText );
+		builder.append( ", \"bidPrice\": " );
+		builder.append( aBidPriceText );
+		builder.append( ", \"askPrice\": " );
+		builder.append( anAskPriceText );
+		builder.append( ", \"spread\": " );
+		builder.append( askPrice.subtract( bidPrice ).toPlainString() );
+		builder.append( ", \"quoteTime\": " );
+		builder.append( aQuoteTime );
+		builder.append( "}" );
+		return builder.toString();
+	}
+}
@@ -0,0 +1,77 @@
+package smash.metatrader;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneRules;
+
+import junit.framework.TestCase;
+
+/**
+ * Test QuoteTimeConverter with a server at UTC+3 during New York daylight saving time and UTC+2 otherwise
+ */
+public class QuoteTimeConverterTest extends TestCase
+{
+	private static final ZoneId NEW_YORK = ZoneId.of( "America/New_York" );
+	private static final long DAYLIGHT_OFFSET = 3 * 3600000L;
+	private static final long STANDARD_OFFSET = 2 * 3600000L;
+
+	/**
+	 * New York springs forward at 2017-03-12 07:00 UTC, server time 09:00 becomes 10:00
+	 */
+	public void testSpringForward()
+	{
+		QuoteTimeConverter converter = new QuoteTimeConverter( NEW_YORK, DAYLIGHT_OFFSET, STANDARD_OFFSET );
+		assertEquals( utc( "2017-03-12T06:59:59" ), converter.toUTC( utc( "2017-03-12T08:59:59" ) ) );
+		assertEquals( utc( "2017-03-12T07:00:00" ), converter.toUTC( utc( "2017-03-12T10:00:00" ) ) );
+		// back to an earlier interval after the cache moved on
+		assertEquals( utc( "2017-03-11T22:00:00" ), converter.toUTC( utc( "2017-03-12T00:00:00" ) ) );
+	}
+
+	/**
+	 * New York falls back at 2017-11-05 06:00 UTC, server time 09:00 becomes 08:00 and the repeated hour
+	 * resolves to the earlier offset
+	 */
+	public void testFallBack()
+	{
+		QuoteTimeConverter converter = new QuoteTimeConverter( NEW_YORK, DAYLIGHT_OFFSET, STANDARD_OFFSET );
+		assertEquals( utc( "2017-11-05T05:30:00" ), converter.toUTC( utc( "2017-11-05T08:30:00" ) ) );
+		assertEquals( utc( "2017-11-05T05:59:59" ), converter.toUTC( utc( "2017-11-05T08:59:59" ) ) );
+		assertEquals( utc( "2017-11-05T07:00:00" ), converter.toUTC( utc( "2017-11-05T09:00:00" ) ) );
+	}
+
+	/**
+	 * every server time produced by a quote at a UTC instant converts back to the instant, except
+	 * the second occurrence of the repeated hour
+	 */
+	public void testAgainstZoneRules()
+	{
+		QuoteTimeConverter converter = new QuoteTimeConverter( NEW_YORK, DAYLIGHT_OFFSET, STANDARD_OFFSET );
+		ZoneRules rules = NEW_YORK.getRules();
+		for( long time = utc( "2016-01-01T00:00:00" ); time < utc( "2019-01-01T00:00:00" ); time += 7 * 60000L )
+		{
+			boolean daylight = rules.isDaylightSavings( Instant.ofEpochMilli( time ) );
+			long serverTime = time + ( daylight ? DAYLIGHT_OFFSET : STANDARD_OFFSET );
+			long converted = converter.toUTC( serverTime );
+			if ( converted != time )
+			{
+				assertFalse( Instant.ofEpochMilli( time ).toString(), daylight );
+				assertTrue( rules.isDaylightSavings( Instant.ofEpochMilli( converted ) ) );
+				assertEquals( time - 3600000L, converted );
+			}
+		}
+	}
+
+	public void testSameOffsets()
+	{
+		QuoteTimeConverter converter = new QuoteTimeConverter( NEW_YORK, 0, 0 );
+		assertEquals( utc( "2017-03-12T08:00:00" ), converter.toUTC( utc( "2017-03-12T08:00:00" ) ) );
+		assertEquals( utc( "2017-11-05T08:30:00" ), converter.toUTC( utc( "2017-11-05T08:30:00" ) ) );
+	}
+
+	private static long utc( String aDateTime )
+	{
+		return LocalDateTime.parse( aDateTime ).toInstant( ZoneOffset.UTC ).toEpochMilli();
+	}
+}
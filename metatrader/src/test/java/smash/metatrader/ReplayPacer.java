@@ -0,0 +1,95 @@
+package smash.metatrader;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pace replayed rows at their original inter-arrival times scaled by a speed factor. The schedule
+ * is anchored at the first row so waiting errors do not accumulate, the thread parks until shortly
+ * before a row is due and spins for the remainder. The drift of every row, the time it was released
+ * after its scheduled time, is recorded so the schedule can be trusted when stress testing.
+ */
+public class ReplayPacer
+{
+	// parking wakes up late by tens of microseconds, the rest of the wait is spun
+	private static final long SPIN_NANOS = 200000L;
+	private final double nanosPerMillisecond;
+	private final LatencyHistogram drift = new LatencyHistogram();
+	private long firstTimestamp = Long.MIN_VALUE;
+	private long firstNanos;
+	private long lateCount;
+
+	/**
+	 * create ReplayPacer
+	 * @param aSpeed speed factor e.g. 1 for real time, 10 for ten times faster, 0 for no pacing
+	 */
+	public ReplayPacer( double aSpeed )
+	{
+		if ( aSpeed < 0 )
+		{
+			throw new IllegalArgumentException( "Invalid speed " + aSpeed );
+		}
+		nanosPerMillisecond = aSpeed == 0 ? 0 : 1000000.0 / aSpeed;
+	}
+
+	/**
+	 * wait until the row is due
+	 * @param aTimestamp timestamp of the row in millisecond
+	 */
+	public void await( long aTimestamp )
+	{
+		if ( nanosPerMillisecond == 0 )
+		{
+			return;
+		}
+		if ( firstTimestamp == Long.MIN_VALUE )
+		{
+			firstTimestamp = aTimestamp;
+			firstNanos = System.nanoTime();
+		}
+		long scheduled = firstNanos + (long)( ( aTimestamp - firstTimestamp ) * nanosPerMillisecond );
+		long remaining;
+		while( ( remaining = scheduled - System.nanoTime() ) > SPIN_NANOS )
+		{
+			LockSupport.parkNanos( remaining - SPIN_NANOS );
+		}
+		long now = System.nanoTime();
+		if ( remaining > 0 )
+		{
+			while( ( now = System.nanoTime() ) < scheduled )
+			{
+			}
+		}
+		else if ( -remaining > SPIN_NANOS )
+		{
+			// the publisher could not keep up or the row is out of timestamp order
+			lateCount++;
+		}
+		drift.record( now - scheduled );
+	}
+
+	/**
+	 * @return time rows were released after their scheduled time in nanosecond
+	 */
+	public LatencyHistogram getDrift()
+	{
+		return drift;
+	}
+
+	/**
+	 * @return number of rows released more than the spin time after their scheduled time
+	 */
+	public long getLateCount()
+	{
+		return lateCount;
+	}
+
+	/**
+	 * @return drift summary
+	 */
+	public String report()
+	{
+		return "rows=" + drift.getCount() + " driftMicros p50=" + drift.getValueAtPercentile( 50 ) / 1000
+					+ " p99=" + drift.getValueAtPercentile( 99 ) / 1000 + " p99.9=" + drift.getValueAtPercentile( 99.9 ) / 1000
+					+ " max=" + drift.getMax() / 1000 + " late=" + lateCount;
+	}
+}
@@ -0,0 +1,43 @@
+package smash.metatrader;
+
+import junit.framework.TestCase;
+
+/**
+ * Test ReplayPacer
+ */
+public class ReplayPacerTest extends TestCase
+{
+	public void testPaced()
+	{
+		ReplayPacer pacer = new ReplayPacer( 10 );
+		long start = System.nanoTime();
+		// 20 rows 100ms apart replayed 10 times faster take 190ms
+		for( int i = 0; i < 20; i++ )
+		{
+			pacer.await( 1000000 + i * 100 );
+		}
+		long elapsed = System.nanoTime() - start;
+		assertTrue( "Elapsed " + elapsed, elapsed >= 190000000L );
+		assertTrue( "Elapsed " + elapsed, elapsed < 1000000000L );
+		assertEquals( 20, pacer.getDrift().getCount() );
+		assertTrue( pacer.report(), pacer.getDrift().getValueAtPercentile( 50 ) < 50000000L );
+	}
+
+	public void testUnpaced()
+	{
+		ReplayPacer pacer = new ReplayPacer( 0 );
+		long start = System.nanoTime();
+		pacer.await( 0 );
+		pacer.await( 3600000 );
+		assertTrue( System.nanoTime() - start < 1000000000L );
+		assertEquals( 0, pacer.getDrift().getCount() );
+	}
+
+	public void testOutOfOrder()
+	{
+		ReplayPacer pacer = new ReplayPacer( 1 );
+		pacer.await( 1000 );
+		pacer.await( 0 );
+		assertEquals( 1, pacer.getLateCount() );
+	}
+}
@@ -0,0 +1,171 @@
+package smash.metatrader;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for RingBufferQuoteQueue
+ */
+public class RingBufferQuoteQueueTest
+    extends TestCase
+{
+	private static final int COUNT = 200000;
+	private static final int HAND_OFF_COUNT = 4096;
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName name of the test case
+	 */
+	public RingBufferQuoteQueueTest( String testName )
+	{
+		super( testName );
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite()
+	{
+		return new TestSuite( RingBufferQuoteQueueTest.class );
+	}
+
+	/**
+	 * quotes are received in order with every wait strategy, offers and polls are interleaved on
+	 * one thread in batches up to the capacity so every wrap-around is covered on any number of cores
+	 */
+	public void testOrderedHandOff() throws Exception
+	{
+		for( WaitStrategy strategy: createStrategies() )
+		{
+			RingBufferQuoteQueue queue = new RingBufferQuoteQueue( 64, strategy, OverflowPolicy.BLOCK );
+			long expected = 0;
+			int i = 0;
+			for( int round = 0; i < COUNT; round++ )
+			{
+				int batch = Math.min( round % 64 + 1, COUNT - i );
+				for( int end = i + batch; i < end; i++ )
+				{
+					queue.offer( i, i, i, 0, "EURUSD", "data" );
+				}
+				assertEquals( batch, queue.size() );
+				for( int j = 0; j < batch; j++ )
+				{
+					QueuedData data = queue.poll( 0, TimeUnit.MILLISECONDS );
+					assertNotNull( strategy.getClass().getSimpleName(), data );
+					assertEquals( expected++, data.receivedTime );
+				}
+				assertNull( queue.poll( 0, TimeUnit.MILLISECONDS ) );
+			}
+			assertEquals( 0, queue.getDroppedCount() );
+		}
+	}
+
+	/**
+	 * a consumer thread receives the quotes of a producer thread in order with every wait strategy,
+	 * the quotes fit in the ring so a spinning side never waits for the other longer than a time slice
+	 */
+	public void testConcurrentHandOff() throws Exception
+	{
+		for( WaitStrategy strategy: createStrategies() )
+		{
+			final RingBufferQuoteQueue queue = new RingBufferQuoteQueue( HAND_OFF_COUNT, strategy, OverflowPolicy.BLOCK );
+			Thread producer = new Thread( new Runnable()
+			{
+				public void run()
+				{
+					for( int i = 0; i < HAND_OFF_COUNT; i++ )
+					{
+						queue.offer( i, i, i, 0, "EURUSD", "data" );
+					}
+				}
+			});
+			producer.start();
+			for( int i = 0; i < HAND_OFF_COUNT; i++ )
+			{
+				QueuedData data = queue.poll( 10, TimeUnit.SECONDS );
+				assertNotNull( strategy.getClass().getSimpleName(), data );
+				assertEquals( i, data.receivedTime );
+			}
+			producer.join();
+			assertEquals( 0, queue.getDroppedCount() );
+			assertNull( queue.poll( 1, TimeUnit.MILLISECONDS ) );
+		}
+	}
+
+	/**
+	 * drop newest keeps the first quotes
+	 */
+	public void testDropNewest() throws Exception
+	{
+		RingBufferQuoteQueue queue = new RingBufferQuoteQueue( 3, new BlockingWaitStrategy(), OverflowPolicy.DROP_NEWEST );
+		assertEquals( 4, queue.getCapacity() );
+		for( int i = 0; i < 10; i++ )
+		{
+			queue.offer( i, i, i, 0, "EURUSD", "data" );
+		}
+		assertEquals( 4, queue.size() );
+		assertEquals( 6, queue.getDroppedCount() );
+		for( int i = 0; i < 4; i++ )
+		{
+			assertEquals( i, queue.poll( 1, TimeUnit.SECONDS ).receivedTime );
+		}
+	}
+
+	/**
+	 * drop oldest keeps the last quotes
+	 */
+	public void testDropOldest() throws Exception
+	{
+		RingBufferQuoteQueue queue = new RingBufferQuoteQueue( 4, new BlockingWaitStrategy(), OverflowPolicy.DROP_OLDEST );
+		for( int i = 0; i < 10; i++ )
+		{
+			queue.offer( i, i, i, 0, "EURUSD", "data" );
+		}
+		assertEquals( 4, queue.size() );
+		assertEquals( 6, queue.getDroppedCount() );
+		for( int i = 6; i < 10; i++ )
+		{
+			assertEquals( i, queue.poll( 1, TimeUnit.SECONDS ).receivedTime );
+		}
+	}
+
+	/**
+	 * concurrent drop oldest never hands out a quote twice or out of order
+	 */
+	public void testConcurrentDropOldest() throws Exception
+	{
+		final RingBufferQuoteQueue queue = new RingBufferQuoteQueue( 16, new YieldingWaitStrategy(), OverflowPolicy.DROP_OLDEST );
+		Thread producer = new Thread( new Runnable()
+		{
+			public void run()
+			{
+				for( int i = 0; i < COUNT; i++ )
+				{
+					queue.offer( i, i, i, 0, "EURUSD", "data" );
+				}
+			}
+		});
+		producer.start();
+		long last = -1;
+		long received = 0;
+		QueuedData data;
+		while( ( data = queue.poll( 1, TimeUnit.SECONDS ) ) != null )
+		{
+			assertTrue( data.receivedTime > last );
+			last = data.receivedTime;
+			received++;
+		}
+		producer.join();
+		assertEquals( COUNT - 1, last );
+		assertEquals( COUNT, received + queue.getDroppedCount() );
+	}
+
+	private static WaitStrategy[] createStrategies()
+	{
+		return new WaitStrategy[] { new BlockingWaitStrategy(), new YieldingWaitStrategy(), new BusySpinWaitStrategy() };
+	}
+}
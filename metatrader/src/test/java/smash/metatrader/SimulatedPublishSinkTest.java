@@ -0,0 +1,141 @@
+package smash.metatrader;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import smash.api.DataCallback;
+import smash.api.SessionEvent;
+import smash.api.SessionEventCallback;
+import smash.api.exception.RequestProcessingException;
+
+import junit.framework.TestCase;
+
+/**
+ * Test SimulatedPublishSink alone and as the sink of SmashMetaTraderPublisher
+ */
+public class SimulatedPublishSinkTest extends TestCase
+{
+	private static final String DATASET_UUID = "2a3e3f11-1bc1-11e7-9297-0a900cdd7aeb";
+	private final LinkedBlockingQueue<String> responses = new LinkedBlockingQueue<String>();
+	private final LinkedBlockingQueue<SessionEvent> events = new LinkedBlockingQueue<SessionEvent>();
+	private final DataCallback callback = new DataCallback()
+	{
+		public void onReceive( String aData )
+		{
+			responses.add( aData );
+		}
+	};
+	private final SessionEventCallback sessionCallback = new SessionEventCallback()
+	{
+		public void onEvent( SessionEvent anEvent )
+		{
+			events.add( anEvent );
+		}
+	};
+
+	/**
+	 * responses arrive after the latency, injected errors fail publishes and deny requests
+	 */
+	public void testResponses() throws Exception
+	{
+		SimulatedPublishSink sink = new SimulatedPublishSink( 1 );
+		sink.setLatency( 20000, 5000 );
+		sink.setErrorRates( 1, 1 );
+		sink.open( sessionCallback );
+		long start = System.nanoTime();
+		sink.login( "user", "password", callback );
+		assertEquals( "{ \"status\": \"SUCCESS\" }", responses.poll( 5, TimeUnit.SECONDS ) );
+		assertTrue( System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos( 15 ) );
+		sink.publishDataRequest( DATASET_UUID, callback );
+		assertEquals( "{ \"status\": \"FAILURE\" }", responses.poll( 5, TimeUnit.SECONDS ) );
+		try
+		{
+			sink.publishData( DATASET_UUID, "{}" );
+			fail();
+		}
+		catch( RequestProcessingException e )
+		{
+		}
+		assertEquals( 1, sink.getRequestCount() );
+		assertEquals( 1, sink.getDeniedCount() );
+		assertEquals( 1, sink.getRejectedCount() );
+		assertEquals( 0, sink.getPublishedCount() );
+		sink.logout();
+	}
+
+	/**
+	 * publishers beyond the rate cap block
+	 */
+	public void testMaxPublishRate() throws Exception
+	{
+		SimulatedPublishSink sink = new SimulatedPublishSink( 1 );
+		sink.setMaxPublishRate( 1000 );
+		sink.open( sessionCallback );
+		long start = System.nanoTime();
+		for( int i = 0; i < 200; i++ )
+		{
+			sink.publishData( DATASET_UUID, "{}" );
+		}
+		assertTrue( System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos( 190 ) );
+		assertEquals( 200, sink.getPublishedCount() );
+		assertEquals( 400, sink.getPublishedBytes() );
+		sink.logout();
+	}
+
+	/**
+	 * publishes fail and requests go unanswered during an outage, the session recovers after it
+	 */
+	public void testOutage() throws Exception
+	{
+		SimulatedPublishSink sink = new SimulatedPublishSink( 1 );
+		sink.setOutages( 100, 50 );
+		sink.open( sessionCallback );
+		while( !sink.isDown() )
+		{
+			Thread.sleep( 1 );
+		}
+		sink.publishDataRequest( DATASET_UUID, callback );
+		try
+		{
+			sink.publishData( DATASET_UUID, "{}" );
+			fail();
+		}
+		catch( RequestProcessingException e )
+		{
+		}
+		assertEquals( SessionEvent.RECOVERED, events.poll( 5, TimeUnit.SECONDS ) );
+		sink.publishData( DATASET_UUID, "{}" );
+		assertEquals( 1, sink.getPublishedCount() );
+		assertTrue( responses.isEmpty() );
+		sink.logout();
+	}
+
+	/**
+	 * synthetic quotes flow through the publisher to the simulated sink
+	 */
+	public void testPublisher() throws Exception
+	{
+		SimulatedPublishSink sink = new SimulatedPublishSink( 1 );
+		sink.setLatency( 1000, 500 );
+		SmashMetaTraderPublisher publisher = new SmashMetaTraderPublisher( "localhost", "default", "user", "password", "bdd2b349-574d-45a0-5dd2-af116e0c0dbf" );
+		publisher.setLogging( AsyncLogger.Level.ERROR, 1024, 1, 1 );
+		publisher.setPublishSink( sink );
+		publisher.setQuoteSource( new SyntheticQuoteSource( 10000, 1 ) );
+		publisher.addToSubscription( "EURUSD", DATASET_UUID );
+		publisher.initialize();
+		try
+		{
+			for( int i = 0; i < 500 && sink.getPublishedCount() < 1000; i++ )
+			{
+				Thread.sleep( 10 );
+			}
+			assertTrue( sink.getPublishedCount() >= 1000 );
+			assertEquals( 1, sink.getRequestCount() );
+			assertEquals( 1, publisher.getMetrics().getLiveSubscriptionCount() );
+		}
+		finally
+		{
+			publisher.dispose();
+		}
+	}
+}
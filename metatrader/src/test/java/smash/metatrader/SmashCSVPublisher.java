@@ -1,26 +1,35 @@
 package smash.metatrader;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileReader;
-import java.math.BigDecimal;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.List;
 import java.util.Properties;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.TimeUnit;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
 
+import smash.api.BatchDataCallback;
 import smash.api.CallbackClient;
 import smash.api.DataCallback;
 import smash.api.SessionEvent;
@@ -32,9 +41,13 @@ import smash.api.SessionEventCallback;
 public class SmashCSVPublisher implements SessionEventCallback
 {
 	private final HashMap<String,String> dataToDatasetUUIDLookup = new HashMap<String,String>();
-	private final HashMap<String,Integer> dataFieldIdToDataColumnLookup = new HashMap<String,Integer>();
+	// in configuration order, the order of the fields in the JSON
+	private final LinkedHashMap<String,Integer> dataFieldIdToDataColumnLookup = new LinkedHashMap<String,Integer>();
+	private final HashMap<String,CSVRowEncoder> encoders = new HashMap<String,CSVRowEncoder>();
 	private final CountDownLatch eventDisconnect = new CountDownLatch(1);
-	private CallbackClient client;
+	private PublishSink sink;
+	// null unless publishing to Smash.bi, queried for the resume points
+	private ResumeQuery resumeQuery;
 	private final JsonParser jsonParser = new JsonParser();
 	private String smashHost;
 	private String smashVPN;
@@ -49,8 +62,18 @@ public class SmashCSVPublisher implements SessionEventCallback
 	private ZoneId newYorkTimeZone = ZoneId.of("America/New_York");
 	private ZoneId utcTimeZone = ZoneId.of("UTC");
 	DateTimeFormatter dateFormat = null;
+	private final String timestampFormat;
+	private int mapRegionBytes = MappedCSVReader.DEFAULT_REGION_BYTES;
+	private int ingestWorkerCount = 1;
+	private int ingestChunkBytes = 16 * 1024 * 1024;
+	private double replaySpeed;
 	private PublishRequestResponseCallback publishRequestResponseCallback = new PublishRequestResponseCallback();
 	private int publishRequestCount;
+	private boolean resume;
+	private int resumeIndexStrideBytes = 1024 * 1024;
+	private int resumeTieRecords = 1000;
+	// by dataset UUID, rows already stored in Smash, guarded by this
+	private final HashMap<String,ResumePoint> resumePoints = new HashMap<String,ResumePoint>();
 	
 	/**
 	 * create SmashMetaTraderPublisher
@@ -69,6 +92,66 @@ public class SmashCSVPublisher implements SessionEventCallback
 		datasetDataColumn = aDatasetDataColumn;
 		timestampDataColumn = aTimestampDataColumn;
 		dateFormat = DateTimeFormatter.ofPattern( aTimestampFormat ).withZone( newYorkTimeZone );
+		timestampFormat = aTimestampFormat;
+	}
+
+	/**
+	 * set size of the file regions mapped while reading, rows must be shorter
+	 * @param aMapRegionBytes size of a mapped region
+	 */
+	public void setMapRegionBytes( int aMapRegionBytes )
+	{
+		mapRegionBytes = aMapRegionBytes;
+	}
+
+	/**
+	 * set replay speed, rows are published at their original inter-arrival times scaled by the speed
+	 * @param aSpeed speed factor e.g. 1 for real time, 100 for a hundred times faster, 0 to publish as fast as possible
+	 */
+	public void setReplaySpeed( double aSpeed )
+	{
+		replaySpeed = aSpeed;
+	}
+
+	/**
+	 * set parallel ingestion, the file is split into chunks parsed and converted to JSON in parallel
+	 * and published in file order
+	 * @param aWorkerCount number of threads parsing chunks
+	 * @param aChunkBytes size of a chunk, chunks end at the end of their last row
+	 */
+	public void setIngestion( int aWorkerCount, int aChunkBytes )
+	{
+		if ( aWorkerCount < 1 || aChunkBytes < 1 )
+		{
+			throw new IllegalArgumentException( "Invalid ingestion " + aWorkerCount + " workers " + aChunkBytes + " bytes" );
+		}
+		ingestWorkerCount = aWorkerCount;
+		ingestChunkBytes = aChunkBytes;
+	}
+
+	/**
+	 * set resumption, on start the latest record of every dataset is read from Smash and reading
+	 * starts at the first unpublished row found through a sparse timestamp index of the data file.
+	 * Rows of a dataset must be in time order in the file. Ignored when not publishing to Smash.bi.
+	 * @param aResume true to resume, false to publish from the first row
+	 * @param anIndexStrideBytes bytes of the data file between index entries
+	 * @param aTieRecords number of stored records looked up at first for those sharing the latest timestamp,
+	 * doubled until all are found
+	 */
+	public void setResume( boolean aResume, int anIndexStrideBytes, int aTieRecords )
+	{
+		resume = aResume;
+		resumeIndexStrideBytes = anIndexStrideBytes;
+		resumeTieRecords = aTieRecords;
+	}
+
+	/**
+	 * set destination of the published rows, must be called before initialize
+	 * @param aSink sink or null to publish to Smash.bi
+	 */
+	public void setPublishSink( PublishSink aSink )
+	{
+		sink = aSink;
 	}
 
 	/**
@@ -76,10 +159,30 @@ public class SmashCSVPublisher implements SessionEventCallback
 	 */
 	public void initialize() throws Exception
 	{
-		client = new CallbackClient( smashHost, smashVPN, this );
+		if ( sink == null )
+		{
+			sink = new SmashPublishSink( smashHost, smashVPN );
+		}
+		sink.open( this );
+		if ( sink instanceof SmashPublishSink )
+		{
+			final CallbackClient client = ( (SmashPublishSink)sink ).getClient();
+			resumeQuery = new ResumeQuery()
+			{
+				public void getLatestData( String aDatasetUUID, long aCount, BatchDataCallback aCallback ) throws Exception
+				{
+					client.getLatestData( aDatasetUUID, aCount, aCallback );
+				}
+
+				public void getDataBeforeTime( String aDatasetUUID, String aSnapshotEndTime, long aCount, BatchDataCallback aCallback ) throws Exception
+				{
+					client.getDataBeforeTime( aDatasetUUID, aSnapshotEndTime, aCount, aCallback );
+				}
+			};
+		}
 		// prepare Smash.bi
-System.out.println( "Logging in " + smashUserId + " " + smashPassword );
-		client.login(smashUserId, smashPassword, new LoginResponseCallback());
+		System.out.println( "Logging in " + smashUserId );
+		sink.login(smashUserId, smashPassword, new LoginResponseCallback());
 	}
 	
 	/**
@@ -97,9 +200,34 @@ System.out.println( "Logging in " + smashUserId + " " + smashPassword );
 	 * @param aDataFieldId data
 	 * @param aDatasetUUID dataset UUID
 	 */
-	public void addToDataFieldMapping( String aDataFieldId, Integer aColumnIndex )
+	public synchronized void addToDataFieldMapping( String aDataFieldId, Integer aColumnIndex )
 	{
 		dataFieldIdToDataColumnLookup.put( aDataFieldId, aColumnIndex );
+		encoders.clear();
+	}
+
+	/**
+	 * @param aDatasetUUID dataset UUID
+	 * @return encoder of the dataset compiled from the data field mapping
+	 */
+	synchronized CSVRowEncoder getEncoder( String aDatasetUUID )
+	{
+		CSVRowEncoder encoder = encoders.get( aDatasetUUID );
+		if ( encoder == null )
+		{
+			String[] fieldIds = new String[dataFieldIdToDataColumnLookup.size()];
+			int[] fieldColumns = new int[fieldIds.length];
+			int i = 0;
+			for( Map.Entry<String,Integer> entry: dataFieldIdToDataColumnLookup.entrySet() )
+			{
+				fieldIds[i] = entry.getKey();
+				fieldColumns[i] = entry.getValue();
+				i++;
+			}
+			encoder = new CSVRowEncoder( aDatasetUUID, typeId, fieldIds, fieldColumns );
+			encoders.put( aDatasetUUID, encoder );
+		}
+		return encoder;
 	}
 	
 	public void onEvent(SessionEvent anEvent) 
@@ -116,7 +244,7 @@ System.out.println( "Logging in " + smashUserId + " " + smashPassword );
     	System.out.println("Disconnecting...");
 		try
 		{
-        	client.logout();
+        	sink.logout();
 		}
 		catch( Throwable t )
 		{
@@ -129,29 +257,27 @@ System.out.println( "Logging in " + smashUserId + " " + smashPassword );
 	/**
 	 * convert quote data to JSON 
 	 */
-	private String toJSON( String aDatasetId, List<String> aData ) throws ParseException
+	String toJSON( String aDatasetId, List<String> aData ) throws ParseException
 	{
-		StringBuilder builder = new StringBuilder();
-		String datasetUUID = aDatasetId;
-		builder.append( "{ \"dataset\": \"" );
-		builder.append( datasetUUID );
-		builder.append( "\", \"typeId\": \"" );
-		builder.append( typeId );
-		builder.append( "\", \"timestamp\": " );
+		CSVRowEncoder encoder = getEncoder( aDatasetId );
+		StringBuilder builder = new StringBuilder( encoder.getSizeHint() );
 		String dateTimeText = aData.get(timestampDataColumn);
 		
 		ZonedDateTime time = ZonedDateTime.parse( dateTimeText, dateFormat ).withZoneSameInstant( utcTimeZone );
 		long quoteTime = time.toInstant().toEpochMilli();
-		builder.append( quoteTime );
-		for( String fieldId: dataFieldIdToDataColumnLookup.keySet() )
-		{
-			builder.append( ", \"" );
-			builder.append( fieldId );
-			builder.append( "\": ");
-			BigDecimal value = new BigDecimal( aData.get( dataFieldIdToDataColumnLookup.get( fieldId )));
-			builder.append( value.toPlainString() );
-		}
-		builder.append( "}" );
+		encoder.encode( quoteTime, aData, builder );
+		return builder.toString(); 
+	}
+	
+	/**
+	 * convert the current row of the reader to JSON, same output as toJSON of the split row
+	 * @param aTimestamp UTC timestamp of the row in millisecond
+	 */
+	String toJSON( String aDatasetId, long aTimestamp, MappedCSVReader aRow )
+	{
+		CSVRowEncoder encoder = getEncoder( aDatasetId );
+		StringBuilder builder = new StringBuilder( encoder.getSizeHint() );
+		encoder.encode( aTimestamp, aRow, builder );
 		return builder.toString(); 
 	}
 	
@@ -184,7 +310,7 @@ System.out.println( "Receive Login Response " + aData );
 			{
 				try
 				{
-					client.publishDataRequest(datasetUUID, publishRequestResponseCallback );
+					sink.publishDataRequest(datasetUUID, publishRequestResponseCallback );
 				}
 				catch( Throwable t )
 				{
@@ -209,32 +335,333 @@ System.out.println( "Receive Publish Response " + aData );
 				publishRequestCount++;
 				if ( publishRequestCount == dataToDatasetUUIDLookup.size() )
 				{
-					publish();
+					if ( resume && resumeQuery != null )
+					{
+						requestResumePoints();
+					}
+					else
+					{
+						publish();
+					}
 				}
 			}
 		}
 	}
+
+	/**
+	 * set queries of the records stored in Smash, for testing
+	 * @param aQuery query
+	 */
+	void setResumeQuery( ResumeQuery aQuery )
+	{
+		resumeQuery = aQuery;
+	}
+
+	/**
+	 * query the latest record of every dataset, publish once all are known
+	 */
+	void requestResumePoints()
+	{
+		for( final String datasetUUID: dataToDatasetUUIDLookup.values() )
+		{
+			try
+			{
+				resumeQuery.getLatestData( datasetUUID, 1, new BatchResponse()
+				{
+					void onResponse( String aData ) throws Exception
+					{
+						final long latest = getLatestTimestamp( aData );
+						if ( latest == Long.MIN_VALUE )
+						{
+							resolved( datasetUUID, new ResumePoint( Long.MIN_VALUE, 0 ) );
+							return;
+						}
+						requestTies( datasetUUID, latest, resumeTieRecords );
+					}
+				} );
+			}
+			catch( Throwable t )
+			{
+				t.printStackTrace();
+				dispose();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * query the records stored at the latest time, the same number of rows at that time were published.
+	 * Records are returned latest first, when all are at the latest time the query is repeated for twice as many.
+	 */
+	private void requestTies( final String aDatasetUUID, final long aLatest, final long aCount ) throws Exception
+	{
+		// the snapshot end time is ISO 8601
+		resumeQuery.getDataBeforeTime( aDatasetUUID, Instant.ofEpochMilli( aLatest + 1 ).toString(), aCount, new BatchResponse()
+		{
+			void onResponse( String aData ) throws Exception
+			{
+				int ties = countTimestamps( aData, aLatest );
+				if ( ties >= aCount )
+				{
+					requestTies( aDatasetUUID, aLatest, aCount * 2 );
+				}
+				else
+				{
+					resolved( aDatasetUUID, new ResumePoint( aLatest, ties ) );
+				}
+			}
+		} );
+	}
+
+	private void resolved( String aDatasetUUID, ResumePoint aPoint )
+	{
+		System.out.println( "Resume " + aDatasetUUID + " after " + aPoint.timestamp + " skipping " + aPoint.remaining + " rows at that time" );
+		synchronized( this )
+		{
+			resumePoints.put( aDatasetUUID, aPoint );
+			if ( resumePoints.size() < dataToDatasetUUIDLookup.size() )
+			{
+				return;
+			}
+		}
+		publish();
+	}
+
+	/**
+	 * set rows of a dataset already stored in Smash, for testing
+	 * @param aDatasetUUID dataset UUID
+	 * @param aTimestamp UTC timestamp of the latest stored record in millisecond
+	 * @param aStoredAtTimestamp number of stored records with that timestamp
+	 */
+	synchronized void setResumePoint( String aDatasetUUID, long aTimestamp, int aStoredAtTimestamp )
+	{
+		resumePoints.put( aDatasetUUID, new ResumePoint( aTimestamp, aStoredAtTimestamp ) );
+	}
+
+	/**
+	 * @return earliest time of an unpublished row over the datasets, Long.MIN_VALUE to start at the first row
+	 */
+	synchronized long getResumeTime()
+	{
+		long time = Long.MAX_VALUE;
+		for( String datasetUUID: dataToDatasetUUIDLookup.values() )
+		{
+			ResumePoint point = resumePoints.get( datasetUUID );
+			time = Math.min( time, point == null ? Long.MIN_VALUE : point.timestamp );
+		}
+		return time == Long.MAX_VALUE ? Long.MIN_VALUE : time;
+	}
+
+	/**
+	 * @param aDatasetUUID dataset UUID of a row
+	 * @param aTimestamp UTC timestamp of the row in millisecond
+	 * @return true if the row is already stored in Smash, rows must be passed in file order
+	 */
+	synchronized boolean isPublished( String aDatasetUUID, long aTimestamp )
+	{
+		ResumePoint point = resumePoints.get( aDatasetUUID );
+		if ( point == null || aTimestamp > point.timestamp )
+		{
+			return false;
+		}
+		if ( aTimestamp < point.timestamp )
+		{
+			return true;
+		}
+		if ( point.remaining > 0 )
+		{
+			point.remaining--;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return latest "timestamp" of the records in a response, Long.MIN_VALUE if none
+	 */
+	static long getLatestTimestamp( String aData )
+	{
+		long[] latest = { Long.MIN_VALUE, 0 };
+		collectTimestamps( new JsonParser().parse( aData ), Long.MIN_VALUE, latest );
+		return latest[0];
+	}
+
+	/**
+	 * @return number of records in a response with the timestamp
+	 */
+	static int countTimestamps( String aData, long aTimestamp )
+	{
+		long[] latest = { Long.MIN_VALUE, 0 };
+		collectTimestamps( new JsonParser().parse( aData ), aTimestamp, latest );
+		return (int)latest[1];
+	}
+
+	/**
+	 * walk a response whose record layout is not fixed, records may be nested or embedded as JSON text
+	 * @param aCounted timestamp whose records are counted
+	 * @param aResult latest timestamp and count of records with the counted timestamp
+	 */
+	private static void collectTimestamps( JsonElement anElement, long aCounted, long[] aResult )
+	{
+		if ( anElement.isJsonArray() )
+		{
+			JsonArray array = anElement.getAsJsonArray();
+			for( int i = 0; i < array.size(); i++ )
+			{
+				collectTimestamps( array.get( i ), aCounted, aResult );
+			}
+		}
+		else if ( anElement.isJsonObject() )
+		{
+			for( Map.Entry<String,JsonElement> entry: anElement.getAsJsonObject().entrySet() )
+			{
+				JsonElement value = entry.getValue();
+				if ( "timestamp".equals( entry.getKey() ) && value.isJsonPrimitive() )
+				{
+					try
+					{
+						long timestamp = value.getAsLong();
+						aResult[0] = Math.max( aResult[0], timestamp );
+						if ( timestamp == aCounted )
+						{
+							aResult[1]++;
+						}
+					}
+					catch( NumberFormatException e )
+					{
+						// not a record time
+					}
+				}
+				else
+				{
+					collectTimestamps( value, aCounted, aResult );
+				}
+			}
+		}
+		else if ( anElement.isJsonPrimitive() && ( (JsonPrimitive)anElement ).isString() )
+		{
+			String text = anElement.getAsString().trim();
+			if ( text.startsWith( "{" ) || text.startsWith( "[" ) )
+			{
+				try
+				{
+					collectTimestamps( new JsonParser().parse( text ), aCounted, aResult );
+				}
+				catch( RuntimeException e )
+				{
+					// not JSON
+				}
+			}
+		}
+	}
+
+	/**
+	 * queries of the records stored in Smash
+	 */
+	interface ResumeQuery
+	{
+		/**
+		 * @param aDatasetUUID dataset UUID
+		 * @param aCount number of latest records
+		 * @param aCallback response callback
+		 */
+		void getLatestData( String aDatasetUUID, long aCount, BatchDataCallback aCallback ) throws Exception;
+
+		/**
+		 * @param aDatasetUUID dataset UUID
+		 * @param aSnapshotEndTime ISO 8601 time the records are before
+		 * @param aCount number of records
+		 * @param aCallback response callback
+		 */
+		void getDataBeforeTime( String aDatasetUUID, String aSnapshotEndTime, long aCount, BatchDataCallback aCallback ) throws Exception;
+	}
+
+	/**
+	 * collect the parts of a batch response
+	 */
+	private abstract class BatchResponse implements BatchDataCallback
+	{
+		private final StringBuilder parts = new StringBuilder();
+		private int partCount;
+
+		public void onReceive( String aData, boolean aLast )
+		{
+			if ( partCount++ > 0 )
+			{
+				parts.append( ',' );
+			}
+			parts.append( aData );
+			if ( !aLast )
+			{
+				return;
+			}
+			try
+			{
+				onResponse( partCount == 1 ? parts.toString() : "[" + parts + "]" );
+			}
+			catch( Throwable t )
+			{
+				t.printStackTrace();
+				dispose();
+			}
+		}
+
+		abstract void onResponse( String aData ) throws Exception;
+	}
+
+	/**
+	 * latest record of a dataset stored in Smash
+	 */
+	private static class ResumePoint
+	{
+		private final long timestamp;
+		// rows at the timestamp still to skip
+		private int remaining;
+
+		private ResumePoint( long aTimestamp, int aRemaining )
+		{
+			timestamp = aTimestamp;
+			remaining = aRemaining;
+		}
+	}
 	
 	public void publish()
 	{
-		FileReader fileReader = null;
-		BufferedReader reader = null;
 		try
 		{
-			fileReader = new FileReader( dataFile );
-			reader = new BufferedReader( fileReader );
-			String line = null;
-			while( ( line = reader.readLine() ) != null )
+			final ReplayPacer pacer = new ReplayPacer( replaySpeed );
+			long start = 0;
+			long resumeTime = getResumeTime();
+			if ( resume && resumeTime != Long.MIN_VALUE )
 			{
-				List<String> data = Arrays.asList(line.split("\\s*,\\s*"));
-				String datasetUUID = dataToDatasetUUIDLookup.get( data.get(datasetDataColumn) );
-				if ( datasetUUID != null )
+				File file = new File( dataFile );
+				CSVTimestampIndex index = CSVTimestampIndex.open( file, new File( dataFile + ".tsidx" ), timestampDataColumn, timestampFormat, newYorkTimeZone,
+																resumeIndexStrideBytes, mapRegionBytes );
+				start = index.seek( resumeTime );
+				System.out.println( "Resuming at byte " + start + " of " + file.length() );
+			}
+			ingest( new RowListener()
+			{
+				private long nextReportTime = System.currentTimeMillis() + 10000;
+
+				public void onRow( String aDatasetUUID, long aTimestamp, String aJSON ) throws Exception
 				{
-					String jsonData = toJSON(datasetUUID, data);
-System.out.println( "PUBLISH");
-System.out.println( jsonData );
-					client.publishData(datasetUUID, jsonData);
+					if ( isPublished( aDatasetUUID, aTimestamp ) )
+					{
+						return;
+					}
+					pacer.await( aTimestamp );
+					sink.publishData(aDatasetUUID, aJSON);
+					if ( replaySpeed > 0 && System.currentTimeMillis() >= nextReportTime )
+					{
+						System.out.println( "Replay " + pacer.report() );
+						nextReportTime = System.currentTimeMillis() + 10000;
+					}
 				}
+			}, start );
+			if ( replaySpeed > 0 )
+			{
+				System.out.println( "Replay " + pacer.report() );
 			}
 		}
 		catch( Throwable t )
@@ -243,21 +670,137 @@ System.out.println( jsonData );
 		}
 		finally
 		{
-			try
+			dispose();
+		}
+	}
+
+	/**
+	 * parse and convert the rows of the data file in parallel chunks, handing the rows of the
+	 * subscribed datasets to the listener in file order from the calling thread
+	 * @param aListener listener
+	 */
+	void ingest( RowListener aListener ) throws Exception
+	{
+		ingest( aListener, 0 );
+	}
+
+	/**
+	 * parse and convert the rows of the data file starting at an offset
+	 * @param aListener listener
+	 * @param aStart offset of the first row
+	 */
+	void ingest( RowListener aListener, long aStart ) throws Exception
+	{
+		final CSVKeyTable<CSVRowEncoder> encoderTable = new CSVKeyTable<CSVRowEncoder>();
+		for( Map.Entry<String,String> entry: dataToDatasetUUIDLookup.entrySet() )
+		{
+			encoderTable.put( entry.getKey(), getEncoder( entry.getValue() ) );
+		}
+		File file = new File( dataFile );
+		long length = file.length();
+		ForkJoinPool pool = new ForkJoinPool( ingestWorkerCount );
+		try
+		{
+			// bound the chunks converted ahead of the publishing thread
+			ArrayDeque<ForkJoinTask<ChunkRows>> pending = new ArrayDeque<ForkJoinTask<ChunkRows>>();
+			long nextChunk = aStart;
+			while( nextChunk < length || !pending.isEmpty() )
 			{
-				fileReader.close();
+				while( nextChunk < length && pending.size() < ingestWorkerCount * 2 )
+				{
+					pending.add( pool.submit( new ChunkTask( file, nextChunk, Math.min( length, nextChunk + ingestChunkBytes ), encoderTable ) ) );
+					nextChunk += ingestChunkBytes;
+				}
+				ChunkRows rows = pending.poll().get();
+				for( int i = 0; i < rows.datasetUUIDs.size(); i++ )
+				{
+					aListener.onRow( rows.datasetUUIDs.get( i ), rows.timestamps[i], rows.jsons.get( i ) );
+				}
 			}
-			catch( Throwable tt )
-			{}
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * receives converted rows
+	 */
+	interface RowListener
+	{
+		/**
+		 * @param aDatasetUUID dataset UUID of the row
+		 * @param aTimestamp UTC timestamp of the row in millisecond
+		 * @param aJSON row JSON
+		 */
+		void onRow( String aDatasetUUID, long aTimestamp, String aJSON ) throws Exception;
+	}
+
+	/**
+	 * rows of a chunk in file order
+	 */
+	private static class ChunkRows
+	{
+		private final ArrayList<String> datasetUUIDs = new ArrayList<String>();
+		private final ArrayList<String> jsons = new ArrayList<String>();
+		private long[] timestamps = new long[1024];
+
+		private void add( String aDatasetUUID, long aTimestamp, String aJSON )
+		{
+			if ( datasetUUIDs.size() == timestamps.length )
+			{
+				timestamps = Arrays.copyOf( timestamps, timestamps.length * 2 );
+			}
+			timestamps[datasetUUIDs.size()] = aTimestamp;
+			datasetUUIDs.add( aDatasetUUID );
+			jsons.add( aJSON );
+		}
+	}
+
+	/**
+	 * parse and convert the rows starting in a byte range of the data file
+	 */
+	private class ChunkTask implements Callable<ChunkRows>
+	{
+		private final File file;
+		private final long start;
+		private final long end;
+		private final CSVKeyTable<CSVRowEncoder> encoderTable;
+
+		private ChunkTask( File aFile, long aStart, long anEnd, CSVKeyTable<CSVRowEncoder> anEncoderTable )
+		{
+			file = aFile;
+			start = aStart;
+			end = anEnd;
+			encoderTable = anEncoderTable;
+		}
+
+		public ChunkRows call() throws Exception
+		{
+			ChunkRows rows = new ChunkRows();
+			CSVTimestampParser timestampParser = new CSVTimestampParser( timestampFormat, newYorkTimeZone );
+			MappedCSVReader reader = new MappedCSVReader( file, start, end, mapRegionBytes );
+			StringBuilder buffer = new StringBuilder( 256 );
 			try
+			{
+				while( reader.next() )
+				{
+					CSVRowEncoder encoder = reader.lookup( datasetDataColumn, encoderTable );
+					if ( encoder != null )
+					{
+						long timestamp = reader.parseTimestamp( timestampDataColumn, timestampParser );
+						buffer.setLength( 0 );
+						encoder.encode( timestamp, reader, buffer );
+						rows.add( encoder.getDatasetUUID(), timestamp, buffer.toString() );
+					}
+				}
+			}
+			finally
 			{
 				reader.close();
 			}
-			catch( Throwable tt )
-			{}
-			fileReader = null;
-			reader = null;
-			dispose();
+			return rows;
 		}
 	}
 	
@@ -277,6 +820,31 @@ System.out.println( jsonData );
     												Integer.parseInt(properties.getProperty( "smash.csvPublisher.datasetDataColumn")),
     												Integer.parseInt(properties.getProperty( "smash.csvPublisher.timestampDataColumn")),
     												properties.getProperty( "smash.csvPublisher.timestampFormat" ));
+    		if ( properties.getProperty( "smash.csvPublisher.mapRegionBytes" ) != null )
+    		{
+    			publisher.setMapRegionBytes( Integer.parseInt( properties.getProperty( "smash.csvPublisher.mapRegionBytes" ) ) );
+    		}
+    		if ( properties.getProperty( "smash.csvPublisher.ingestWorkers" ) != null )
+    		{
+    			publisher.setIngestion( Integer.parseInt( properties.getProperty( "smash.csvPublisher.ingestWorkers" ) ),
+    									Integer.parseInt( properties.getProperty( "smash.csvPublisher.ingestChunkBytes", "16777216" ) ) );
+    		}
+    		publisher.setResume( Boolean.parseBoolean( properties.getProperty( "smash.csvPublisher.resume", "false" ) ),
+    							Integer.parseInt( properties.getProperty( "smash.csvPublisher.resumeIndexStrideBytes", "1048576" ) ),
+    							Integer.parseInt( properties.getProperty( "smash.csvPublisher.resumeTieRecords", "1000" ) ) );
+    		if ( "simulated".equals( properties.getProperty( "smash.csvPublisher.publishSink", "smash" ) ) )
+    		{
+    			SimulatedPublishSink simulatedSink = new SimulatedPublishSink( 
+    												Long.parseLong( properties.getProperty( "smash.csvPublisher.simulated.seed", "0" ) ) );
+    			simulatedSink.setLatency( Long.parseLong( properties.getProperty( "smash.csvPublisher.simulated.latencyMicros", "0" ) ),
+    									Long.parseLong( properties.getProperty( "smash.csvPublisher.simulated.jitterMicros", "0" ) ) );
+    			simulatedSink.setMaxPublishRate( Double.parseDouble( properties.getProperty( "smash.csvPublisher.simulated.maxPublishPerSecond", "0" ) ) );
+    			simulatedSink.setErrorRates( Double.parseDouble( properties.getProperty( "smash.csvPublisher.simulated.publishErrorRate", "0" ) ),
+    									Double.parseDouble( properties.getProperty( "smash.csvPublisher.simulated.requestDenyRate", "0" ) ) );
+    			publisher.setPublishSink( simulatedSink );
+    		}
+    		String replaySpeed = properties.getProperty( "smash.csvPublisher.replaySpeed", "max" ).trim();
+    		publisher.setReplaySpeed( "max".equals( replaySpeed ) ? 0 : Double.parseDouble( replaySpeed ) );
     		StringTokenizer subscriptionMappingConfig = new StringTokenizer( 
     											properties.getProperty( "smash.csvPublisher.subscriptionMapping" ), "," );
     		
@@ -0,0 +1,92 @@
+package smash.metatrader;
+
+import java.util.ArrayList;
+
+import smash.api.exception.RequestProcessingException;
+
+import junit.framework.TestCase;
+
+/**
+ * Test that SmashPublishSink publishes a dataset only once granted, without holding back the
+ * publishes of other datasets, and retries a publish missing the topic of a granted dataset
+ */
+public class SmashPublishSinkTest extends TestCase
+{
+	private static final String GRANTED = "{\"status\":\"SUCCESS\"}";
+	private static final String DECLINED = "{\"status\":\"DECLINED\"}";
+
+	public void testGranted() throws Exception
+	{
+		RecordingSink sink = new RecordingSink();
+		try
+		{
+			sink.publishData( "a", "{ \"q\": 1 }" );
+			fail();
+		}
+		catch( RequestProcessingException e )
+		{
+		}
+		sink.granted( "a", DECLINED );
+		sink.granted( "b", "not JSON" );
+		sink.granted( "c", GRANTED );
+		try
+		{
+			sink.publishData( "a", "{ \"q\": 2 }" );
+			fail();
+		}
+		catch( RequestProcessingException e )
+		{
+		}
+		// another dataset requested and not answered yet does not hold back a granted one
+		sink.publishData( "c", "{ \"q\": 3 }" );
+		sink.granted( "a", GRANTED );
+		sink.publishData( "a", "{ \"q\": 4 }" );
+		assertEquals( "[c { \"q\": 3 }, a { \"q\": 4 }]", sink.sent.toString() );
+	}
+
+	/**
+	 * a topic missed while the client map is resized is found again
+	 */
+	public void testMissedTopic() throws Exception
+	{
+		RecordingSink sink = new RecordingSink();
+		sink.granted( "a", GRANTED );
+		sink.misses = 3;
+		sink.publishData( "a", "{ \"q\": 1 }" );
+		assertEquals( "[a { \"q\": 1 }]", sink.sent.toString() );
+		sink.misses = Integer.MAX_VALUE;
+		try
+		{
+			sink.publishData( "a", "{ \"q\": 2 }" );
+			fail();
+		}
+		catch( RequestProcessingException e )
+		{
+			assertTrue( e.getCause() instanceof IllegalStateException );
+		}
+	}
+
+	/**
+	 * sink recording what it sends to the client, missing the topic a number of times
+	 */
+	private static class RecordingSink extends SmashPublishSink
+	{
+		private final ArrayList<String> sent = new ArrayList<String>();
+		private int misses;
+
+		private RecordingSink()
+		{
+			super( "localhost", "default" );
+		}
+
+		void send( String aDatasetUUID, String aJSON )
+		{
+			if ( misses > 0 )
+			{
+				misses--;
+				throw new IllegalStateException( "Unregistered dataset " + aDatasetUUID );
+			}
+			sent.add( aDatasetUUID + " " + aJSON );
+		}
+	}
+}
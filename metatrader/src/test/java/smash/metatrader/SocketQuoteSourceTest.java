@@ -0,0 +1,106 @@
+package smash.metatrader;
+
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Test SocketQuoteSource
+ */
+public class SocketQuoteSourceTest extends TestCase
+{
+	private static final Charset ASCII = Charset.forName( "US-ASCII" );
+	private final LinkedBlockingQueue<String> quotes = new LinkedBlockingQueue<String>();
+	private final QuoteListener listener = new QuoteListener()
+	{
+		public void onQuote( String aSymbol, String aData )
+		{
+			quotes.add( aSymbol + "|" + aData );
+		}
+
+		public void onDisconnect()
+		{
+		}
+	};
+	private AsyncLogger logger;
+	private SocketQuoteSource source;
+
+	protected void setUp() throws Exception
+	{
+		logger = new AsyncLogger( AsyncLogger.Level.ERROR, 64, System.out );
+		source = new SocketQuoteSource( "127.0.0.1", 0, 0, 64 );
+		source.start( listener, logger );
+		source.subscribe( "EURUSD" );
+		source.subscribe( "USDJPY" );
+	}
+
+	protected void tearDown() throws Exception
+	{
+		source.stop();
+		logger.close();
+	}
+
+	/**
+	 * lines split over writes and connections are delivered whole, unsubscribed and malformed lines are skipped
+	 */
+	public void testTCP() throws Exception
+	{
+		Socket first = new Socket( "127.0.0.1", source.getTCPPort() );
+		Socket second = new Socket( "127.0.0.1", source.getTCPPort() );
+		OutputStream out = first.getOutputStream();
+		out.write( "EURUSD 2017/04/21 16:59:58 1.07282 1.07292\r\nGBPUSD 2017/04/21 16:59:58 1.2 1.3\nEURUSD\n".getBytes( ASCII ) );
+		out.write( "USDJPY 2017/04/21 16:59:58 ".getBytes( ASCII ) );
+		out.flush();
+		assertEquals( "EURUSD|2017/04/21 16:59:58 1.07282 1.07292", quotes.poll( 5, TimeUnit.SECONDS ) );
+		// connections are read in any order
+		second.getOutputStream().write( "EURUSD 2017/04/21 16:59:59 1.07283 1.07293\n".getBytes( ASCII ) );
+		second.getOutputStream().flush();
+		assertEquals( "EURUSD|2017/04/21 16:59:59 1.07283 1.07293", quotes.poll( 5, TimeUnit.SECONDS ) );
+		Thread.sleep( 50 );
+		out.write( "111.532 111.541\n".getBytes( ASCII ) );
+		out.flush();
+		assertEquals( "USDJPY|2017/04/21 16:59:58 111.532 111.541", quotes.poll( 5, TimeUnit.SECONDS ) );
+		assertEquals( 2, source.getConnectionCount() );
+		assertEquals( 2, source.getSkippedCount() );
+		// a line longer than the buffer is skipped, the connection stays usable
+		out.write( "EURUSD 2017/04/21 16:59:58 1.07282 1.07292 1.07282 1.07292 1.07282 1.07292 1.07282 1.07292\n".getBytes( ASCII ) );
+		out.write( "EURUSD 2017/04/21 17:00:00 1.07284 1.07294\n".getBytes( ASCII ) );
+		out.flush();
+		assertEquals( "EURUSD|2017/04/21 17:00:00 1.07284 1.07294", quotes.poll( 5, TimeUnit.SECONDS ) );
+		first.close();
+		second.close();
+		for( int i = 0; i < 100 && source.getConnectionCount() > 0; i++ )
+		{
+			Thread.sleep( 10 );
+		}
+		assertEquals( 0, source.getConnectionCount() );
+		assertEquals( 4, source.getQuoteCount() );
+	}
+
+	public void testUDP() throws Exception
+	{
+		DatagramSocket socket = new DatagramSocket();
+		byte[] data = "USDJPY 2017/04/21 16:59:58 111.532 111.541\nEURUSD 2017/04/21 16:59:58 1.07282 1.07292".getBytes( ASCII );
+		socket.send( new DatagramPacket( data, data.length, InetAddress.getByName( "127.0.0.1" ), source.getUDPPort() ) );
+		socket.close();
+		assertEquals( "USDJPY|2017/04/21 16:59:58 111.532 111.541", quotes.poll( 5, TimeUnit.SECONDS ) );
+		assertEquals( "EURUSD|2017/04/21 16:59:58 1.07282 1.07292", quotes.poll( 5, TimeUnit.SECONDS ) );
+	}
+
+	public void testUnsubscribe() throws Exception
+	{
+		source.unsubscribe( "EURUSD" );
+		Socket socket = new Socket( "127.0.0.1", source.getTCPPort() );
+		socket.getOutputStream().write( "EURUSD 2017/04/21 16:59:58 1.07282 1.07292\nUSDJPY 2017/04/21 16:59:58 111.532 111.541\n".getBytes( ASCII ) );
+		assertEquals( "USDJPY|2017/04/21 16:59:58 111.532 111.541", quotes.poll( 5, TimeUnit.SECONDS ) );
+		assertEquals( 1, source.getSkippedCount() );
+		socket.close();
+	}
+}
@@ -0,0 +1,197 @@
+package smash.metatrader;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import smash.api.DataCallback;
+
+import junit.framework.TestCase;
+
+/**
+ * Test SubscriptionPipeline
+ */
+public class SubscriptionPipelineTest extends TestCase
+{
+	private static final String GRANTED = "{ \"status\": \"SUCCESS\" }";
+	private static final String DENIED = "{ \"status\": \"FAILURE\" }";
+	private final LinkedBlockingQueue<Request> requests = new LinkedBlockingQueue<Request>();
+	private final CopyOnWriteArrayList<String> subscribed = new CopyOnWriteArrayList<String>();
+	private final CopyOnWriteArrayList<String> unsubscribed = new CopyOnWriteArrayList<String>();
+	private final AsyncLogger logger = new AsyncLogger( AsyncLogger.Level.ERROR, 64, System.out );
+	private final SubscriptionPipeline.Requester requester = new SubscriptionPipeline.Requester()
+	{
+		public void request( String aDatasetUUID, DataCallback aCallback )
+		{
+			requests.add( new Request( aDatasetUUID, aCallback ) );
+		}
+	};
+	private final QuoteSource quoteSource = new QuoteSource()
+	{
+		public void start( QuoteListener aListener, AsyncLogger aLogger )
+		{
+		}
+
+		public void subscribe( String aSymbol )
+		{
+			subscribed.add( aSymbol );
+		}
+
+		public void unsubscribe( String aSymbol )
+		{
+			unsubscribed.add( aSymbol );
+		}
+
+		public void stop()
+		{
+		}
+	};
+
+	protected void tearDown() throws Exception
+	{
+		logger.close();
+	}
+
+	/**
+	 * the window bounds the outstanding requests, a grant frees a slot and starts the quotes at once
+	 */
+	public void testWindow() throws Exception
+	{
+		SubscriptionPipeline pipeline = new SubscriptionPipeline( requester, quoteSource, logger, 2, 10000, 10000 );
+		for( int i = 0; i < 5; i++ )
+		{
+			pipeline.add( "dataset" + i, "SYMBOL" + i );
+		}
+		pipeline.add( "bars", null );
+		pipeline.start();
+		Request first = take();
+		Request second = take();
+		assertNull( requests.poll( 100, TimeUnit.MILLISECONDS ) );
+		assertEquals( 2, pipeline.getOutstandingCount() );
+		second.callback.onReceive( GRANTED );
+		Request third = take();
+		assertEquals( "dataset2", third.datasetUUID );
+		assertEquals( "SYMBOL1", subscribed.get( 0 ) );
+		assertEquals( 1, pipeline.getLiveCount() );
+		first.callback.onReceive( GRANTED );
+		third.callback.onReceive( GRANTED );
+		for( int i = 0; i < 3; i++ )
+		{
+			take().callback.onReceive( GRANTED );
+		}
+		for( int i = 0; i < 100 && !pipeline.isReady(); i++ )
+		{
+			Thread.sleep( 10 );
+		}
+		assertTrue( pipeline.isReady() );
+		assertEquals( 6, pipeline.getTotalCount() );
+		assertEquals( 5, subscribed.size() );
+		assertTrue( pipeline.getStartupMillis() >= 0 );
+		assertEquals( 0, pipeline.getOutstandingCount() );
+		pipeline.stop();
+	}
+
+	/**
+	 * a denied request is retried while the others proceed
+	 */
+	public void testRetry() throws Exception
+	{
+		SubscriptionPipeline pipeline = new SubscriptionPipeline( requester, quoteSource, logger, 1, 10000, 50 );
+		pipeline.add( "dataset0", "SYMBOL0" );
+		pipeline.add( "dataset1", "SYMBOL1" );
+		pipeline.start();
+		take().callback.onReceive( DENIED );
+		Request next = take();
+		assertEquals( "dataset1", next.datasetUUID );
+		next.callback.onReceive( GRANTED );
+		Request retried = take();
+		assertEquals( "dataset0", retried.datasetUUID );
+		assertEquals( 1, pipeline.getRetryCount() );
+		assertFalse( pipeline.isReady() );
+		retried.callback.onReceive( GRANTED );
+		for( int i = 0; i < 100 && !pipeline.isReady(); i++ )
+		{
+			Thread.sleep( 10 );
+		}
+		assertTrue( pipeline.isReady() );
+		pipeline.stop();
+	}
+
+	/**
+	 * an unanswered request is retried, its late response is ignored
+	 */
+	public void testTimeout() throws Exception
+	{
+		SubscriptionPipeline pipeline = new SubscriptionPipeline( requester, quoteSource, logger, 1, 200, 10 );
+		pipeline.add( "dataset0", "SYMBOL0" );
+		pipeline.start();
+		Request first = take();
+		Request retried = take();
+		assertEquals( "dataset0", retried.datasetUUID );
+		first.callback.onReceive( GRANTED );
+		Thread.sleep( 20 );
+		assertEquals( 0, pipeline.getLiveCount() );
+		retried.callback.onReceive( GRANTED );
+		for( int i = 0; i < 100 && !pipeline.isReady(); i++ )
+		{
+			Thread.sleep( 10 );
+		}
+		assertTrue( pipeline.isReady() );
+		// login again, the quotes of the symbol are already started
+		pipeline.start();
+		take().callback.onReceive( GRANTED );
+		for( int i = 0; i < 100 && !pipeline.isReady(); i++ )
+		{
+			Thread.sleep( 10 );
+		}
+		assertTrue( pipeline.isReady() );
+		assertEquals( 1, subscribed.size() );
+		pipeline.stop();
+	}
+
+	/**
+	 * removing a dataset stops the quotes of its symbol only when no other dataset has the symbol
+	 */
+	public void testRemove() throws Exception
+	{
+		SubscriptionPipeline pipeline = new SubscriptionPipeline( requester, quoteSource, logger, 1, 10000, 10000 );
+		pipeline.add( "dataset0", "SYMBOL0" );
+		pipeline.add( "dataset1", "SYMBOL1" );
+		pipeline.start();
+		take().callback.onReceive( GRANTED );
+		take().callback.onReceive( GRANTED );
+		// moved to another dataset, the quotes keep flowing
+		pipeline.add( "dataset2", "SYMBOL0" );
+		pipeline.remove( "dataset0" );
+		take().callback.onReceive( GRANTED );
+		pipeline.remove( "dataset1" );
+		for( int i = 0; i < 100 && unsubscribed.isEmpty(); i++ )
+		{
+			Thread.sleep( 10 );
+		}
+		assertEquals( "[SYMBOL1]", unsubscribed.toString() );
+		assertEquals( 1, pipeline.getTotalCount() );
+		assertEquals( 1, pipeline.getLiveCount() );
+		assertEquals( "[SYMBOL0, SYMBOL1]", subscribed.toString() );
+		pipeline.stop();
+	}
+
+	private Request take() throws InterruptedException
+	{
+		Request request = requests.poll( 5, TimeUnit.SECONDS );
+		assertNotNull( request );
+		return request;
+	}
+
+	private static class Request
+	{
+		private final String datasetUUID;
+		private final DataCallback callback;
+
+		private Request( String aDatasetUUID, DataCallback aCallback )
+		{
+			datasetUUID = aDatasetUUID;
+			callback = aCallback;
+		}
+	}
+}
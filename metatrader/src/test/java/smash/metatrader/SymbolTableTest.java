@@ -0,0 +1,112 @@
+package smash.metatrader;
+
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Test SymbolTable
+ */
+public class SymbolTableTest extends TestCase
+{
+	public void testDenseIds()
+	{
+		SymbolTable table = new SymbolTable();
+		for( int i = 0; i < 1000; i++ )
+		{
+			assertEquals( i, table.add( "SYMBOL" + i, new QuoteJSONEncoder( "dataset" + i, "type" ) ) );
+		}
+		assertEquals( 1000, table.size() );
+		for( int i = 0; i < 1000; i++ )
+		{
+			assertEquals( i, table.idOf( "SYMBOL" + i ) );
+			assertEquals( "SYMBOL" + i, table.getSymbol( i ) );
+			assertEquals( "dataset" + i, table.getEncoder( i ).getDatasetUUID() );
+		}
+		assertEquals( -1, table.idOf( "EURUSD" ) );
+	}
+
+	public void testReplaceKeepsId()
+	{
+		SymbolTable table = new SymbolTable();
+		table.add( "EURUSD", new QuoteJSONEncoder( "a", "type" ) );
+		table.add( "USDJPY", new QuoteJSONEncoder( "b", "type" ) );
+		assertEquals( 0, table.add( "EURUSD", new QuoteJSONEncoder( "c", "type" ) ) );
+		assertEquals( 2, table.size() );
+		assertEquals( "c", table.getEncoder( 0 ).getDatasetUUID() );
+	}
+
+	/**
+	 * a removed symbol no longer resolves and gets its id back when added again
+	 */
+	public void testRemove()
+	{
+		SymbolTable table = new SymbolTable();
+		table.add( "EURUSD", new QuoteJSONEncoder( "a", "type" ) );
+		table.add( "USDJPY", new QuoteJSONEncoder( "b", "type" ) );
+		assertEquals( 0, table.remove( "EURUSD" ) );
+		assertEquals( -1, table.remove( "EURUSD" ) );
+		assertEquals( -1, table.idOf( "EURUSD" ) );
+		assertNull( table.getEncoder( 0 ) );
+		assertEquals( 1, table.idOf( "USDJPY" ) );
+		assertEquals( 2, table.add( "GBPUSD", new QuoteJSONEncoder( "c", "type" ) ) );
+		assertEquals( 0, table.add( "EURUSD", new QuoteJSONEncoder( "d", "type" ) ) );
+		assertEquals( 3, table.size() );
+		assertEquals( 0, table.idOf( "EURUSD" ) );
+		assertEquals( "d", table.getEncoder( 0 ).getDatasetUUID() );
+		assertEquals( "c", table.getEncoder( table.idOf( "GBPUSD" ) ).getDatasetUUID() );
+	}
+
+	public void testParseSubscriptionMapping()
+	{
+		Map<String,String> mapping = SmashMetaTraderPublisher.parseSubscriptionMapping( "GBPAUD,a,\nUSDCHF, b" );
+		assertEquals( "{GBPAUD=a, USDCHF=b}", mapping.toString() );
+		try
+		{
+			SmashMetaTraderPublisher.parseSubscriptionMapping( "GBPAUD,a,USDCHF" );
+			fail();
+		}
+		catch( IllegalArgumentException e )
+		{
+		}
+	}
+
+	/**
+	 * a reader resolving symbols while they are added sees complete entries
+	 */
+	public void testConcurrentAdd() throws Exception
+	{
+		final SymbolTable table = new SymbolTable();
+		final Throwable[] failure = new Throwable[1];
+		Thread reader = new Thread()
+		{
+			public void run()
+			{
+				try
+				{
+					while( table.size() < 500 )
+					{
+						int size = table.size();
+						for( int i = 0; i < size; i++ )
+						{
+							int id = table.idOf( "SYMBOL" + i );
+							assertEquals( i, id );
+							assertEquals( "dataset" + i, table.getEncoder( id ).getDatasetUUID() );
+						}
+					}
+				}
+				catch( Throwable t )
+				{
+					failure[0] = t;
+				}
+			}
+		};
+		reader.start();
+		for( int i = 0; i < 500; i++ )
+		{
+			table.add( "SYMBOL" + i, new QuoteJSONEncoder( "dataset" + i, "type" ) );
+		}
+		reader.join();
+		assertNull( String.valueOf( failure[0] ), failure[0] );
+	}
+}
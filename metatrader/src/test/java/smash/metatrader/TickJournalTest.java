@@ -0,0 +1,164 @@
+package smash.metatrader;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for TickJournal
+ */
+public class TickJournalTest
+    extends TestCase
+{
+	private File directory;
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName name of the test case
+	 */
+	public TickJournalTest( String testName )
+	{
+		super( testName );
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite()
+	{
+		return new TestSuite( TickJournalTest.class );
+	}
+
+	protected void setUp() throws Exception
+	{
+		directory = File.createTempFile( "TickJournalTest", "" );
+		directory.delete();
+	}
+
+	protected void tearDown() throws Exception
+	{
+		delete( directory );
+	}
+
+	private static void delete( File aFile )
+	{
+		File[] files = aFile.listFiles();
+		for( int i = 0; files != null && i < files.length; i++ )
+		{
+			delete( files[i] );
+		}
+		aFile.delete();
+	}
+
+	/**
+	 * ticks after the watermark are replayed in order, also after reopening the journal
+	 */
+	public void testReplayAfterReopen() throws Exception
+	{
+		TickJournal journal = new TickJournal( directory, 4096 );
+		for( int i = 1; i <= 200; i++ )
+		{
+			assertEquals( i, journal.append( 1000 + i, "EURUSD", "2017/02/15 10:00:00 1.0" + i + " 1.1" ) );
+		}
+		journal.checkpoint( 150 );
+		journal.checkpoint( 100 );
+		assertEquals( 150, journal.getWatermark() );
+		journal.close();
+
+		journal = new TickJournal( directory, 4096 );
+		assertEquals( 150, journal.getWatermark() );
+		assertEquals( 200, journal.getLastSequence() );
+		Collector collector = new Collector();
+		assertEquals( 200, journal.replay( journal.getWatermark(), collector ) );
+		assertEquals( 50, collector.ticks.size() );
+		assertEquals( "151 1151 EURUSD 2017/02/15 10:00:00 1.0151 1.1", collector.ticks.get( 0 ) );
+		assertEquals( "200 1200 EURUSD 2017/02/15 10:00:00 1.0200 1.1", collector.ticks.get( 49 ) );
+		assertEquals( 201, journal.append( 0, "GBPUSD", "data" ) );
+		assertEquals( 201, journal.replay( 200, new Collector() ) );
+	}
+
+	/**
+	 * segments below the watermark are deleted when a new segment is started
+	 */
+	public void testSegmentsDeleted() throws Exception
+	{
+		TickJournal journal = new TickJournal( directory, 1024 );
+		for( int i = 1; i <= 100; i++ )
+		{
+			journal.append( i, "EURUSD", "2017/02/15 10:00:00 1.05 1.06" );
+		}
+		int segments = directory.list().length - 1;
+		assertTrue( segments > 2 );
+		journal.checkpoint( 100 );
+		journal.append( 101, "EURUSD", "2017/02/15 10:00:00 1.05 1.06" );
+		while( directory.list().length - 1 == segments )
+		{
+			journal.append( 102, "EURUSD", "2017/02/15 10:00:00 1.05 1.06" );
+		}
+		assertEquals( 2, directory.list().length - 1 );
+		Collector collector = new Collector();
+		journal.replay( 100, collector );
+		assertTrue( collector.ticks.get( 0 ).startsWith( "101 101 " ) );
+	}
+
+	/**
+	 * a tick that cannot be journaled is dropped and counted, the ticks after it are published
+	 */
+	public void testAppendFailure() throws Exception
+	{
+		// too long to fit a segment
+		StringBuilder longSymbol = new StringBuilder();
+		while( longSymbol.length() < 1024 )
+		{
+			longSymbol.append( "EURUSD" );
+		}
+		SimulatedPublishSink sink = new SimulatedPublishSink( 1 );
+		SmashMetaTraderPublisher publisher = new SmashMetaTraderPublisher( "localhost", "default", "user", "password", "bdd2b349-574d-45a0-5dd2-af116e0c0dbf" );
+		publisher.setLogging( AsyncLogger.Level.ERROR, 1024, 1, 1 );
+		publisher.setPublishSink( sink );
+		publisher.setJournal( directory.getPath(), 1024, 10 );
+		ManualQuoteSource source = new ManualQuoteSource();
+		publisher.setQuoteSource( source );
+		publisher.addToSubscription( "EURUSD", "2a3e3f11-1bc1-11e7-9297-0a900cdd7aeb" );
+		publisher.addToSubscription( longSymbol.toString(), "2a3e3f11-1bc1-11e7-9297-0a900cdd7aec" );
+		publisher.initialize();
+		try
+		{
+			for( int i = 0; i < 500 && publisher.getMetrics().getLiveSubscriptionCount() < 2; i++ )
+			{
+				Thread.sleep( 10 );
+			}
+			source.quote( longSymbol.toString(), "2017/02/15 10:00:00 1.05 1.06" );
+			source.quote( "EURUSD", "2017/02/15 10:00:01 1.05 1.06" );
+			for( int i = 0; i < 500 && sink.getPublishedCount() < 1; i++ )
+			{
+				Thread.sleep( 10 );
+			}
+			assertEquals( 1, publisher.getMetrics().getJournalErrorCount() );
+			Thread.sleep( 50 );
+			assertEquals( 1, sink.getPublishedCount() );
+			assertEquals( 0, publisher.getMetrics().getPublishErrorCount() );
+		}
+		finally
+		{
+			publisher.dispose();
+		}
+	}
+
+	/**
+	 * collect replayed ticks
+	 */
+	private static class Collector implements TickJournal.Listener
+	{
+		private final ArrayList<String> ticks = new ArrayList<String>();
+
+		public void onTick( long aSequence, long aReceivedTime, String anItem, String aData )
+		{
+			ticks.add( aSequence + " " + aReceivedTime + " " + anItem + " " + aData );
+		}
+	}
+}